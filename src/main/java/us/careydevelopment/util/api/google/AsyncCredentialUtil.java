@@ -0,0 +1,93 @@
+package us.careydevelopment.util.api.google;
+
+import com.google.api.client.auth.oauth2.Credential;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.exception.GoogleApiException;
+import us.careydevelopment.util.api.google.model.GoogleAuthResponse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * The non-blocking counterpart of CredentialUtil.
+ *
+ * Every method returns right away with a CompletableFuture. The work runs on the executor
+ * configured in GoogleApiConfig, which uses virtual threads on Java 21 or later.
+ *
+ * If something goes wrong, the future completes exceptionally with a GoogleApiException.
+ * Callbacks like exceptionally() and handle() get the GoogleApiException itself. As with
+ * any CompletableFuture, join() wraps it in a CompletionException and get() wraps it in
+ * an ExecutionException.
+ */
+public class AsyncCredentialUtil {
+
+    /**
+     * Gets the Credential associated with the ID.
+     *
+     * @param id
+     * @return future that completes with the Credential object
+     */
+    public static CompletableFuture<Credential> getCredential(String id) {
+        return getCredential(GoogleApiConfig.getInstance(), id);
+    }
+
+    /**
+     * Gets the Credential associated with the ID from the given config.
+     *
+     * @param config
+     * @param id
+     * @return future that completes with the Credential object
+     */
+    public static CompletableFuture<Credential> getCredential(GoogleApiConfig config, String id) {
+        return supply(() -> CredentialUtil.getCredential(config, id), config.getAsyncExecutor());
+    }
+
+    /**
+     * Exchanges the authorization code for a Credential without blocking the caller.
+     *
+     * This is the second step in an OAuth2 flow.
+     *
+     * @param auth
+     * @param id
+     * @return future that completes with the Credential object
+     */
+    public static CompletableFuture<Credential> getCredentialFromCode(GoogleAuthResponse auth, String id) {
+        return getCredentialFromCode(GoogleApiConfig.getInstance(), auth, id);
+    }
+
+    /**
+     * Exchanges the authorization code for a Credential using the given config.
+     *
+     * @param config
+     * @param auth
+     * @param id
+     * @return future that completes with the Credential object
+     */
+    public static CompletableFuture<Credential> getCredentialFromCode(GoogleApiConfig config, GoogleAuthResponse auth, String id) {
+        return supply(() -> CredentialUtil.getCredentialFromCode(config, auth, id), config.getAsyncExecutor());
+    }
+
+    /**
+     * Unlike CompletableFuture.supplyAsync(), this completes the future with the exception
+     * that was thrown instead of a CompletionException wrapping it.
+     */
+    private static <T> CompletableFuture<T> supply(Supplier<T> supplier, Executor executor) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(supplier.get());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException re) {
+            future.completeExceptionally(new GoogleApiException("Async executor rejected the task!", re));
+        }
+
+        return future;
+    }
+}
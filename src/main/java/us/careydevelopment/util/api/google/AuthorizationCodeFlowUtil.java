@@ -4,11 +4,18 @@ import com.google.api.client.auth.oauth2.CredentialRefreshListener;
 import com.google.api.client.auth.oauth2.DataStoreCredentialRefreshListener;
 import com.google.api.client.auth.oauth2.StoredCredential;
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
-import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.client.util.store.DataStore;
-import us.careydevelopment.api.google.datastore.GoogleDataStoreFactory;
+import us.careydevelopment.util.api.google.cache.FlowCacheKey;
+import us.careydevelopment.util.api.google.cluster.CredentialEventRelay;
+import us.careydevelopment.util.api.google.cluster.PublishingRefreshListener;
 import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.flow.CoordinatedAuthorizationCodeFlow;
+import us.careydevelopment.util.api.google.metrics.MetricsRecorder;
+import us.careydevelopment.util.api.google.metrics.OAuthOperation;
+import us.careydevelopment.util.api.google.refresh.SingleFlightRefreshListener;
+import us.careydevelopment.util.api.google.scope.GrantedScopes;
+import us.careydevelopment.util.api.google.scope.ScopeRecordingRefreshListener;
+import us.careydevelopment.util.api.google.scope.ScopeSet;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
@@ -21,37 +28,64 @@ import java.util.List;
  *
  * Calling clients only need a user ID to get the ball rolling. But they can also
  * provide a List of scopes if they want to specify scopes on the fly.
+ *
+ * Every flow shares the HttpTransport and JsonFactory held by GoogleApiConfig.
+ *
+ * Flows are cached per user ID and set of scopes, so repeat calls for the same user
+ * don't rebuild the flow, its refresh listeners or its data store lookup. The order of the
+ * scopes doesn't matter. If the user is known to have granted every scope asked for, the
+ * flow for their whole grant is used, so asking for a subset doesn't build another flow.
+ *
+ * The flows hand out credentials whose refreshes are coordinated per user, so only one
+ * refresh per user hits the token endpoint at a time. Calls to the token endpoint follow
+ * the TokenCallPolicy set in GoogleApiConfig.
  */
 public class AuthorizationCodeFlowUtil {
 
+    /**
+     * Every flow asks for offline access so it gets a refresh token.
+     */
+    public static final String ACCESS_TYPE = "offline";
+
     /**
      * Gets the StoredCredentialDataStore object.
      *
      * As the name implies, the framework uses that object to retrieve and save the
-     * StoredCredential object.
+     * StoredCredential object. It's owned by GoogleApiConfig and might sit behind a cache.
      *
      * @return the data store object
-     * @throws IOException
      */
-    private static DataStore<StoredCredential> getStoredCredentialDataStore() throws IOException {
-        final GoogleDataStoreFactory factory = GoogleDataStoreFactory.getInstance();
-        final DataStore<StoredCredential> dataStore = factory.getDataStore(GoogleDataStoreFactory.CREDENTIAL_STORE_ID);
-        return dataStore;
+    private static DataStore<StoredCredential> getStoredCredentialDataStore(final GoogleApiConfig config) {
+        return config.getCredentialDataStore();
     }
 
     /**
      * Gets the listeners that determine if the token needs a refresh.
      *
+     * The data store listener is wrapped so it doesn't save the same refresh again
+     * when several credentials for the user share one refresh. Another listener records
+     * the scopes each refresh reports as granted. If the config is part of a cluster, the
+     * last listener tells the other nodes about the refresh once it's been saved.
+     *
      * @param userId
      * @param dataStore
+     * @param grantedScopes
+     * @param relay null if the config isn't part of a cluster
      * @return list of CredentialRefreshListener objects
      * @throws IOException
      */
     private static List<CredentialRefreshListener> getListeners(final String userId,
-                                                                final DataStore<StoredCredential> dataStore) throws IOException {
+                                                                final DataStore<StoredCredential> dataStore,
+                                                                final GrantedScopes grantedScopes,
+                                                                final CredentialEventRelay relay) throws IOException {
         final DataStoreCredentialRefreshListener listener = new DataStoreCredentialRefreshListener(userId, dataStore);
         final List<CredentialRefreshListener> listeners = new ArrayList<>();
-        listeners.add(listener);
+        listeners.add(new SingleFlightRefreshListener(listener));
+        listeners.add(new ScopeRecordingRefreshListener(userId, grantedScopes));
+
+        if (relay != null) {
+            listeners.add(new SingleFlightRefreshListener(new PublishingRefreshListener(userId, relay)));
+        }
 
         return listeners;
     }
@@ -68,16 +102,28 @@ public class AuthorizationCodeFlowUtil {
      * @throws GeneralSecurityException
      */
     public static GoogleAuthorizationCodeFlow getAuthorizationCodeFlow(final String userId) throws IOException, GeneralSecurityException {
-        final GoogleApiConfig config = GoogleApiConfig.getInstance();
-        final List<String> scopes = config.getScopes();
+        return getAuthorizationCodeFlow(GoogleApiConfig.getInstance(), userId);
+    }
 
-        return getAuthorizationCodeFlow(userId, scopes);
+    /**
+     * Gets the GoogleAuthorizationCodeFlow object for the user from the given config.
+     *
+     * @param config
+     * @param userId
+     * @return GoogleAuthorizationCodeFlow instance
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public static GoogleAuthorizationCodeFlow getAuthorizationCodeFlow(final GoogleApiConfig config, final String userId) throws IOException, GeneralSecurityException {
+        return getAuthorizationCodeFlow(config, userId, config.getScopeSet());
     }
 
     /**
-     * This method takes both a user ID and a List of scopes and builds the
+     * This method takes both a user ID and a List of scopes and returns the
      * GoogleAuthorizationCodeFlow object accordingly.
      *
+     * The flow comes from the cache if one already exists for the user and scopes.
+     *
      * @param userId
      * @param scopes
      * @return GoogleAuthorizationCodeFlow object
@@ -85,21 +131,130 @@ public class AuthorizationCodeFlowUtil {
      * @throws GeneralSecurityException
      */
     public static GoogleAuthorizationCodeFlow getAuthorizationCodeFlow(final String userId, final List<String> scopes) throws IOException, GeneralSecurityException {
-        final DataStore<StoredCredential> dataStore = getStoredCredentialDataStore();
-        final List<CredentialRefreshListener> listeners = getListeners(userId, dataStore);
-        final GoogleApiConfig config = GoogleApiConfig.getInstance();
+        return getAuthorizationCodeFlow(GoogleApiConfig.getInstance(), userId, scopes);
+    }
+
+    /**
+     * Gets the GoogleAuthorizationCodeFlow object for the user and scopes from the given config.
+     *
+     * Every config caches its own flows, so a user's flow for one OAuth client is never
+     * handed out for another.
+     *
+     * @param config
+     * @param userId
+     * @param scopes
+     * @return GoogleAuthorizationCodeFlow object
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public static GoogleAuthorizationCodeFlow getAuthorizationCodeFlow(final GoogleApiConfig config, final String userId,
+                                                                       final List<String> scopes) throws IOException, GeneralSecurityException {
+        return getAuthorizationCodeFlow(config, userId, ScopeSet.of(scopes));
+    }
+
+    /**
+     * Gets the GoogleAuthorizationCodeFlow object for the user and normalized scopes from the given config.
+     *
+     * @param config
+     * @param userId
+     * @param scopes
+     * @return GoogleAuthorizationCodeFlow object
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public static GoogleAuthorizationCodeFlow getAuthorizationCodeFlow(final GoogleApiConfig config, final String userId,
+                                                                       final ScopeSet scopes) throws IOException, GeneralSecurityException {
+        final ScopeSet flowScopes = resolveScopes(config, userId, scopes);
+        final FlowCacheKey key = new FlowCacheKey(userId, flowScopes);
+
+        return config.getFlowCache().get(key,
+                k -> buildAuthorizationCodeFlow(config, userId, new ArrayList<>(flowScopes.asList())));
+    }
+
+    /**
+     * Uses the user's whole grant when it covers the scopes asked for. That way every subset
+     * of the grant shares one flow.
+     */
+    private static ScopeSet resolveScopes(final GoogleApiConfig config, final String userId, final ScopeSet scopes) {
+        final ScopeSet granted = config.getGrantedScopes().get(userId);
+
+        return (granted != null && granted.containsAll(scopes)) ? granted : scopes;
+    }
+
+    /**
+     * Builds a flow for the user with the config's default scopes without caching it.
+     *
+     * It's for one-off work over many users, such as an audit, that shouldn't push
+     * the flows of active users out of the cache.
+     *
+     * @param config
+     * @param userId
+     * @return GoogleAuthorizationCodeFlow object
+     * @throws IOException
+     */
+    public static GoogleAuthorizationCodeFlow newUncachedAuthorizationCodeFlow(final GoogleApiConfig config,
+                                                                               final String userId) throws IOException {
+        return newUncachedAuthorizationCodeFlow(config, userId, config.getGrantedScopes());
+    }
+
+    /**
+     * Builds an uncached flow whose refreshes record the granted scopes in the given
+     * GrantedScopes instead of the config's. That lets a caller look at what a refresh
+     * reported without changing what the config knows about the user.
+     *
+     * @param config
+     * @param userId
+     * @param grantedScopes
+     * @return GoogleAuthorizationCodeFlow object
+     * @throws IOException
+     */
+    public static GoogleAuthorizationCodeFlow newUncachedAuthorizationCodeFlow(final GoogleApiConfig config,
+                                                                               final String userId,
+                                                                               final GrantedScopes grantedScopes) throws IOException {
+        return buildAuthorizationCodeFlow(config, userId, new ArrayList<>(config.getScopeSet().asList()), grantedScopes);
+    }
+
+    private static GoogleAuthorizationCodeFlow buildAuthorizationCodeFlow(final GoogleApiConfig config, final String userId,
+                                                                          final List<String> scopes) throws IOException {
+        return buildAuthorizationCodeFlow(config, userId, scopes, config.getGrantedScopes());
+    }
+
+    private static GoogleAuthorizationCodeFlow buildAuthorizationCodeFlow(final GoogleApiConfig config, final String userId,
+                                                                          final List<String> scopes,
+                                                                          final GrantedScopes grantedScopes) throws IOException {
+        final MetricsRecorder.Sample sample = config.getMetricsRecorder().start(OAuthOperation.BUILD_FLOW);
+        boolean success = false;
+
+        try {
+            final GoogleAuthorizationCodeFlow flow = newAuthorizationCodeFlow(config, userId, scopes, grantedScopes);
+            success = true;
+            return flow;
+        } finally {
+            sample.stop(success);
+        }
+    }
+
+    private static GoogleAuthorizationCodeFlow newAuthorizationCodeFlow(final GoogleApiConfig config, final String userId,
+                                                                        final List<String> scopes,
+                                                                        final GrantedScopes grantedScopes) throws IOException {
+        final DataStore<StoredCredential> dataStore = getStoredCredentialDataStore(config);
+        final List<CredentialRefreshListener> listeners = getListeners(userId, dataStore, grantedScopes,
+                config.getCredentialEventRelay());
         final String clientId = config.getClientId();
         final String clientSecret = config.getClientSecret();
 
-        final GoogleAuthorizationCodeFlow authorizationCodeFlow = new GoogleAuthorizationCodeFlow.Builder(
-                GoogleNetHttpTransport.newTrustedTransport(),
-                new GsonFactory(),
+        final GoogleAuthorizationCodeFlow authorizationCodeFlow = new CoordinatedAuthorizationCodeFlow.Builder(
+                config.getTransport(),
+                config.getJsonFactory(),
                 clientId,
                 clientSecret,
-                scopes)
+                scopes,
+                config.getRefreshCoordinator())
+                .setPeerTokenSource(config.getCredentialEventRelay())
                 .setCredentialDataStore(dataStore)
-                .setAccessType("offline")
+                .setAccessType(ACCESS_TYPE)
                 .setRefreshListeners(listeners)
+                .setRequestInitializer(config.getTokenRequestInitializer())
                 .build();
 
         return authorizationCodeFlow;
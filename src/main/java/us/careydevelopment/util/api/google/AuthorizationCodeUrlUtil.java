@@ -1,14 +1,29 @@
 package us.careydevelopment.util.api.google;
 
-import com.google.api.client.auth.oauth2.AuthorizationCodeRequestUrl;
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.auth.oauth2.TokenResponseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
 import us.careydevelopment.util.api.google.exception.GoogleApiException;
+import us.careydevelopment.util.api.google.scope.ScopeSet;
+import us.careydevelopment.util.api.google.url.AuthorizationUrlTemplate;
+import us.careydevelopment.util.api.google.url.UrlTemplateKey;
+
+import java.io.IOException;
+import java.util.List;
 
 /**
  * This utility class makes it easy to get the authorization code flow URL.
  *
  * This is the first step in an OAuth2 transaction.
+ *
+ * The URL doesn't depend on the user, so no flow is built. The static part of the URL is
+ * cached per redirect URL and set of scopes, and each call only appends the encoded state.
+ *
+ * URLs ask for incremental authorization unless it's turned off in GoogleApiConfig. Use
+ * needsAuthorization() first to skip the consent redirect when the user has already
+ * granted every scope.
  */
 public class AuthorizationCodeUrlUtil {
 
@@ -35,22 +50,110 @@ public class AuthorizationCodeUrlUtil {
      * @return authorization code URL
      */
     public static String getAuthorizationCodeUrl(String id, String redirectUrl, String state) {
+        return getAuthorizationCodeUrl(GoogleApiConfig.getInstance(), id, redirectUrl, state);
+    }
+
+    /**
+     * Gets the authorization code URL with the given state for the given config's OAuth client.
+     *
+     * @param config
+     * @param id
+     * @param redirectUrl
+     * @param state
+     * @return authorization code URL
+     */
+    public static String getAuthorizationCodeUrl(GoogleApiConfig config, String id, String redirectUrl, String state) {
+        return getAuthorizationCodeUrl(config, id, redirectUrl, state, config.getScopeSet());
+    }
+
+    /**
+     * Gets the authorization code URL for the given scopes instead of the default ones.
+     *
+     * With incremental authorization, the scopes only need to include what's new. Google
+     * adds the scopes the user granted before to the token.
+     *
+     * @param config
+     * @param id
+     * @param redirectUrl
+     * @param state
+     * @param scopes
+     * @return authorization code URL
+     */
+    public static String getAuthorizationCodeUrl(GoogleApiConfig config, String id, String redirectUrl, String state,
+                                                 List<String> scopes) {
+        return getAuthorizationCodeUrl(config, id, redirectUrl, state, ScopeSet.of(scopes));
+    }
+
+    private static String getAuthorizationCodeUrl(GoogleApiConfig config, String id, String redirectUrl, String state,
+                                                  ScopeSet scopes) {
         String url = null;
 
         try {
-            url = AuthorizationCodeFlowUtil
-                    .getAuthorizationCodeFlow(id)
-                    .newAuthorizationUrl()
-                    .setRedirectUri(redirectUrl)
-                    .setState(state)
-                    .build();
-
-            LOG.debug("Authorization code URL is " + url);
+            url = config
+                    .getUrlTemplateCache()
+                    .get(new UrlTemplateKey(redirectUrl, scopes), key -> AuthorizationUrlTemplate.of(config.getClientId(),
+                            redirectUrl, scopes.asList(), AuthorizationCodeFlowUtil.ACCESS_TYPE, config.isIncludeGrantedScopes()))
+                    .withState(state);
+
+            LOG.debug("Authorization code URL is {}", url);
         } catch (Exception e) {
             LOG.error("Problem getting authorization code!", e);
-            throw new GoogleApiException(e.getMessage());
+            throw new GoogleApiException(e.getMessage(), e);
         }
 
         return url;
     }
+
+    /**
+     * Tells whether the user has to go through consent to use the scopes.
+     *
+     * @param id
+     * @param scopes
+     * @return true if the user hasn't granted all the scopes
+     */
+    public static boolean needsAuthorization(String id, List<String> scopes) {
+        return needsAuthorization(GoogleApiConfig.getInstance(), id, scopes);
+    }
+
+    /**
+     * Tells whether the user has to go through consent to use the scopes with the given config.
+     *
+     * If the user's grant isn't known yet, which is normal after a restart, their token gets
+     * refreshed once to learn it. Users without a stored credential always need authorization.
+     *
+     * @param config
+     * @param id
+     * @param scopes
+     * @return true if the user hasn't granted all the scopes
+     */
+    public static boolean needsAuthorization(GoogleApiConfig config, String id, List<String> scopes) {
+        final ScopeSet requested = ScopeSet.of(scopes);
+
+        if (config.getGrantedScopes().get(id) == null) {
+            learnGrant(config, id);
+        }
+
+        return !config.getGrantedScopes().covers(id, requested);
+    }
+
+    /**
+     * A refresh that Google turns down means the grant is gone, so the user needs
+     * authorization anyway.
+     */
+    private static void learnGrant(GoogleApiConfig config, String id) {
+        final Credential credential = CredentialUtil.getCredential(config, id);
+
+        if (credential == null || credential.getRefreshToken() == null) {
+            return;
+        }
+
+        try {
+            credential.refreshToken();
+        } catch (TokenResponseException te) {
+            LOG.warn("Token for user {} couldn't be refreshed - assuming nothing is granted", id);
+        } catch (IOException ie) {
+            LOG.error("Problem learning granted scopes!", ie);
+            throw new GoogleApiException(ie.getMessage(), ie);
+        }
+    }
 }
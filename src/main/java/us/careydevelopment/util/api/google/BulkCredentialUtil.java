@@ -0,0 +1,272 @@
+package us.careydevelopment.util.api.google;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.auth.oauth2.StoredCredential;
+import com.google.api.client.util.store.DataStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import us.careydevelopment.api.google.datastore.util.StoredCredentialRetriever;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.datastore.BatchStoredCredentialRetriever;
+import us.careydevelopment.util.api.google.datastore.CachingCredentialDataStore;
+import us.careydevelopment.util.api.google.exception.GoogleApiException;
+import us.careydevelopment.util.api.google.flow.CoordinatedAuthorizationCodeFlow;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * This utility class loads credentials for many users at once. It's meant for batch jobs.
+ *
+ * IDs are processed in chunks. If the configured retriever is a BatchStoredCredentialRetriever,
+ * each chunk is fetched with a single retrieveAll() call. Otherwise, each ID goes through the
+ * usual data store lookup.
+ *
+ * Credentials whose access tokens have expired get refreshed in parallel on the async executor.
+ * The number of refreshes running at once is capped by the bulk refresh concurrency set in
+ * GoogleApiConfig.
+ *
+ * A batch job touches each user once, so these credentials don't go through the flow cache
+ * and aren't handed to the background refresher. That keeps a sweep over every user from
+ * pushing active users' flows out of the cache or filling the refresher with users nobody
+ * is calling. Use CredentialUtil for users that will make repeat calls.
+ */
+public class BulkCredentialUtil {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkCredentialUtil.class);
+
+    private static final long EXPIRY_SKEW_SECONDS = 60;
+
+    /**
+     * Gets the credentials for all the IDs.
+     *
+     * IDs without a stored credential are left out. The Map keeps the order of the IDs.
+     *
+     * @param ids
+     * @return Map of ID to Credential
+     */
+    public static Map<String, Credential> getCredentials(Collection<String> ids) {
+        return getCredentials(GoogleApiConfig.getInstance(), ids);
+    }
+
+    /**
+     * Gets the credentials for all the IDs from the given config.
+     *
+     * @param config
+     * @param ids
+     * @return Map of ID to Credential
+     */
+    public static Map<String, Credential> getCredentials(GoogleApiConfig config, Collection<String> ids) {
+        final Map<String, Credential> credentials = new LinkedHashMap<>();
+        streamCredentials(config, ids).forEach(entry -> credentials.put(entry.getKey(), entry.getValue()));
+
+        return credentials;
+    }
+
+    /**
+     * Lazily streams the credentials for all the IDs, one chunk at a time.
+     *
+     * Only the current chunk is held in memory, so this is the better choice for very
+     * large sets of IDs.
+     *
+     * @param ids
+     * @return Stream of ID and Credential pairs
+     */
+    public static Stream<Map.Entry<String, Credential>> streamCredentials(Collection<String> ids) {
+        return streamCredentials(GoogleApiConfig.getInstance(), ids);
+    }
+
+    /**
+     * Lazily streams the credentials for all the IDs from the given config.
+     *
+     * @param config
+     * @param ids
+     * @return Stream of ID and Credential pairs
+     */
+    public static Stream<Map.Entry<String, Credential>> streamCredentials(GoogleApiConfig config, Collection<String> ids) {
+        final Iterator<List<String>> chunks = new ChunkIterator(ids.iterator(), config.getBulkChunkSize());
+
+        return StreamSupport
+                .stream(Spliterators.spliteratorUnknownSize(chunks, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .flatMap(chunk -> loadChunk(config, chunk).entrySet().stream());
+    }
+
+    private static Map<String, Credential> loadChunk(GoogleApiConfig config, List<String> ids) {
+        final Map<String, StoredCredential> stored = retrieve(config, ids);
+        final Map<String, Credential> credentials = new LinkedHashMap<>();
+
+        try {
+            for (String id : ids) {
+                final StoredCredential storedCredential = stored.get(id);
+
+                if (storedCredential != null) {
+                    final CoordinatedAuthorizationCodeFlow flow =
+                            (CoordinatedAuthorizationCodeFlow) AuthorizationCodeFlowUtil.newUncachedAuthorizationCodeFlow(config, id);
+                    credentials.put(id, flow.toCredential(id, storedCredential));
+                }
+            }
+        } catch (Exception e) {
+            LOG.error("Problem building credentials!", e);
+            throw new GoogleApiException(e.getMessage(), e);
+        }
+
+        refreshExpired(config, credentials);
+
+        return credentials;
+    }
+
+    private static Map<String, StoredCredential> retrieve(GoogleApiConfig config, List<String> ids) {
+        final DataStore<StoredCredential> dataStore = config.getCredentialDataStore();
+        final StoredCredentialRetriever retriever = config.getEffectiveRetriever();
+
+        try {
+            if (!(retriever instanceof BatchStoredCredentialRetriever)) {
+                final Map<String, StoredCredential> stored = new HashMap<>();
+                for (String id : ids) {
+                    final StoredCredential storedCredential = dataStore.get(id);
+                    if (storedCredential != null) {
+                        stored.put(id, storedCredential);
+                    }
+                }
+
+                return stored;
+            }
+
+            return retrieveBatch(dataStore, (BatchStoredCredentialRetriever) retriever, ids);
+        } catch (Exception e) {
+            LOG.error("Problem retrieving stored credentials!", e);
+            throw new GoogleApiException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Serves what it can from the credential cache, then fetches the rest with one batch query.
+     */
+    private static Map<String, StoredCredential> retrieveBatch(DataStore<StoredCredential> dataStore,
+                                                               BatchStoredCredentialRetriever retriever,
+                                                               List<String> ids) throws Exception {
+        final CachingCredentialDataStore cachingStore =
+                (dataStore instanceof CachingCredentialDataStore) ? (CachingCredentialDataStore) dataStore : null;
+        final Map<String, StoredCredential> stored = new HashMap<>();
+        final Map<String, Long> stamps = new HashMap<>();
+        final List<String> missing = new ArrayList<>();
+
+        for (String id : ids) {
+            final StoredCredential cached = (cachingStore != null) ? cachingStore.getIfCached(id) : null;
+
+            if (cached != null) {
+                stored.put(id, cached);
+            } else {
+                missing.add(id);
+
+                if (cachingStore != null) {
+                    stamps.put(id, cachingStore.stamp(id));
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            final Map<String, StoredCredential> fetched = retriever.retrieveAll(missing);
+
+            if (fetched != null) {
+                fetched.forEach((id, storedCredential) -> {
+                    if (storedCredential != null) {
+                        stored.put(id, storedCredential);
+
+                        final Long stamp = stamps.get(id);
+                        if (cachingStore != null && stamp != null) {
+                            cachingStore.cacheIfValid(id, storedCredential, stamp);
+                        }
+                    }
+                });
+            }
+        }
+
+        return stored;
+    }
+
+    /**
+     * Refreshes expired tokens in parallel. A failed refresh is logged and the credential is
+     * still returned, so the caller's next API call will try again.
+     */
+    private static void refreshExpired(GoogleApiConfig config, Map<String, Credential> credentials) {
+        final Semaphore permits = new Semaphore(config.getBulkRefreshConcurrency());
+        final List<CompletableFuture<Void>> refreshes = new ArrayList<>();
+
+        try {
+            for (Map.Entry<String, Credential> entry : credentials.entrySet()) {
+                final Credential credential = entry.getValue();
+
+                if (needsRefresh(credential)) {
+                    permits.acquire();
+
+                    refreshes.add(CompletableFuture.runAsync(() -> {
+                        try {
+                            credential.refreshToken();
+                        } catch (Exception e) {
+                            LOG.warn("Problem refreshing token for user {}", entry.getKey(), e);
+                        } finally {
+                            permits.release();
+                        }
+                    }, config.getAsyncExecutor()));
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new GoogleApiException("Interrupted while refreshing tokens!", ie);
+        }
+
+        CompletableFuture.allOf(refreshes.toArray(new CompletableFuture[0])).join();
+    }
+
+    private static boolean needsRefresh(Credential credential) {
+        final Long expiresIn = credential.getExpiresInSeconds();
+
+        return credential.getRefreshToken() != null
+                && (credential.getAccessToken() == null || (expiresIn != null && expiresIn <= EXPIRY_SKEW_SECONDS));
+    }
+
+    /**
+     * Splits the IDs into chunks without copying the whole collection.
+     */
+    private static class ChunkIterator implements Iterator<List<String>> {
+        private final Iterator<String> ids;
+        private final int chunkSize;
+
+        private ChunkIterator(Iterator<String> ids, int chunkSize) {
+            this.ids = ids;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return ids.hasNext();
+        }
+
+        @Override
+        public List<String> next() {
+            if (!ids.hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final List<String> chunk = new ArrayList<>(chunkSize);
+            while (ids.hasNext() && chunk.size() < chunkSize) {
+                chunk.add(ids.next());
+            }
+
+            return chunk;
+        }
+    }
+}
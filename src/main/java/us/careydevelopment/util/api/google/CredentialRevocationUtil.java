@@ -0,0 +1,154 @@
+package us.careydevelopment.util.api.google;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.UrlEncodedContent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import us.careydevelopment.api.google.datastore.util.StoredCredentialPersister;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.datastore.DeletableStoredCredentialPersister;
+import us.careydevelopment.util.api.google.datastore.WriteBehindCredentialPersister;
+import us.careydevelopment.util.api.google.exception.GoogleApiException;
+import us.careydevelopment.util.api.google.metrics.MetricsRecorder;
+import us.careydevelopment.util.api.google.metrics.OAuthOperation;
+
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * This utility class revokes and deletes credentials.
+ *
+ * Revoking a credential tells Google to invalidate the user's tokens, then deletes the
+ * credential. Deleting a credential removes it from the credential store and drops
+ * everything cached for the user in this JVM.
+ *
+ * The stored credential is only removed if the persister set in GoogleApiConfig is a
+ * DeletableStoredCredentialPersister. Otherwise, a warning is logged and deleteCredential()
+ * returns false. The in-memory caches are always cleared.
+ */
+public class CredentialRevocationUtil {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CredentialRevocationUtil.class);
+
+    public static final String REVOKE_URL = "https://oauth2.googleapis.com/revoke";
+
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_BAD_REQUEST = 400;
+
+    /**
+     * Revokes the user's tokens with Google, then deletes their credential.
+     *
+     * @param id
+     * @return true if Google revoked a token; false if there was nothing left to revoke
+     */
+    public static boolean revokeCredential(String id) {
+        return revokeCredential(GoogleApiConfig.getInstance(), id);
+    }
+
+    /**
+     * Revokes the user's tokens with Google using the given config, then deletes their credential.
+     *
+     * The refresh token is revoked if there is one, which also revokes its access tokens.
+     * If Google can't be reached, nothing gets deleted, so the call can be tried again.
+     * A warning is logged if the persister can't delete the stored credential.
+     *
+     * @param config
+     * @param id
+     * @return true if Google revoked a token; false if there was nothing left to revoke
+     */
+    public static boolean revokeCredential(GoogleApiConfig config, String id) {
+        final MetricsRecorder.Sample sample = config.getMetricsRecorder().start(OAuthOperation.REVOKE);
+        boolean success = false;
+
+        try {
+            final StoredCredential stored = config.getCredentialDataStore().get(id);
+            final String token = (stored == null) ? null
+                    : (stored.getRefreshToken() != null) ? stored.getRefreshToken() : stored.getAccessToken();
+            final boolean revoked = (token != null) && revokeToken(config, token);
+
+            deleteCredential(config, id);
+            success = true;
+
+            return revoked;
+        } catch (IOException ie) {
+            LOG.error("Problem revoking credential!", ie);
+            throw new GoogleApiException(ie.getMessage(), ie);
+        } finally {
+            sample.stop(success);
+        }
+    }
+
+    /**
+     * Deletes the user's credential without revoking it.
+     *
+     * @param id
+     * @return true if the stored credential was removed; false if the persister can't delete
+     */
+    public static boolean deleteCredential(String id) {
+        return deleteCredential(GoogleApiConfig.getInstance(), id);
+    }
+
+    /**
+     * Deletes the user's credential from the given config without revoking it.
+     *
+     * @param config
+     * @param id
+     * @return true if the stored credential was removed; false if the persister can't delete
+     */
+    public static boolean deleteCredential(GoogleApiConfig config, String id) {
+        try {
+            if (!isDeletable(config.getEffectivePersister())) {
+                LOG.warn("Persister can't delete credentials - the stored credential for user {} was kept", id);
+                return false;
+            }
+
+            config.getCredentialDataStore().delete(id);
+            return true;
+        } catch (IOException ie) {
+            LOG.error("Problem deleting credential!", ie);
+            throw new GoogleApiException(ie.getMessage(), ie);
+        } finally {
+            config.invalidate(id);
+        }
+    }
+
+    /**
+     * Write-behind can only delete what its own persister can.
+     */
+    private static boolean isDeletable(StoredCredentialPersister persister) {
+        if (persister instanceof WriteBehindCredentialPersister) {
+            return isDeletable(((WriteBehindCredentialPersister) persister).getDelegate());
+        }
+
+        return persister instanceof DeletableStoredCredentialPersister;
+    }
+
+    /**
+     * Google answers 400 for a token that's already invalid, which is as good as revoked.
+     */
+    private static boolean revokeToken(GoogleApiConfig config, String token) throws IOException {
+        final HttpResponse response = config
+                .getTransport()
+                .createRequestFactory(config.getTokenRequestInitializer())
+                .buildPostRequest(new GenericUrl(REVOKE_URL), new UrlEncodedContent(Collections.singletonMap("token", token)))
+                .setThrowExceptionOnExecuteError(false)
+                .execute();
+
+        try {
+            final int status = response.getStatusCode();
+
+            if (status == STATUS_OK) {
+                return true;
+            } else if (status == STATUS_BAD_REQUEST) {
+                LOG.debug("Token was already invalid");
+                return false;
+            }
+
+            throw new IOException("Token revocation failed with status " + status);
+        } finally {
+            response.disconnect();
+        }
+    }
+}
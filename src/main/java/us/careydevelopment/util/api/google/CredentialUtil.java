@@ -6,8 +6,15 @@ import com.google.api.client.auth.oauth2.TokenResponse;
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import us.careydevelopment.util.api.google.cluster.CredentialEventRelay;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
 import us.careydevelopment.util.api.google.exception.GoogleApiException;
+import us.careydevelopment.util.api.google.log.Redaction;
+import us.careydevelopment.util.api.google.metrics.MetricsRecorder;
+import us.careydevelopment.util.api.google.metrics.OAuthOperation;
 import us.careydevelopment.util.api.google.model.GoogleAuthResponse;
+import us.careydevelopment.util.api.google.refresh.CredentialRefresher;
+import us.careydevelopment.util.api.google.scope.ScopeSet;
 
 /**
  * This utility class makes it easy to obtain the Credential object.
@@ -17,6 +24,12 @@ import us.careydevelopment.util.api.google.model.GoogleAuthResponse;
  * StoredCredential.
  *
  * Google's code translates the StoredCredential to a Credential object.
+ *
+ * If background refresh is turned on in GoogleApiConfig, every Credential returned
+ * here gets tracked so it's refreshed before it expires.
+ *
+ * Codes and tokens are never logged in full. Debug logging is guarded so it costs
+ * nothing when it's off.
  */
 public class CredentialUtil {
 
@@ -29,16 +42,31 @@ public class CredentialUtil {
      * @return Credential object
      */
     public static Credential getCredential(String id) {
+        return getCredential(GoogleApiConfig.getInstance(), id);
+    }
+
+    /**
+     * Gets the Credential associated with the ID from the given config.
+     *
+     * @param config
+     * @param id
+     * @return Credential object
+     */
+    public static Credential getCredential(GoogleApiConfig config, String id) {
+        final MetricsRecorder.Sample sample = config.getMetricsRecorder().start(OAuthOperation.GET_CREDENTIAL);
         Credential credential = null;
 
         try {
-            GoogleAuthorizationCodeFlow acf = AuthorizationCodeFlowUtil.getAuthorizationCodeFlow(id);
+            GoogleAuthorizationCodeFlow acf = AuthorizationCodeFlowUtil.getAuthorizationCodeFlow(config, id);
             credential = acf.loadCredential(id);
+            track(config, id, credential);
         } catch (Exception e) {
+            sample.stop(false);
             LOG.error("Problem retrieving credential!", e);
-            throw new GoogleApiException(e.getMessage());
+            throw new GoogleApiException(e.getMessage(), e);
         }
 
+        sample.stop(true);
         return credential;
     }
 
@@ -55,25 +83,80 @@ public class CredentialUtil {
      * @return Credential object
      */
     public static Credential getCredentialFromCode(GoogleAuthResponse auth, String id) {
+        return getCredentialFromCode(GoogleApiConfig.getInstance(), auth, id);
+    }
+
+    /**
+     * Gets the Credential from the authorization code using the given config.
+     *
+     * @param config
+     * @param auth
+     * @param id
+     * @return Credential object
+     */
+    public static Credential getCredentialFromCode(GoogleApiConfig config, GoogleAuthResponse auth, String id) {
+        final MetricsRecorder.Sample sample = config.getMetricsRecorder().start(OAuthOperation.GET_CREDENTIAL_FROM_CODE);
         Credential credential = null;
 
         try {
-            final GoogleAuthorizationCodeFlow acf = AuthorizationCodeFlowUtil.getAuthorizationCodeFlow(id);
+            final GoogleAuthorizationCodeFlow acf = AuthorizationCodeFlowUtil.getAuthorizationCodeFlow(config, id);
 
-            LOG.debug("code is " + auth.getCode());
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Exchanging code {} for user {}", Redaction.redact(auth.getCode()), id);
+            }
 
             final AuthorizationCodeTokenRequest req = acf.newTokenRequest(auth.getCode());
             req.setRedirectUri(auth.getRedirectUrl());
 
             final TokenResponse response = req.execute();
-            LOG.debug(response.toPrettyString());
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Got access token {} for user {} expiring in {} seconds", Redaction.redact(response.getAccessToken()),
+                        id, response.getExpiresInSeconds());
+            }
 
             credential = acf.createAndStoreCredential(response, id);
+            recordGrant(config, id, acf, response);
+            publishUpdated(config, id);
+            track(config, id, credential);
         } catch (Exception e ) {
+            sample.stop(false);
             LOG.error("Problem creating credential!", e);
-            throw new GoogleApiException(e.getMessage());
+            throw new GoogleApiException(e.getMessage(), e);
         }
 
+        sample.stop(true);
         return credential;
     }
+
+    /**
+     * Google lists every granted scope in the response, including ones granted earlier
+     * through incremental authorization. If it doesn't, the flow's scopes are added to
+     * what's already known.
+     */
+    private static void recordGrant(GoogleApiConfig config, String id, GoogleAuthorizationCodeFlow acf, TokenResponse response) {
+        final ScopeSet granted = ScopeSet.parse(response.getScope());
+
+        if (granted.isEmpty()) {
+            config.getGrantedScopes().record(id, ScopeSet.of(acf.getScopes()));
+        } else {
+            config.getGrantedScopes().replace(id, granted);
+        }
+    }
+
+    private static void publishUpdated(GoogleApiConfig config, String id) {
+        final CredentialEventRelay relay = config.getCredentialEventRelay();
+
+        if (relay != null) {
+            relay.publishUpdated(id);
+        }
+    }
+
+    static void track(GoogleApiConfig config, String id, Credential credential) {
+        final CredentialRefresher refresher = config.getCredentialRefresher();
+
+        if (refresher != null && credential != null) {
+            refresher.track(id, credential);
+        }
+    }
 }
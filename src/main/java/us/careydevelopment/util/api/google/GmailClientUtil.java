@@ -0,0 +1,97 @@
+package us.careydevelopment.util.api.google;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.services.gmail.Gmail;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.ratelimit.RateLimiter;
+import us.careydevelopment.util.api.google.ratelimit.RateLimitingRequestInitializer;
+
+/**
+ * This utility class hands out ready-to-use Gmail clients for users with a stored credential.
+ *
+ * Every client is built with the HttpTransport, JsonFactory and application name held by
+ * GoogleApiConfig. Clients are built the first time a user asks for one and then cached per
+ * user, so repeat calls don't pay for building the client again.
+ *
+ * A cached client is reused for as long as its credential can still get an access token.
+ * The credential refreshes itself when its token expires. A client whose credential has
+ * neither a refresh token nor a live access token is dropped and rebuilt from the data store.
+ * Clients are also dropped when their user is invalidated, for example after revocation.
+ * A client whose credential was loaded before an invalidation that happened while it was
+ * being built is handed back but not cached.
+ *
+ * If the config has a rate limit, every call a client makes takes a permit for its user
+ * and the OAuth client first.
+ */
+public class GmailClientUtil {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GmailClientUtil.class);
+
+    private static final long EXPIRY_SKEW_SECONDS = 60;
+
+    /**
+     * Gets the Gmail client for the user.
+     *
+     * @param id
+     * @return Gmail client, or null if the user has no stored credential
+     */
+    public static Gmail getGmail(String id) {
+        return getGmail(GoogleApiConfig.getInstance(), id);
+    }
+
+    /**
+     * Gets the Gmail client for the user from the given config.
+     *
+     * @param config
+     * @param id
+     * @return Gmail client, or null if the user has no stored credential
+     */
+    public static Gmail getGmail(GoogleApiConfig config, String id) {
+        final Gmail cached = config.getGmailClientCache().getIfPresent(id, GmailClientUtil::isUsable);
+        if (cached != null) {
+            return cached;
+        }
+
+        final long stamp = config.getGmailClientCache().stamp(id);
+        final Credential credential = CredentialUtil.getCredential(config, id);
+        if (credential == null) {
+            return null;
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Building Gmail client for user {}", id);
+        }
+
+        final RateLimiter rateLimiter = config.getRateLimiter();
+        final HttpRequestInitializer initializer = rateLimiter.isEnabled()
+                ? new RateLimitingRequestInitializer(rateLimiter, id, credential)
+                : credential;
+
+        final Gmail gmail = new Gmail.Builder(config.getTransport(), config.getJsonFactory(), initializer)
+                .setApplicationName(config.getApplicationName())
+                .build();
+        config.getGmailClientCache().putIfUnchanged(id, gmail, stamp);
+
+        return gmail;
+    }
+
+    private static boolean isUsable(Gmail gmail) {
+        HttpRequestInitializer initializer = gmail.getRequestFactory().getInitializer();
+        if (initializer instanceof RateLimitingRequestInitializer) {
+            initializer = ((RateLimitingRequestInitializer) initializer).getDelegate();
+        }
+
+        if (!(initializer instanceof Credential)) {
+            return false;
+        }
+
+        final Credential credential = (Credential) initializer;
+        final Long expiresIn = credential.getExpiresInSeconds();
+
+        return credential.getRefreshToken() != null
+                || (credential.getAccessToken() != null && (expiresIn == null || expiresIn > EXPIRY_SKEW_SECONDS));
+    }
+}
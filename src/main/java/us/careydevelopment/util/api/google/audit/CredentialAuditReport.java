@@ -0,0 +1,77 @@
+package us.careydevelopment.util.api.google.audit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A summary of an audit. It counts every result but only keeps a few user IDs for each
+ * kind of problem, so its size doesn't depend on how many users were audited.
+ */
+public class CredentialAuditReport {
+
+    private final int sampleSize;
+    private final Map<CredentialHealth, Long> counts = new EnumMap<>(CredentialHealth.class);
+    private final Map<CredentialHealth, List<String>> samples = new EnumMap<>(CredentialHealth.class);
+    private long total;
+    private long elapsedMillis;
+
+    CredentialAuditReport(int sampleSize) {
+        this.sampleSize = sampleSize;
+
+        for (CredentialHealth health : CredentialHealth.values()) {
+            counts.put(health, 0L);
+            samples.put(health, new ArrayList<>());
+        }
+    }
+
+    void add(CredentialAuditResult result) {
+        final CredentialHealth health = result.getHealth();
+        final List<String> sample = samples.get(health);
+
+        total++;
+        counts.merge(health, 1L, Long::sum);
+
+        if (health.isProblem() && sample.size() < sampleSize) {
+            sample.add(result.getUserId());
+        }
+    }
+
+    void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getCount(CredentialHealth health) {
+        return counts.get(health);
+    }
+
+    /**
+     * @return number of results that aren't HEALTHY
+     */
+    public long getProblemCount() {
+        return total - counts.get(CredentialHealth.HEALTHY);
+    }
+
+    /**
+     * @param health
+     * @return the first few user IDs with that health; always empty for HEALTHY
+     */
+    public List<String> getSample(CredentialHealth health) {
+        return Collections.unmodifiableList(samples.get(health));
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "total=" + total + ", " + counts + ", elapsedMillis=" + elapsedMillis;
+    }
+}
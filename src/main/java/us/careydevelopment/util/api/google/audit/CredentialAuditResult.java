@@ -0,0 +1,46 @@
+package us.careydevelopment.util.api.google.audit;
+
+/**
+ * The audit result for one user.
+ */
+public class CredentialAuditResult {
+
+    private final String userId;
+    private final CredentialHealth health;
+    private final Long expirationTimeMilliseconds;
+    private final String detail;
+
+    public CredentialAuditResult(String userId, CredentialHealth health, Long expirationTimeMilliseconds, String detail) {
+        this.userId = userId;
+        this.health = health;
+        this.expirationTimeMilliseconds = expirationTimeMilliseconds;
+        this.detail = detail;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public CredentialHealth getHealth() {
+        return health;
+    }
+
+    /**
+     * @return when the stored access token expires, or null if that isn't known
+     */
+    public Long getExpirationTimeMilliseconds() {
+        return expirationTimeMilliseconds;
+    }
+
+    /**
+     * @return why the credential was classified the way it was, or null if it's healthy
+     */
+    public String getDetail() {
+        return detail;
+    }
+
+    @Override
+    public String toString() {
+        return userId + " " + health + ((detail != null) ? " (" + detail + ")" : "");
+    }
+}
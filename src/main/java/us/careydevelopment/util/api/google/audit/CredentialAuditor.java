@@ -0,0 +1,387 @@
+package us.careydevelopment.util.api.google.audit;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import com.google.api.client.auth.oauth2.TokenResponseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import us.careydevelopment.api.google.datastore.util.StoredCredentialRetriever;
+import us.careydevelopment.util.api.google.AuthorizationCodeFlowUtil;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.datastore.BatchStoredCredentialRetriever;
+import us.careydevelopment.util.api.google.datastore.ScannableStoredCredentialRetriever;
+import us.careydevelopment.util.api.google.exception.GoogleApiConfigException;
+import us.careydevelopment.util.api.google.exception.GoogleApiException;
+import us.careydevelopment.util.api.google.flow.CoordinatedAuthorizationCodeFlow;
+import us.careydevelopment.util.api.google.scope.GrantedScopes;
+import us.careydevelopment.util.api.google.scope.ScopeSet;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Checks the health of stored credentials across a whole credential store.
+ *
+ * IDs are read lazily and audited in chunks. Several chunks are audited at once on the
+ * config's async executor, which uses virtual threads where they're available. Only a
+ * bounded window of chunks is in memory at any time, so memory use doesn't grow with the
+ * number of users. Results come out in the order of the IDs.
+ *
+ * By default, the audit only looks at what's stored. With refresh probing turned on, it also
+ * refreshes every token that has a refresh token. That finds users who revoked access, but it
+ * costs a call to the token endpoint per user. Refreshed tokens are saved as usual.
+ *
+ * Scopes can only be checked with probing, because Google only reports a user's grant in a
+ * token response. The scopes come from the probe's own response. What the config has
+ * learned about users' grants isn't used, and the probe doesn't change it.
+ *
+ * Like GoogleApiConfig, this class must be instantiated using the Builder.
+ */
+public class CredentialAuditor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CredentialAuditor.class);
+
+    public static final int DEFAULT_SAMPLE_SIZE = 100;
+
+    private static final String INVALID_GRANT = "invalid_grant";
+
+    private final GoogleApiConfig config;
+    private final ScopeSet requiredScopes;
+    private final boolean probeRefreshTokens;
+    private final int chunkSize;
+    private final int parallelism;
+    private final int sampleSize;
+
+    private CredentialAuditor(Builder builder) {
+        this.config = builder.config;
+        this.requiredScopes = builder.requiredScopes;
+        this.probeRefreshTokens = builder.probeRefreshTokens;
+        this.chunkSize = builder.chunkSize;
+        this.parallelism = builder.parallelism;
+        this.sampleSize = builder.sampleSize;
+    }
+
+    /**
+     * Audits every credential the retriever can list. The retriever set in GoogleApiConfig
+     * must be a ScannableStoredCredentialRetriever.
+     *
+     * Close the stream, or use it in a try-with-resources, if it isn't consumed to the end.
+     *
+     * @return lazy Stream of results
+     */
+    public Stream<CredentialAuditResult> stream() {
+        return stream(streamIds());
+    }
+
+    /**
+     * Audits the credentials of the given users.
+     *
+     * @param ids
+     * @return lazy Stream of results
+     */
+    public Stream<CredentialAuditResult> stream(Stream<String> ids) {
+        final AuditIterator chunks = new AuditIterator(ids.iterator());
+
+        return StreamSupport
+                .stream(Spliterators.spliteratorUnknownSize(chunks, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .flatMap(List::stream)
+                .onClose(() -> {
+                    chunks.cancel();
+                    ids.close();
+                });
+    }
+
+    /**
+     * Audits every credential the retriever can list and sums up the results.
+     *
+     * @return CredentialAuditReport
+     */
+    public CredentialAuditReport report() {
+        return report(streamIds());
+    }
+
+    /**
+     * Audits the credentials of the given users and sums up the results.
+     *
+     * @param ids
+     * @return CredentialAuditReport
+     */
+    public CredentialAuditReport report(Stream<String> ids) {
+        final CredentialAuditReport report = new CredentialAuditReport(sampleSize);
+        final long start = System.currentTimeMillis();
+
+        try (Stream<CredentialAuditResult> results = stream(ids)) {
+            results.forEach(report::add);
+        }
+
+        report.setElapsedMillis(System.currentTimeMillis() - start);
+        return report;
+    }
+
+    private Stream<String> streamIds() {
+        final StoredCredentialRetriever retriever = config.getRetriever();
+
+        if (!(retriever instanceof ScannableStoredCredentialRetriever)) {
+            throw new GoogleApiException("Retriever can't list credential IDs!");
+        }
+
+        try {
+            return ((ScannableStoredCredentialRetriever) retriever).streamIds();
+        } catch (IOException ie) {
+            LOG.error("Problem listing credential IDs!", ie);
+            throw new GoogleApiException(ie.getMessage(), ie);
+        }
+    }
+
+    private List<CredentialAuditResult> auditChunk(List<String> ids) {
+        final List<CredentialAuditResult> results = new ArrayList<>(ids.size());
+        final Map<String, StoredCredential> stored;
+
+        try {
+            stored = retrieve(ids);
+        } catch (Exception e) {
+            LOG.warn("Problem retrieving {} credentials for audit", ids.size(), e);
+
+            for (String id : ids) {
+                results.add(new CredentialAuditResult(id, CredentialHealth.UNKNOWN, null, "couldn't retrieve: " + e.getMessage()));
+            }
+
+            return results;
+        }
+
+        final long now = System.currentTimeMillis();
+        for (String id : ids) {
+            results.add(classify(id, stored.get(id), now));
+        }
+
+        return results;
+    }
+
+    private Map<String, StoredCredential> retrieve(List<String> ids) throws Exception {
+        final StoredCredentialRetriever retriever = config.getEffectiveRetriever();
+
+        if (retriever instanceof BatchStoredCredentialRetriever) {
+            final Map<String, StoredCredential> stored = ((BatchStoredCredentialRetriever) retriever).retrieveAll(ids);
+            return (stored != null) ? stored : Collections.emptyMap();
+        }
+
+        final Map<String, StoredCredential> stored = new HashMap<>();
+        for (String id : ids) {
+            final StoredCredential storedCredential = retriever.retrieve(id);
+            if (storedCredential != null) {
+                stored.put(id, storedCredential);
+            }
+        }
+
+        return stored;
+    }
+
+    private CredentialAuditResult classify(String id, StoredCredential stored, long now) {
+        if (stored == null) {
+            return new CredentialAuditResult(id, CredentialHealth.MISSING, null, "no stored credential");
+        }
+
+        final Long expiration = stored.getExpirationTimeMilliseconds();
+        final boolean expired = stored.getAccessToken() == null || (expiration != null && expiration <= now);
+
+        if (stored.getRefreshToken() == null) {
+            if (expired) {
+                return new CredentialAuditResult(id, CredentialHealth.EXPIRED_NO_REFRESH_TOKEN, expiration,
+                        "access token expired and there's no refresh token");
+            }
+        } else if (probeRefreshTokens) {
+            final GrantedScopes reported = new GrantedScopes(1, 0);
+            final CredentialAuditResult probed = probe(id, stored, reported);
+            if (probed != null) {
+                return probed;
+            }
+
+            final ScopeSet granted = reported.get(id);
+            if (granted != null && !granted.containsAll(requiredScopes)) {
+                return new CredentialAuditResult(id, CredentialHealth.SCOPE_DEFICIENT, expiration,
+                        "missing " + requiredScopes.minus(granted));
+            }
+        }
+
+        return new CredentialAuditResult(id, CredentialHealth.HEALTHY, expiration, null);
+    }
+
+    /**
+     * The scopes in the token response go into the given GrantedScopes, not the config's.
+     *
+     * @return a result if the refresh turned up a problem, otherwise null
+     */
+    private CredentialAuditResult probe(String id, StoredCredential stored, GrantedScopes reported) {
+        try {
+            final CoordinatedAuthorizationCodeFlow flow = (CoordinatedAuthorizationCodeFlow)
+                    AuthorizationCodeFlowUtil.newUncachedAuthorizationCodeFlow(config, id, reported);
+
+            if (!flow.toCredential(id, stored).refreshToken()) {
+                return new CredentialAuditResult(id, CredentialHealth.UNKNOWN, stored.getExpirationTimeMilliseconds(),
+                        "refresh failed");
+            }
+        } catch (TokenResponseException te) {
+            final boolean revoked = te.getDetails() != null && INVALID_GRANT.equals(te.getDetails().getError());
+
+            return new CredentialAuditResult(id, revoked ? CredentialHealth.REVOKED : CredentialHealth.UNKNOWN,
+                    stored.getExpirationTimeMilliseconds(), (te.getDetails() != null) ? te.getDetails().getError() : te.getMessage());
+        } catch (IOException ie) {
+            return new CredentialAuditResult(id, CredentialHealth.UNKNOWN, stored.getExpirationTimeMilliseconds(),
+                    "refresh failed: " + ie.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Keeps up to the configured number of chunks being audited ahead of the consumer.
+     */
+    private class AuditIterator implements Iterator<List<CredentialAuditResult>> {
+        private final Iterator<String> ids;
+        private final Deque<CompletableFuture<List<CredentialAuditResult>>> inFlight = new ArrayDeque<>();
+        private volatile boolean cancelled;
+
+        private AuditIterator(Iterator<String> ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public boolean hasNext() {
+            fill();
+            return !inFlight.isEmpty();
+        }
+
+        @Override
+        public List<CredentialAuditResult> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final List<CredentialAuditResult> results = inFlight.poll().join();
+            fill();
+
+            return results;
+        }
+
+        private void fill() {
+            while (!cancelled && inFlight.size() < parallelism && ids.hasNext()) {
+                final List<String> chunk = new ArrayList<>(chunkSize);
+                while (ids.hasNext() && chunk.size() < chunkSize) {
+                    chunk.add(ids.next());
+                }
+
+                inFlight.add(CompletableFuture.supplyAsync(() -> auditChunk(chunk), config.getAsyncExecutor()));
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+            inFlight.forEach(future -> future.cancel(false));
+            inFlight.clear();
+        }
+    }
+
+    public static class Builder {
+
+        private GoogleApiConfig config;
+        private ScopeSet requiredScopes;
+        private boolean probeRefreshTokens = false;
+        private int chunkSize;
+        private int parallelism;
+        private int sampleSize = DEFAULT_SAMPLE_SIZE;
+
+        public static Builder instance() {
+            return new Builder();
+        }
+
+        private Builder() {
+        }
+
+        /**
+         * The config whose store gets audited. It's the default config if not set.
+         */
+        public Builder setConfig(GoogleApiConfig config) {
+            this.config = config;
+            return this;
+        }
+
+        /**
+         * Scopes every user should have granted. They're the config's scopes if not set.
+         * They're only checked when refresh tokens are probed.
+         */
+        public Builder setRequiredScopes(List<String> requiredScopes) {
+            this.requiredScopes = ScopeSet.of(requiredScopes);
+            return this;
+        }
+
+        /**
+         * Refreshes tokens to find revoked ones and users missing required scopes. It's off
+         * by default.
+         */
+        public Builder setProbeRefreshTokens(boolean probeRefreshTokens) {
+            this.probeRefreshTokens = probeRefreshTokens;
+            return this;
+        }
+
+        /**
+         * IDs per chunk. It's the config's bulk chunk size if not set. Use smaller chunks
+         * when probing refresh tokens, since every probe is a network call.
+         */
+        public Builder setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Chunks audited at once. It's the config's bulk refresh concurrency if not set.
+         */
+        public Builder setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * How many user IDs the report keeps for each kind of problem.
+         */
+        public Builder setSampleSize(int sampleSize) {
+            this.sampleSize = sampleSize;
+            return this;
+        }
+
+        public CredentialAuditor build() {
+            if (config == null) {
+                config = GoogleApiConfig.getInstance();
+            }
+
+            if (requiredScopes == null) {
+                requiredScopes = config.getScopeSet();
+            }
+
+            if (chunkSize == 0) {
+                chunkSize = config.getBulkChunkSize();
+            }
+
+            if (parallelism == 0) {
+                parallelism = config.getBulkRefreshConcurrency();
+            }
+
+            if (chunkSize < 1 || parallelism < 1 || sampleSize < 0) {
+                throw new GoogleApiConfigException("Audit settings must be positive!");
+            }
+
+            return new CredentialAuditor(this);
+        }
+    }
+}
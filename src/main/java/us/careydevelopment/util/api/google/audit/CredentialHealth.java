@@ -0,0 +1,42 @@
+package us.careydevelopment.util.api.google.audit;
+
+/**
+ * What CredentialAuditor found out about one user's stored credential.
+ */
+public enum CredentialHealth {
+
+    /**
+     * The access token is still valid, or it can be refreshed.
+     */
+    HEALTHY,
+
+    /**
+     * There's no stored credential for the user.
+     */
+    MISSING,
+
+    /**
+     * The access token has expired and there's no refresh token to get a new one.
+     */
+    EXPIRED_NO_REFRESH_TOKEN,
+
+    /**
+     * Google turned down the refresh token, so the user has revoked access. Only found
+     * when the audit probes refresh tokens.
+     */
+    REVOKED,
+
+    /**
+     * The user is known to have granted fewer scopes than the audit requires.
+     */
+    SCOPE_DEFICIENT,
+
+    /**
+     * The credential couldn't be checked, for example because the token endpoint was down.
+     */
+    UNKNOWN;
+
+    public boolean isProblem() {
+        return this != HEALTHY;
+    }
+}
@@ -0,0 +1,18 @@
+package us.careydevelopment.util.api.google.batch;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+
+/**
+ * Gets told about each request in a Gmail batch as its result comes in.
+ *
+ * Calls are made one at a time on the thread that called GmailBatchExecutor, in the
+ * order of the requests.
+ *
+ * @param <T> type of the response
+ */
+public interface GmailBatchCallback<T> {
+
+    void onSuccess(long index, T value);
+
+    void onFailure(long index, GoogleJsonError error);
+}
@@ -0,0 +1,283 @@
+package us.careydevelopment.util.api.google.batch;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.services.gmail.Gmail;
+import com.google.api.services.gmail.GmailRequest;
+import com.google.api.services.gmail.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import us.careydevelopment.util.api.google.GmailClientUtil;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.exception.GoogleApiConfigException;
+import us.careydevelopment.util.api.google.exception.GoogleApiException;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Sends Gmail requests in batches instead of one HTTP call per request.
+ *
+ * Requests are read lazily and grouped into batches of up to the configured size. Gmail
+ * takes at most 100 requests per batch and recommends no more than 50. Several batches are
+ * sent at once on the config's async executor, but only a bounded window of them is in
+ * memory at any time. Results come out in the order of the requests.
+ *
+ * A request that fails inside a batch shows up as a failed result. If a whole batch can't be
+ * sent, the stream throws a GoogleApiException.
+ *
+ * Like GoogleApiConfig, this class must be instantiated using the Builder.
+ */
+public class GmailBatchExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GmailBatchExecutor.class);
+
+    public static final int MAX_BATCH_SIZE = 100;
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private static final String ME = "me";
+
+    private final GoogleApiConfig config;
+    private final int batchSize;
+    private final int concurrency;
+
+    private GmailBatchExecutor(Builder builder) {
+        this.config = builder.config;
+        this.batchSize = builder.batchSize;
+        this.concurrency = builder.concurrency;
+    }
+
+    /**
+     * Fetches the user's messages by ID with their Gmail client from GmailClientUtil.
+     *
+     * @param id
+     * @param messageIds
+     * @return lazy Stream of results
+     */
+    public Stream<GmailBatchResult<Message>> getMessages(String id, Collection<String> messageIds) {
+        final Gmail gmail = GmailClientUtil.getGmail(config, id);
+        if (gmail == null) {
+            throw new GoogleApiException("No credential for user " + id + "!");
+        }
+
+        final Gmail.Users.Messages messages = gmail.users().messages();
+
+        return stream(gmail, messageIds.stream().map(messageId -> {
+            try {
+                return messages.get(ME, messageId);
+            } catch (IOException ie) {
+                LOG.error("Problem building message request!", ie);
+                throw new GoogleApiException(ie.getMessage(), ie);
+            }
+        }));
+    }
+
+    /**
+     * Sends the requests in batches and hands each result to the callback. It returns once
+     * every request has been answered.
+     *
+     * @param gmail
+     * @param requests
+     * @param callback
+     */
+    public <T> void execute(Gmail gmail, Collection<? extends GmailRequest<T>> requests, GmailBatchCallback<T> callback) {
+        try (Stream<GmailBatchResult<T>> results = stream(gmail, requests.stream())) {
+            results.forEach(result -> {
+                if (result.isSuccess()) {
+                    callback.onSuccess(result.getIndex(), result.getValue());
+                } else {
+                    callback.onFailure(result.getIndex(), result.getError());
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends the requests in batches. All of them must come from the given client.
+     *
+     * Close the stream, or use it in a try-with-resources, if it isn't consumed to the end.
+     *
+     * @param gmail
+     * @param requests
+     * @return lazy Stream of results
+     */
+    public <T> Stream<GmailBatchResult<T>> stream(Gmail gmail, Stream<? extends GmailRequest<T>> requests) {
+        final BatchIterator<T> batches = new BatchIterator<>(gmail, requests.iterator());
+
+        return StreamSupport
+                .stream(Spliterators.spliteratorUnknownSize(batches, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .flatMap(List::stream)
+                .onClose(() -> {
+                    batches.cancel();
+                    requests.close();
+                });
+    }
+
+    private <T> List<GmailBatchResult<T>> executeBatch(Gmail gmail, List<? extends GmailRequest<T>> requests, long firstIndex) {
+        @SuppressWarnings("unchecked")
+        final GmailBatchResult<T>[] results = new GmailBatchResult[requests.size()];
+        final BatchRequest batch = gmail.batch();
+
+        try {
+            for (int i = 0; i < requests.size(); i++) {
+                final int position = i;
+                final long index = firstIndex + i;
+
+                requests.get(i).queue(batch, new JsonBatchCallback<T>() {
+                    @Override
+                    public void onSuccess(T value, HttpHeaders responseHeaders) {
+                        results[position] = new GmailBatchResult<>(index, value, null);
+                    }
+
+                    @Override
+                    public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                        results[position] = new GmailBatchResult<>(index, null, error);
+                    }
+                });
+            }
+
+            batch.execute();
+        } catch (IOException ie) {
+            LOG.error("Problem executing Gmail batch!", ie);
+            throw new GoogleApiException(ie.getMessage(), ie);
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Keeps up to the configured number of batches in flight ahead of the consumer.
+     */
+    private class BatchIterator<T> implements Iterator<List<GmailBatchResult<T>>> {
+        private final Gmail gmail;
+        private final Iterator<? extends GmailRequest<T>> requests;
+        private final Deque<CompletableFuture<List<GmailBatchResult<T>>>> inFlight = new ArrayDeque<>();
+        private long nextIndex;
+        private volatile boolean cancelled;
+
+        private BatchIterator(Gmail gmail, Iterator<? extends GmailRequest<T>> requests) {
+            this.gmail = gmail;
+            this.requests = requests;
+        }
+
+        @Override
+        public boolean hasNext() {
+            fill();
+            return !inFlight.isEmpty();
+        }
+
+        @Override
+        public List<GmailBatchResult<T>> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final List<GmailBatchResult<T>> results;
+            try {
+                results = inFlight.poll().join();
+            } catch (CompletionException ce) {
+                cancel();
+
+                if (ce.getCause() instanceof GoogleApiException) {
+                    throw (GoogleApiException) ce.getCause();
+                }
+
+                throw new GoogleApiException(ce.getMessage(), ce.getCause());
+            }
+
+            fill();
+            return results;
+        }
+
+        private void fill() {
+            while (!cancelled && inFlight.size() < concurrency && requests.hasNext()) {
+                final List<GmailRequest<T>> batch = new ArrayList<>(batchSize);
+                while (requests.hasNext() && batch.size() < batchSize) {
+                    batch.add(requests.next());
+                }
+
+                final long firstIndex = nextIndex;
+                nextIndex += batch.size();
+
+                inFlight.add(CompletableFuture.supplyAsync(() -> executeBatch(gmail, batch, firstIndex), config.getAsyncExecutor()));
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+            inFlight.forEach(future -> future.cancel(false));
+            inFlight.clear();
+        }
+    }
+
+    public static class Builder {
+
+        private GoogleApiConfig config;
+        private int batchSize = DEFAULT_BATCH_SIZE;
+        private int concurrency = DEFAULT_CONCURRENCY;
+
+        public static Builder instance() {
+            return new Builder();
+        }
+
+        private Builder() {
+        }
+
+        /**
+         * The config whose async executor sends the batches and whose Gmail clients are used.
+         * It's the default config if not set.
+         */
+        public Builder setConfig(GoogleApiConfig config) {
+            this.config = config;
+            return this;
+        }
+
+        /**
+         * Requests per batch, up to 100.
+         */
+        public Builder setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Batches sent at once.
+         */
+        public Builder setConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        public GmailBatchExecutor build() {
+            if (config == null) {
+                config = GoogleApiConfig.getInstance();
+            }
+
+            if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+                throw new GoogleApiConfigException("Batch size must be between 1 and " + MAX_BATCH_SIZE + "!");
+            }
+
+            if (concurrency < 1) {
+                throw new GoogleApiConfigException("Batch concurrency must be positive!");
+            }
+
+            return new GmailBatchExecutor(this);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package us.careydevelopment.util.api.google.batch;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+
+/**
+ * The outcome of one request in a Gmail batch.
+ *
+ * The index is the request's position in the input, so results can be matched to requests.
+ * Exactly one of the value and the error is set.
+ *
+ * @param <T> type of the response
+ */
+public class GmailBatchResult<T> {
+
+    private final long index;
+    private final T value;
+    private final GoogleJsonError error;
+
+    GmailBatchResult(long index, T value, GoogleJsonError error) {
+        this.index = index;
+        this.value = value;
+        this.error = error;
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    public GoogleJsonError getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return "GmailBatchResult [index=" + index + ", success=" + isSuccess()
+                + ((error != null) ? ", error=" + error.getCode() + " " + error.getMessage() : "") + "]";
+    }
+}
@@ -0,0 +1,356 @@
+package us.careydevelopment.util.api.google.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * A small, thread-safe cache with a maximum size and an optional time-to-live.
+ *
+ * When the cache is full, the least recently used entry gets evicted. Entries also
+ * expire once they've been in the cache longer than the time-to-live.
+ *
+ * A maximum size of 0 disables the cache. Every lookup then goes straight to the loader.
+ *
+ * Hit, miss and eviction counts are tracked so clients can size the cache.
+ *
+ * An optional RemovalListener hears about every key that leaves the cache, except
+ * through invalidateAll(). An optional InsertionListener hears about every key that's
+ * stored, under the same lock, so an index kept by the two can't miss an entry.
+ *
+ * A value loaded outside the cache can be stored with putIfUnchanged(). It takes a stamp
+ * from before the load and refuses the value if the key was written or invalidated since,
+ * so a slow load can't bring back something that was just deleted. Stamps are kept per
+ * stripe of keys rather than per key, so a write to another key in the same stripe can
+ * also make a load skip caching. That costs a miss, never a stale value.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class BoundedCache<K, V> {
+
+    private static final int STAMP_STRIPES = 64;
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier ticker;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private final StatsListener statsListener;
+    private final RemovalListener<K> removalListener;
+    private final InsertionListener<K> insertionListener;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Only changed while the cache is locked.
+     */
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+
+    /**
+     * @param maxSize maximum number of entries; 0 disables the cache
+     * @param ttlMillis how long an entry lives; 0 or less means no expiry
+     */
+    public BoundedCache(int maxSize, long ttlMillis) {
+        this(maxSize, ttlMillis, System::nanoTime, NO_OP_LISTENER, key -> { }, key -> { });
+    }
+
+    /**
+     * @param maxSize maximum number of entries; 0 disables the cache
+     * @param ttlMillis how long an entry lives; 0 or less means no expiry
+     * @param statsListener told about every hit and miss, such as for metrics
+     */
+    public BoundedCache(int maxSize, long ttlMillis, StatsListener statsListener) {
+        this(maxSize, ttlMillis, System::nanoTime, statsListener, key -> { }, key -> { });
+    }
+
+    /**
+     * @param maxSize maximum number of entries; 0 disables the cache
+     * @param ttlMillis how long an entry lives; 0 or less means no expiry
+     * @param statsListener told about every hit and miss, such as for metrics
+     * @param removalListener told about every key that's evicted, expires or is invalidated
+     */
+    public BoundedCache(int maxSize, long ttlMillis, StatsListener statsListener, RemovalListener<K> removalListener) {
+        this(maxSize, ttlMillis, System::nanoTime, statsListener, removalListener, key -> { });
+    }
+
+    /**
+     * @param maxSize maximum number of entries; 0 disables the cache
+     * @param ttlMillis how long an entry lives; 0 or less means no expiry
+     * @param statsListener told about every hit and miss, such as for metrics
+     * @param removalListener told about every key that's evicted, expires or is invalidated
+     * @param insertionListener told about every key that's stored
+     */
+    public BoundedCache(int maxSize, long ttlMillis, StatsListener statsListener, RemovalListener<K> removalListener,
+                        InsertionListener<K> insertionListener) {
+        this(maxSize, ttlMillis, System::nanoTime, statsListener, removalListener, insertionListener);
+    }
+
+    BoundedCache(int maxSize, long ttlMillis, LongSupplier ticker) {
+        this(maxSize, ttlMillis, ticker, NO_OP_LISTENER, key -> { }, key -> { });
+    }
+
+    private BoundedCache(int maxSize, long ttlMillis, LongSupplier ticker, StatsListener statsListener,
+                         RemovalListener<K> removalListener, InsertionListener<K> insertionListener) {
+        this.maxSize = Math.max(0, maxSize);
+        this.ttlNanos = ttlMillis > 0 ? ttlMillis * 1_000_000L : 0;
+        this.ticker = ticker;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.statsListener = statsListener;
+        this.removalListener = removalListener;
+        this.insertionListener = insertionListener;
+    }
+
+    /**
+     * Returns the cached value for the key, or uses the loader to create it.
+     *
+     * The loader runs outside the cache lock so slow loads don't block other keys.
+     * If two threads load the same key at once, the first value stored wins.
+     *
+     * @param key
+     * @param loader
+     * @return cached or newly loaded value
+     * @throws E
+     */
+    public <E extends Exception> V get(K key, CacheLoader<K, V, E> loader) throws E {
+        final V cached = getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final long stamp = stamp(key);
+        final V loaded = loader.load(key);
+        if (loaded == null || maxSize == 0) {
+            return loaded;
+        }
+
+        synchronized (entries) {
+            final Entry<V> existing = entries.get(key);
+            if (existing != null && !isExpired(existing)) {
+                return existing.value;
+            }
+
+            if (stamps.get(stripe(key)) == stamp) {
+                putLocked(key, loaded);
+            }
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Returns the value for the key if it's cached and hasn't expired. Otherwise null.
+     *
+     * @param key
+     * @return cached value or null
+     */
+    public V getIfPresent(K key) {
+        return getIfPresent(key, null);
+    }
+
+    /**
+     * Returns the value for the key if it's cached, hasn't expired and passes the
+     * given check. Values that fail the check are removed and count as misses.
+     *
+     * @param key
+     * @param usable check applied to the cached value, or null to accept any value
+     * @return cached value or null
+     */
+    public V getIfPresent(K key, Predicate<V> usable) {
+        if (maxSize == 0) {
+            recordMiss();
+            return null;
+        }
+
+        synchronized (entries) {
+            final Entry<V> entry = entries.get(key);
+
+            if (entry != null && (isExpired(entry) || (usable != null && !usable.test(entry.value)))) {
+                entries.remove(key);
+                evictions.increment();
+                removalListener.removed(key);
+            } else if (entry != null) {
+                hits.increment();
+                statsListener.hit();
+                return entry.value;
+            }
+        }
+
+        recordMiss();
+        return null;
+    }
+
+    private void recordMiss() {
+        misses.increment();
+        statsListener.miss();
+    }
+
+    public void put(K key, V value) {
+        if (maxSize == 0 || value == null) {
+            return;
+        }
+
+        synchronized (entries) {
+            putLocked(key, value);
+        }
+    }
+
+    /**
+     * Takes a stamp for the key before loading its value outside the cache.
+     *
+     * @param key
+     * @return stamp to hand to putIfUnchanged()
+     */
+    public long stamp(K key) {
+        return stamps.get(stripe(key));
+    }
+
+    /**
+     * Caches the value only if the key hasn't been written or invalidated since the stamp
+     * was taken.
+     *
+     * @param key
+     * @param value
+     * @param stamp from stamp(), taken before the value was loaded
+     * @return true if the value was cached
+     */
+    public boolean putIfUnchanged(K key, V value, long stamp) {
+        if (maxSize == 0 || value == null) {
+            return false;
+        }
+
+        synchronized (entries) {
+            if (stamps.get(stripe(key)) != stamp) {
+                return false;
+            }
+
+            putLocked(key, value);
+            return true;
+        }
+    }
+
+    private void putLocked(K key, V value) {
+        stamps.incrementAndGet(stripe(key));
+        entries.put(key, new Entry<>(value, ticker.getAsLong()));
+        insertionListener.added(key);
+
+        final Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maxSize && iterator.hasNext()) {
+            final K evicted = iterator.next().getKey();
+            iterator.remove();
+            evictions.increment();
+            removalListener.removed(evicted);
+        }
+    }
+
+    public void invalidate(K key) {
+        synchronized (entries) {
+            stamps.incrementAndGet(stripe(key));
+
+            if (entries.remove(key) != null) {
+                removalListener.removed(key);
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            for (int i = 0; i < STAMP_STRIPES; i++) {
+                stamps.incrementAndGet(i);
+            }
+
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private static int stripe(Object key) {
+        final int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (STAMP_STRIPES - 1);
+    }
+
+    private boolean isExpired(Entry<V> entry) {
+        return ttlNanos > 0 && ticker.getAsLong() - entry.createdNanos >= ttlNanos;
+    }
+
+    /**
+     * Hears about cache hits and misses as they happen.
+     */
+    public interface StatsListener {
+        void hit();
+
+        void miss();
+    }
+
+    /**
+     * Hears about keys leaving the cache. It's called while the cache is locked, so it
+     * must be quick and must not call back into the cache.
+     */
+    @FunctionalInterface
+    public interface RemovalListener<K> {
+        void removed(K key);
+    }
+
+    /**
+     * Hears about keys being stored. It's called while the cache is locked, so it must be
+     * quick and must not call back into the cache.
+     */
+    @FunctionalInterface
+    public interface InsertionListener<K> {
+        void added(K key);
+    }
+
+    private static final StatsListener NO_OP_LISTENER = new StatsListener() {
+        @Override
+        public void hit() {
+        }
+
+        @Override
+        public void miss() {
+        }
+    };
+
+    /**
+     * Creates a value for a key that isn't cached yet.
+     */
+    @FunctionalInterface
+    public interface CacheLoader<K, V, E extends Exception> {
+        V load(K key) throws E;
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long createdNanos;
+
+        private Entry(V value, long createdNanos) {
+            this.value = value;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package us.careydevelopment.util.api.google.cache;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of which flow cache keys belong to each user, so all of a user's flows can
+ * be dropped without scanning the cache.
+ *
+ * It's the flow cache's InsertionListener and RemovalListener, so keys join the index
+ * under the same lock that stores them, and leave it when they're evicted or expire. A
+ * flow can't end up cached without an index entry that invalidation would find. A user
+ * rarely has more than one or two flows, so invalidating one is O(1).
+ */
+public class FlowCacheIndex implements BoundedCache.InsertionListener<FlowCacheKey>,
+        BoundedCache.RemovalListener<FlowCacheKey> {
+
+    private final Map<String, Set<FlowCacheKey>> keysByUser = new ConcurrentHashMap<>();
+
+    @Override
+    public void added(FlowCacheKey key) {
+        keysByUser.compute(key.getUserId(), (userId, keys) -> {
+            final Set<FlowCacheKey> userKeys = (keys != null) ? keys : ConcurrentHashMap.newKeySet();
+            userKeys.add(key);
+            return userKeys;
+        });
+    }
+
+    @Override
+    public void removed(FlowCacheKey key) {
+        keysByUser.computeIfPresent(key.getUserId(), (userId, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    /**
+     * Forgets the user.
+     *
+     * @param userId
+     * @return the user's keys, which the caller should invalidate in the cache
+     */
+    public Set<FlowCacheKey> remove(String userId) {
+        final Set<FlowCacheKey> keys = keysByUser.remove(userId);
+        return (keys != null) ? keys : Collections.emptySet();
+    }
+
+    public void clear() {
+        keysByUser.clear();
+    }
+
+    /**
+     * @return number of users with at least one cached flow
+     */
+    public int size() {
+        return keysByUser.size();
+    }
+}
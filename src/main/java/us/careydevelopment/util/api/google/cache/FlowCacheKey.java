@@ -0,0 +1,56 @@
+package us.careydevelopment.util.api.google.cache;
+
+import us.careydevelopment.util.api.google.scope.ScopeSet;
+
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * Identifies a cached GoogleAuthorizationCodeFlow.
+ *
+ * A flow belongs to a user and a set of scopes. The order of the scopes doesn't matter.
+ * Scope sets are interned, so comparing keys for the same user is usually an identity check.
+ */
+public class FlowCacheKey {
+
+    private final String userId;
+    private final ScopeSet scopes;
+    private final int hash;
+
+    public FlowCacheKey(String userId, Collection<String> scopes) {
+        this(userId, ScopeSet.of(scopes));
+    }
+
+    public FlowCacheKey(String userId, ScopeSet scopes) {
+        this.userId = userId;
+        this.scopes = scopes;
+        this.hash = Objects.hash(userId, scopes);
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public ScopeSet getScopes() {
+        return scopes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FlowCacheKey)) return false;
+
+        final FlowCacheKey other = (FlowCacheKey) o;
+        return Objects.equals(userId, other.userId) && scopes.equals(other.scopes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return userId + " " + scopes;
+    }
+}
@@ -0,0 +1,18 @@
+package us.careydevelopment.util.api.google.callback;
+
+import us.careydevelopment.util.api.google.exception.GoogleApiException;
+
+/**
+ * Thrown when the state that came back on an OAuth callback is missing, was tampered with,
+ * or has expired.
+ */
+public class InvalidStateException extends GoogleApiException {
+
+    public InvalidStateException(String s) {
+        super(s);
+    }
+
+    public InvalidStateException(String s, Throwable cause) {
+        super(s, cause);
+    }
+}
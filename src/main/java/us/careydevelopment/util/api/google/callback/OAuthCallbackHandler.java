@@ -0,0 +1,303 @@
+package us.careydevelopment.util.api.google.callback;
+
+import com.google.api.client.auth.oauth2.Credential;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import us.careydevelopment.util.api.google.AuthorizationCodeUrlUtil;
+import us.careydevelopment.util.api.google.CredentialUtil;
+import us.careydevelopment.util.api.google.cache.BoundedCache;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.exception.GoogleApiConfigException;
+import us.careydevelopment.util.api.google.exception.GoogleApiException;
+import us.careydevelopment.util.api.google.log.Redaction;
+import us.careydevelopment.util.api.google.model.GoogleAuthResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Handles both ends of the OAuth2 redirect: it builds the authorization URL with a signed
+ * state token and turns the callback into a Credential.
+ *
+ * The state token names the user the authorization is for. A valid signature only proves this
+ * handler issued the token, not that the browser delivering it belongs to that user, so the
+ * callback also takes the user ID from the caller's own session. A callback whose state doesn't
+ * verify, or names a different user than the session, is rejected before the code is exchanged.
+ *
+ * Browsers sometimes send the same callback twice. A code can only be exchanged once, so
+ * the second exchange would fail. Callbacks for a code that's being exchanged wait for that
+ * exchange and get its result. Callbacks for a code that was exchanged a little while ago get
+ * the same Credential back without calling Google.
+ *
+ * Like GoogleApiConfig, this class must be instantiated using the Builder.
+ */
+public class OAuthCallbackHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OAuthCallbackHandler.class);
+
+    public static final int MIN_SIGNING_KEY_LENGTH = 32;
+    public static final long DEFAULT_STATE_TTL_MILLIS = 10 * 60 * 1000;
+    public static final long DEFAULT_COMPLETED_EXCHANGE_TTL_MILLIS = 5 * 60 * 1000;
+    public static final int DEFAULT_MAX_COMPLETED_EXCHANGES = 1_000;
+
+    private final GoogleApiConfig config;
+    private final StateTokenSigner signer;
+    private final Map<String, CompletableFuture<Credential>> inFlight = new ConcurrentHashMap<>();
+    private final BoundedCache<String, Credential> completed;
+
+    private final LongAdder exchangedCount = new LongAdder();
+    private final LongAdder duplicateCount = new LongAdder();
+
+    private OAuthCallbackHandler(Builder builder) {
+        this.config = builder.config;
+        this.signer = new StateTokenSigner(builder.signingKey, builder.stateTtlMillis);
+        this.completed = new BoundedCache<>(builder.maxCompletedExchanges, builder.completedExchangeTtlMillis);
+    }
+
+    /**
+     * Builds the authorization URL for the user with a signed state token.
+     *
+     * @param id
+     * @param redirectUrl
+     * @return authorization URL
+     */
+    public String getAuthorizationUrl(String id, String redirectUrl) {
+        return getAuthorizationUrl(id, redirectUrl, null);
+    }
+
+    /**
+     * Builds the authorization URL for the user with a signed state token that also
+     * carries the app state.
+     *
+     * @param id
+     * @param redirectUrl
+     * @param appState anything the application wants back on the callback, or null
+     * @return authorization URL
+     */
+    public String getAuthorizationUrl(String id, String redirectUrl, String appState) {
+        return AuthorizationCodeUrlUtil.getAuthorizationCodeUrl(config, id, redirectUrl, signer.issue(id, appState));
+    }
+
+    /**
+     * Verifies the state from the callback and checks that it names the expected user.
+     *
+     * @param state
+     * @param expectedUserId the user ID from the caller's session
+     * @return OAuthState
+     * @throws InvalidStateException if the state doesn't verify or names another user
+     */
+    public OAuthState verifyState(String state, String expectedUserId) {
+        if (StringUtils.isBlank(expectedUserId)) {
+            throw new InvalidStateException("Expected user ID is missing!");
+        }
+
+        final OAuthState verified = signer.verify(state);
+
+        if (!expectedUserId.equals(verified.getUserId())) {
+            LOG.warn("Rejecting OAuth callback for user {} delivered to the session of user {}",
+                    verified.getUserId(), expectedUserId);
+            throw new InvalidStateException("State was issued for another user!");
+        }
+
+        return verified;
+    }
+
+    /**
+     * Verifies the state from the callback and exchanges the code for the user it names.
+     *
+     * @param code
+     * @param state
+     * @param redirectUrl the same redirect URL used to build the authorization URL
+     * @param expectedUserId the user ID from the caller's session
+     * @return OAuthCallbackResult
+     * @throws InvalidStateException if the state doesn't verify or names another user
+     */
+    public OAuthCallbackResult handleCallback(String code, String state, String redirectUrl, String expectedUserId) {
+        final OAuthState verified = verifyState(state, expectedUserId);
+
+        if (StringUtils.isBlank(code)) {
+            throw new GoogleApiException("Authorization code is missing!");
+        }
+
+        final String key = exchangeKey(verified.getUserId(), code);
+
+        final Credential done = completed.getIfPresent(key);
+        if (done != null) {
+            return duplicate(verified, code, done);
+        }
+
+        final CompletableFuture<Credential> mine = new CompletableFuture<>();
+        final CompletableFuture<Credential> existing = inFlight.putIfAbsent(key, mine);
+
+        if (existing != null) {
+            return duplicate(verified, code, await(existing));
+        }
+
+        try {
+            final Credential credential = CredentialUtil.getCredentialFromCode(config, toAuthResponse(code, redirectUrl),
+                    verified.getUserId());
+            exchangedCount.increment();
+            completed.put(key, credential);
+            mine.complete(credential);
+
+            return new OAuthCallbackResult(verified, credential, false);
+        } catch (RuntimeException re) {
+            mine.completeExceptionally(re);
+            throw re;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private OAuthCallbackResult duplicate(OAuthState verified, String code, Credential credential) {
+        duplicateCount.increment();
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Reusing exchange of code {} for user {}", Redaction.redact(code), verified.getUserId());
+        }
+
+        return new OAuthCallbackResult(verified, credential, true);
+    }
+
+    private Credential await(CompletableFuture<Credential> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new GoogleApiException("Interrupted while waiting on code exchange!", ie);
+        } catch (CancellationException ce) {
+            throw new GoogleApiException("Code exchange was cancelled!", ce);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof GoogleApiException) {
+                throw (GoogleApiException) ee.getCause();
+            }
+
+            throw new GoogleApiException(ee.getCause().getMessage(), ee.getCause());
+        }
+    }
+
+    private static GoogleAuthResponse toAuthResponse(String code, String redirectUrl) {
+        final GoogleAuthResponse auth = new GoogleAuthResponse();
+        auth.setCode(code);
+        auth.setRedirectUrl(redirectUrl);
+
+        return auth;
+    }
+
+    /**
+     * Codes are kept as hashes so they don't sit in memory after they've been used.
+     */
+    private static String exchangeKey(String userId, String code) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(userId.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(code.getBytes(StandardCharsets.UTF_8));
+
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException ne) {
+            throw new IllegalStateException("SHA-256 isn't available!", ne);
+        }
+    }
+
+    public StateTokenSigner getSigner() {
+        return signer;
+    }
+
+    /**
+     * @return number of codes exchanged with Google
+     */
+    public long getExchangedCount() {
+        return exchangedCount.sum();
+    }
+
+    /**
+     * @return number of callbacks that reused another callback's exchange
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.sum();
+    }
+
+    public static class Builder {
+
+        private GoogleApiConfig config;
+        private byte[] signingKey;
+        private long stateTtlMillis = DEFAULT_STATE_TTL_MILLIS;
+        private long completedExchangeTtlMillis = DEFAULT_COMPLETED_EXCHANGE_TTL_MILLIS;
+        private int maxCompletedExchanges = DEFAULT_MAX_COMPLETED_EXCHANGES;
+
+        public static Builder instance() {
+            return new Builder();
+        }
+
+        private Builder() {
+        }
+
+        /**
+         * The config that exchanges codes. It's the default config if not set.
+         */
+        public Builder setConfig(GoogleApiConfig config) {
+            this.config = config;
+            return this;
+        }
+
+        /**
+         * The secret that signs state tokens. It must be at least 32 bytes and the same on every
+         * node that can receive a callback. Keep it out of source control.
+         */
+        public Builder setSigningKey(byte[] signingKey) {
+            this.signingKey = (signingKey != null) ? signingKey.clone() : null;
+            return this;
+        }
+
+        /**
+         * How long the user has to finish authorizing.
+         */
+        public Builder setStateTtlMillis(long stateTtlMillis) {
+            this.stateTtlMillis = stateTtlMillis;
+            return this;
+        }
+
+        /**
+         * How long a repeated callback still gets the Credential from the first one.
+         */
+        public Builder setCompletedExchangeTtlMillis(long completedExchangeTtlMillis) {
+            this.completedExchangeTtlMillis = completedExchangeTtlMillis;
+            return this;
+        }
+
+        /**
+         * How many recent exchanges to remember. Set it to 0 to only collapse callbacks that
+         * arrive while the exchange is still running.
+         */
+        public Builder setMaxCompletedExchanges(int maxCompletedExchanges) {
+            this.maxCompletedExchanges = maxCompletedExchanges;
+            return this;
+        }
+
+        public OAuthCallbackHandler build() {
+            if (config == null) {
+                config = GoogleApiConfig.getInstance();
+            }
+
+            if (signingKey == null || signingKey.length < MIN_SIGNING_KEY_LENGTH) {
+                throw new GoogleApiConfigException("Signing key must be at least " + MIN_SIGNING_KEY_LENGTH + " bytes!");
+            }
+
+            if (stateTtlMillis < 1 || completedExchangeTtlMillis < 0 || maxCompletedExchanges < 0) {
+                throw new GoogleApiConfigException("Callback settings are invalid!");
+            }
+
+            return new OAuthCallbackHandler(this);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package us.careydevelopment.util.api.google.callback;
+
+import com.google.api.client.auth.oauth2.Credential;
+
+/**
+ * The outcome of a successful OAuth callback.
+ */
+public class OAuthCallbackResult {
+
+    private final OAuthState state;
+    private final Credential credential;
+    private final boolean duplicate;
+
+    OAuthCallbackResult(OAuthState state, Credential credential, boolean duplicate) {
+        this.state = state;
+        this.credential = credential;
+        this.duplicate = duplicate;
+    }
+
+    public String getUserId() {
+        return state.getUserId();
+    }
+
+    /**
+     * @return the app state passed in when the authorization URL was built, or null
+     */
+    public String getAppState() {
+        return state.getAppState();
+    }
+
+    public Credential getCredential() {
+        return credential;
+    }
+
+    /**
+     * @return true if the code had already been exchanged by another callback, such as a browser retry
+     */
+    public boolean isDuplicate() {
+        return duplicate;
+    }
+}
@@ -0,0 +1,33 @@
+package us.careydevelopment.util.api.google.callback;
+
+/**
+ * What a verified state token says about the authorization it was issued for.
+ */
+public class OAuthState {
+
+    private final String userId;
+    private final String appState;
+    private final long issuedAtMillis;
+
+    OAuthState(String userId, String appState, long issuedAtMillis) {
+        this.userId = userId;
+        this.appState = appState;
+        this.issuedAtMillis = issuedAtMillis;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return whatever the application passed in when the token was issued, such as the page
+     *         to return to, or null
+     */
+    public String getAppState() {
+        return appState;
+    }
+
+    public long getIssuedAtMillis() {
+        return issuedAtMillis;
+    }
+}
@@ -0,0 +1,162 @@
+package us.careydevelopment.util.api.google.callback;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.function.LongSupplier;
+
+/**
+ * Issues and verifies the state tokens sent along with authorization requests.
+ *
+ * A token carries everything needed to check it, so nothing is stored on the server:
+ *
+ *     base64url(version (1) | issued at (8) | nonce (16) | user ID | app state) . base64url(HMAC-SHA256)
+ *
+ * The user ID and app state are modified UTF-8 with a length prefix, and the app state has
+ * a flag byte in front of it since it can be null. A token only verifies if its MAC matches and
+ * it isn't older than the time to live. The random nonce makes every token different, even
+ * for the same user in the same millisecond.
+ *
+ * Signers are thread-safe.
+ */
+public class StateTokenSigner {
+
+    static final byte VERSION = 1;
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int NONCE_LENGTH = 16;
+    private static final char SEPARATOR = '.';
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+
+    /**
+     * Setting up a Mac is slow compared to using one, so each thread keeps its own.
+     */
+    private final ThreadLocal<Mac> macs;
+
+    public StateTokenSigner(byte[] key, long ttlMillis) {
+        this(key, ttlMillis, System::currentTimeMillis);
+    }
+
+    StateTokenSigner(byte[] key, long ttlMillis, LongSupplier clock) {
+        this.key = new SecretKeySpec(key.clone(), ALGORITHM);
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    private Mac newMac() {
+        try {
+            final Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException ge) {
+            throw new IllegalStateException("HMAC-SHA256 isn't available!", ge);
+        }
+    }
+
+    /**
+     * @param userId
+     * @param appState anything the application wants back on the callback, or null
+     * @return signed state token
+     */
+    public String issue(String userId, String appState) {
+        final byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeLong(clock.getAsLong());
+            out.write(nonce);
+            out.writeUTF(userId);
+            out.writeBoolean(appState != null);
+
+            if (appState != null) {
+                out.writeUTF(appState);
+            }
+        } catch (IOException ie) {
+            throw new IllegalArgumentException("State is too long!", ie);
+        }
+
+        final byte[] payload = bytes.toByteArray();
+
+        return ENCODER.encodeToString(payload) + SEPARATOR + ENCODER.encodeToString(macs.get().doFinal(payload));
+    }
+
+    /**
+     * @param token
+     * @return what the token was issued for
+     * @throws InvalidStateException if the token is malformed, its MAC doesn't match, or it expired
+     */
+    public OAuthState verify(String token) {
+        if (token == null) {
+            throw new InvalidStateException("State is missing!");
+        }
+
+        final int separator = token.indexOf(SEPARATOR);
+        if (separator < 0) {
+            throw new InvalidStateException("State is malformed!");
+        }
+
+        final byte[] payload;
+        final byte[] signature;
+
+        try {
+            payload = DECODER.decode(token.substring(0, separator));
+            signature = DECODER.decode(token.substring(separator + 1));
+        } catch (IllegalArgumentException ie) {
+            throw new InvalidStateException("State is malformed!", ie);
+        }
+
+        // Compared in constant time so the MAC can't be guessed byte by byte
+        if (!MessageDigest.isEqual(macs.get().doFinal(payload), signature)) {
+            throw new InvalidStateException("State signature doesn't match!");
+        }
+
+        final OAuthState state = read(payload);
+
+        final long age = clock.getAsLong() - state.getIssuedAtMillis();
+        if (age < 0 || age > ttlMillis) {
+            throw new InvalidStateException("State has expired!");
+        }
+
+        return state;
+    }
+
+    private OAuthState read(byte[] payload) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            if (in.readByte() != VERSION) {
+                throw new InvalidStateException("State version isn't supported!");
+            }
+
+            final long issuedAt = in.readLong();
+            in.skipBytes(NONCE_LENGTH);
+            final String userId = in.readUTF();
+            final String appState = in.readBoolean() ? in.readUTF() : null;
+
+            return new OAuthState(userId, appState, issuedAt);
+        } catch (IOException ie) {
+            throw new InvalidStateException("State is malformed!", ie);
+        }
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+}
@@ -0,0 +1,69 @@
+package us.careydevelopment.util.api.google.cluster;
+
+/**
+ * Tells the other nodes that something happened to a user's credential.
+ *
+ * Events never carry tokens. Nodes that hear about an update read the new token from the
+ * shared credential store themselves.
+ */
+public class CredentialEvent {
+
+    public enum Type {
+
+        /**
+         * The user's token was refreshed or exchanged and saved to the credential store.
+         */
+        UPDATED,
+
+        /**
+         * Everything cached for the user must be dropped, such as after revocation.
+         */
+        EVICTED
+    }
+
+    private final Type type;
+    private final String clientId;
+    private final String userId;
+    private final String nodeId;
+    private final long timestampMillis;
+
+    public CredentialEvent(Type type, String clientId, String userId, String nodeId, long timestampMillis) {
+        this.type = type;
+        this.clientId = clientId;
+        this.userId = userId;
+        this.nodeId = nodeId;
+        this.timestampMillis = timestampMillis;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the OAuth client the user belongs to, since user IDs are only unique per client
+     */
+    public String getClientId() {
+        return clientId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return the node that published the event
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "CredentialEvent [type=" + type + ", clientId=" + clientId + ", userId=" + userId
+                + ", nodeId=" + nodeId + ", timestampMillis=" + timestampMillis + "]";
+    }
+}
@@ -0,0 +1,33 @@
+package us.careydevelopment.util.api.google.cluster;
+
+/**
+ * Carries credential events between the nodes that share a credential store.
+ *
+ * Clients implement this on top of whatever messaging they already run, such as Redis
+ * pub/sub, a message broker or a database notification channel. Events are small and it's
+ * fine to lose one now and then. A node that misses an update just refreshes the token
+ * itself, which is what it would do without a bus.
+ *
+ * Every node gets its own events back on most buses, so listeners should expect them.
+ * LocalCredentialEventBus connects configs in the same JVM, which is handy for tests.
+ */
+public interface CredentialEventBus {
+
+    /**
+     * Sends the event to every subscribed node. It shouldn't block for long, since it's
+     * called on the thread that refreshed or invalidated the credential.
+     *
+     * @param event
+     */
+    void publish(CredentialEvent event);
+
+    /**
+     * @param listener
+     */
+    void subscribe(CredentialEventListener listener);
+
+    /**
+     * @param listener
+     */
+    void unsubscribe(CredentialEventListener listener);
+}
@@ -0,0 +1,13 @@
+package us.careydevelopment.util.api.google.cluster;
+
+/**
+ * Hears about credential events published on a CredentialEventBus.
+ */
+@FunctionalInterface
+public interface CredentialEventListener {
+
+    /**
+     * @param event
+     */
+    void onEvent(CredentialEvent event);
+}
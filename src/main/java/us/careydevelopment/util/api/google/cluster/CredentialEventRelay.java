@@ -0,0 +1,171 @@
+package us.careydevelopment.util.api.google.cluster;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import com.google.api.client.auth.oauth2.TokenResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import us.careydevelopment.util.api.google.cache.BoundedCache;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.datastore.CachingCredentialDataStore;
+import us.careydevelopment.util.api.google.refresh.PeerTokenSource;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connects a GoogleApiConfig to a CredentialEventBus.
+ *
+ * It publishes an UPDATED event whenever this node gets a new token for a user and an
+ * EVICTED event whenever a user is invalidated. Events from other nodes are applied here:
+ *
+ * - UPDATED drops the user's cached StoredCredential and remembers that a peer has a newer
+ *   token. The next time one of the user's credentials on this node needs a refresh, it reads
+ *   that token from the shared store instead of calling the token endpoint.
+ * - EVICTED invalidates the user in this JVM without publishing again.
+ *
+ * With write-behind turned on, a peer can hear about a refresh before it's been saved. It then
+ * finds the old token in the store and refreshes on its own, as it would without the bus.
+ */
+public class CredentialEventRelay implements CredentialEventListener, PeerTokenSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CredentialEventRelay.class);
+
+    public static final int DEFAULT_MAX_PEER_UPDATES = 100_000;
+
+    /**
+     * Google access tokens last an hour, so older updates can't have a usable token.
+     */
+    private static final long PEER_UPDATE_TTL_MILLIS = 60 * 60 * 1000;
+
+    private static final long EXPIRY_SKEW_MILLIS = 60 * 1000;
+
+    private static final String BEARER = "Bearer";
+
+    private final GoogleApiConfig config;
+    private final CredentialEventBus bus;
+    private final String nodeId;
+    private final BoundedCache<String, Long> peerUpdates = new BoundedCache<>(DEFAULT_MAX_PEER_UPDATES, PEER_UPDATE_TTL_MILLIS);
+
+    private final LongAdder publishedCount = new LongAdder();
+    private final LongAdder appliedCount = new LongAdder();
+    private final LongAdder peerTokenCount = new LongAdder();
+
+    public CredentialEventRelay(GoogleApiConfig config, CredentialEventBus bus, String nodeId) {
+        this.config = config;
+        this.bus = bus;
+        this.nodeId = nodeId;
+    }
+
+    public void start() {
+        bus.subscribe(this);
+    }
+
+    public void stop() {
+        bus.unsubscribe(this);
+        peerUpdates.invalidateAll();
+    }
+
+    /**
+     * Tells the other nodes the user has a new token in the credential store.
+     *
+     * @param userId
+     */
+    public void publishUpdated(String userId) {
+        publish(CredentialEvent.Type.UPDATED, userId);
+    }
+
+    /**
+     * Tells the other nodes to drop everything cached for the user.
+     *
+     * @param userId
+     */
+    public void publishEvicted(String userId) {
+        publish(CredentialEvent.Type.EVICTED, userId);
+    }
+
+    /**
+     * A bus that's down mustn't break refreshes, so problems are only logged.
+     */
+    private void publish(CredentialEvent.Type type, String userId) {
+        try {
+            bus.publish(new CredentialEvent(type, config.getClientId(), userId, nodeId, System.currentTimeMillis()));
+            publishedCount.increment();
+        } catch (RuntimeException re) {
+            LOG.warn("Problem publishing {} event for user {}", type, userId, re);
+        }
+    }
+
+    @Override
+    public void onEvent(CredentialEvent event) {
+        if (nodeId.equals(event.getNodeId()) || !config.getClientId().equals(event.getClientId())) {
+            return;
+        }
+
+        appliedCount.increment();
+        final String userId = event.getUserId();
+
+        if (event.getType() == CredentialEvent.Type.UPDATED) {
+            if (config.getCredentialDataStore() instanceof CachingCredentialDataStore) {
+                ((CachingCredentialDataStore) config.getCredentialDataStore()).invalidate(userId);
+            }
+
+            peerUpdates.put(userId, event.getTimestampMillis());
+        } else {
+            peerUpdates.invalidate(userId);
+            config.invalidateLocally(userId);
+        }
+    }
+
+    /**
+     * Only reads the store if a peer said it has a newer token, so refreshes that no peer
+     * has done cost nothing extra.
+     */
+    @Override
+    public TokenResponse getPeerToken(String userId) throws IOException {
+        if (peerUpdates.getIfPresent(userId) == null) {
+            return null;
+        }
+
+        final StoredCredential stored = config.getCredentialDataStore().get(userId);
+        final long now = System.currentTimeMillis();
+        final Long expiration = (stored != null) ? stored.getExpirationTimeMilliseconds() : null;
+
+        if (stored == null || stored.getAccessToken() == null || expiration == null || expiration - now <= EXPIRY_SKEW_MILLIS) {
+            peerUpdates.invalidate(userId);
+            return null;
+        }
+
+        peerTokenCount.increment();
+
+        return new TokenResponse()
+                .setAccessToken(stored.getAccessToken())
+                .setRefreshToken(stored.getRefreshToken())
+                .setExpiresInSeconds((expiration - now) / 1000)
+                .setTokenType(BEARER);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return number of events this node published
+     */
+    public long getPublishedCount() {
+        return publishedCount.sum();
+    }
+
+    /**
+     * @return number of events from other nodes applied here
+     */
+    public long getAppliedCount() {
+        return appliedCount.sum();
+    }
+
+    /**
+     * @return number of refreshes that used a peer's token instead of calling the token endpoint
+     */
+    public long getPeerTokenCount() {
+        return peerTokenCount.sum();
+    }
+}
@@ -0,0 +1,45 @@
+package us.careydevelopment.util.api.google.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A CredentialEventBus that delivers events to the listeners in this JVM.
+ *
+ * Events are delivered right away on the publishing thread. Several configs built on one
+ * instance act like nodes of a cluster, which makes it a stand-in for a real bus in tests.
+ */
+public class LocalCredentialEventBus implements CredentialEventBus {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LocalCredentialEventBus.class);
+
+    private final List<CredentialEventListener> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(CredentialEvent event) {
+        for (CredentialEventListener listener : listeners) {
+            try {
+                listener.onEvent(event);
+            } catch (RuntimeException re) {
+                LOG.warn("Problem delivering {}", event, re);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(CredentialEventListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void unsubscribe(CredentialEventListener listener) {
+        listeners.remove(listener);
+    }
+
+    public int getListenerCount() {
+        return listeners.size();
+    }
+}
@@ -0,0 +1,32 @@
+package us.careydevelopment.util.api.google.cluster;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.auth.oauth2.CredentialRefreshListener;
+import com.google.api.client.auth.oauth2.TokenErrorResponse;
+import com.google.api.client.auth.oauth2.TokenResponse;
+
+/**
+ * Tells the other nodes about every token this node gets from a refresh.
+ *
+ * It's wrapped in a SingleFlightRefreshListener, so a refresh is only published by the
+ * credential that called the token endpoint.
+ */
+public class PublishingRefreshListener implements CredentialRefreshListener {
+
+    private final String userId;
+    private final CredentialEventRelay relay;
+
+    public PublishingRefreshListener(String userId, CredentialEventRelay relay) {
+        this.userId = userId;
+        this.relay = relay;
+    }
+
+    @Override
+    public void onTokenResponse(Credential credential, TokenResponse tokenResponse) {
+        relay.publishUpdated(userId);
+    }
+
+    @Override
+    public void onTokenErrorResponse(Credential credential, TokenErrorResponse tokenErrorResponse) {
+    }
+}
@@ -0,0 +1,17 @@
+package us.careydevelopment.util.api.google.codec;
+
+import java.io.IOException;
+
+/**
+ * Reads the encoded StoredCredential for a user from wherever the application keeps it.
+ */
+@FunctionalInterface
+public interface BlobReader {
+
+    /**
+     * @param id
+     * @return the blob, or null if the user doesn't have one
+     * @throws IOException
+     */
+    byte[] read(String id) throws IOException;
+}
@@ -0,0 +1,18 @@
+package us.careydevelopment.util.api.google.codec;
+
+import java.io.IOException;
+
+/**
+ * Saves the encoded StoredCredential for a user wherever the application keeps it.
+ */
+@FunctionalInterface
+public interface BlobWriter {
+
+    /**
+     * @param id
+     * @param blob
+     * @return true if the blob was saved
+     * @throws IOException
+     */
+    boolean write(String id, byte[] blob) throws IOException;
+}
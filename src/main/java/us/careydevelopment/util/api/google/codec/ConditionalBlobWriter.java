@@ -0,0 +1,26 @@
+package us.careydevelopment.util.api.google.codec;
+
+import java.io.IOException;
+
+/**
+ * Replaces the encoded StoredCredential for a user, but only if the stored blob is still
+ * the one that was read. It's what migrations write with, so a blob re-encoded from an old
+ * read can't overwrite a newer credential saved in the meantime.
+ *
+ * For example, with JDBC:
+ *
+ *     (id, expected, blob) -> credentialDao.update("UPDATE credential SET blob = ? WHERE id = ? AND blob = ?",
+ *             blob, id, expected) == 1
+ */
+@FunctionalInterface
+public interface ConditionalBlobWriter {
+
+    /**
+     * @param id
+     * @param expected the blob that was read
+     * @param blob
+     * @return true if the blob was replaced, false if the stored blob had changed
+     * @throws IOException
+     */
+    boolean writeIfUnchanged(String id, byte[] expected, byte[] blob) throws IOException;
+}
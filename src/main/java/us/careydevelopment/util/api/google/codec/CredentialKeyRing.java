@@ -0,0 +1,144 @@
+package us.careydevelopment.util.api.google.codec;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The AES keys StoredCredentialCodec encrypts and decrypts with.
+ *
+ * New blobs are always encrypted with the primary key. Every blob records the ID of the key
+ * that encrypted it, so older keys can stay in the ring to decrypt existing blobs after the
+ * primary key has been rotated.
+ *
+ * A key ring is immutable. The with methods return a new one.
+ */
+public class CredentialKeyRing {
+
+    private static final String ALGORITHM = "AES";
+    private static final int KEY_SIZE_BITS = 256;
+
+    private final int primaryKeyId;
+    private final Map<Integer, SecretKey> keys;
+
+    private CredentialKeyRing(int primaryKeyId, Map<Integer, SecretKey> keys) {
+        this.primaryKeyId = primaryKeyId;
+        this.keys = Collections.unmodifiableMap(keys);
+    }
+
+    /**
+     * Creates a key ring with a single key, which is also the primary key.
+     *
+     * @param keyId
+     * @param key
+     * @return key ring
+     */
+    public static CredentialKeyRing of(int keyId, SecretKey key) {
+        validate(keyId, key);
+
+        final Map<Integer, SecretKey> keys = new HashMap<>();
+        keys.put(keyId, key);
+
+        return new CredentialKeyRing(keyId, keys);
+    }
+
+    /**
+     * Wraps raw key bytes, such as ones loaded from a secrets manager.
+     *
+     * @param keyBytes 16, 24 or 32 bytes
+     * @return AES key
+     */
+    public static SecretKey toKey(byte[] keyBytes) {
+        if (keyBytes == null || (keyBytes.length != 16 && keyBytes.length != 24 && keyBytes.length != 32)) {
+            throw new IllegalArgumentException("AES keys must be 16, 24 or 32 bytes!");
+        }
+
+        return new SecretKeySpec(keyBytes, ALGORITHM);
+    }
+
+    /**
+     * Generates a new random 256-bit AES key.
+     *
+     * @return AES key
+     */
+    public static SecretKey newKey() {
+        try {
+            final KeyGenerator generator = KeyGenerator.getInstance(ALGORITHM);
+            generator.init(KEY_SIZE_BITS);
+            return generator.generateKey();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("AES isn't available!", e);
+        }
+    }
+
+    /**
+     * Adds a key that can decrypt blobs but doesn't encrypt new ones.
+     *
+     * @param keyId
+     * @param key
+     * @return new key ring
+     */
+    public CredentialKeyRing withKey(int keyId, SecretKey key) {
+        validate(keyId, key);
+
+        final Map<Integer, SecretKey> copy = new HashMap<>(keys);
+        copy.put(keyId, key);
+
+        return new CredentialKeyRing(primaryKeyId, copy);
+    }
+
+    /**
+     * Adds a key and makes it the primary key. The old primary key stays in the ring.
+     *
+     * @param keyId
+     * @param key
+     * @return new key ring
+     */
+    public CredentialKeyRing withPrimaryKey(int keyId, SecretKey key) {
+        return withKey(keyId, key).withPrimaryKeyId(keyId);
+    }
+
+    /**
+     * Makes a key that's already in the ring the primary key.
+     *
+     * @param keyId
+     * @return new key ring
+     */
+    public CredentialKeyRing withPrimaryKeyId(int keyId) {
+        if (!keys.containsKey(keyId)) {
+            throw new IllegalArgumentException("Key " + keyId + " isn't in the key ring!");
+        }
+
+        return new CredentialKeyRing(keyId, new HashMap<>(keys));
+    }
+
+    public int getPrimaryKeyId() {
+        return primaryKeyId;
+    }
+
+    SecretKey getPrimaryKey() {
+        return keys.get(primaryKeyId);
+    }
+
+    SecretKey getKey(int keyId) {
+        return keys.get(keyId);
+    }
+
+    public boolean containsKey(int keyId) {
+        return keys.containsKey(keyId);
+    }
+
+    private static void validate(int keyId, SecretKey key) {
+        if (keyId < 0) {
+            throw new IllegalArgumentException("Key ID can't be negative!");
+        }
+
+        if (key == null || !ALGORITHM.equals(key.getAlgorithm())) {
+            throw new IllegalArgumentException("Key must be an AES key!");
+        }
+    }
+}
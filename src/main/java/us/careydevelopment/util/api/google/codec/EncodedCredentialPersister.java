@@ -0,0 +1,34 @@
+package us.careydevelopment.util.api.google.codec;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import us.careydevelopment.api.google.datastore.util.StoredCredentialPersister;
+
+import java.io.IOException;
+
+/**
+ * A StoredCredentialPersister that encodes the credential with a StoredCredentialCodec
+ * and hands the bytes to a BlobWriter. Encrypted blobs are bound to the user's ID.
+ *
+ * For example, with JDBC:
+ *
+ *     new EncodedCredentialPersister((id, blob) -> credentialDao.upsert(id, blob), codec)
+ */
+public class EncodedCredentialPersister implements StoredCredentialPersister {
+
+    private final BlobWriter writer;
+    private final StoredCredentialCodec codec;
+
+    public EncodedCredentialPersister(BlobWriter writer, StoredCredentialCodec codec) {
+        this.writer = writer;
+        this.codec = codec;
+    }
+
+    @Override
+    public boolean persist(String id, StoredCredential storedCredential) throws IOException {
+        return writer.write(id, codec.encode(id, storedCredential));
+    }
+
+    public StoredCredentialCodec getCodec() {
+        return codec;
+    }
+}
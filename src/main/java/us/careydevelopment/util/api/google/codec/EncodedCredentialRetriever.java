@@ -0,0 +1,68 @@
+package us.careydevelopment.util.api.google.codec;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import us.careydevelopment.api.google.datastore.util.StoredCredentialRetriever;
+
+import java.io.IOException;
+
+/**
+ * A StoredCredentialRetriever that reads bytes from a BlobReader and decodes them with a
+ * StoredCredentialCodec.
+ *
+ * If it's given a ConditionalBlobWriter as well, blobs that aren't in the codec's current
+ * format get written back as they're read. That migrates Java-serialized rows and blobs
+ * encrypted with a retired key without a separate batch job. The write-back only happens if
+ * the row still holds the blob that was read, so it never replaces a newer credential.
+ */
+public class EncodedCredentialRetriever implements StoredCredentialRetriever {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EncodedCredentialRetriever.class);
+
+    private final BlobReader reader;
+    private final StoredCredentialCodec codec;
+    private final ConditionalBlobWriter migrationWriter;
+
+    public EncodedCredentialRetriever(BlobReader reader, StoredCredentialCodec codec) {
+        this(reader, codec, null);
+    }
+
+    /**
+     * @param reader
+     * @param codec
+     * @param migrationWriter writes re-encoded blobs back, or null to leave them alone
+     */
+    public EncodedCredentialRetriever(BlobReader reader, StoredCredentialCodec codec,
+                                      ConditionalBlobWriter migrationWriter) {
+        this.reader = reader;
+        this.codec = codec;
+        this.migrationWriter = migrationWriter;
+    }
+
+    @Override
+    public StoredCredential retrieve(String id) throws IOException {
+        final byte[] blob = reader.read(id);
+        if (blob == null) {
+            return null;
+        }
+
+        final StoredCredential credential = codec.decode(id, blob);
+
+        if (migrationWriter != null && codec.needsReencoding(blob)) {
+            try {
+                if (!migrationWriter.writeIfUnchanged(id, blob, codec.encode(id, credential))) {
+                    LOG.debug("Credential for user {} changed since it was read - not re-encoding it", id);
+                }
+            } catch (IOException ie) {
+                LOG.warn("Problem re-encoding credential for user {}", id, ie);
+            }
+        }
+
+        return credential;
+    }
+
+    public StoredCredentialCodec getCodec() {
+        return codec;
+    }
+}
@@ -0,0 +1,459 @@
+package us.careydevelopment.util.api.google.codec;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Turns a StoredCredential into a compact byte array and back. Persisters can store the
+ * bytes in a BLOB or BYTEA column, a cache, or a file.
+ *
+ * Plain blobs look like this:
+ *
+ *     version (1) | flags (1) | access token | refresh token | expiration
+ *
+ * Tokens are a varint length followed by UTF-8 bytes, and the expiration is a varint.
+ * A field that's null is left out and its flag bit isn't set.
+ *
+ * If the codec has a CredentialKeyRing, blobs are encrypted with AES-GCM instead:
+ *
+ *     version (1) | key ID (varint) | IV (12) | encrypted flags and fields | tag (16)
+ *
+ * The version byte and key ID are authenticated along with the fields, so a blob
+ * can't be tampered with or moved to another key without decoding failing. When the
+ * blob is encoded for a user ID, the ID is authenticated too, but it isn't stored. A blob
+ * copied to another user's row then fails to decode instead of handing out the first
+ * user's tokens. Pass the same ID to decode() that was passed to encode().
+ *
+ * Codecs are immutable and thread-safe.
+ */
+public class StoredCredentialCodec {
+
+    static final byte VERSION_PLAIN = 1;
+    static final byte VERSION_ENCRYPTED = 2;
+
+    private static final int FLAG_ACCESS_TOKEN = 1;
+    private static final int FLAG_REFRESH_TOKEN = 1 << 1;
+    private static final int FLAG_EXPIRATION = 1 << 2;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private static final byte JAVA_SERIALIZATION_MAGIC = (byte) 0xAC;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Looking up a Cipher is slow compared to using one, so each thread keeps its own.
+     */
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException ge) {
+            throw new IllegalStateException("AES-GCM isn't available!", ge);
+        }
+    });
+
+    private final CredentialKeyRing keyRing;
+    private final boolean javaSerializationAllowed;
+
+    /**
+     * Creates a codec that writes plain blobs.
+     */
+    public StoredCredentialCodec() {
+        this(null, false);
+    }
+
+    /**
+     * Creates a codec that encrypts blobs with the key ring's primary key.
+     *
+     * @param keyRing
+     */
+    public StoredCredentialCodec(CredentialKeyRing keyRing) {
+        this(keyRing, false);
+    }
+
+    private StoredCredentialCodec(CredentialKeyRing keyRing, boolean javaSerializationAllowed) {
+        this.keyRing = keyRing;
+        this.javaSerializationAllowed = javaSerializationAllowed;
+    }
+
+    /**
+     * Returns a codec that can also decode blobs written with Java serialization, so
+     * existing rows can be read while they're migrated. Only StoredCredential objects
+     * are deserialized. New blobs are always written in this codec's format.
+     *
+     * @return new codec
+     */
+    public StoredCredentialCodec allowingJavaSerialization() {
+        return new StoredCredentialCodec(keyRing, true);
+    }
+
+    /**
+     * Encodes a credential that isn't bound to a user ID.
+     *
+     * @param credential
+     * @return encoded blob
+     * @throws IOException
+     */
+    public byte[] encode(StoredCredential credential) throws IOException {
+        return encode(null, credential);
+    }
+
+    /**
+     * Encodes the user's credential. If the blob is encrypted, it can only be decoded
+     * with the same ID.
+     *
+     * @param id
+     * @param credential
+     * @return encoded blob
+     * @throws IOException
+     */
+    public byte[] encode(String id, StoredCredential credential) throws IOException {
+        final ByteWriter body = new ByteWriter(64);
+        writeFields(body, credential);
+
+        if (keyRing == null) {
+            final ByteWriter blob = new ByteWriter(body.size() + 1);
+            blob.write(VERSION_PLAIN);
+            blob.write(body.buffer(), 0, body.size());
+            return blob.toByteArray();
+        }
+
+        return encrypt(id, body);
+    }
+
+    /**
+     * Decodes a blob that isn't bound to a user ID.
+     *
+     * @param blob
+     * @return decoded StoredCredential
+     * @throws IOException if the blob is corrupt, was tampered with, or needs a key that
+     *                     isn't in the key ring
+     */
+    public StoredCredential decode(byte[] blob) throws IOException {
+        return decode(null, blob);
+    }
+
+    /**
+     * Decodes the user's blob.
+     *
+     * @param id
+     * @param blob
+     * @return decoded StoredCredential
+     * @throws IOException if the blob is corrupt, was tampered with, was encoded for
+     *                     another user, or needs a key that isn't in the key ring
+     */
+    public StoredCredential decode(String id, byte[] blob) throws IOException {
+        if (blob == null || blob.length == 0) {
+            throw new IOException("Blob is empty!");
+        }
+
+        switch (blob[0]) {
+            case VERSION_PLAIN:
+                return readFields(new ByteReader(blob, 1, blob.length));
+            case VERSION_ENCRYPTED:
+                return decrypt(id, blob);
+            case JAVA_SERIALIZATION_MAGIC:
+                if (!javaSerializationAllowed) {
+                    throw new IOException("Blob was written with Java serialization, which isn't allowed!");
+                }
+
+                return deserialize(blob);
+            default:
+                throw new IOException("Unsupported blob version " + blob[0] + "!");
+        }
+    }
+
+    /**
+     * Tells whether a blob should be encoded again, such as after the primary key was
+     * rotated. Callers can use this to migrate blobs as they're read.
+     *
+     * @param blob
+     * @return true if the blob isn't in the format this codec writes
+     */
+    public boolean needsReencoding(byte[] blob) {
+        if (blob == null || blob.length == 0) {
+            return false;
+        }
+
+        if (keyRing == null) {
+            return blob[0] != VERSION_PLAIN;
+        }
+
+        if (blob[0] != VERSION_ENCRYPTED) {
+            return true;
+        }
+
+        try {
+            return new ByteReader(blob, 1, blob.length).readVarInt() != keyRing.getPrimaryKeyId();
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    public boolean isEncrypting() {
+        return keyRing != null;
+    }
+
+    private byte[] encrypt(String id, ByteWriter body) throws IOException {
+        final ByteWriter blob = new ByteWriter(body.size() + IV_LENGTH + TAG_LENGTH_BITS / 8 + 6);
+        blob.write(VERSION_ENCRYPTED);
+        blob.writeVarInt(keyRing.getPrimaryKeyId());
+        final int headerLength = blob.size();
+
+        final byte[] iv = new byte[IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        blob.write(iv, 0, iv.length);
+
+        try {
+            final Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.ENCRYPT_MODE, keyRing.getPrimaryKey(), new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            cipher.updateAAD(blob.buffer(), 0, headerLength);
+            updateIdAad(cipher, id);
+
+            final byte[] sealed = cipher.doFinal(body.buffer(), 0, body.size());
+            blob.write(sealed, 0, sealed.length);
+        } catch (GeneralSecurityException ge) {
+            throw new IOException("Problem encrypting credential!", ge);
+        }
+
+        return blob.toByteArray();
+    }
+
+    private StoredCredential decrypt(String id, byte[] blob) throws IOException {
+        if (keyRing == null) {
+            throw new IOException("Blob is encrypted but the codec has no key ring!");
+        }
+
+        final ByteReader header = new ByteReader(blob, 1, blob.length);
+        final int keyId = header.readVarInt();
+        final int headerLength = header.position();
+
+        final SecretKey key = keyRing.getKey(keyId);
+        if (key == null) {
+            throw new IOException("Key " + keyId + " isn't in the key ring!");
+        }
+
+        if (blob.length < headerLength + IV_LENGTH + TAG_LENGTH_BITS / 8) {
+            throw new IOException("Blob is truncated!");
+        }
+
+        try {
+            final Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, blob, headerLength, IV_LENGTH));
+            cipher.updateAAD(blob, 0, headerLength);
+            updateIdAad(cipher, id);
+
+            final byte[] body = cipher.doFinal(blob, headerLength + IV_LENGTH, blob.length - headerLength - IV_LENGTH);
+            return readFields(new ByteReader(body, 0, body.length));
+        } catch (GeneralSecurityException ge) {
+            throw new IOException("Problem decrypting credential!", ge);
+        }
+    }
+
+    private static void updateIdAad(Cipher cipher, String id) {
+        if (id != null) {
+            cipher.updateAAD(id.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void writeFields(ByteWriter writer, StoredCredential credential) {
+        final String accessToken = credential.getAccessToken();
+        final String refreshToken = credential.getRefreshToken();
+        final Long expiration = credential.getExpirationTimeMilliseconds();
+
+        int flags = 0;
+        flags |= (accessToken != null) ? FLAG_ACCESS_TOKEN : 0;
+        flags |= (refreshToken != null) ? FLAG_REFRESH_TOKEN : 0;
+        flags |= (expiration != null) ? FLAG_EXPIRATION : 0;
+        writer.write((byte) flags);
+
+        if (accessToken != null) {
+            writer.writeString(accessToken);
+        }
+
+        if (refreshToken != null) {
+            writer.writeString(refreshToken);
+        }
+
+        if (expiration != null) {
+            writer.writeVarLong(expiration);
+        }
+    }
+
+    private static StoredCredential readFields(ByteReader reader) throws IOException {
+        final int flags = reader.readByte();
+        final StoredCredential credential = new StoredCredential();
+
+        if ((flags & FLAG_ACCESS_TOKEN) != 0) {
+            credential.setAccessToken(reader.readString());
+        }
+
+        if ((flags & FLAG_REFRESH_TOKEN) != 0) {
+            credential.setRefreshToken(reader.readString());
+        }
+
+        if ((flags & FLAG_EXPIRATION) != 0) {
+            credential.setExpirationTimeMilliseconds(reader.readVarLong());
+        }
+
+        return credential;
+    }
+
+    private static StoredCredential deserialize(byte[] blob) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(blob))) {
+            in.setObjectInputFilter(StoredCredentialCodec::filter);
+
+            return (StoredCredential) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Problem deserializing credential!", e);
+        }
+    }
+
+    /**
+     * Only lets through the classes a serialized StoredCredential is made of, including
+     * the lock it carries around.
+     */
+    private static ObjectInputFilter.Status filter(ObjectInputFilter.FilterInfo info) {
+        final Class<?> serialClass = info.serialClass();
+
+        if (serialClass == null || serialClass == StoredCredential.class || serialClass == Long.class
+                || serialClass == Number.class || serialClass.getName().startsWith("java.util.concurrent.locks.")) {
+            return ObjectInputFilter.Status.UNDECIDED;
+        }
+
+        return ObjectInputFilter.Status.REJECTED;
+    }
+
+    /**
+     * A growable byte buffer that hands out its backing array, so encoding doesn't copy
+     * more than it has to.
+     */
+    private static class ByteWriter {
+        private byte[] buffer;
+        private int size;
+
+        private ByteWriter(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        private void write(byte b) {
+            ensureCapacity(1);
+            buffer[size++] = b;
+        }
+
+        private void write(byte[] bytes, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(bytes, offset, buffer, size, length);
+            size += length;
+        }
+
+        private void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        private void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+
+            write((byte) value);
+        }
+
+        private void writeString(String value) {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+
+        private byte[] buffer() {
+            return buffer;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private byte[] toByteArray() {
+            return (size == buffer.length) ? buffer : Arrays.copyOf(buffer, size);
+        }
+    }
+
+    private static class ByteReader {
+        private final byte[] bytes;
+        private final int limit;
+        private int position;
+
+        private ByteReader(byte[] bytes, int position, int limit) {
+            this.bytes = bytes;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        private int readByte() throws IOException {
+            if (position >= limit) {
+                throw new IOException("Blob is truncated!");
+            }
+
+            return bytes[position++] & 0xFF;
+        }
+
+        private int readVarInt() throws IOException {
+            final long value = readVarLong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IOException("Blob is corrupt!");
+            }
+
+            return (int) value;
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+
+            throw new IOException("Blob is corrupt!");
+        }
+
+        private String readString() throws IOException {
+            final int length = readVarInt();
+            if (length > limit - position) {
+                throw new IOException("Blob is truncated!");
+            }
+
+            final String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        private int position() {
+            return position;
+        }
+    }
+}
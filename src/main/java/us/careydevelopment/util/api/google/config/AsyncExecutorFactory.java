@@ -0,0 +1,83 @@
+package us.careydevelopment.util.api.google.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executor that runs the asynchronous API calls.
+ *
+ * On Java 21 or later, it uses a virtual thread per task. The library still targets Java 11,
+ * so the virtual thread executor is looked up by reflection. On older runtimes, it falls back
+ * to a fixed pool of daemon threads.
+ */
+public class AsyncExecutorFactory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncExecutorFactory.class);
+
+    public static final int DEFAULT_POOL_SIZE = 16;
+
+    /**
+     * @param useVirtualThreads whether to use virtual threads when the runtime supports them
+     * @param poolSize size of the fallback pool
+     * @return executor for asynchronous calls
+     */
+    public static ExecutorService newExecutor(boolean useVirtualThreads, int poolSize) {
+        if (useVirtualThreads) {
+            final ExecutorService virtual = newVirtualThreadExecutor();
+            if (virtual != null) {
+                return virtual;
+            }
+        }
+
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new DaemonThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        return getVirtualThreadFactoryMethod() != null;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        final Method method = getVirtualThreadFactoryMethod();
+        if (method == null) {
+            return null;
+        }
+
+        try {
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOG.warn("Virtual threads are unavailable - falling back to a thread pool", e);
+            return null;
+        }
+    }
+
+    private static Method getVirtualThreadFactoryMethod() {
+        try {
+            return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "google-api-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
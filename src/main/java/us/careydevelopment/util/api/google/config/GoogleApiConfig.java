@@ -1,27 +1,71 @@
 package us.careydevelopment.util.api.google.config;
 
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.auth.oauth2.StoredCredential;
+import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.Sleeper;
+import com.google.api.client.util.store.DataStore;
+import com.google.api.services.gmail.Gmail;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import us.careydevelopment.api.google.datastore.GoogleDataStoreFactory;
 import us.careydevelopment.api.google.datastore.config.GoogleDataStoreConfig;
 import us.careydevelopment.api.google.datastore.util.StoredCredentialPersister;
 import us.careydevelopment.api.google.datastore.util.StoredCredentialRetriever;
+import us.careydevelopment.util.api.google.cache.BoundedCache;
+import us.careydevelopment.util.api.google.cache.FlowCacheIndex;
+import us.careydevelopment.util.api.google.cache.FlowCacheKey;
+import us.careydevelopment.util.api.google.cluster.CredentialEventBus;
+import us.careydevelopment.util.api.google.cluster.CredentialEventRelay;
+import us.careydevelopment.util.api.google.datastore.CachingCredentialDataStore;
+import us.careydevelopment.util.api.google.datastore.CredentialDataStoreFactory;
+import us.careydevelopment.util.api.google.datastore.InstrumentedCredentialDataStore;
+import us.careydevelopment.util.api.google.datastore.MappedCredentialStore;
+import us.careydevelopment.util.api.google.datastore.WriteBehindCredentialPersister;
 import us.careydevelopment.util.api.google.exception.GoogleApiConfigException;
+import us.careydevelopment.util.api.google.invalidation.CredentialInvalidationListener;
+import us.careydevelopment.util.api.google.metrics.MetricsRecorder;
+import us.careydevelopment.util.api.google.metrics.NoOpMetricsRecorder;
+import us.careydevelopment.util.api.google.metrics.OAuthEvent;
+import us.careydevelopment.util.api.google.ratelimit.RateLimitPolicy;
+import us.careydevelopment.util.api.google.ratelimit.RateLimiter;
+import us.careydevelopment.util.api.google.refresh.CredentialRefresher;
+import us.careydevelopment.util.api.google.refresh.RefreshCoordinator;
+import us.careydevelopment.util.api.google.resilience.CircuitBreaker;
+import us.careydevelopment.util.api.google.resilience.Hedger;
+import us.careydevelopment.util.api.google.resilience.TokenCallPolicy;
+import us.careydevelopment.util.api.google.resilience.TokenRequestInitializer;
+import us.careydevelopment.util.api.google.scope.GrantedScopes;
+import us.careydevelopment.util.api.google.scope.ScopeSet;
+import us.careydevelopment.util.api.google.url.AuthorizationUrlTemplate;
+import us.careydevelopment.util.api.google.url.UrlTemplateKey;
+import us.careydevelopment.util.api.google.warmup.WarmUp;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
 /**
  * The configuration class for all API activities.
  *
- * THis class must be instantiated using the Builder. It's a singleton so only one object will
- * ever exist.
+ * THis class must be instantiated using the Builder. There's one object per name, and most
+ * applications only need the default one.
+ *
+ * Applications that serve several OAuth clients from one JVM can build a named config for
+ * each client ID and secret. Every config has its own transport, caches and data store, and
+ * the utility classes have overloads that take the config to use.
  *
  * It's a good idea to instantiate this class with some initialization code within your
  * application.
@@ -30,16 +74,56 @@ public class GoogleApiConfig {
 
     private static final Logger LOG = LoggerFactory.getLogger(GoogleApiConfig.class);
 
+    public static final String DEFAULT_NAME = "default";
+
+    public static final int DEFAULT_FLOW_CACHE_MAX_SIZE = 10_000;
+    public static final long DEFAULT_FLOW_CACHE_TTL_MILLIS = 60 * 60 * 1000;
+    public static final int DEFAULT_URL_TEMPLATE_CACHE_MAX_SIZE = 100;
+    public static final int DEFAULT_GMAIL_CLIENT_CACHE_MAX_SIZE = 1_000;
+    public static final long DEFAULT_GMAIL_CLIENT_CACHE_TTL_MILLIS = 60 * 60 * 1000;
+    public static final int DEFAULT_BULK_CHUNK_SIZE = 500;
+    public static final int DEFAULT_BULK_REFRESH_CONCURRENCY = 8;
+
+    private String name;
     private String clientId;
     private String clientSecret;
     private StoredCredentialRetriever retriever;
     private StoredCredentialPersister persister;
     private List<String> scopes;
+    private ScopeSet scopeSet;
+    private boolean includeGrantedScopes;
+    private GrantedScopes grantedScopes;
     private HttpTransport transport;
     private JsonFactory jsonFactory;
     private String applicationName;
+    private boolean ownsTransport;
+    private BoundedCache<FlowCacheKey, GoogleAuthorizationCodeFlow> flowCache;
+    private final FlowCacheIndex flowCacheIndex = new FlowCacheIndex();
+    private final List<CredentialInvalidationListener> invalidationListeners = new CopyOnWriteArrayList<>();
+    private BoundedCache<UrlTemplateKey, AuthorizationUrlTemplate> urlTemplateCache;
+    private BoundedCache<String, Gmail> gmailClientCache;
+    private DataStore<StoredCredential> credentialDataStore;
+    private CredentialRefresher credentialRefresher;
+    private RefreshCoordinator refreshCoordinator;
+    private Hedger hedger;
+    private TokenRequestInitializer tokenRequestInitializer;
+    private RateLimiter rateLimiter;
+    private CredentialEventRelay credentialEventRelay;
+    private MetricsRecorder metricsRecorder;
+    private WriteBehindCredentialPersister writeBehindPersister;
+    private MappedCredentialStore localCredentialStore;
+    private StoredCredentialRetriever storeRetriever;
+    private StoredCredentialPersister storePersister;
+    private Executor asyncExecutor;
+    private boolean ownsAsyncExecutor;
+    private int bulkChunkSize;
+    private int bulkRefreshConcurrency;
+    private WarmUp warmUp = WarmUp.none();
 
-    private static GoogleApiConfig INSTANCE = null;
+    /**
+     * Lookups are lock-free. Building and shutting down configs is synchronized on the map.
+     */
+    private static final Map<String, GoogleApiConfig> INSTANCES = new ConcurrentHashMap<>();
 
     /**
      * Private constructor to prevent outside instantiation.
@@ -47,27 +131,214 @@ public class GoogleApiConfig {
      * @param builder
      */
     private GoogleApiConfig(Builder builder) {
+        this.name = builder.name;
         this.clientId = builder.clientId;
         this.clientSecret = builder.clientSecret;
         this.persister = builder.persister;
         this.retriever = builder.retriever;
         this.scopes = builder.scopes;
+        this.scopeSet = ScopeSet.of(builder.scopes);
+        this.includeGrantedScopes = builder.includeGrantedScopes;
         this.applicationName = builder.applicationName;
         this.jsonFactory = builder.jsonFactory;
         this.transport = builder.transport;
+        this.bulkChunkSize = builder.bulkChunkSize;
+        this.bulkRefreshConcurrency = builder.bulkRefreshConcurrency;
+        this.metricsRecorder = builder.metricsRecorder;
+
+        instantiateDependencies(builder);
+    }
+
+    private void instantiateDependencies(Builder builder) {
+        instantiateLocalCredentialStore(builder);
+        instantiateTransport(builder);
+
+        if (DEFAULT_NAME.equals(name)) {
+            instantiateDataStoreConfig();
+        }
+
+        instantiateCaches(builder);
+        instantiateWriteBehind(builder);
+        instantiateCredentialDataStore(builder);
+        instantiateCredentialRefresher(builder);
+        instantiateAsyncExecutor(builder);
+        instantiateTokenCalls(builder);
+        registerInvalidationListeners();
+        instantiateCredentialEventRelay(builder);
+    }
+
+    /**
+     * Only configs with an event bus share credential updates with other nodes.
+     */
+    private void instantiateCredentialEventRelay(Builder builder) {
+        if (builder.credentialEventBus != null) {
+            credentialEventRelay = new CredentialEventRelay(this, builder.credentialEventBus, builder.nodeId);
+            credentialEventRelay.start();
+        }
+    }
+
+    /**
+     * Everything in this config that holds on to a user's credential, flows or grant
+     * forgets the user when they're invalidated. URL templates aren't tied to a user,
+     * so they stay.
+     */
+    private void registerInvalidationListeners() {
+        invalidationListeners.add(userId -> flowCacheIndex.remove(userId).forEach(flowCache::invalidate));
+        invalidationListeners.add(grantedScopes::remove);
+        invalidationListeners.add(gmailClientCache::invalidate);
+
+        if (credentialDataStore instanceof CachingCredentialDataStore) {
+            invalidationListeners.add(((CachingCredentialDataStore) credentialDataStore)::invalidate);
+        }
+
+        if (credentialRefresher != null) {
+            invalidationListeners.add(credentialRefresher::untrack);
+        }
+
+        invalidationListeners.add(rateLimiter::untrack);
+    }
+
+    /**
+     * Every token endpoint call from this config shares one circuit breaker. Hedged
+     * refreshes run on the hedger's own threads, since refreshes are often started from
+     * the async executor. The hedger waits no longer than the policy's longest call.
+     */
+    private void instantiateTokenCalls(Builder builder) {
+        final TokenCallPolicy policy = builder.tokenCallPolicy;
+        final CircuitBreaker circuitBreaker = policy.isCircuitBreakerEnabled()
+                ? new CircuitBreaker(policy.getFailureThreshold(), policy.getOpenDurationMillis())
+                : null;
+        hedger = policy.isHedgingEnabled() ? new Hedger(policy.getHedgeDelayMillis(), policy.getMaxCallMillis()) : null;
 
-        instantiateDependencies();
+        rateLimiter = new RateLimiter(builder.rateLimitPolicy);
+        tokenRequestInitializer = new TokenRequestInitializer(policy, circuitBreaker, rateLimiter, Sleeper.DEFAULT);
+        refreshCoordinator = new RefreshCoordinator(metricsRecorder, hedger);
+    }
 
-        INSTANCE = this;
+    /**
+     * The local store stands in for both the retriever and the persister. This config
+     * opened it, so it closes it on shutdown.
+     */
+    private void instantiateLocalCredentialStore(Builder builder) {
+        if (builder.localCredentialStoreDirectory != null) {
+            try {
+                localCredentialStore = MappedCredentialStore.open(builder.localCredentialStoreDirectory);
+                retriever = localCredentialStore;
+                persister = localCredentialStore;
+            } catch (IOException ie) {
+                LOG.error("IO problem when opening the local credential store!", ie);
+                throw new GoogleApiConfigException(ie.getMessage(), ie);
+            }
+        }
     }
 
-    private void instantiateDependencies() {
-        instantiateDataStoreConfig();
+    /**
+     * Like the transport, an executor supplied by the client is left alone on shutdown.
+     */
+    private void instantiateAsyncExecutor(Builder builder) {
+        asyncExecutor = builder.asyncExecutor;
+
+        if (asyncExecutor == null) {
+            asyncExecutor = AsyncExecutorFactory.newExecutor(builder.virtualThreadsEnabled, builder.asyncPoolSize);
+            ownsAsyncExecutor = true;
+        }
+    }
+
+    /**
+     * The background refresher is opt-in. When it's off, tokens get refreshed the
+     * first time they're used after they expire.
+     */
+    private void instantiateCredentialRefresher(Builder builder) {
+        if (builder.backgroundRefreshEnabled) {
+            credentialRefresher = new CredentialRefresher(builder.refreshLeadTimeMillis,
+                    builder.refreshJitterMillis, builder.maxConcurrentRefreshes,
+                    builder.maxIdleRefreshes, builder.maxTrackedCredentials);
+        }
+    }
+
+    /**
+     * With write-behind turned on, the data store saves through a queue and reads through
+     * a view that sees what's still queued. Otherwise, it uses the retriever and persister
+     * as they are.
+     */
+    private void instantiateWriteBehind(Builder builder) {
+        storeRetriever = retriever;
+        storePersister = persister;
+
+        if (builder.writeBehindEnabled) {
+            writeBehindPersister = new WriteBehindCredentialPersister(persister, builder.writeBehindBatchSize,
+                    builder.writeBehindFlushIntervalMillis, builder.writeBehindMaxPending,
+                    WriteBehindCredentialPersister.DEFAULT_BACKPRESSURE_TIMEOUT_MILLIS);
+            storeRetriever = writeBehindPersister.readThrough(retriever);
+            storePersister = writeBehindPersister;
+        }
+    }
+
+    private void instantiateCaches(Builder builder) {
+        flowCache = new BoundedCache<>(builder.flowCacheMaxSize, builder.flowCacheTtlMillis,
+                new MetricsStatsListener(OAuthEvent.FLOW_CACHE_HIT, OAuthEvent.FLOW_CACHE_MISS), flowCacheIndex, flowCacheIndex);
+        urlTemplateCache = new BoundedCache<>(builder.urlTemplateCacheMaxSize, 0);
+        gmailClientCache = new BoundedCache<>(builder.gmailClientCacheMaxSize, builder.gmailClientCacheTtlMillis,
+                new MetricsStatsListener(OAuthEvent.GMAIL_CLIENT_CACHE_HIT, OAuthEvent.GMAIL_CLIENT_CACHE_MISS));
+        grantedScopes = new GrantedScopes(builder.grantedScopesMaxSize, builder.grantedScopesTtlMillis);
+    }
+
+    /**
+     * Gets the data store that reads and writes StoredCredential objects through this
+     * config's retriever and persister.
+     *
+     * If the credential cache is turned on, the data store gets wrapped so that still-valid
+     * access tokens are served from memory. Either way, reads and writes that reach the
+     * retriever and persister are timed by the metrics recorder.
+     */
+    private void instantiateCredentialDataStore(Builder builder) {
+        try {
+            final DataStore<StoredCredential> dataStore = new InstrumentedCredentialDataStore(
+                    new CredentialDataStoreFactory(storeRetriever, storePersister)
+                            .getDataStore(GoogleDataStoreFactory.CREDENTIAL_STORE_ID), metricsRecorder);
+
+            if (builder.credentialCacheMaxSize > 0) {
+                final BoundedCache<String, StoredCredential> cache =
+                        new BoundedCache<>(builder.credentialCacheMaxSize, builder.credentialCacheTtlMillis,
+                                new MetricsStatsListener(OAuthEvent.CREDENTIAL_CACHE_HIT, OAuthEvent.CREDENTIAL_CACHE_MISS));
+                credentialDataStore = new CachingCredentialDataStore(dataStore, cache);
+            } else {
+                credentialDataStore = dataStore;
+            }
+        } catch (IOException ie) {
+            LOG.error("IO problem when getting the credential data store!", ie);
+            throw new GoogleApiConfigException(ie.getMessage(), ie);
+        }
+    }
+
+    /**
+     * If the client didn't supply a transport, this config creates a pooled one and
+     * owns it. That means it's also responsible for closing it on shutdown.
+     *
+     * A transport supplied by the client is left alone on shutdown.
+     */
+    private void instantiateTransport(Builder builder) {
+        if (transport == null) {
+            try {
+                transport = PooledTransportFactory.newPooledTransport(builder.maxConnections,
+                        builder.maxConnectionsPerRoute, builder.idleTimeoutMillis);
+                ownsTransport = true;
+            } catch (IOException ie) {
+                LOG.error("IO problem when establishing transport!", ie);
+                throw new GoogleApiConfigException(ie.getMessage(), ie);
+            } catch (GeneralSecurityException ge) {
+                LOG.error("Security issue when establishing transport!", ge);
+                throw new GoogleApiConfigException(ge.getMessage(), ge);
+            }
+        }
     }
 
     /**
      * This data store holds the StoredCredential object that the
      * application will use to obtain access to various Google properties.
+     *
+     * It's process-wide, so only the default config sets it up. That keeps
+     * GoogleDataStoreFactory working for clients that use it directly.
      */
     private void instantiateDataStoreConfig() {
         GoogleDataStoreConfig.Builder
@@ -77,6 +348,10 @@ public class GoogleApiConfig {
                 .build();
     }
 
+    public String getName() {
+        return name;
+    }
+
     public String getClientId() {
         return clientId;
     }
@@ -93,10 +368,70 @@ public class GoogleApiConfig {
         return persister;
     }
 
+    /**
+     * The retriever the credential data store actually reads from. It's the one set with
+     * the Builder unless write-behind wraps it.
+     *
+     * @return effective retriever
+     */
+    public StoredCredentialRetriever getEffectiveRetriever() {
+        return storeRetriever;
+    }
+
+    /**
+     * The persister the credential data store actually writes to. It's the one set with
+     * the Builder unless write-behind wraps it.
+     *
+     * @return effective persister
+     */
+    public StoredCredentialPersister getEffectivePersister() {
+        return storePersister;
+    }
+
+    /**
+     * Returns null unless write-behind was turned on with the Builder.
+     *
+     * @return write-behind persister or null
+     */
+    public WriteBehindCredentialPersister getWriteBehindPersister() {
+        return writeBehindPersister;
+    }
+
+    /**
+     * Returns null unless a local credential store directory was set with the Builder.
+     *
+     * @return local credential store or null
+     */
+    public MappedCredentialStore getLocalCredentialStore() {
+        return localCredentialStore;
+    }
+
     public List<String> getScopes() {
         return scopes;
     }
 
+    /**
+     * The default scopes, normalized and interned.
+     *
+     * @return default scopes as a ScopeSet
+     */
+    public ScopeSet getScopeSet() {
+        return scopeSet;
+    }
+
+    /**
+     * The scopes each user is known to have granted.
+     *
+     * @return granted scopes
+     */
+    public GrantedScopes getGrantedScopes() {
+        return grantedScopes;
+    }
+
+    public boolean isIncludeGrantedScopes() {
+        return includeGrantedScopes;
+    }
+
     public HttpTransport getTransport() {
         return transport;
     }
@@ -109,21 +444,327 @@ public class GoogleApiConfig {
         return applicationName;
     }
 
+    /**
+     * The cache of GoogleAuthorizationCodeFlow objects keyed by user ID and scopes.
+     *
+     * Clients can check its hit and miss counts to size it.
+     *
+     * @return flow cache
+     */
+    public BoundedCache<FlowCacheKey, GoogleAuthorizationCodeFlow> getFlowCache() {
+        return flowCache;
+    }
+
+    /**
+     * The cache of precomputed authorization code URLs keyed by redirect URL and scopes.
+     *
+     * @return URL template cache
+     */
+    public BoundedCache<UrlTemplateKey, AuthorizationUrlTemplate> getUrlTemplateCache() {
+        return urlTemplateCache;
+    }
+
+    /**
+     * The cache of Gmail clients keyed by user ID.
+     *
+     * @return Gmail client cache
+     */
+    public BoundedCache<String, Gmail> getGmailClientCache() {
+        return gmailClientCache;
+    }
+
+    /**
+     * The data store every flow uses to load and save StoredCredential objects.
+     *
+     * It's a CachingCredentialDataStore if the credential cache is turned on.
+     *
+     * @return credential data store
+     */
+    public DataStore<StoredCredential> getCredentialDataStore() {
+        return credentialDataStore;
+    }
+
+    /**
+     * Makes sure only one token refresh per user is in flight at once.
+     *
+     * @return refresh coordinator
+     */
+    public RefreshCoordinator getRefreshCoordinator() {
+        return refreshCoordinator;
+    }
+
+    /**
+     * Tracks the flow cache keys of each user so their flows can be invalidated quickly.
+     *
+     * @return flow cache index
+     */
+    public FlowCacheIndex getFlowCacheIndex() {
+        return flowCacheIndex;
+    }
+
+    /**
+     * Adds a listener that's told whenever a user is invalidated, for clients that keep
+     * their own per-user caches.
+     *
+     * @param listener
+     */
+    public void addInvalidationListener(CredentialInvalidationListener listener) {
+        invalidationListeners.add(listener);
+    }
+
+    public void removeInvalidationListener(CredentialInvalidationListener listener) {
+        invalidationListeners.remove(listener);
+    }
+
+    /**
+     * Drops everything cached for the user. It doesn't touch the credential store.
+     *
+     * If there's a credential event bus, the other nodes are told to drop the user too.
+     *
+     * @param userId
+     */
+    public void invalidate(String userId) {
+        invalidateLocally(userId);
+
+        if (credentialEventRelay != null) {
+            credentialEventRelay.publishEvicted(userId);
+        }
+    }
+
+    /**
+     * Drops everything cached for the user in this JVM only. It's what applies an eviction
+     * published by another node.
+     *
+     * A listener that throws is logged and the rest still get called.
+     *
+     * @param userId
+     */
+    public void invalidateLocally(String userId) {
+        for (CredentialInvalidationListener listener : invalidationListeners) {
+            try {
+                listener.invalidate(userId);
+            } catch (RuntimeException re) {
+                LOG.warn("Problem invalidating user {}", userId, re);
+            }
+        }
+    }
+
+    /**
+     * The warm-up started by build(). If warm-up wasn't turned on with the Builder,
+     * it's already done.
+     *
+     * @return warm-up progress
+     */
+    public WarmUp getWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * Sets timeouts, retries and the circuit breaker on every call to the token endpoint.
+     *
+     * @return token request initializer
+     */
+    public TokenRequestInitializer getTokenRequestInitializer() {
+        return tokenRequestInitializer;
+    }
+
+    /**
+     * Limits how fast requests go out for the OAuth client and for each user. Token calls
+     * and Gmail clients from GmailClientUtil both go through it.
+     *
+     * @return rate limiter
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Shares credential updates and evictions with the other nodes.
+     *
+     * @return relay, or null if no credential event bus was set
+     */
+    public CredentialEventRelay getCredentialEventRelay() {
+        return credentialEventRelay;
+    }
+
+    /**
+     * Returns null if the circuit breaker was turned off in the TokenCallPolicy.
+     *
+     * @return circuit breaker or null
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return tokenRequestInitializer.getCircuitBreaker();
+    }
+
+    /**
+     * Where timings and counters for token operations go. It's a no-op recorder unless
+     * one was set with the Builder.
+     *
+     * @return metrics recorder
+     */
+    public MetricsRecorder getMetricsRecorder() {
+        return metricsRecorder;
+    }
+
+    /**
+     * The executor that runs AsyncCredentialUtil calls.
+     *
+     * @return async executor
+     */
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    public int getBulkChunkSize() {
+        return bulkChunkSize;
+    }
+
+    public int getBulkRefreshConcurrency() {
+        return bulkRefreshConcurrency;
+    }
+
+    /**
+     * Returns null unless background refresh was turned on with the Builder.
+     *
+     * @return background credential refresher or null
+     */
+    public CredentialRefresher getCredentialRefresher() {
+        return credentialRefresher;
+    }
+
     /**
      * Will only return the instance if the object has been created via the Builder.
      *
-     * @return GoogleApiConfig instance
+     * @return the default GoogleApiConfig instance
      */
     public static GoogleApiConfig getInstance() {
-        if (INSTANCE == null) {
-            throw new GoogleApiConfigException("GoogleApiConfig not built yet!");
+        return getInstance(DEFAULT_NAME);
+    }
+
+    /**
+     * Gets the config built with the given name.
+     *
+     * @param name
+     * @return GoogleApiConfig instance
+     */
+    public static GoogleApiConfig getInstance(String name) {
+        final GoogleApiConfig config = INSTANCES.get(name);
+
+        if (config == null) {
+            throw new GoogleApiConfigException("GoogleApiConfig " + name + " not built yet!");
         }
 
-        return INSTANCE;
+        return config;
+    }
+
+    /**
+     * @return names of all the configs that have been built
+     */
+    public static Set<String> getInstanceNames() {
+        return Set.copyOf(INSTANCES.keySet());
     }
 
+    /**
+     * Discards the default instance and releases the resources it owns,
+     * such as pooled connections.
+     */
     public static void shutdown() {
-        INSTANCE = null;
+        shutdown(DEFAULT_NAME);
+    }
+
+    /**
+     * Discards the named instance and releases the resources it owns.
+     *
+     * @param name
+     */
+    public static void shutdown(String name) {
+        final GoogleApiConfig config;
+
+        synchronized (INSTANCES) {
+            config = INSTANCES.remove(name);
+        }
+
+        if (config != null) {
+            config.release();
+        }
+    }
+
+    /**
+     * Discards every instance, default or named.
+     */
+    public static void shutdownAll() {
+        for (String name : getInstanceNames()) {
+            shutdown(name);
+        }
+    }
+
+    private void release() {
+        warmUp.cancel();
+
+        if (credentialEventRelay != null) {
+            credentialEventRelay.stop();
+        }
+
+        flowCache.invalidateAll();
+        flowCacheIndex.clear();
+        urlTemplateCache.invalidateAll();
+        gmailClientCache.invalidateAll();
+        grantedScopes.clear();
+
+        if (credentialRefresher != null) {
+            credentialRefresher.shutdown();
+        }
+
+        if (hedger != null) {
+            hedger.shutdown();
+        }
+
+        if (writeBehindPersister != null) {
+            writeBehindPersister.shutdown();
+        }
+
+        if (localCredentialStore != null) {
+            try {
+                localCredentialStore.close();
+            } catch (IOException ie) {
+                LOG.warn("Problem closing local credential store!", ie);
+            }
+        }
+
+        if (ownsAsyncExecutor && asyncExecutor instanceof ExecutorService) {
+            ((ExecutorService) asyncExecutor).shutdown();
+        }
+
+        if (ownsTransport) {
+            try {
+                transport.shutdown();
+            } catch (IOException ie) {
+                LOG.warn("Problem shutting down transport!", ie);
+            }
+        }
+    }
+
+    /**
+     * Turns cache hits and misses into metrics events.
+     */
+    private class MetricsStatsListener implements BoundedCache.StatsListener {
+        private final OAuthEvent hitEvent;
+        private final OAuthEvent missEvent;
+
+        private MetricsStatsListener(OAuthEvent hitEvent, OAuthEvent missEvent) {
+            this.hitEvent = hitEvent;
+            this.missEvent = missEvent;
+        }
+
+        @Override
+        public void hit() {
+            metricsRecorder.record(hitEvent);
+        }
+
+        @Override
+        public void miss() {
+            metricsRecorder.record(missEvent);
+        }
     }
 
     /**
@@ -134,33 +775,66 @@ public class GoogleApiConfig {
      */
     public static class Builder {
 
+        private String name = DEFAULT_NAME;
         private String clientId;
         private String clientSecret;
         private StoredCredentialRetriever retriever;
         private StoredCredentialPersister persister;
         private List<String> scopes = new ArrayList<>();
         private HttpTransport transport;
-        private JsonFactory jsonFactory = new GsonFactory();
+        private JsonFactory jsonFactory = GsonFactory.getDefaultInstance();
         private String applicationName;
+        private int maxConnections = PooledTransportFactory.DEFAULT_MAX_CONNECTIONS;
+        private int maxConnectionsPerRoute = PooledTransportFactory.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+        private long idleTimeoutMillis = PooledTransportFactory.DEFAULT_IDLE_TIMEOUT_MILLIS;
+        private int flowCacheMaxSize = DEFAULT_FLOW_CACHE_MAX_SIZE;
+        private long flowCacheTtlMillis = DEFAULT_FLOW_CACHE_TTL_MILLIS;
+        private int urlTemplateCacheMaxSize = DEFAULT_URL_TEMPLATE_CACHE_MAX_SIZE;
+        private int gmailClientCacheMaxSize = DEFAULT_GMAIL_CLIENT_CACHE_MAX_SIZE;
+        private long gmailClientCacheTtlMillis = DEFAULT_GMAIL_CLIENT_CACHE_TTL_MILLIS;
+        private int grantedScopesMaxSize = GrantedScopes.DEFAULT_MAX_SIZE;
+        private long grantedScopesTtlMillis = GrantedScopes.DEFAULT_TTL_MILLIS;
+        private int credentialCacheMaxSize = 0;
+        private long credentialCacheTtlMillis = 0;
+        private boolean backgroundRefreshEnabled = false;
+        private long refreshLeadTimeMillis = CredentialRefresher.DEFAULT_LEAD_TIME_MILLIS;
+        private long refreshJitterMillis = CredentialRefresher.DEFAULT_JITTER_MILLIS;
+        private int maxConcurrentRefreshes = CredentialRefresher.DEFAULT_MAX_CONCURRENT_REFRESHES;
+        private int maxIdleRefreshes = CredentialRefresher.DEFAULT_MAX_IDLE_REFRESHES;
+        private int maxTrackedCredentials = CredentialRefresher.DEFAULT_MAX_TRACKED;
+        private Executor asyncExecutor;
+        private boolean virtualThreadsEnabled = true;
+        private int asyncPoolSize = AsyncExecutorFactory.DEFAULT_POOL_SIZE;
+        private int bulkChunkSize = DEFAULT_BULK_CHUNK_SIZE;
+        private int bulkRefreshConcurrency = DEFAULT_BULK_REFRESH_CONCURRENCY;
+        private MetricsRecorder metricsRecorder = NoOpMetricsRecorder.INSTANCE;
+        private boolean writeBehindEnabled = false;
+        private int writeBehindBatchSize = WriteBehindCredentialPersister.DEFAULT_BATCH_SIZE;
+        private long writeBehindFlushIntervalMillis = WriteBehindCredentialPersister.DEFAULT_FLUSH_INTERVAL_MILLIS;
+        private int writeBehindMaxPending = WriteBehindCredentialPersister.DEFAULT_MAX_PENDING;
+        private Path localCredentialStoreDirectory;
+        private TokenCallPolicy tokenCallPolicy = TokenCallPolicy.defaultPolicy();
+        private RateLimitPolicy rateLimitPolicy = RateLimitPolicy.defaultPolicy();
+        private CredentialEventBus credentialEventBus;
+        private String nodeId = UUID.randomUUID().toString();
+        private boolean includeGrantedScopes = true;
+        private boolean warmUpEnabled = false;
+        private List<String> warmUpUserIds = new ArrayList<>();
 
         public static Builder instance() {
             return new Builder();
         }
 
         private Builder() {
-            setup();
         }
 
-        private void setup() {
-            try {
-                this.transport = GoogleNetHttpTransport.newTrustedTransport();
-            } catch (IOException ie) {
-                LOG.error("IO problem when establishing transport!", ie);
-                throw new GoogleApiConfigException(ie.getMessage());
-            } catch (GeneralSecurityException ge) {
-                LOG.error("Security issue when establishing transport!", ge);
-                throw new GoogleApiConfigException(ge.getMessage());
-            }
+        /**
+         * The name to register the config under. Leave it alone unless the application
+         * needs more than one OAuth client.
+         */
+        public Builder setName(String name) {
+            this.name = name;
+            return this;
         }
 
         public Builder setClientId(String clientId) {
@@ -188,6 +862,15 @@ public class GoogleApiConfig {
             return this;
         }
 
+        /**
+         * Whether authorization code URLs ask for incremental authorization. It's on by
+         * default, so users are only asked to consent to scopes they haven't granted yet.
+         */
+        public Builder setIncludeGrantedScopes(boolean includeGrantedScopes) {
+            this.includeGrantedScopes = includeGrantedScopes;
+            return this;
+        }
+
         public Builder setTransport(HttpTransport transport) {
             this.transport = transport;
             return this;
@@ -203,17 +886,340 @@ public class GoogleApiConfig {
             return this;
         }
 
+        /**
+         * Only applies when the framework creates the transport.
+         * It's ignored if a transport is set with setTransport().
+         */
+        public Builder setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * Only applies when the framework creates the transport.
+         * It's ignored if a transport is set with setTransport().
+         */
+        public Builder setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        /**
+         * How long a pooled connection can sit idle before it's closed.
+         * Only applies when the framework creates the transport.
+         */
+        public Builder setIdleTimeoutMillis(long idleTimeoutMillis) {
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * The maximum number of flows to cache. Set it to 0 to turn off flow caching.
+         */
+        public Builder setFlowCacheMaxSize(int flowCacheMaxSize) {
+            this.flowCacheMaxSize = flowCacheMaxSize;
+            return this;
+        }
+
+        /**
+         * How long a cached flow lives. Set it to 0 so flows only get evicted when the cache is full.
+         */
+        public Builder setFlowCacheTtlMillis(long flowCacheTtlMillis) {
+            this.flowCacheTtlMillis = flowCacheTtlMillis;
+            return this;
+        }
+
+        /**
+         * The maximum number of precomputed authorization URLs to keep. Each redirect URL
+         * and set of scopes needs one. Set it to 0 to build the URL on every call.
+         */
+        public Builder setUrlTemplateCacheMaxSize(int urlTemplateCacheMaxSize) {
+            this.urlTemplateCacheMaxSize = urlTemplateCacheMaxSize;
+            return this;
+        }
+
+        /**
+         * The maximum number of Gmail clients to keep, one per user. Set it to 0 to build
+         * a new client on every call.
+         */
+        public Builder setGmailClientCacheMaxSize(int gmailClientCacheMaxSize) {
+            this.gmailClientCacheMaxSize = gmailClientCacheMaxSize;
+            return this;
+        }
+
+        /**
+         * How long a cached Gmail client lives. Set it to 0 so clients only get evicted when
+         * the cache is full or their credential can't be refreshed.
+         */
+        public Builder setGmailClientCacheTtlMillis(long gmailClientCacheTtlMillis) {
+            this.gmailClientCacheTtlMillis = gmailClientCacheTtlMillis;
+            return this;
+        }
+
+        /**
+         * The maximum number of users whose granted scopes are remembered. Set it to 0 to
+         * learn a user's grant from a refresh every time it's needed.
+         */
+        public Builder setGrantedScopesMaxSize(int grantedScopesMaxSize) {
+            this.grantedScopesMaxSize = grantedScopesMaxSize;
+            return this;
+        }
+
+        /**
+         * How long a user's granted scopes are remembered after they were last seen in a
+         * token response. Set it to 0 so grants only get forgotten when the cache is full.
+         */
+        public Builder setGrantedScopesTtlMillis(long grantedScopesTtlMillis) {
+            this.grantedScopesTtlMillis = grantedScopesTtlMillis;
+            return this;
+        }
+
+        /**
+         * The maximum number of StoredCredential objects to keep in memory. The default
+         * is 0, which means every lookup goes to the StoredCredentialRetriever.
+         */
+        public Builder setCredentialCacheMaxSize(int credentialCacheMaxSize) {
+            this.credentialCacheMaxSize = credentialCacheMaxSize;
+            return this;
+        }
+
+        /**
+         * How long a cached StoredCredential lives, regardless of when its access token expires.
+         * The default is 0, which means only the token expiry matters.
+         */
+        public Builder setCredentialCacheTtlMillis(long credentialCacheTtlMillis) {
+            this.credentialCacheTtlMillis = credentialCacheTtlMillis;
+            return this;
+        }
+
+        /**
+         * Turns on background refresh of the credentials returned by CredentialUtil.
+         */
+        public Builder setBackgroundRefreshEnabled(boolean backgroundRefreshEnabled) {
+            this.backgroundRefreshEnabled = backgroundRefreshEnabled;
+            return this;
+        }
+
+        /**
+         * How long before expiry a tracked credential gets refreshed.
+         */
+        public Builder setRefreshLeadTimeMillis(long refreshLeadTimeMillis) {
+            this.refreshLeadTimeMillis = refreshLeadTimeMillis;
+            return this;
+        }
+
+        /**
+         * The maximum random amount of time subtracted from each scheduled refresh.
+         */
+        public Builder setRefreshJitterMillis(long refreshJitterMillis) {
+            this.refreshJitterMillis = refreshJitterMillis;
+            return this;
+        }
+
+        public Builder setMaxConcurrentRefreshes(int maxConcurrentRefreshes) {
+            this.maxConcurrentRefreshes = maxConcurrentRefreshes;
+            return this;
+        }
+
+        /**
+         * How many background refreshes in a row a credential gets without being used before
+         * it's no longer tracked.
+         */
+        public Builder setMaxIdleRefreshes(int maxIdleRefreshes) {
+            this.maxIdleRefreshes = maxIdleRefreshes;
+            return this;
+        }
+
+        /**
+         * The most users whose credentials are refreshed in the background at once.
+         */
+        public Builder setMaxTrackedCredentials(int maxTrackedCredentials) {
+            this.maxTrackedCredentials = maxTrackedCredentials;
+            return this;
+        }
+
+        /**
+         * The executor for AsyncCredentialUtil. If it's not set, the framework creates one.
+         */
+        public Builder setAsyncExecutor(Executor asyncExecutor) {
+            this.asyncExecutor = asyncExecutor;
+            return this;
+        }
+
+        /**
+         * Whether the framework's async executor uses virtual threads when running on Java 21
+         * or later. It's on by default.
+         */
+        public Builder setVirtualThreadsEnabled(boolean virtualThreadsEnabled) {
+            this.virtualThreadsEnabled = virtualThreadsEnabled;
+            return this;
+        }
+
+        /**
+         * The number of threads in the framework's async executor when virtual threads aren't used.
+         */
+        public Builder setAsyncPoolSize(int asyncPoolSize) {
+            this.asyncPoolSize = asyncPoolSize;
+            return this;
+        }
+
+        /**
+         * How many IDs BulkCredentialUtil retrieves at a time.
+         */
+        public Builder setBulkChunkSize(int bulkChunkSize) {
+            this.bulkChunkSize = bulkChunkSize;
+            return this;
+        }
+
+        /**
+         * How many expired tokens BulkCredentialUtil refreshes at once.
+         */
+        public Builder setBulkRefreshConcurrency(int bulkRefreshConcurrency) {
+            this.bulkRefreshConcurrency = bulkRefreshConcurrency;
+            return this;
+        }
+
+        /**
+         * Where to send timings and counters for token operations, such as an
+         * InMemoryMetricsRecorder or an adapter for a metrics library. Nothing is
+         * recorded by default.
+         */
+        public Builder setMetricsRecorder(MetricsRecorder metricsRecorder) {
+            this.metricsRecorder = metricsRecorder;
+            return this;
+        }
+
+        /**
+         * Saves credentials on a background thread in batches instead of on the thread
+         * that refreshed them. Whatever is queued gets saved on shutdown.
+         */
+        public Builder setWriteBehindEnabled(boolean writeBehindEnabled) {
+            this.writeBehindEnabled = writeBehindEnabled;
+            return this;
+        }
+
+        /**
+         * How many credentials write-behind saves at a time. A full batch also triggers a flush.
+         */
+        public Builder setWriteBehindBatchSize(int writeBehindBatchSize) {
+            this.writeBehindBatchSize = writeBehindBatchSize;
+            return this;
+        }
+
+        /**
+         * How often write-behind saves what's queued.
+         */
+        public Builder setWriteBehindFlushIntervalMillis(long writeBehindFlushIntervalMillis) {
+            this.writeBehindFlushIntervalMillis = writeBehindFlushIntervalMillis;
+            return this;
+        }
+
+        /**
+         * How many users can be waiting to be saved. Past that, saves slow down to the
+         * speed of the persister.
+         */
+        public Builder setWriteBehindMaxPending(int writeBehindMaxPending) {
+            this.writeBehindMaxPending = writeBehindMaxPending;
+            return this;
+        }
+
+        /**
+         * Keeps credentials in a MappedCredentialStore in this directory instead of going
+         * through a retriever and persister, for deployments without a database.
+         *
+         * To encrypt the credentials, open a MappedCredentialStore with an encrypting codec
+         * and set it as both the retriever and the persister instead.
+         */
+        public Builder setLocalCredentialStoreDirectory(Path localCredentialStoreDirectory) {
+            this.localCredentialStoreDirectory = localCredentialStoreDirectory;
+            return this;
+        }
+
+        /**
+         * Timeouts, retries, circuit breaking and hedging for calls to the token endpoint.
+         */
+        public Builder setTokenCallPolicy(TokenCallPolicy tokenCallPolicy) {
+            this.tokenCallPolicy = tokenCallPolicy;
+            return this;
+        }
+
+        /**
+         * How fast requests can go out for the OAuth client and for each user. Nothing is
+         * limited by default.
+         */
+        public Builder setRateLimitPolicy(RateLimitPolicy rateLimitPolicy) {
+            this.rateLimitPolicy = rateLimitPolicy;
+            return this;
+        }
+
+        /**
+         * Shares token refreshes and evictions with the other nodes that use the same
+         * credential store, so the cluster refreshes each token once. It's off by default.
+         */
+        public Builder setCredentialEventBus(CredentialEventBus credentialEventBus) {
+            this.credentialEventBus = credentialEventBus;
+            return this;
+        }
+
+        /**
+         * Identifies this node on the credential event bus. It's a random UUID if not set.
+         */
+        public Builder setNodeId(String nodeId) {
+            this.nodeId = nodeId;
+            return this;
+        }
+
+        /**
+         * Warms up the config in the background right after it's built. See WarmUp for
+         * what that involves. Check getWarmUp() on the config to see how far along it is.
+         */
+        public Builder setWarmUpEnabled(boolean warmUpEnabled) {
+            this.warmUpEnabled = warmUpEnabled;
+            return this;
+        }
+
+        /**
+         * Users whose credentials get loaded during warm-up, hottest first.
+         */
+        public Builder setWarmUpUserIds(List<String> warmUpUserIds) {
+            this.warmUpUserIds = warmUpUserIds;
+            return this;
+        }
+
+        /**
+         * Builds and registers the config, unless one with the same name already exists.
+         * In that case, the existing one is returned.
+         *
+         * Only one thread builds at a time, so two threads can't both create a config
+         * with the same name.
+         */
         public GoogleApiConfig build() {
-            if (INSTANCE == null) {
+            synchronized (INSTANCES) {
+                final GoogleApiConfig existing = (name != null) ? INSTANCES.get(name) : null;
+
+                if (existing != null) {
+                    LOG.warn("GoogleApiConfig {} already exists - returning existing instance.", name);
+                    return existing;
+                }
+
                 validate();
-                return new GoogleApiConfig(this);
-            } else {
-                LOG.warn("GoogleApiConfig already exists - returning existing instance.");
-                return INSTANCE;
+                final GoogleApiConfig config = new GoogleApiConfig(this);
+                if (warmUpEnabled) {
+                    config.warmUp = WarmUp.of(config, warmUpUserIds);
+                }
+
+                INSTANCES.put(name, config);
+                config.warmUp.start(config.asyncExecutor);
+
+                return config;
             }
         }
 
         private void validate() {
+            if (StringUtils.isBlank(name)) {
+                throw new GoogleApiConfigException("Name is null!");
+            }
+
             if (StringUtils.isBlank(clientId)) {
                 throw new GoogleApiConfigException("Client ID is null!");
             }
@@ -222,13 +1228,82 @@ public class GoogleApiConfig {
                 throw new GoogleApiConfigException("Client Secret is null!");
             }
 
-            if (persister == null) {
+            if (localCredentialStoreDirectory != null && (persister != null || retriever != null)) {
+                throw new GoogleApiConfigException("Set either a local credential store or a retriever and persister!");
+            }
+
+            if (persister == null && localCredentialStoreDirectory == null) {
                 throw new GoogleApiConfigException("Stored credential persister is null!");
             }
 
-            if (retriever == null) {
+            if (retriever == null && localCredentialStoreDirectory == null) {
                 throw new GoogleApiConfigException("Store credential retriever is null!");
             }
+
+            if (jsonFactory == null) {
+                throw new GoogleApiConfigException("JSON factory is null!");
+            }
+
+            if (metricsRecorder == null) {
+                throw new GoogleApiConfigException("Metrics recorder is null!");
+            }
+
+            if (warmUpEnabled && warmUpUserIds == null) {
+                throw new GoogleApiConfigException("Warm-up user IDs are null!");
+            }
+
+            if (tokenCallPolicy == null) {
+                throw new GoogleApiConfigException("Token call policy is null!");
+            }
+
+            if (rateLimitPolicy == null) {
+                throw new GoogleApiConfigException("Rate limit policy is null!");
+            }
+
+            if (credentialEventBus != null && StringUtils.isBlank(nodeId)) {
+                throw new GoogleApiConfigException("Node ID is null!");
+            }
+
+            if (maxConnections < 1 || maxConnectionsPerRoute < 1) {
+                throw new GoogleApiConfigException("Connection pool sizes must be positive!");
+            }
+
+            if (flowCacheMaxSize < 0) {
+                throw new GoogleApiConfigException("Flow cache size can't be negative!");
+            }
+
+            if (urlTemplateCacheMaxSize < 0) {
+                throw new GoogleApiConfigException("URL template cache size can't be negative!");
+            }
+
+            if (gmailClientCacheMaxSize < 0) {
+                throw new GoogleApiConfigException("Gmail client cache size can't be negative!");
+            }
+
+            if (grantedScopesMaxSize < 0) {
+                throw new GoogleApiConfigException("Granted scopes size can't be negative!");
+            }
+
+            if (credentialCacheMaxSize < 0) {
+                throw new GoogleApiConfigException("Credential cache size can't be negative!");
+            }
+
+            if (asyncExecutor == null && asyncPoolSize < 1) {
+                throw new GoogleApiConfigException("Async pool size must be positive!");
+            }
+
+            if (bulkChunkSize < 1 || bulkRefreshConcurrency < 1) {
+                throw new GoogleApiConfigException("Bulk settings must be positive!");
+            }
+
+            if (writeBehindEnabled && (writeBehindBatchSize < 1 || writeBehindFlushIntervalMillis < 1 || writeBehindMaxPending < 1)) {
+                throw new GoogleApiConfigException("Write-behind settings must be positive!");
+            }
+
+            if (backgroundRefreshEnabled && (maxConcurrentRefreshes < 1 || refreshLeadTimeMillis < 0 || refreshJitterMillis < 0
+                    || maxIdleRefreshes < 1 || maxTrackedCredentials < 1)) {
+                throw new GoogleApiConfigException("Background refresh settings are invalid!");
+            }
         }
     }
 }
@@ -0,0 +1,71 @@
+package us.careydevelopment.util.api.google.config;
+
+import com.google.api.client.googleapis.GoogleUtils;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
+import com.google.api.client.util.SslUtils;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the HttpTransport that GoogleApiConfig shares across every flow,
+ * token request and API client.
+ *
+ * The transport is backed by a pooled Apache HTTP client so connections to Google's
+ * endpoints are kept alive and reused instead of being renegotiated on every call.
+ * Like GoogleNetHttpTransport, it only trusts Google's certificate trust store.
+ */
+public class PooledTransportFactory {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 200;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60_000;
+
+    /**
+     * Creates a new pooled transport.
+     *
+     * @param maxConnections
+     * @param maxConnectionsPerRoute
+     * @param idleTimeoutMillis
+     * @return ApacheHttpTransport backed by a connection pool
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public static ApacheHttpTransport newPooledTransport(int maxConnections, int maxConnectionsPerRoute,
+                                                         long idleTimeoutMillis) throws IOException, GeneralSecurityException {
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(getSocketFactoryRegistry());
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        final CloseableHttpClient httpClient = ApacheHttpTransport
+                .newDefaultHttpClientBuilder()
+                .setConnectionManager(connectionManager)
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+
+        return new ApacheHttpTransport(httpClient);
+    }
+
+    private static Registry<ConnectionSocketFactory> getSocketFactoryRegistry() throws IOException, GeneralSecurityException {
+        final KeyStore trustStore = GoogleUtils.getCertificateTrustStore();
+        final SSLContext sslContext = SslUtils.getTlsSslContext();
+        SslUtils.initSslContext(sslContext, trustStore, SslUtils.getPkixTrustManagerFactory());
+
+        return RegistryBuilder
+                .<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(sslContext))
+                .build();
+    }
+}
@@ -0,0 +1,25 @@
+package us.careydevelopment.util.api.google.datastore;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import us.careydevelopment.api.google.datastore.util.StoredCredentialPersister;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * An optional extension of StoredCredentialPersister for stores that can save
+ * many credentials in one statement.
+ *
+ * If the persister set in GoogleApiConfig implements this interface and write-behind is
+ * turned on, each batch gets saved with a single persistAll() call.
+ */
+public interface BatchStoredCredentialPersister extends StoredCredentialPersister {
+
+    /**
+     * Saves the StoredCredential objects for the given IDs.
+     *
+     * @param credentials Map of ID to StoredCredential
+     * @throws IOException
+     */
+    void persistAll(Map<String, StoredCredential> credentials) throws IOException;
+}
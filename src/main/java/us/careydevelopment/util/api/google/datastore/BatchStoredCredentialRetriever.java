@@ -0,0 +1,29 @@
+package us.careydevelopment.util.api.google.datastore;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import us.careydevelopment.api.google.datastore.util.StoredCredentialRetriever;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * An optional extension of StoredCredentialRetriever for stores that can look up
+ * many credentials in one query.
+ *
+ * If the retriever set in GoogleApiConfig implements this interface, BulkCredentialUtil
+ * calls retrieveAll() once per chunk of IDs instead of calling retrieve() once per ID.
+ */
+public interface BatchStoredCredentialRetriever extends StoredCredentialRetriever {
+
+    /**
+     * Retrieves the StoredCredential objects for the given IDs.
+     *
+     * IDs without a stored credential can be left out of the returned Map.
+     *
+     * @param ids
+     * @return Map of ID to StoredCredential
+     * @throws IOException
+     */
+    Map<String, StoredCredential> retrieveAll(Collection<String> ids) throws IOException;
+}
@@ -0,0 +1,164 @@
+package us.careydevelopment.util.api.google.datastore;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import com.google.api.client.util.Clock;
+import com.google.api.client.util.store.AbstractDataStore;
+import com.google.api.client.util.store.DataStore;
+import us.careydevelopment.util.api.google.cache.BoundedCache;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * A read-through, write-through cache in front of the data store that holds
+ * StoredCredential objects.
+ *
+ * Reads are served from memory as long as the cached access token is still valid.
+ * Once the token is close to expiring, the read goes to the underlying data store
+ * (and so to the StoredCredentialRetriever).
+ *
+ * Writes, such as the ones from createAndStoreCredential() or a refresh listener,
+ * go to the underlying data store first and then update the cache.
+ *
+ * A read that races a write or delete doesn't cache what it read, since that may be
+ * older than what was just written.
+ */
+public class CachingCredentialDataStore extends AbstractDataStore<StoredCredential> {
+
+    /**
+     * Tokens that expire within this window aren't served from the cache.
+     */
+    public static final long DEFAULT_EXPIRY_SKEW_MILLIS = 60_000;
+
+    private final DataStore<StoredCredential> delegate;
+    private final BoundedCache<String, StoredCredential> cache;
+    private final Clock clock;
+    private final long expirySkewMillis;
+
+    public CachingCredentialDataStore(DataStore<StoredCredential> delegate, BoundedCache<String, StoredCredential> cache) {
+        this(delegate, cache, Clock.SYSTEM, DEFAULT_EXPIRY_SKEW_MILLIS);
+    }
+
+    public CachingCredentialDataStore(DataStore<StoredCredential> delegate, BoundedCache<String, StoredCredential> cache,
+                                      Clock clock, long expirySkewMillis) {
+        super(delegate.getDataStoreFactory(), delegate.getId());
+        this.delegate = delegate;
+        this.cache = cache;
+        this.clock = clock;
+        this.expirySkewMillis = expirySkewMillis;
+    }
+
+    @Override
+    public StoredCredential get(String key) throws IOException {
+        final StoredCredential cached = cache.getIfPresent(key, this::isValid);
+        if (cached != null) {
+            return cached;
+        }
+
+        final long stamp = cache.stamp(key);
+        final StoredCredential stored = delegate.get(key);
+        if (stored != null && isValid(stored)) {
+            cache.putIfUnchanged(key, stored, stamp);
+        }
+
+        return stored;
+    }
+
+    @Override
+    public DataStore<StoredCredential> set(String key, StoredCredential value) throws IOException {
+        delegate.set(key, value);
+
+        if (value != null) {
+            cache.put(key, value);
+        } else {
+            cache.invalidate(key);
+        }
+
+        return this;
+    }
+
+    @Override
+    public DataStore<StoredCredential> delete(String key) throws IOException {
+        delegate.delete(key);
+        cache.invalidate(key);
+        return this;
+    }
+
+    @Override
+    public DataStore<StoredCredential> clear() throws IOException {
+        delegate.clear();
+        cache.invalidateAll();
+        return this;
+    }
+
+    @Override
+    public Set<String> keySet() throws IOException {
+        return delegate.keySet();
+    }
+
+    @Override
+    public Collection<StoredCredential> values() throws IOException {
+        return delegate.values();
+    }
+
+    /**
+     * Returns the cached StoredCredential if its access token is still valid. It never goes
+     * to the underlying data store.
+     *
+     * @param key
+     * @return cached StoredCredential or null
+     */
+    public StoredCredential getIfCached(String key) {
+        return cache.getIfPresent(key, this::isValid);
+    }
+
+    /**
+     * Takes a stamp for the key before reading it from the underlying store some other way.
+     *
+     * @param key
+     * @return stamp to hand to cacheIfValid()
+     */
+    public long stamp(String key) {
+        return cache.stamp(key);
+    }
+
+    /**
+     * Caches a StoredCredential that was read from the underlying store some other way,
+     * such as with a batch query. Nothing gets written to the underlying store. It isn't
+     * cached if the key was written or deleted since the stamp was taken.
+     *
+     * @param key
+     * @param value
+     * @param stamp from stamp(), taken before the read
+     */
+    public void cacheIfValid(String key, StoredCredential value, long stamp) {
+        if (value != null && isValid(value)) {
+            cache.putIfUnchanged(key, value, stamp);
+        }
+    }
+
+    /**
+     * Drops the cached StoredCredential without touching the underlying store.
+     *
+     * @param key
+     */
+    public void invalidate(String key) {
+        cache.invalidate(key);
+    }
+
+    public BoundedCache<String, StoredCredential> getCache() {
+        return cache;
+    }
+
+    public DataStore<StoredCredential> getDelegate() {
+        return delegate;
+    }
+
+    private boolean isValid(StoredCredential credential) {
+        final Long expiration = credential.getExpirationTimeMilliseconds();
+        return credential.getAccessToken() != null
+                && expiration != null
+                && expiration - expirySkewMillis > clock.currentTimeMillis();
+    }
+}
@@ -0,0 +1,95 @@
+package us.careydevelopment.util.api.google.datastore;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import com.google.api.client.util.store.AbstractDataStore;
+import com.google.api.client.util.store.AbstractDataStoreFactory;
+import com.google.api.client.util.store.DataStore;
+import com.google.api.client.util.store.DataStoreFactory;
+import us.careydevelopment.api.google.datastore.util.StoredCredentialPersister;
+import us.careydevelopment.api.google.datastore.util.StoredCredentialRetriever;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Creates data stores that read and write StoredCredential objects through one
+ * retriever and persister.
+ *
+ * Unlike GoogleDataStoreFactory, which always goes through the process-wide
+ * GoogleDataStoreConfig, every GoogleApiConfig gets its own instance of this factory.
+ * That way, several OAuth clients in one JVM can keep their credentials in different places.
+ */
+public class CredentialDataStoreFactory extends AbstractDataStoreFactory {
+
+    private final StoredCredentialRetriever retriever;
+    private final StoredCredentialPersister persister;
+
+    public CredentialDataStoreFactory(StoredCredentialRetriever retriever, StoredCredentialPersister persister) {
+        this.retriever = retriever;
+        this.persister = persister;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected <V extends Serializable> DataStore<V> createDataStore(String id) throws IOException {
+        return (DataStore<V>) new CredentialDataStore(this, id);
+    }
+
+    public StoredCredentialRetriever getRetriever() {
+        return retriever;
+    }
+
+    public StoredCredentialPersister getPersister() {
+        return persister;
+    }
+
+    /**
+     * Retrievers and persisters can only look up and save one credential, so listing
+     * credentials isn't supported here. Removing one only works if the persister is a
+     * DeletableStoredCredentialPersister.
+     */
+    private class CredentialDataStore extends AbstractDataStore<StoredCredential> {
+
+        private CredentialDataStore(DataStoreFactory dataStoreFactory, String id) {
+            super(dataStoreFactory, id);
+        }
+
+        @Override
+        public StoredCredential get(String key) throws IOException {
+            return retriever.retrieve(key);
+        }
+
+        @Override
+        public DataStore<StoredCredential> set(String key, StoredCredential value) throws IOException {
+            persister.persist(key, value);
+            return this;
+        }
+
+        @Override
+        public DataStore<StoredCredential> delete(String key) throws IOException {
+            if (persister instanceof DeletableStoredCredentialPersister) {
+                ((DeletableStoredCredentialPersister) persister).delete(key);
+            }
+
+            return this;
+        }
+
+        @Override
+        public DataStore<StoredCredential> clear() {
+            return this;
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Collection<StoredCredential> values() {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package us.careydevelopment.util.api.google.datastore;
+
+import us.careydevelopment.api.google.datastore.util.StoredCredentialPersister;
+
+import java.io.IOException;
+
+/**
+ * An optional extension of StoredCredentialPersister for stores that can remove a credential.
+ *
+ * If the persister set in GoogleApiConfig implements this interface, deleting a credential
+ * through the data store, or with CredentialRevocationUtil, removes it from the store.
+ * Otherwise the stored credential is left where it is.
+ */
+public interface DeletableStoredCredentialPersister extends StoredCredentialPersister {
+
+    /**
+     * Removes the StoredCredential for the ID. Removing one that isn't there is fine.
+     *
+     * @param id
+     * @throws IOException
+     */
+    void delete(String id) throws IOException;
+}
@@ -0,0 +1,81 @@
+package us.careydevelopment.util.api.google.datastore;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import com.google.api.client.util.store.AbstractDataStore;
+import com.google.api.client.util.store.DataStore;
+import us.careydevelopment.util.api.google.metrics.MetricsRecorder;
+import us.careydevelopment.util.api.google.metrics.OAuthOperation;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Times every read and write of the data store that sits on top of the
+ * StoredCredentialRetriever and StoredCredentialPersister.
+ */
+public class InstrumentedCredentialDataStore extends AbstractDataStore<StoredCredential> {
+
+    private final DataStore<StoredCredential> delegate;
+    private final MetricsRecorder metrics;
+
+    public InstrumentedCredentialDataStore(DataStore<StoredCredential> delegate, MetricsRecorder metrics) {
+        super(delegate.getDataStoreFactory(), delegate.getId());
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public StoredCredential get(String key) throws IOException {
+        final MetricsRecorder.Sample sample = metrics.start(OAuthOperation.RETRIEVE);
+        boolean success = false;
+
+        try {
+            final StoredCredential stored = delegate.get(key);
+            success = true;
+            return stored;
+        } finally {
+            sample.stop(success);
+        }
+    }
+
+    @Override
+    public DataStore<StoredCredential> set(String key, StoredCredential value) throws IOException {
+        final MetricsRecorder.Sample sample = metrics.start(OAuthOperation.PERSIST);
+        boolean success = false;
+
+        try {
+            delegate.set(key, value);
+            success = true;
+            return this;
+        } finally {
+            sample.stop(success);
+        }
+    }
+
+    @Override
+    public DataStore<StoredCredential> delete(String key) throws IOException {
+        delegate.delete(key);
+        return this;
+    }
+
+    @Override
+    public DataStore<StoredCredential> clear() throws IOException {
+        delegate.clear();
+        return this;
+    }
+
+    @Override
+    public Set<String> keySet() throws IOException {
+        return delegate.keySet();
+    }
+
+    @Override
+    public Collection<StoredCredential> values() throws IOException {
+        return delegate.values();
+    }
+
+    public DataStore<StoredCredential> getDelegate() {
+        return delegate;
+    }
+}
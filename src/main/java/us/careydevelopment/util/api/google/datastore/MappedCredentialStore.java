@@ -0,0 +1,545 @@
+package us.careydevelopment.util.api.google.datastore;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import us.careydevelopment.util.api.google.codec.StoredCredentialCodec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A single-node credential store for deployments that don't have a database. It's both
+ * the retriever and the persister, so it can be handed straight to GoogleApiConfig.
+ *
+ * Credentials are appended to a log file that's memory-mapped. An in-memory index points
+ * each user at their latest record, so a lookup is a hash map hit plus a decode.
+ *
+ * Every record carries its length and a CRC32. When the store opens, it replays the log and
+ * stops at the first record that's incomplete or corrupt, which is what a crash in the middle
+ * of a write leaves behind. Everything after that point is zeroed out. With synced writes,
+ * each write is flushed to disk before persist() returns.
+ *
+ * Superseded records are garbage. Once there's more garbage than live data, compaction
+ * writes the live records to a new file and atomically swaps it in.
+ *
+ * Only one process can open a store directory at a time.
+ */
+public class MappedCredentialStore implements BatchStoredCredentialRetriever, ScannableStoredCredentialRetriever,
+        DeletableStoredCredentialPersister, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedCredentialStore.class);
+
+    public static final String LOG_FILE_NAME = "credentials.log";
+    public static final long DEFAULT_COMPACTION_INTERVAL_MILLIS = 10 * 60 * 1000;
+
+    private static final String COMPACT_FILE_NAME = LOG_FILE_NAME + ".compact";
+    private static final String LOCK_FILE_NAME = "credentials.lock";
+
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_DELETE = 2;
+
+    /**
+     * Length, CRC, type and ID length.
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 1 + 2;
+    private static final int INITIAL_CAPACITY = 1024 * 1024;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+    private static final int MIN_COMPACTION_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final StoredCredentialCodec codec;
+    private final boolean syncWrites;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final ScheduledExecutorService compactor;
+
+    private FileChannel channel;
+    private int end;
+    private long garbageBytes;
+    private volatile State state;
+    private volatile boolean closed;
+
+    /**
+     * A mapped log and the index into it. Every offset in the index is inside the buffer,
+     * so a reader that holds on to one State can't be pointed past the end of its buffer.
+     * That's why the index is copied, not shared, whenever the log is remapped.
+     */
+    private static class State {
+        private final MappedByteBuffer buffer;
+        private final Map<String, Integer> index;
+
+        private State(MappedByteBuffer buffer, Map<String, Integer> index) {
+            this.buffer = buffer;
+            this.index = index;
+        }
+    }
+
+    private MappedCredentialStore(Path directory, StoredCredentialCodec codec, boolean syncWrites,
+                                  long compactionIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.codec = codec;
+        this.syncWrites = syncWrites;
+
+        Files.createDirectories(directory);
+        this.lockChannel = FileChannel.open(directory.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.lock = tryLock(lockChannel);
+
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Credential store " + directory + " is already in use!");
+        }
+
+        Files.deleteIfExists(directory.resolve(COMPACT_FILE_NAME));
+        recover();
+
+        if (compactionIntervalMillis > 0) {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                final Thread thread = new Thread(runnable, "google-api-store-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::compactIfNeeded, compactionIntervalMillis, compactionIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+            this.compactor = executor;
+        } else {
+            this.compactor = null;
+        }
+    }
+
+    /**
+     * Returns null if another process, or another store in this JVM, holds the lock.
+     */
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Opens the store in the directory, creating it if needed. Credentials are stored
+     * unencrypted and every write is synced.
+     *
+     * @param directory
+     * @return open store
+     * @throws IOException
+     */
+    public static MappedCredentialStore open(Path directory) throws IOException {
+        return open(directory, new StoredCredentialCodec(), true, DEFAULT_COMPACTION_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param directory
+     * @param codec encodes the credentials, and can encrypt them
+     * @param syncWrites whether each write is flushed to disk before it returns
+     * @param compactionIntervalMillis how often to check whether compaction is due; 0 turns it off
+     * @return open store
+     * @throws IOException
+     */
+    public static MappedCredentialStore open(Path directory, StoredCredentialCodec codec, boolean syncWrites,
+                                             long compactionIntervalMillis) throws IOException {
+        return new MappedCredentialStore(directory, codec, syncWrites, compactionIntervalMillis);
+    }
+
+    @Override
+    public StoredCredential retrieve(String id) throws IOException {
+        final State current = state;
+        final Integer offset = current.index.get(id);
+
+        if (offset == null) {
+            return null;
+        }
+
+        return codec.decode(id, readValue(current.buffer, offset));
+    }
+
+    @Override
+    public Map<String, StoredCredential> retrieveAll(Collection<String> ids) throws IOException {
+        final State current = state;
+        final Map<String, StoredCredential> found = new HashMap<>();
+
+        for (String id : ids) {
+            final Integer offset = current.index.get(id);
+            if (offset != null) {
+                found.put(id, codec.decode(id, readValue(current.buffer, offset)));
+            }
+        }
+
+        return found;
+    }
+
+    @Override
+    public boolean persist(String id, StoredCredential storedCredential) throws IOException {
+        if (storedCredential == null) {
+            delete(id);
+            return true;
+        }
+
+        append(TYPE_PUT, id, codec.encode(id, storedCredential));
+        return true;
+    }
+
+    /**
+     * Removes the user's credential.
+     *
+     * @param id
+     * @throws IOException
+     */
+    @Override
+    public void delete(String id) throws IOException {
+        if (state.index.containsKey(id)) {
+            append(TYPE_DELETE, id, new byte[0]);
+        }
+    }
+
+    public boolean contains(String id) {
+        return state.index.containsKey(id);
+    }
+
+    public int size() {
+        return state.index.size();
+    }
+
+    /**
+     * Streams the IDs straight off the index without copying them. IDs added or removed
+     * while the stream is consumed may or may not show up.
+     */
+    @Override
+    public Stream<String> streamIds() {
+        return state.index.keySet().stream();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return bytes taken up by records that have been superseded or deleted
+     */
+    public synchronized long getGarbageBytes() {
+        return garbageBytes;
+    }
+
+    /**
+     * @return bytes of the log in use, live and garbage
+     */
+    public synchronized int getLogBytes() {
+        return end;
+    }
+
+    /**
+     * Rewrites the log with only the live records.
+     *
+     * The new log is written to a separate file and synced before it replaces the old one,
+     * so a crash during compaction leaves the old log untouched. The directory is synced
+     * after the swap, so the new log survives a crash too.
+     *
+     * @throws IOException
+     */
+    public synchronized void compact() throws IOException {
+        ensureOpen();
+
+        final Path compactFile = directory.resolve(COMPACT_FILE_NAME);
+        final State current = state;
+        final Map<String, Integer> newIndex = new ConcurrentHashMap<>();
+        int position = 0;
+
+        try (FileChannel out = FileChannel.open(compactFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<String, Integer> entry : current.index.entrySet()) {
+                final ByteBuffer record = current.buffer.duplicate();
+                final int offset = entry.getValue();
+                final int size = recordSizeAt(record, offset);
+
+                record.position(offset).limit(offset + size);
+                newIndex.put(entry.getKey(), position);
+
+                while (record.hasRemaining()) {
+                    out.write(record);
+                }
+
+                position += size;
+            }
+
+            out.force(true);
+        }
+
+        channel.close();
+        Files.move(compactFile, logFile(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+
+        LOG.debug("Compacted credential store from {} to {} bytes", end, position);
+
+        channel = FileChannel.open(logFile(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        end = position;
+        garbageBytes = 0;
+        state = new State(map(Math.max(INITIAL_CAPACITY, nextCapacity(position))), newIndex);
+    }
+
+    /**
+     * Stops compaction and flushes the log. The store can't be used afterward.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+
+        state.buffer.force();
+        channel.close();
+        lock.release();
+        lockChannel.close();
+    }
+
+    private synchronized void append(byte type, String id, byte[] value) throws IOException {
+        ensureOpen();
+
+        final byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        if (idBytes.length > 0xFFFF) {
+            throw new IOException("ID is too long!");
+        }
+
+        final int payloadLength = 1 + 2 + idBytes.length + value.length;
+        final int recordSize = 8 + payloadLength;
+        ensureCapacity(recordSize);
+
+        final MappedByteBuffer buffer = state.buffer;
+        final int offset = end;
+
+        buffer.put(offset + 8, type);
+        buffer.putShort(offset + 9, (short) idBytes.length);
+        final ByteBuffer body = buffer.duplicate();
+        body.position(offset + HEADER_SIZE);
+        body.put(idBytes);
+        body.put(value);
+
+        final CRC32 crc = new CRC32();
+        final ByteBuffer payload = buffer.duplicate();
+        payload.position(offset + 8).limit(offset + recordSize);
+        crc.update(payload);
+
+        buffer.putInt(offset + 4, (int) crc.getValue());
+        buffer.putInt(offset, payloadLength);
+
+        if (syncWrites) {
+            buffer.force();
+        }
+
+        end += recordSize;
+        apply(buffer, state.index, type, id, offset, recordSize);
+    }
+
+    /**
+     * Points the index at the new record and counts whatever it replaced as garbage.
+     * A delete record is garbage as soon as it's written.
+     */
+    private void apply(ByteBuffer buffer, Map<String, Integer> index, byte type, String id, int offset, int recordSize) {
+        final Integer previous = (type == TYPE_PUT) ? index.put(id, offset) : index.remove(id);
+
+        if (previous != null) {
+            garbageBytes += recordSizeAt(buffer, previous);
+        }
+
+        if (type == TYPE_DELETE) {
+            garbageBytes += recordSize;
+        }
+    }
+
+    private static int recordSizeAt(ByteBuffer buffer, int offset) {
+        return 8 + buffer.getInt(offset);
+    }
+
+    /**
+     * Replays the log into the index and cuts it off at the first bad record.
+     */
+    private void recover() throws IOException {
+        channel = FileChannel.open(logFile(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        final long fileSize = channel.size();
+        if (fileSize > MAX_CAPACITY) {
+            throw new IOException("Credential log is too large!");
+        }
+
+        final MappedByteBuffer buffer = map(Math.max(INITIAL_CAPACITY, (int) fileSize));
+        final Map<String, Integer> index = new ConcurrentHashMap<>();
+        state = new State(buffer, index);
+
+        int offset = 0;
+        while (true) {
+            final int recordSize = validRecordSize(buffer, offset);
+            if (recordSize < 0) {
+                break;
+            }
+
+            final int idLength = Short.toUnsignedInt(buffer.getShort(offset + 9));
+            final byte[] idBytes = new byte[idLength];
+            final ByteBuffer id = buffer.duplicate();
+            id.position(offset + HEADER_SIZE);
+            id.get(idBytes);
+
+            apply(buffer, index, buffer.get(offset + 8), new String(idBytes, StandardCharsets.UTF_8), offset, recordSize);
+            offset += recordSize;
+        }
+
+        end = offset;
+        zeroFrom(buffer, offset);
+
+        LOG.debug("Opened credential store with {} credentials", index.size());
+    }
+
+    /**
+     * @return size of the record at the offset, or -1 if there isn't a complete, intact one
+     */
+    private int validRecordSize(ByteBuffer buffer, int offset) {
+        if (offset + HEADER_SIZE > buffer.capacity()) {
+            return -1;
+        }
+
+        final int payloadLength = buffer.getInt(offset);
+        if (payloadLength < HEADER_SIZE - 8 || payloadLength > buffer.capacity() - offset - 8) {
+            return -1;
+        }
+
+        final byte type = buffer.get(offset + 8);
+        final int idLength = Short.toUnsignedInt(buffer.getShort(offset + 9));
+        if ((type != TYPE_PUT && type != TYPE_DELETE) || idLength > payloadLength - 3) {
+            return -1;
+        }
+
+        final CRC32 crc = new CRC32();
+        final ByteBuffer payload = buffer.duplicate();
+        payload.position(offset + 8).limit(offset + 8 + payloadLength);
+        crc.update(payload);
+
+        return ((int) crc.getValue() == buffer.getInt(offset + 4)) ? 8 + payloadLength : -1;
+    }
+
+    /**
+     * Clears anything left after the last good record, so a partly written record can't
+     * be mistaken for a good one once new records are written over it.
+     */
+    private void zeroFrom(MappedByteBuffer buffer, int offset) {
+        int dirtyFrom = -1;
+        for (int i = offset; i < buffer.capacity() && dirtyFrom < 0; i++) {
+            if (buffer.get(i) != 0) {
+                dirtyFrom = i;
+            }
+        }
+
+        if (dirtyFrom < 0) {
+            return;
+        }
+
+        LOG.warn("Credential log had an incomplete record at offset {} - it was discarded", offset);
+
+        final byte[] zeros = new byte[8192];
+        final ByteBuffer tail = buffer.duplicate();
+        tail.position(offset);
+
+        while (tail.hasRemaining()) {
+            tail.put(zeros, 0, Math.min(zeros.length, tail.remaining()));
+        }
+
+        buffer.force();
+    }
+
+    private byte[] readValue(ByteBuffer mapped, int offset) {
+        final ByteBuffer buffer = mapped.duplicate();
+        final int payloadLength = buffer.getInt(offset);
+        final int idLength = Short.toUnsignedInt(buffer.getShort(offset + 9));
+        final byte[] value = new byte[payloadLength - 3 - idLength];
+
+        buffer.position(offset + HEADER_SIZE + idLength);
+        buffer.get(value);
+
+        return value;
+    }
+
+    private void ensureCapacity(int recordSize) throws IOException {
+        final long needed = (long) end + recordSize;
+        if (needed <= state.buffer.capacity()) {
+            return;
+        }
+
+        if (needed > MAX_CAPACITY) {
+            throw new IOException("Credential log is full!");
+        }
+
+        state = new State(map(nextCapacity((int) needed)), new ConcurrentHashMap<>(state.index));
+    }
+
+    /**
+     * Makes the rename durable. Without this, a crash right after compaction can bring
+     * back the old log on some file systems. Not every platform can open a directory,
+     * so a failure is only logged.
+     */
+    private void syncDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException ie) {
+            LOG.debug("Couldn't sync credential store directory {}", directory, ie);
+        }
+    }
+
+    private int nextCapacity(int needed) {
+        long capacity = INITIAL_CAPACITY;
+        while (capacity < needed) {
+            capacity *= 2;
+        }
+
+        return (int) Math.min(capacity, MAX_CAPACITY);
+    }
+
+    private MappedByteBuffer map(int capacity) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private Path logFile() {
+        return directory.resolve(LOG_FILE_NAME);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Credential store is closed!");
+        }
+    }
+
+    private synchronized void compactIfNeeded() {
+        if (closed || end < MIN_COMPACTION_SIZE || garbageBytes * 2 < end) {
+            return;
+        }
+
+        try {
+            compact();
+        } catch (IOException ie) {
+            LOG.warn("Problem compacting credential store!", ie);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package us.careydevelopment.util.api.google.datastore;
+
+import us.careydevelopment.api.google.datastore.util.StoredCredentialRetriever;
+
+import java.io.IOException;
+import java.util.stream.Stream;
+
+/**
+ * An optional extension of StoredCredentialRetriever for stores that can list the IDs
+ * they hold.
+ *
+ * CredentialAuditor needs it to go over the whole store. The stream should be lazy, such
+ * as a database cursor, so listing hundreds of thousands of IDs doesn't load them all at
+ * once. It gets closed when the caller is done with it.
+ */
+public interface ScannableStoredCredentialRetriever extends StoredCredentialRetriever {
+
+    /**
+     * @return Stream of every ID with a stored credential
+     * @throws IOException
+     */
+    Stream<String> streamIds() throws IOException;
+}
@@ -0,0 +1,387 @@
+package us.careydevelopment.util.api.google.datastore;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import us.careydevelopment.api.google.datastore.util.StoredCredentialPersister;
+import us.careydevelopment.api.google.datastore.util.StoredCredentialRetriever;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A StoredCredentialPersister that queues credentials and saves them in batches on a
+ * background thread, so token refreshes don't wait on the database.
+ *
+ * Only the latest credential per user is kept, so a user whose token is refreshed twice
+ * before the next flush costs one write. A flush happens every flush interval, or sooner
+ * once a full batch is waiting.
+ *
+ * The number of users waiting to be saved is capped. Once the cap is reached, callers wait
+ * up to the backpressure timeout for room. If there's still none, the credential is saved
+ * right away on the caller's thread, so nothing is ever dropped. That save waits for a
+ * flush in progress, so it can't be overwritten by an older credential from that flush.
+ *
+ * Reads should go through the retriever returned by readThrough(). Otherwise, a credential
+ * that's still queued won't be seen.
+ *
+ * Deleting a user drops anything queued for them and waits for a flush in progress, so a
+ * deleted credential can't be written back afterwards.
+ */
+public class WriteBehindCredentialPersister implements DeletableStoredCredentialPersister {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindCredentialPersister.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+    public static final int DEFAULT_MAX_PENDING = 10_000;
+    public static final long DEFAULT_BACKPRESSURE_TIMEOUT_MILLIS = 100;
+
+    private final StoredCredentialPersister delegate;
+    private final int batchSize;
+    private final long backpressureTimeoutMillis;
+
+    /**
+     * Every entry holds one permit, so the number of pending users never exceeds the cap.
+     */
+    private final Map<String, StoredCredential> pending = new ConcurrentHashMap<>();
+    private final Semaphore permits;
+    private final Object flushLock = new Object();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Queuing holds the read lock and shutdown takes the write lock to flip the flag, so
+     * nothing can be queued after the final flush or hand the executor a task once it's
+     * been shut down.
+     */
+    private final ReadWriteLock shutdownLock = new ReentrantReadWriteLock();
+    private volatile boolean shutdown;
+
+    public WriteBehindCredentialPersister(StoredCredentialPersister delegate) {
+        this(delegate, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_MAX_PENDING,
+                DEFAULT_BACKPRESSURE_TIMEOUT_MILLIS);
+    }
+
+    public WriteBehindCredentialPersister(StoredCredentialPersister delegate, int batchSize, long flushIntervalMillis,
+                                          int maxPending, long backpressureTimeoutMillis) {
+        this.delegate = delegate;
+        this.batchSize = batchSize;
+        this.backpressureTimeoutMillis = backpressureTimeoutMillis;
+        this.permits = new Semaphore(maxPending);
+
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "google-api-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        this.executor = executor;
+    }
+
+    /**
+     * Queues the credential. It's saved right away instead if this persister has been
+     * shut down or the queue stays full for longer than the backpressure timeout.
+     *
+     * @param id
+     * @param storedCredential
+     * @return true if the credential was queued or saved
+     * @throws IOException if the credential had to be saved right away and that failed
+     */
+    @Override
+    public boolean persist(String id, StoredCredential storedCredential) throws IOException {
+        shutdownLock.readLock().lock();
+        try {
+            return enqueue(id, storedCredential);
+        } finally {
+            shutdownLock.readLock().unlock();
+        }
+    }
+
+    private boolean enqueue(String id, StoredCredential storedCredential) throws IOException {
+        if (shutdown) {
+            return persistNow(id, storedCredential);
+        }
+
+        if (pending.computeIfPresent(id, (key, existing) -> storedCredential) != null) {
+            return true;
+        }
+
+        if (!acquirePermit()) {
+            LOG.warn("Write-behind queue is full - saving credential for user {} right away", id);
+            return persistNow(id, storedCredential);
+        }
+
+        final boolean[] added = new boolean[1];
+        pending.compute(id, (key, existing) -> {
+            added[0] = (existing == null);
+            return storedCredential;
+        });
+
+        if (!added[0]) {
+            permits.release();
+        }
+
+        if (pending.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+            executor.execute(this::flushQuietly);
+        }
+
+        return true;
+    }
+
+    /**
+     * Saves everything that's queued, one batch at a time. Credentials that couldn't be
+     * saved go back in the queue unless a newer one for the same user has been queued since.
+     *
+     * @throws IOException if any batch couldn't be saved
+     */
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            flushRequested.set(false);
+            IOException failure = null;
+
+            for (List<String> ids : chunk(new ArrayList<>(pending.keySet()))) {
+                final Map<String, StoredCredential> batch = take(ids);
+                if (batch.isEmpty()) {
+                    continue;
+                }
+
+                try {
+                    write(batch);
+                } catch (IOException | RuntimeException e) {
+                    requeue(batch);
+                    failure = (e instanceof IOException) ? (IOException) e : new IOException(e);
+                }
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Drops whatever is queued for the user, then deletes the user from the underlying
+     * store if it supports that.
+     *
+     * @param id
+     * @throws IOException
+     */
+    @Override
+    public void delete(String id) throws IOException {
+        synchronized (flushLock) {
+            if (pending.remove(id) != null) {
+                permits.release();
+            }
+
+            if (delegate instanceof DeletableStoredCredentialPersister) {
+                ((DeletableStoredCredentialPersister) delegate).delete(id);
+            }
+        }
+    }
+
+    /**
+     * Wraps a retriever so that credentials still in the queue are returned instead of
+     * the older ones in the store.
+     *
+     * @param retriever
+     * @return retriever that sees queued credentials
+     */
+    public StoredCredentialRetriever readThrough(StoredCredentialRetriever retriever) {
+        if (retriever instanceof BatchStoredCredentialRetriever) {
+            return new BatchReadThroughRetriever((BatchStoredCredentialRetriever) retriever);
+        }
+
+        return new ReadThroughRetriever(retriever);
+    }
+
+    /**
+     * @param id
+     * @return the queued credential for the user, or null if nothing is queued
+     */
+    public StoredCredential getPending(String id) {
+        return pending.get(id);
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public StoredCredentialPersister getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Stops the background thread and saves whatever is still queued. Later calls to
+     * persist() save right away.
+     */
+    public void shutdown() {
+        shutdownLock.writeLock().lock();
+        try {
+            shutdown = true;
+        } finally {
+            shutdownLock.writeLock().unlock();
+        }
+
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            flush();
+        } catch (IOException ie) {
+            LOG.error("Problem saving {} queued credentials on shutdown!", pending.size(), ie);
+        }
+    }
+
+    /**
+     * Saves on the caller's thread while holding the flush lock, so a batch that a flush
+     * already took can't land after this write and overwrite it. Anything still queued for
+     * the user is older, such as a batch that failed and went back in the queue, so it's
+     * dropped.
+     */
+    private boolean persistNow(String id, StoredCredential storedCredential) throws IOException {
+        synchronized (flushLock) {
+            if (pending.remove(id) != null) {
+                permits.release();
+            }
+
+            return delegate.persist(id, storedCredential);
+        }
+    }
+
+    private boolean acquirePermit() {
+        try {
+            return permits.tryAcquire(backpressureTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException ie) {
+            LOG.warn("Problem saving queued credentials - will try again", ie);
+        }
+    }
+
+    private List<List<String>> chunk(List<String> ids) {
+        final List<List<String>> chunks = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += batchSize) {
+            chunks.add(ids.subList(i, Math.min(i + batchSize, ids.size())));
+        }
+
+        return chunks;
+    }
+
+    private Map<String, StoredCredential> take(Collection<String> ids) {
+        final Map<String, StoredCredential> batch = new LinkedHashMap<>();
+        for (String id : ids) {
+            final StoredCredential credential = pending.remove(id);
+            if (credential != null) {
+                batch.put(id, credential);
+            }
+        }
+
+        return batch;
+    }
+
+    /**
+     * Saved credentials are removed from the batch and give back their permits, so
+     * whatever is left in the batch after a failure still needs saving.
+     */
+    private void write(Map<String, StoredCredential> batch) throws IOException {
+        if (delegate instanceof BatchStoredCredentialPersister) {
+            ((BatchStoredCredentialPersister) delegate).persistAll(batch);
+            permits.release(batch.size());
+            batch.clear();
+            return;
+        }
+
+        final Iterator<Map.Entry<String, StoredCredential>> entries = batch.entrySet().iterator();
+        while (entries.hasNext()) {
+            final Map.Entry<String, StoredCredential> entry = entries.next();
+            delegate.persist(entry.getKey(), entry.getValue());
+            entries.remove();
+            permits.release();
+        }
+    }
+
+    /**
+     * An entry that goes back in keeps its permit. One that's been superseded gives it back.
+     */
+    private void requeue(Map<String, StoredCredential> batch) {
+        batch.forEach((id, credential) -> {
+            if (pending.putIfAbsent(id, credential) != null) {
+                permits.release();
+            }
+        });
+    }
+
+    private class ReadThroughRetriever implements StoredCredentialRetriever {
+        private final StoredCredentialRetriever retriever;
+
+        private ReadThroughRetriever(StoredCredentialRetriever retriever) {
+            this.retriever = retriever;
+        }
+
+        @Override
+        public StoredCredential retrieve(String id) throws IOException {
+            final StoredCredential queued = pending.get(id);
+            return (queued != null) ? queued : retriever.retrieve(id);
+        }
+    }
+
+    private class BatchReadThroughRetriever extends ReadThroughRetriever implements BatchStoredCredentialRetriever {
+        private final BatchStoredCredentialRetriever retriever;
+
+        private BatchReadThroughRetriever(BatchStoredCredentialRetriever retriever) {
+            super(retriever);
+            this.retriever = retriever;
+        }
+
+        @Override
+        public Map<String, StoredCredential> retrieveAll(Collection<String> ids) throws IOException {
+            final Map<String, StoredCredential> found = new HashMap<>();
+            final List<String> missing = new ArrayList<>();
+
+            for (String id : ids) {
+                final StoredCredential queued = pending.get(id);
+                if (queued != null) {
+                    found.put(id, queued);
+                } else {
+                    missing.add(id);
+                }
+            }
+
+            if (!missing.isEmpty()) {
+                final Map<String, StoredCredential> stored = retriever.retrieveAll(missing);
+                if (stored != null) {
+                    found.putAll(stored);
+                }
+            }
+
+            return found;
+        }
+    }
+}
@@ -9,4 +9,8 @@ public class GoogleApiConfigException extends RuntimeException {
     public GoogleApiConfigException(String s) {
         super(s);
     }
+
+    public GoogleApiConfigException(String s, Throwable cause) {
+        super(s, cause);
+    }
 }
@@ -9,4 +9,8 @@ public class GoogleApiException extends RuntimeException {
     public GoogleApiException(String s) {
         super(s);
     }
+
+    public GoogleApiException(String s, Throwable cause) {
+        super(s, cause);
+    }
 }
@@ -0,0 +1,120 @@
+package us.careydevelopment.util.api.google.flow;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.auth.oauth2.StoredCredential;
+import com.google.api.client.auth.oauth2.TokenResponse;
+import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.util.store.DataStore;
+import us.careydevelopment.util.api.google.refresh.CoordinatedCredential;
+import us.careydevelopment.util.api.google.refresh.PeerTokenSource;
+import us.careydevelopment.util.api.google.refresh.RefreshCoordinator;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * A GoogleAuthorizationCodeFlow that hands out CoordinatedCredential objects.
+ *
+ * It loads and stores credentials the same way Google's flow does. The difference is that
+ * token refreshes for the same user go through a shared RefreshCoordinator, and each
+ * credential only gets the refresh listeners registered on the flow. Google's flow adds
+ * its own data store listener on top of those, which saved every refresh twice.
+ */
+public class CoordinatedAuthorizationCodeFlow extends GoogleAuthorizationCodeFlow {
+
+    private final RefreshCoordinator coordinator;
+    private final PeerTokenSource peerTokenSource;
+
+    protected CoordinatedAuthorizationCodeFlow(Builder builder) {
+        super(builder);
+        this.coordinator = builder.coordinator;
+        this.peerTokenSource = builder.peerTokenSource;
+    }
+
+    @Override
+    public Credential loadCredential(String userId) throws IOException {
+        if (userId == null || userId.isEmpty() || getCredentialDataStore() == null) {
+            return null;
+        }
+
+        final StoredCredential stored = getCredentialDataStore().get(userId);
+        return (stored == null) ? null : toCredential(userId, stored);
+    }
+
+    @Override
+    public Credential createAndStoreCredential(TokenResponse response, String userId) throws IOException {
+        final Credential credential = newCredential(userId).setFromTokenResponse(response);
+        final DataStore<StoredCredential> dataStore = getCredentialDataStore();
+
+        if (dataStore != null) {
+            dataStore.set(userId, new StoredCredential(credential));
+        }
+
+        return credential;
+    }
+
+    /**
+     * Turns a StoredCredential that was already retrieved into a Credential for the user.
+     *
+     * @param userId
+     * @param stored
+     * @return Credential object
+     */
+    public Credential toCredential(String userId, StoredCredential stored) {
+        final Credential credential = newCredential(userId);
+
+        credential.setAccessToken(stored.getAccessToken());
+        credential.setRefreshToken(stored.getRefreshToken());
+        credential.setExpirationTimeMilliseconds(stored.getExpirationTimeMilliseconds());
+
+        return credential;
+    }
+
+    public RefreshCoordinator getRefreshCoordinator() {
+        return coordinator;
+    }
+
+    private Credential newCredential(String userId) {
+        final Credential.Builder builder = new Credential.Builder(getMethod())
+                .setTransport(getTransport())
+                .setJsonFactory(getJsonFactory())
+                .setTokenServerEncodedUrl(getTokenServerEncodedUrl())
+                .setClientAuthentication(getClientAuthentication())
+                .setRequestInitializer(getRequestInitializer())
+                .setClock(getClock())
+                .setRefreshListeners(getRefreshListeners());
+
+        return new CoordinatedCredential(builder, userId, coordinator, peerTokenSource);
+    }
+
+    /**
+     * Builds the CoordinatedAuthorizationCodeFlow. It takes the same settings as
+     * Google's builder plus the RefreshCoordinator.
+     */
+    public static class Builder extends GoogleAuthorizationCodeFlow.Builder {
+
+        private final RefreshCoordinator coordinator;
+        private PeerTokenSource peerTokenSource;
+
+        public Builder(HttpTransport transport, JsonFactory jsonFactory, String clientId, String clientSecret,
+                       Collection<String> scopes, RefreshCoordinator coordinator) {
+            super(transport, jsonFactory, clientId, clientSecret, scopes);
+            this.coordinator = coordinator;
+        }
+
+        /**
+         * Lets credentials use tokens other nodes already got. It's null if there's only one node.
+         */
+        public Builder setPeerTokenSource(PeerTokenSource peerTokenSource) {
+            this.peerTokenSource = peerTokenSource;
+            return this;
+        }
+
+        @Override
+        public CoordinatedAuthorizationCodeFlow build() {
+            return new CoordinatedAuthorizationCodeFlow(this);
+        }
+    }
+}
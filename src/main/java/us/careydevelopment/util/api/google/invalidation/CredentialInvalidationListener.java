@@ -0,0 +1,17 @@
+package us.careydevelopment.util.api.google.invalidation;
+
+/**
+ * Hears about users whose cached credentials, flows and grants must be dropped, such as
+ * after their token is revoked or their credential is deleted.
+ *
+ * Listeners are registered with GoogleApiConfig and called on the thread that invalidates
+ * the user. They should be quick and shouldn't throw.
+ */
+@FunctionalInterface
+public interface CredentialInvalidationListener {
+
+    /**
+     * @param userId
+     */
+    void invalidate(String userId);
+}
@@ -0,0 +1,30 @@
+package us.careydevelopment.util.api.google.log;
+
+/**
+ * Keeps tokens, authorization codes and secrets out of the logs.
+ *
+ * Only a short prefix is kept, which is enough to tell two values apart when
+ * reading a log. Call it inside a level guard so nothing gets built when the
+ * level is off.
+ */
+public class Redaction {
+
+    static final int VISIBLE_CHARS = 4;
+    static final String MASK = "****";
+
+    /**
+     * @param secret
+     * @return the first few characters of the secret followed by a mask
+     */
+    public static String redact(String secret) {
+        if (secret == null) {
+            return null;
+        }
+
+        if (secret.length() <= VISIBLE_CHARS * 2) {
+            return MASK;
+        }
+
+        return secret.substring(0, VISIBLE_CHARS) + MASK;
+    }
+}
@@ -0,0 +1,92 @@
+package us.careydevelopment.util.api.google.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A MetricsRecorder that keeps everything in memory. It doesn't need any outside services.
+ *
+ * Latencies go into a histogram with power-of-two microsecond buckets. That's coarse, but
+ * it's lock-free and good enough to spot outliers. Clients can read a snapshot of any
+ * operation at any time, for example from a health or admin endpoint.
+ */
+public class InMemoryMetricsRecorder implements MetricsRecorder {
+
+    private final Map<OAuthOperation, OperationMetrics> operations = new EnumMap<>(OAuthOperation.class);
+    private final Map<OAuthEvent, LongAdder> events = new EnumMap<>(OAuthEvent.class);
+
+    public InMemoryMetricsRecorder() {
+        for (OAuthOperation operation : OAuthOperation.values()) {
+            operations.put(operation, new OperationMetrics());
+        }
+
+        for (OAuthEvent event : OAuthEvent.values()) {
+            events.put(event, new LongAdder());
+        }
+    }
+
+    @Override
+    public Sample start(OAuthOperation operation) {
+        final OperationMetrics metrics = operations.get(operation);
+        final long start = System.nanoTime();
+        metrics.inFlight.incrementAndGet();
+
+        return success -> metrics.record(System.nanoTime() - start, success);
+    }
+
+    @Override
+    public void record(OAuthEvent event) {
+        events.get(event).increment();
+    }
+
+    public long getCount(OAuthEvent event) {
+        return events.get(event).sum();
+    }
+
+    public OperationSnapshot getSnapshot(OAuthOperation operation) {
+        return operations.get(operation).snapshot();
+    }
+
+    private static class OperationMetrics {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong inFlight = new AtomicLong();
+        private final LongAdder[] buckets = new LongAdder[OperationSnapshot.BUCKETS];
+
+        private OperationMetrics() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void record(long nanos, boolean success) {
+            inFlight.decrementAndGet();
+            count.increment();
+            totalNanos.add(nanos);
+            buckets[OperationSnapshot.bucketFor(nanos)].increment();
+
+            if (!success) {
+                errors.increment();
+            }
+
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        private OperationSnapshot snapshot() {
+            final long[] counts = new long[buckets.length];
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+            }
+
+            return new OperationSnapshot(count.sum(), errors.sum(), inFlight.get(), totalNanos.sum(),
+                    maxNanos.get(), counts);
+        }
+    }
+}
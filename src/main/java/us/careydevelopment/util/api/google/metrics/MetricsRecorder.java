@@ -0,0 +1,41 @@
+package us.careydevelopment.util.api.google.metrics;
+
+/**
+ * The instrumentation surface for OAuth operations.
+ *
+ * Set an implementation with GoogleApiConfig.Builder.setMetricsRecorder(). The default is
+ * NoOpMetricsRecorder. InMemoryMetricsRecorder keeps everything in the JVM, and clients can
+ * write an adapter for Micrometer or any other metrics library.
+ *
+ * Implementations must be thread-safe and should be cheap, since they're called on every request.
+ */
+public interface MetricsRecorder {
+
+    /**
+     * Starts timing an operation. The operation counts as in flight until the sample is stopped.
+     *
+     * @param operation
+     * @return sample to stop when the operation finishes
+     */
+    Sample start(OAuthOperation operation);
+
+    /**
+     * Counts an event.
+     *
+     * @param event
+     */
+    void record(OAuthEvent event);
+
+    /**
+     * A running timing of one operation.
+     */
+    interface Sample {
+
+        /**
+         * Stops the timing.
+         *
+         * @param success false if the operation failed
+         */
+        void stop(boolean success);
+    }
+}
@@ -0,0 +1,23 @@
+package us.careydevelopment.util.api.google.metrics;
+
+/**
+ * The default MetricsRecorder. It records nothing and allocates nothing.
+ */
+public class NoOpMetricsRecorder implements MetricsRecorder {
+
+    public static final NoOpMetricsRecorder INSTANCE = new NoOpMetricsRecorder();
+
+    private static final Sample NO_OP_SAMPLE = success -> { };
+
+    private NoOpMetricsRecorder() {
+    }
+
+    @Override
+    public Sample start(OAuthOperation operation) {
+        return NO_OP_SAMPLE;
+    }
+
+    @Override
+    public void record(OAuthEvent event) {
+    }
+}
@@ -0,0 +1,25 @@
+package us.careydevelopment.util.api.google.metrics;
+
+/**
+ * The counted events.
+ */
+public enum OAuthEvent {
+
+    FLOW_CACHE_HIT("google.oauth.flow.cache.hit"),
+    FLOW_CACHE_MISS("google.oauth.flow.cache.miss"),
+    CREDENTIAL_CACHE_HIT("google.oauth.credential.cache.hit"),
+    CREDENTIAL_CACHE_MISS("google.oauth.credential.cache.miss"),
+    GMAIL_CLIENT_CACHE_HIT("google.gmail.client.cache.hit"),
+    GMAIL_CLIENT_CACHE_MISS("google.gmail.client.cache.miss"),
+    REFRESH_SHARED("google.oauth.token.refresh.shared");
+
+    private final String metricName;
+
+    OAuthEvent(String metricName) {
+        this.metricName = metricName;
+    }
+
+    public String getMetricName() {
+        return metricName;
+    }
+}
@@ -0,0 +1,26 @@
+package us.careydevelopment.util.api.google.metrics;
+
+/**
+ * The timed operations. Each one gets a latency histogram, a call count, an error count
+ * and an in-flight gauge.
+ */
+public enum OAuthOperation {
+
+    GET_CREDENTIAL("google.oauth.credential.get"),
+    GET_CREDENTIAL_FROM_CODE("google.oauth.credential.exchange"),
+    BUILD_FLOW("google.oauth.flow.build"),
+    RETRIEVE("google.oauth.store.retrieve"),
+    PERSIST("google.oauth.store.persist"),
+    REFRESH("google.oauth.token.refresh"),
+    REVOKE("google.oauth.token.revoke");
+
+    private final String metricName;
+
+    OAuthOperation(String metricName) {
+        this.metricName = metricName;
+    }
+
+    public String getMetricName() {
+        return metricName;
+    }
+}
@@ -0,0 +1,101 @@
+package us.careydevelopment.util.api.google.metrics;
+
+/**
+ * A point-in-time view of one operation recorded by InMemoryMetricsRecorder.
+ */
+public class OperationSnapshot {
+
+    static final int BUCKETS = 40;
+
+    private final long count;
+    private final long errorCount;
+    private final long inFlight;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final long[] bucketCounts;
+
+    OperationSnapshot(long count, long errorCount, long inFlight, long totalNanos, long maxNanos, long[] bucketCounts) {
+        this.count = count;
+        this.errorCount = errorCount;
+        this.inFlight = inFlight;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.bucketCounts = bucketCounts;
+    }
+
+    /**
+     * Bucket 0 holds anything under 1 microsecond. Bucket n holds latencies from
+     * 2^(n-1) up to 2^n microseconds.
+     */
+    static int bucketFor(long nanos) {
+        final long micros = nanos / 1000;
+        final int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public long getInFlight() {
+        return inFlight;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public long getMeanNanos() {
+        return (count == 0) ? 0 : totalNanos / count;
+    }
+
+    /**
+     * Estimates a percentile from the histogram. The result is the upper bound of the
+     * bucket the percentile falls in, so it errs on the high side.
+     *
+     * @param percentile between 0 and 1, such as 0.99
+     * @return estimated latency in nanoseconds
+     */
+    public long getPercentileNanos(double percentile) {
+        final long total = sumBuckets();
+        if (total == 0) {
+            return 0;
+        }
+
+        final long target = (long) Math.ceil(percentile * total);
+        long seen = 0;
+
+        for (int i = 0; i < bucketCounts.length; i++) {
+            seen += bucketCounts[i];
+
+            if (seen >= target) {
+                return Math.min((1L << i) * 1000, maxNanos);
+            }
+        }
+
+        return maxNanos;
+    }
+
+    private long sumBuckets() {
+        long total = 0;
+        for (long bucketCount : bucketCounts) {
+            total += bucketCount;
+        }
+
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", errors=" + errorCount + ", inFlight=" + inFlight
+                + ", meanNanos=" + getMeanNanos() + ", p99Nanos=" + getPercentileNanos(0.99) + ", maxNanos=" + maxNanos;
+    }
+}
@@ -0,0 +1,13 @@
+package us.careydevelopment.util.api.google.ratelimit;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request when no permit is free within the allowed wait.
+ */
+public class RateLimitExceededException extends IOException {
+
+    public RateLimitExceededException(String s) {
+        super(s);
+    }
+}
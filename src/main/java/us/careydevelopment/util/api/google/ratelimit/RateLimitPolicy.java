@@ -0,0 +1,133 @@
+package us.careydevelopment.util.api.google.ratelimit;
+
+import us.careydevelopment.util.api.google.exception.GoogleApiConfigException;
+
+/**
+ * How fast a config lets requests go out to Google.
+ *
+ * There's one limit for the whole OAuth client and one for each user. Either can be turned
+ * off by leaving its rate at 0, which is the default. A request that can't get a permit waits
+ * for one, up to the max wait. With a max wait of 0, it fails fast instead.
+ *
+ * Like GoogleApiConfig, this class must be instantiated using the Builder.
+ */
+public class RateLimitPolicy {
+
+    public static final int DEFAULT_BURST = 10;
+
+    private final double clientPermitsPerSecond;
+    private final int clientBurst;
+    private final double userPermitsPerSecond;
+    private final int userBurst;
+    private final long maxWaitMillis;
+
+    private RateLimitPolicy(Builder builder) {
+        this.clientPermitsPerSecond = builder.clientPermitsPerSecond;
+        this.clientBurst = builder.clientBurst;
+        this.userPermitsPerSecond = builder.userPermitsPerSecond;
+        this.userBurst = builder.userBurst;
+        this.maxWaitMillis = builder.maxWaitMillis;
+    }
+
+    /**
+     * @return the policy used when none is set on GoogleApiConfig, which doesn't limit anything
+     */
+    public static RateLimitPolicy defaultPolicy() {
+        return Builder.instance().build();
+    }
+
+    public double getClientPermitsPerSecond() {
+        return clientPermitsPerSecond;
+    }
+
+    public int getClientBurst() {
+        return clientBurst;
+    }
+
+    public double getUserPermitsPerSecond() {
+        return userPermitsPerSecond;
+    }
+
+    public int getUserBurst() {
+        return userBurst;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    public boolean isClientLimited() {
+        return clientPermitsPerSecond > 0;
+    }
+
+    public boolean isUserLimited() {
+        return userPermitsPerSecond > 0;
+    }
+
+    public static class Builder {
+
+        private double clientPermitsPerSecond = 0;
+        private int clientBurst = DEFAULT_BURST;
+        private double userPermitsPerSecond = 0;
+        private int userBurst = DEFAULT_BURST;
+        private long maxWaitMillis = 0;
+
+        public static Builder instance() {
+            return new Builder();
+        }
+
+        private Builder() {
+        }
+
+        /**
+         * Requests per second across the whole OAuth client. Set it to 0 for no limit.
+         */
+        public Builder setClientPermitsPerSecond(double clientPermitsPerSecond) {
+            this.clientPermitsPerSecond = clientPermitsPerSecond;
+            return this;
+        }
+
+        public Builder setClientBurst(int clientBurst) {
+            this.clientBurst = clientBurst;
+            return this;
+        }
+
+        /**
+         * Requests per second for each user. Set it to 0 for no limit.
+         */
+        public Builder setUserPermitsPerSecond(double userPermitsPerSecond) {
+            this.userPermitsPerSecond = userPermitsPerSecond;
+            return this;
+        }
+
+        public Builder setUserBurst(int userBurst) {
+            this.userBurst = userBurst;
+            return this;
+        }
+
+        /**
+         * How long a request may wait for a permit. The default is 0, which means requests
+         * over the limit fail right away with a RateLimitExceededException.
+         */
+        public Builder setMaxWaitMillis(long maxWaitMillis) {
+            this.maxWaitMillis = maxWaitMillis;
+            return this;
+        }
+
+        public RateLimitPolicy build() {
+            if (clientPermitsPerSecond < 0 || userPermitsPerSecond < 0) {
+                throw new GoogleApiConfigException("Rate limits can't be negative!");
+            }
+
+            if (clientBurst < 1 || userBurst < 1) {
+                throw new GoogleApiConfigException("Rate limit bursts must be positive!");
+            }
+
+            if (maxWaitMillis < 0) {
+                throw new GoogleApiConfigException("Rate limit wait can't be negative!");
+            }
+
+            return new RateLimitPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package us.careydevelopment.util.api.google.ratelimit;
+
+import com.google.api.client.util.Sleeper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Applies a RateLimitPolicy with one TokenBucket for the OAuth client and one per user.
+ *
+ * A request takes a permit from its user's bucket and from the client's bucket. If either
+ * can't give one within the max wait, nothing is taken and a RateLimitExceededException is
+ * thrown. Otherwise the caller sleeps until both permits are free.
+ *
+ * User buckets are created on first use. GoogleApiConfig drops a user's bucket when the
+ * user is invalidated.
+ */
+public class RateLimiter {
+
+    private final RateLimitPolicy policy;
+    private final TokenBucket clientBucket;
+    private final Map<String, TokenBucket> userBuckets = new ConcurrentHashMap<>();
+    private final LongSupplier ticker;
+    private final Sleeper sleeper;
+    private final long maxWaitNanos;
+
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder waitedCount = new LongAdder();
+
+    public RateLimiter(RateLimitPolicy policy) {
+        this(policy, System::nanoTime, Sleeper.DEFAULT);
+    }
+
+    RateLimiter(RateLimitPolicy policy, LongSupplier ticker, Sleeper sleeper) {
+        this.policy = policy;
+        this.ticker = ticker;
+        this.sleeper = sleeper;
+        this.maxWaitNanos = policy.getMaxWaitMillis() * 1_000_000L;
+        this.clientBucket = policy.isClientLimited()
+                ? new TokenBucket(policy.getClientPermitsPerSecond(), policy.getClientBurst(), ticker)
+                : null;
+    }
+
+    /**
+     * @return true if the policy limits anything at all
+     */
+    public boolean isEnabled() {
+        return policy.isClientLimited() || policy.isUserLimited();
+    }
+
+    /**
+     * Waits for a permit for the user and the client.
+     *
+     * @param userId null for requests that aren't tied to a user
+     * @throws RateLimitExceededException if no permit is free within the max wait
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    public void acquire(String userId) throws IOException {
+        final TokenBucket userBucket = (userId != null && policy.isUserLimited())
+                ? userBuckets.computeIfAbsent(userId,
+                        id -> new TokenBucket(policy.getUserPermitsPerSecond(), policy.getUserBurst(), ticker))
+                : null;
+        long waitNanos = 0;
+
+        if (userBucket != null) {
+            waitNanos = userBucket.reserve(maxWaitNanos);
+
+            if (waitNanos < 0) {
+                rejectedCount.increment();
+                throw new RateLimitExceededException("Rate limit exceeded for user " + userId);
+            }
+        }
+
+        if (clientBucket != null) {
+            final long clientWaitNanos = clientBucket.reserve(maxWaitNanos);
+
+            if (clientWaitNanos < 0) {
+                if (userBucket != null) {
+                    userBucket.refund();
+                }
+
+                rejectedCount.increment();
+                throw new RateLimitExceededException("Rate limit exceeded for client");
+            }
+
+            waitNanos = Math.max(waitNanos, clientWaitNanos);
+        }
+
+        if (waitNanos > 0) {
+            waitedCount.increment();
+            sleep(waitNanos);
+        }
+    }
+
+    private void sleep(long nanos) throws InterruptedIOException {
+        try {
+            sleeper.sleep((nanos + 999_999) / 1_000_000);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a rate limit permit");
+        }
+    }
+
+    /**
+     * Forgets the user's bucket.
+     *
+     * @param userId
+     */
+    public void untrack(String userId) {
+        userBuckets.remove(userId);
+    }
+
+    public RateLimitPolicy getPolicy() {
+        return policy;
+    }
+
+    public int getUserBucketCount() {
+        return userBuckets.size();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public long getWaitedCount() {
+        return waitedCount.sum();
+    }
+}
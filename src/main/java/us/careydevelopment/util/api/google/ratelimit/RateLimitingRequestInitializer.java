@@ -0,0 +1,55 @@
+package us.careydevelopment.util.api.google.ratelimit;
+
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+
+import java.io.IOException;
+
+/**
+ * Runs another initializer, such as a Credential, and then makes every attempt of the
+ * request take a permit from the RateLimiter first. Retries take permits too, since they
+ * count against the quota like any other call.
+ */
+public class RateLimitingRequestInitializer implements HttpRequestInitializer {
+
+    private final RateLimiter rateLimiter;
+    private final String userId;
+    private final HttpRequestInitializer delegate;
+
+    /**
+     * @param rateLimiter
+     * @param userId null for requests that aren't tied to a user
+     * @param delegate null if there's nothing else to initialize
+     */
+    public RateLimitingRequestInitializer(RateLimiter rateLimiter, String userId, HttpRequestInitializer delegate) {
+        this.rateLimiter = rateLimiter;
+        this.userId = userId;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void initialize(HttpRequest request) throws IOException {
+        if (delegate != null) {
+            delegate.initialize(request);
+        }
+
+        final HttpExecuteInterceptor interceptor = request.getInterceptor();
+
+        request.setInterceptor(req -> {
+            rateLimiter.acquire(userId);
+
+            if (interceptor != null) {
+                interceptor.intercept(req);
+            }
+        });
+    }
+
+    public HttpRequestInitializer getDelegate() {
+        return delegate;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+}
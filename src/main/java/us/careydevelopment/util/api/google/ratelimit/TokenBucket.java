@@ -0,0 +1,75 @@
+package us.careydevelopment.util.api.google.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A lock-free token bucket.
+ *
+ * Instead of counting tokens, the bucket keeps the time at which the next permit would be
+ * free if no burst were allowed. Taking a permit pushes that time forward by one interval.
+ * A caller can take a permit right away as long as the time isn't more than a burst's worth of
+ * intervals ahead of now. Otherwise it has to wait until it is. All the state is one
+ * AtomicLong, so acquiring a permit is a single compare-and-set when there's no contention.
+ */
+public class TokenBucket {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final LongSupplier ticker;
+    private final AtomicLong nextFree;
+
+    /**
+     * @param permitsPerSecond steady rate
+     * @param burst how many permits can be taken at once after the bucket has been idle
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, System::nanoTime);
+    }
+
+    TokenBucket(double permitsPerSecond, int burst, LongSupplier ticker) {
+        this.intervalNanos = Math.max(1, (long) (1_000_000_000L / permitsPerSecond));
+        this.burstNanos = intervalNanos * burst;
+        this.ticker = ticker;
+        this.nextFree = new AtomicLong(ticker.getAsLong());
+    }
+
+    /**
+     * Takes a permit if one is free right now.
+     *
+     * @return true if a permit was taken
+     */
+    public boolean tryAcquire() {
+        return reserve(0) == 0;
+    }
+
+    /**
+     * Reserves a permit if it'll be free within the given time.
+     *
+     * @param maxWaitNanos the longest the caller is willing to wait
+     * @return how long to wait before using the permit, or -1 if nothing was reserved
+     */
+    public long reserve(long maxWaitNanos) {
+        while (true) {
+            final long now = ticker.getAsLong();
+            final long current = nextFree.get();
+            final long next = Math.max(current, now) + intervalNanos;
+            final long wait = next - now - burstNanos;
+
+            if (wait > maxWaitNanos) {
+                return -1;
+            }
+
+            if (nextFree.compareAndSet(current, next)) {
+                return Math.max(wait, 0);
+            }
+        }
+    }
+
+    /**
+     * Gives back a reserved permit that won't be used.
+     */
+    void refund() {
+        nextFree.addAndGet(-intervalNanos);
+    }
+}
@@ -0,0 +1,70 @@
+package us.careydevelopment.util.api.google.refresh;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.auth.oauth2.TokenResponse;
+
+import java.io.IOException;
+
+/**
+ * A Credential that refreshes its token through a RefreshCoordinator.
+ *
+ * Several Credential objects can exist for the same user at once. This class makes sure
+ * they share a single call to the token endpoint when they all need a refresh at the same time.
+ *
+ * When a refresh was shared, the result has already been persisted by the credential that
+ * made the call. SingleFlightRefreshListener checks isSharedRefresh() so it isn't persisted again.
+ *
+ * With a PeerTokenSource, a token another node already got is used before calling the token
+ * endpoint. Such a token was saved by that node, so it also counts as a shared refresh.
+ */
+public class CoordinatedCredential extends Credential {
+
+    private final String userId;
+    private final RefreshCoordinator coordinator;
+    private final PeerTokenSource peerTokenSource;
+    private volatile boolean sharedRefresh;
+
+    public CoordinatedCredential(Credential.Builder builder, String userId, RefreshCoordinator coordinator) {
+        this(builder, userId, coordinator, null);
+    }
+
+    /**
+     * @param builder
+     * @param userId
+     * @param coordinator
+     * @param peerTokenSource null if there are no other nodes to get tokens from
+     */
+    public CoordinatedCredential(Credential.Builder builder, String userId, RefreshCoordinator coordinator,
+                                 PeerTokenSource peerTokenSource) {
+        super(builder);
+        this.userId = userId;
+        this.coordinator = coordinator;
+        this.peerTokenSource = peerTokenSource;
+    }
+
+    @Override
+    protected TokenResponse executeRefreshToken() throws IOException {
+        sharedRefresh = true;
+
+        final TokenResponse peerToken = (peerTokenSource != null) ? peerTokenSource.getPeerToken(userId) : null;
+        if (peerToken != null) {
+            return peerToken;
+        }
+
+        return coordinator.refresh(userId, () -> {
+            sharedRefresh = false;
+            return super.executeRefreshToken();
+        });
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return true if the most recent refresh used another credential's result
+     */
+    public boolean isSharedRefresh() {
+        return sharedRefresh;
+    }
+}
@@ -0,0 +1,237 @@
+package us.careydevelopment.util.api.google.refresh;
+
+import com.google.api.client.auth.oauth2.Credential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Refreshes tracked credentials in the background shortly before their access tokens expire.
+ *
+ * That way, the first API call after a token expires doesn't have to wait on a round trip
+ * to Google's token endpoint.
+ *
+ * Each refresh goes through Credential.refreshToken(), so the new token gets saved by the
+ * DataStoreCredentialRefreshListener installed on the flow.
+ *
+ * The number of refreshes running at once is capped by the size of the thread pool. A random
+ * jitter spreads out refreshes of credentials that expire at about the same time.
+ *
+ * Only credentials that are in use stay tracked. Every call to track() counts as a use. A
+ * credential that's been refreshed a number of times in a row without being used is dropped
+ * until the next time it's tracked. The number of tracked users is capped too. Past the cap,
+ * new users aren't tracked until others drop out.
+ */
+public class CredentialRefresher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CredentialRefresher.class);
+
+    public static final long DEFAULT_LEAD_TIME_MILLIS = 5 * 60 * 1000;
+    public static final long DEFAULT_JITTER_MILLIS = 30 * 1000;
+    public static final int DEFAULT_MAX_CONCURRENT_REFRESHES = 4;
+    public static final int DEFAULT_MAX_IDLE_REFRESHES = 3;
+    public static final int DEFAULT_MAX_TRACKED = 10_000;
+
+    private final long leadTimeMillis;
+    private final long jitterMillis;
+    private final int maxIdleRefreshes;
+    private final int maxTracked;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Map<String, Tracked> tracked = new ConcurrentHashMap<>();
+
+    public CredentialRefresher(long leadTimeMillis, long jitterMillis, int maxConcurrentRefreshes) {
+        this(leadTimeMillis, jitterMillis, maxConcurrentRefreshes, DEFAULT_MAX_IDLE_REFRESHES, DEFAULT_MAX_TRACKED);
+    }
+
+    /**
+     * @param leadTimeMillis
+     * @param jitterMillis
+     * @param maxConcurrentRefreshes
+     * @param maxIdleRefreshes refreshes in a row without a call to track() before the user is dropped
+     * @param maxTracked the most users tracked at once
+     */
+    public CredentialRefresher(long leadTimeMillis, long jitterMillis, int maxConcurrentRefreshes,
+                               int maxIdleRefreshes, int maxTracked) {
+        this.leadTimeMillis = leadTimeMillis;
+        this.jitterMillis = jitterMillis;
+        this.maxIdleRefreshes = maxIdleRefreshes;
+        this.maxTracked = maxTracked;
+        this.executor = new ScheduledThreadPoolExecutor(maxConcurrentRefreshes, new RefresherThreadFactory());
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Starts tracking the credential so it gets refreshed before it expires.
+     *
+     * Credentials without a refresh token or an expiration time are ignored. If the user is
+     * already tracked with a credential that expires at the same time or later, it only counts
+     * as a use. New users are ignored while the refresher is full.
+     *
+     * @param userId
+     * @param credential
+     */
+    public void track(String userId, Credential credential) {
+        if (userId == null || credential == null || credential.getRefreshToken() == null
+                || credential.getExpirationTimeMilliseconds() == null || executor.isShutdown()) {
+            return;
+        }
+
+        if (tracked.size() >= maxTracked && !tracked.containsKey(userId)) {
+            LOG.debug("Already tracking {} credentials - not tracking user {}", maxTracked, userId);
+            return;
+        }
+
+        tracked.compute(userId, (id, existing) -> {
+            if (existing != null && !existing.isOlderThan(credential)) {
+                existing.idleRefreshes = 0;
+                return existing;
+            }
+
+            if (existing != null) {
+                existing.cancel();
+            }
+
+            final Tracked next = new Tracked(credential);
+            return schedule(id, next) ? next : null;
+        });
+    }
+
+    /**
+     * Stops tracking the user's credential.
+     *
+     * @param userId
+     */
+    public void untrack(String userId) {
+        final Tracked existing = tracked.remove(userId);
+        if (existing != null) {
+            existing.cancel();
+        }
+    }
+
+    public boolean isTracked(String userId) {
+        return tracked.containsKey(userId);
+    }
+
+    public int getTrackedCount() {
+        return tracked.size();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        tracked.clear();
+    }
+
+    /**
+     * It's called from inside tracked.compute(), so it must not change the map itself.
+     *
+     * @return false if the refresh couldn't be scheduled and the entry should be dropped
+     */
+    private boolean schedule(String userId, Tracked entry) {
+        final Long expiration = entry.credential.getExpirationTimeMilliseconds();
+        if (expiration == null) {
+            return false;
+        }
+
+        final long jitter = (jitterMillis > 0) ? ThreadLocalRandom.current().nextLong(jitterMillis) : 0;
+        final long delay = Math.max(0, expiration - leadTimeMillis - jitter - System.currentTimeMillis());
+
+        entry.expiration = expiration;
+
+        try {
+            entry.future = executor.schedule(() -> refresh(userId, entry), delay, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException re) {
+            // Only happens when the refresher was shut down in the meantime
+            return false;
+        }
+    }
+
+    private void refresh(String userId, Tracked entry) {
+        if (tracked.get(userId) != entry) {
+            return;
+        }
+
+        try {
+            if (entry.credential.refreshToken()) {
+                LOG.debug("Refreshed token for user {}", userId);
+
+                if (executor.isShutdown()) {
+                    tracked.remove(userId, entry);
+                    return;
+                }
+
+                if (++entry.idleRefreshes >= maxIdleRefreshes) {
+                    LOG.debug("Credential for user {} hasn't been used in {} refreshes - no longer tracking it",
+                            userId, entry.idleRefreshes);
+                    tracked.remove(userId, entry);
+                    return;
+                }
+
+                if (expiresAfterLeadTime(entry.credential)) {
+                    if (!schedule(userId, entry)) {
+                        tracked.remove(userId, entry);
+                    }
+
+                    return;
+                }
+
+                LOG.warn("Token lifetime for user {} is shorter than the refresh lead time - no longer tracking it", userId);
+                tracked.remove(userId, entry);
+                return;
+            }
+
+            LOG.warn("Token for user {} couldn't be refreshed - no longer tracking it", userId);
+        } catch (Exception e) {
+            LOG.warn("Problem refreshing token for user {} - no longer tracking it", userId, e);
+        }
+
+        tracked.remove(userId, entry);
+    }
+
+    private boolean expiresAfterLeadTime(Credential credential) {
+        final Long expiration = credential.getExpirationTimeMilliseconds();
+        return expiration != null && expiration - leadTimeMillis > System.currentTimeMillis();
+    }
+
+    private static class Tracked {
+        private final Credential credential;
+        private volatile long expiration;
+        private volatile int idleRefreshes;
+        private volatile ScheduledFuture<?> future;
+
+        private Tracked(Credential credential) {
+            this.credential = credential;
+        }
+
+        private boolean isOlderThan(Credential other) {
+            return expiration < other.getExpirationTimeMilliseconds();
+        }
+
+        private void cancel() {
+            final ScheduledFuture<?> current = future;
+            if (current != null) {
+                current.cancel(false);
+            }
+        }
+    }
+
+    private static class RefresherThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "google-api-refresher-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
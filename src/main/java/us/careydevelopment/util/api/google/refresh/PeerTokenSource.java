@@ -0,0 +1,20 @@
+package us.careydevelopment.util.api.google.refresh;
+
+import com.google.api.client.auth.oauth2.TokenResponse;
+
+import java.io.IOException;
+
+/**
+ * Hands out tokens that another node already got, so a CoordinatedCredential doesn't have to
+ * call the token endpoint again.
+ */
+@FunctionalInterface
+public interface PeerTokenSource {
+
+    /**
+     * @param userId
+     * @return a fresh token another node got for the user, or null if there isn't one
+     * @throws IOException
+     */
+    TokenResponse getPeerToken(String userId) throws IOException;
+}
@@ -0,0 +1,139 @@
+package us.careydevelopment.util.api.google.refresh;
+
+import com.google.api.client.auth.oauth2.TokenResponse;
+import us.careydevelopment.util.api.google.metrics.MetricsRecorder;
+import us.careydevelopment.util.api.google.metrics.NoOpMetricsRecorder;
+import us.careydevelopment.util.api.google.metrics.OAuthEvent;
+import us.careydevelopment.util.api.google.metrics.OAuthOperation;
+import us.careydevelopment.util.api.google.resilience.Hedger;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Makes sure only one token refresh per user is in flight at any time.
+ *
+ * The first thread that asks for a refresh does the work. Any other thread that asks
+ * for a refresh of the same user while that's happening waits for the same result
+ * instead of calling the token endpoint itself.
+ *
+ * With a Hedger, a refresh that's slow gets a second attempt. That's safe because
+ * refreshing a token twice just hands out two valid access tokens.
+ */
+public class RefreshCoordinator {
+
+    private final Map<String, CompletableFuture<TokenResponse>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+    private final MetricsRecorder metrics;
+    private final Hedger hedger;
+
+    public RefreshCoordinator() {
+        this(NoOpMetricsRecorder.INSTANCE);
+    }
+
+    /**
+     * @param metrics times each refresh that calls the token endpoint and counts the shared ones
+     */
+    public RefreshCoordinator(MetricsRecorder metrics) {
+        this(metrics, null);
+    }
+
+    /**
+     * @param metrics
+     * @param hedger hedges the refreshes that call the token endpoint, or null to not hedge them
+     */
+    public RefreshCoordinator(MetricsRecorder metrics, Hedger hedger) {
+        this.metrics = metrics;
+        this.hedger = hedger;
+    }
+
+    /**
+     * Runs the refresh call unless one is already running for the user, in which case
+     * it waits for that one and returns its result.
+     *
+     * @param userId
+     * @param call
+     * @return token response from the refresh that actually ran
+     * @throws IOException
+     */
+    public TokenResponse refresh(String userId, RefreshCall call) throws IOException {
+        final CompletableFuture<TokenResponse> mine = new CompletableFuture<>();
+        final CompletableFuture<TokenResponse> existing = inFlight.putIfAbsent(userId, mine);
+
+        if (existing != null) {
+            shared.increment();
+            metrics.record(OAuthEvent.REFRESH_SHARED);
+            return await(existing);
+        }
+
+        executed.increment();
+        final MetricsRecorder.Sample sample = metrics.start(OAuthOperation.REFRESH);
+        boolean success = false;
+
+        try {
+            final TokenResponse response = (hedger != null) ? hedger.call(call::execute) : call.execute();
+            mine.complete(response);
+            success = true;
+            return response;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(userId, mine);
+            sample.stop(success);
+        }
+    }
+
+    public boolean isRefreshing(String userId) {
+        return inFlight.containsKey(userId);
+    }
+
+    /**
+     * @return number of refreshes that actually called the token endpoint
+     */
+    public long getExecutedCount() {
+        return executed.sum();
+    }
+
+    /**
+     * @return number of refreshes that waited on another thread's result
+     */
+    public long getSharedCount() {
+        return shared.sum();
+    }
+
+    private TokenResponse await(CompletableFuture<TokenResponse> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting on token refresh", ie);
+        } catch (CancellationException ce) {
+            throw new IOException("Token refresh was cancelled", ce);
+        } catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * The call that refreshes the token.
+     */
+    @FunctionalInterface
+    public interface RefreshCall {
+        TokenResponse execute() throws IOException;
+    }
+}
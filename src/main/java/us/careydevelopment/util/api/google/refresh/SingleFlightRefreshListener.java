@@ -0,0 +1,45 @@
+package us.careydevelopment.util.api.google.refresh;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.auth.oauth2.CredentialRefreshListener;
+import com.google.api.client.auth.oauth2.TokenErrorResponse;
+import com.google.api.client.auth.oauth2.TokenResponse;
+
+import java.io.IOException;
+
+/**
+ * Wraps a CredentialRefreshListener so it only hears about refreshes a credential made itself.
+ *
+ * If a CoordinatedCredential got its token from another credential's refresh, the listener
+ * isn't called. That keeps one refresh from turning into several writes to the persister.
+ */
+public class SingleFlightRefreshListener implements CredentialRefreshListener {
+
+    private final CredentialRefreshListener delegate;
+
+    public SingleFlightRefreshListener(CredentialRefreshListener delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void onTokenResponse(Credential credential, TokenResponse tokenResponse) throws IOException {
+        if (!isShared(credential)) {
+            delegate.onTokenResponse(credential, tokenResponse);
+        }
+    }
+
+    @Override
+    public void onTokenErrorResponse(Credential credential, TokenErrorResponse tokenErrorResponse) throws IOException {
+        if (!isShared(credential)) {
+            delegate.onTokenErrorResponse(credential, tokenErrorResponse);
+        }
+    }
+
+    public CredentialRefreshListener getDelegate() {
+        return delegate;
+    }
+
+    private boolean isShared(Credential credential) {
+        return credential instanceof CoordinatedCredential && ((CoordinatedCredential) credential).isSharedRefresh();
+    }
+}
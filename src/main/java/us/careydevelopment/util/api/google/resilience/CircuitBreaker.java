@@ -0,0 +1,108 @@
+package us.careydevelopment.util.api.google.resilience;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calls to the token endpoint for a while after it keeps failing.
+ *
+ * The breaker opens after a number of failures in a row. While it's open, calls fail right
+ * away. Once the open duration has passed, a single trial call is let through. If that one
+ * works, the breaker closes again. If it fails, the breaker stays open for another round.
+ *
+ * Everything is lock-free, so checking the breaker costs next to nothing.
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier ticker;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openedAt = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong openedCount = new AtomicLong();
+
+    public CircuitBreaker(int failureThreshold, long openDurationMillis) {
+        this(failureThreshold, openDurationMillis, System::nanoTime);
+    }
+
+    CircuitBreaker(int failureThreshold, long openDurationMillis, LongSupplier ticker) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDurationMillis * 1_000_000L;
+        this.ticker = ticker;
+    }
+
+    /**
+     * Tells whether a call can go ahead. When the breaker is open and the open duration
+     * has passed, only the first caller gets true and becomes the trial call.
+     *
+     * @return true if the call can go ahead
+     */
+    public boolean tryAcquire() {
+        final State current = state.get();
+
+        if (current == State.CLOSED) {
+            return true;
+        }
+
+        if (current == State.OPEN && ticker.getAsLong() - openedAt.get() >= openNanos
+                && state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            LOG.info("Circuit breaker is half-open - trying the token endpoint again");
+            return true;
+        }
+
+        rejectedCount.incrementAndGet();
+        return false;
+    }
+
+    public void recordSuccess() {
+        consecutiveFailures.set(0);
+
+        if (state.getAndSet(State.CLOSED) != State.CLOSED) {
+            LOG.info("Circuit breaker is closed");
+        }
+    }
+
+    public void recordFailure() {
+        final int failures = consecutiveFailures.incrementAndGet();
+        final State current = state.get();
+
+        if ((current == State.HALF_OPEN || (current == State.CLOSED && failures >= failureThreshold))
+                && state.compareAndSet(current, State.OPEN)) {
+            openedAt.set(ticker.getAsLong());
+            openedCount.incrementAndGet();
+            LOG.warn("Circuit breaker opened after {} failures in a row", failures);
+        }
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * @return number of calls turned away while the breaker was open
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return number of times the breaker has opened
+     */
+    public long getOpenedCount() {
+        return openedCount.get();
+    }
+}
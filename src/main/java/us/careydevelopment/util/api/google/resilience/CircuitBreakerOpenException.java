@@ -0,0 +1,13 @@
+package us.careydevelopment.util.api.google.resilience;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of calling the token endpoint while the circuit breaker is open.
+ */
+public class CircuitBreakerOpenException extends IOException {
+
+    public CircuitBreakerOpenException(String s) {
+        super(s);
+    }
+}
@@ -0,0 +1,191 @@
+package us.careydevelopment.util.api.google.resilience;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cuts tail latency by starting a second attempt when the first one is slow.
+ *
+ * If the first attempt hasn't finished after the hedge delay, an identical second attempt
+ * starts. Whichever succeeds first wins. The call only fails if both attempts fail.
+ *
+ * Attempts run on the hedger's own threads, never on the thread that's waiting for them.
+ * The caller is often on the config's async executor, and a fixed pool whose threads all
+ * wait on tasks queued behind them would deadlock. The wait is also bounded, so a hung
+ * endpoint can't hold the caller forever. If every hedging thread is busy, the first
+ * attempt runs on the caller's thread and isn't hedged.
+ *
+ * Only use it for calls that are safe to make twice, such as refreshing a token.
+ * Exchanging an authorization code isn't one of them, because a code can only be used once.
+ */
+public class Hedger {
+
+    public static final int DEFAULT_MAX_THREADS = 32;
+
+    private final long delayMillis;
+    private final long maxWaitMillis;
+    private final ExecutorService executor;
+    private final LongAdder hedgedCount = new LongAdder();
+
+    /**
+     * @param delayMillis how long the first attempt runs before a second one starts
+     * @param maxWaitMillis how long to wait for an attempt to succeed; 0 waits as long as it takes
+     */
+    public Hedger(long delayMillis, long maxWaitMillis) {
+        this(delayMillis, maxWaitMillis, DEFAULT_MAX_THREADS);
+    }
+
+    /**
+     * @param delayMillis how long the first attempt runs before a second one starts
+     * @param maxWaitMillis how long to wait for an attempt to succeed; 0 waits as long as it takes
+     * @param maxThreads how many attempts can run at once
+     */
+    public Hedger(long delayMillis, long maxWaitMillis, int maxThreads) {
+        this.delayMillis = delayMillis;
+        this.maxWaitMillis = maxWaitMillis;
+
+        final AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "google-api-hedge-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param call
+     * @return result of the first attempt that succeeded
+     * @throws IOException from the attempt that failed last if both attempts failed, or if
+     *                     no attempt succeeded within the max wait
+     */
+    public <T> T call(HedgedCall<T> call) throws IOException {
+        final CompletableFuture<T> first = submit(call);
+        if (first == null) {
+            return call.execute();
+        }
+
+        try {
+            return first.get(delayMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException te) {
+            final CompletableFuture<T> second = submit(call);
+            if (second == null) {
+                return await(first);
+            }
+
+            hedgedCount.increment();
+            return await(firstSuccessful(first, second));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting on token endpoint", ie);
+        } catch (ExecutionException ee) {
+            throw rethrow(ee.getCause());
+        }
+    }
+
+    /**
+     * @return number of calls that started a second attempt
+     */
+    public long getHedgedCount() {
+        return hedgedCount.sum();
+    }
+
+    public long getDelayMillis() {
+        return delayMillis;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * Stops the hedging threads once the attempts in progress are done.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return the running attempt, or null if there's no thread free to run it
+     */
+    private <T> CompletableFuture<T> submit(HedgedCall<T> call) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return call.execute();
+                } catch (IOException ie) {
+                    throw new CompletionException(ie);
+                }
+            }, executor);
+        } catch (RejectedExecutionException re) {
+            return null;
+        }
+    }
+
+    private static <T> CompletableFuture<T> firstSuccessful(CompletableFuture<T> first, CompletableFuture<T> second) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final AtomicInteger failures = new AtomicInteger();
+
+        first.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else if (failures.incrementAndGet() == 2) {
+                result.completeExceptionally(error);
+            }
+        });
+
+        second.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else if (failures.incrementAndGet() == 2) {
+                result.completeExceptionally(error);
+            }
+        });
+
+        return result;
+    }
+
+    private <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return (maxWaitMillis > 0) ? future.get(maxWaitMillis, TimeUnit.MILLISECONDS) : future.get();
+        } catch (TimeoutException te) {
+            throw new IOException("Timed out after " + maxWaitMillis + " ms waiting on token endpoint", te);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting on token endpoint", ie);
+        } catch (ExecutionException ee) {
+            throw rethrow(ee.getCause());
+        }
+    }
+
+    private static IOException rethrow(Throwable error) {
+        final Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+
+        return new IOException(cause);
+    }
+
+    /**
+     * A call that can be attempted twice at the same time.
+     */
+    @FunctionalInterface
+    public interface HedgedCall<T> {
+        T execute() throws IOException;
+    }
+}
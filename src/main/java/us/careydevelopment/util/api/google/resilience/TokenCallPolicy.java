@@ -0,0 +1,241 @@
+package us.careydevelopment.util.api.google.resilience;
+
+import us.careydevelopment.util.api.google.exception.GoogleApiConfigException;
+
+/**
+ * How calls to Google's token endpoint deal with slow or failing responses.
+ *
+ * Every call gets connect and read timeouts. Responses with a 5xx or 429 status and
+ * I/O errors are retried with exponential backoff and random jitter. After enough failures
+ * in a row, a circuit breaker stops calls for a while so a struggling endpoint isn't
+ * flooded with retries.
+ *
+ * Token refreshes can also be hedged. That's off by default.
+ *
+ * Like GoogleApiConfig, this class must be instantiated using the Builder.
+ */
+public class TokenCallPolicy {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10_000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 10_000;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final int DEFAULT_INITIAL_BACKOFF_MILLIS = 200;
+    public static final int DEFAULT_MAX_BACKOFF_MILLIS = 5_000;
+    public static final double DEFAULT_JITTER_FACTOR = 0.5;
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_DURATION_MILLIS = 30_000;
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final int maxRetries;
+    private final int initialBackoffMillis;
+    private final int maxBackoffMillis;
+    private final double jitterFactor;
+    private final boolean circuitBreakerEnabled;
+    private final int failureThreshold;
+    private final long openDurationMillis;
+    private final long hedgeDelayMillis;
+
+    private TokenCallPolicy(Builder builder) {
+        this.connectTimeoutMillis = builder.connectTimeoutMillis;
+        this.readTimeoutMillis = builder.readTimeoutMillis;
+        this.maxRetries = builder.maxRetries;
+        this.initialBackoffMillis = builder.initialBackoffMillis;
+        this.maxBackoffMillis = builder.maxBackoffMillis;
+        this.jitterFactor = builder.jitterFactor;
+        this.circuitBreakerEnabled = builder.circuitBreakerEnabled;
+        this.failureThreshold = builder.failureThreshold;
+        this.openDurationMillis = builder.openDurationMillis;
+        this.hedgeDelayMillis = builder.hedgeDelayMillis;
+    }
+
+    /**
+     * @return the policy used when none is set on GoogleApiConfig
+     */
+    public static TokenCallPolicy defaultPolicy() {
+        return Builder.instance().build();
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public int getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    public int getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    public double getJitterFactor() {
+        return jitterFactor;
+    }
+
+    public boolean isCircuitBreakerEnabled() {
+        return circuitBreakerEnabled;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public long getOpenDurationMillis() {
+        return openDurationMillis;
+    }
+
+    /**
+     * @return how long a refresh waits before starting a second attempt; 0 means refreshes aren't hedged
+     */
+    public long getHedgeDelayMillis() {
+        return hedgeDelayMillis;
+    }
+
+    public boolean isHedgingEnabled() {
+        return hedgeDelayMillis > 0;
+    }
+
+    /**
+     * The longest one call can take with every retry timing out and every backoff at its
+     * longest. It's 0, meaning no limit, if either timeout is turned off.
+     *
+     * @return upper bound on a call in milliseconds
+     */
+    public long getMaxCallMillis() {
+        if (connectTimeoutMillis == 0 || readTimeoutMillis == 0) {
+            return 0;
+        }
+
+        final long attempts = (long) maxRetries + 1;
+        final long backoff = (long) Math.ceil(maxBackoffMillis * (1 + jitterFactor));
+
+        return attempts * (connectTimeoutMillis + readTimeoutMillis) + maxRetries * backoff;
+    }
+
+    public static class Builder {
+
+        private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+        private int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+        private int maxRetries = DEFAULT_MAX_RETRIES;
+        private int initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+        private int maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+        private double jitterFactor = DEFAULT_JITTER_FACTOR;
+        private boolean circuitBreakerEnabled = true;
+        private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+        private long openDurationMillis = DEFAULT_OPEN_DURATION_MILLIS;
+        private long hedgeDelayMillis = 0;
+
+        public static Builder instance() {
+            return new Builder();
+        }
+
+        private Builder() {
+        }
+
+        public Builder setConnectTimeoutMillis(int connectTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return this;
+        }
+
+        public Builder setReadTimeoutMillis(int readTimeoutMillis) {
+            this.readTimeoutMillis = readTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * How many times a failed call is retried. Set it to 0 to turn off retries.
+         */
+        public Builder setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * How long to wait before the first retry. Each retry after that waits about twice as long.
+         */
+        public Builder setInitialBackoffMillis(int initialBackoffMillis) {
+            this.initialBackoffMillis = initialBackoffMillis;
+            return this;
+        }
+
+        public Builder setMaxBackoffMillis(int maxBackoffMillis) {
+            this.maxBackoffMillis = maxBackoffMillis;
+            return this;
+        }
+
+        /**
+         * How much each wait is randomized. 0.5 means anywhere from half to one and a half times
+         * the nominal wait.
+         */
+        public Builder setJitterFactor(double jitterFactor) {
+            this.jitterFactor = jitterFactor;
+            return this;
+        }
+
+        public Builder setCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+            this.circuitBreakerEnabled = circuitBreakerEnabled;
+            return this;
+        }
+
+        /**
+         * How many failed calls in a row open the circuit breaker.
+         */
+        public Builder setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        /**
+         * How long the circuit breaker stays open before it lets a trial call through.
+         */
+        public Builder setOpenDurationMillis(long openDurationMillis) {
+            this.openDurationMillis = openDurationMillis;
+            return this;
+        }
+
+        /**
+         * Starts a second refresh attempt if the first one takes longer than this. A good
+         * value is around the 95th percentile latency of the token endpoint. The default
+         * is 0, which turns hedging off.
+         */
+        public Builder setHedgeDelayMillis(long hedgeDelayMillis) {
+            this.hedgeDelayMillis = hedgeDelayMillis;
+            return this;
+        }
+
+        public TokenCallPolicy build() {
+            validate();
+            return new TokenCallPolicy(this);
+        }
+
+        private void validate() {
+            if (connectTimeoutMillis < 0 || readTimeoutMillis < 0) {
+                throw new GoogleApiConfigException("Timeouts can't be negative!");
+            }
+
+            if (maxRetries < 0 || hedgeDelayMillis < 0) {
+                throw new GoogleApiConfigException("Retries and hedge delay can't be negative!");
+            }
+
+            if (initialBackoffMillis < 1 || maxBackoffMillis < initialBackoffMillis) {
+                throw new GoogleApiConfigException("Backoff intervals are invalid!");
+            }
+
+            if (jitterFactor < 0 || jitterFactor >= 1) {
+                throw new GoogleApiConfigException("Jitter factor must be at least 0 and less than 1!");
+            }
+
+            if (circuitBreakerEnabled && (failureThreshold < 1 || openDurationMillis < 1)) {
+                throw new GoogleApiConfigException("Circuit breaker settings must be positive!");
+            }
+        }
+    }
+}
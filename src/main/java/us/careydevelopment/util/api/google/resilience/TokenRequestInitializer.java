@@ -0,0 +1,165 @@
+package us.careydevelopment.util.api.google.resilience;
+
+import com.google.api.client.http.HttpBackOffIOExceptionHandler;
+import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.util.ExponentialBackOff;
+import com.google.api.client.util.Sleeper;
+import us.careydevelopment.util.api.google.ratelimit.RateLimiter;
+
+import java.io.IOException;
+
+/**
+ * Applies a TokenCallPolicy to every request a flow or credential sends to the token endpoint.
+ *
+ * Google's HttpRequest already knows how to retry with a BackOff, so this class only sets
+ * it up. It also checks the circuit breaker before each attempt and tells it how each
+ * attempt went. If the config has a rate limit for the OAuth client, each attempt takes a
+ * permit before anything else.
+ *
+ * Client errors other than 429, such as invalid_grant, aren't retried and don't count
+ * against the circuit breaker.
+ */
+public class TokenRequestInitializer implements HttpRequestInitializer {
+
+    private final TokenCallPolicy policy;
+    private final CircuitBreaker circuitBreaker;
+    private final RateLimiter rateLimiter;
+    private final Sleeper sleeper;
+
+    public TokenRequestInitializer(TokenCallPolicy policy, CircuitBreaker circuitBreaker) {
+        this(policy, circuitBreaker, Sleeper.DEFAULT);
+    }
+
+    /**
+     * @param policy
+     * @param circuitBreaker null if there's no circuit breaker
+     * @param sleeper waits between retries
+     */
+    public TokenRequestInitializer(TokenCallPolicy policy, CircuitBreaker circuitBreaker, Sleeper sleeper) {
+        this(policy, circuitBreaker, null, sleeper);
+    }
+
+    /**
+     * @param policy
+     * @param circuitBreaker null if there's no circuit breaker
+     * @param rateLimiter null if calls aren't rate limited
+     * @param sleeper waits between retries
+     */
+    public TokenRequestInitializer(TokenCallPolicy policy, CircuitBreaker circuitBreaker, RateLimiter rateLimiter, Sleeper sleeper) {
+        this.policy = policy;
+        this.circuitBreaker = circuitBreaker;
+        this.rateLimiter = (rateLimiter != null && rateLimiter.isEnabled()) ? rateLimiter : null;
+        this.sleeper = sleeper;
+    }
+
+    @Override
+    public void initialize(HttpRequest request) {
+        request.setConnectTimeout(policy.getConnectTimeoutMillis());
+        request.setReadTimeout(policy.getReadTimeoutMillis());
+        request.setNumberOfRetries(policy.getMaxRetries());
+
+        final ExponentialBackOff backOff = new ExponentialBackOff.Builder()
+                .setInitialIntervalMillis(policy.getInitialBackoffMillis())
+                .setMaxIntervalMillis(policy.getMaxBackoffMillis())
+                .setRandomizationFactor(policy.getJitterFactor())
+                .setMaxElapsedTimeMillis(Integer.MAX_VALUE)
+                .build();
+
+        final HttpBackOffUnsuccessfulResponseHandler responseHandler = new HttpBackOffUnsuccessfulResponseHandler(backOff)
+                .setBackOffRequired(TokenRequestInitializer::isRetryable)
+                .setSleeper(sleeper);
+        final HttpBackOffIOExceptionHandler ioExceptionHandler = new HttpBackOffIOExceptionHandler(backOff)
+                .setSleeper(sleeper);
+
+        request.setUnsuccessfulResponseHandler((req, response, supportsRetry) -> {
+            if (isRetryable(response)) {
+                recordFailure();
+            }
+
+            return responseHandler.handleResponse(req, response, supportsRetry);
+        });
+
+        request.setIOExceptionHandler((req, supportsRetry) -> {
+            recordFailure();
+            return ioExceptionHandler.handleIOException(req, supportsRetry);
+        });
+
+        // The permit comes first so a rejected call never leaves a half-open breaker waiting on its trial
+        if (rateLimiter != null) {
+            request.setInterceptor(chain(request.getInterceptor(), req -> rateLimiter.acquire(null)));
+        }
+
+        if (circuitBreaker != null) {
+            request.setInterceptor(chain(request.getInterceptor(), this::checkCircuitBreaker));
+            request.setResponseInterceptor(chain(request.getResponseInterceptor(), this::recordResult));
+        }
+    }
+
+    public TokenCallPolicy getPolicy() {
+        return policy;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    static boolean isRetryable(HttpResponse response) {
+        final int status = response.getStatusCode();
+        return status >= 500 || status == 429;
+    }
+
+    private void checkCircuitBreaker(HttpRequest request) throws IOException {
+        if (!circuitBreaker.tryAcquire()) {
+            throw new CircuitBreakerOpenException("Circuit breaker is open - not calling " + request.getUrl().build());
+        }
+    }
+
+    /**
+     * Sees the response of every attempt, retried ones included. Those are skipped here,
+     * since the unsuccessful response handler already counted them as failures.
+     */
+    private void recordResult(HttpResponse response) {
+        if (isRetryable(response)) {
+            return;
+        }
+
+        circuitBreaker.recordSuccess();
+    }
+
+    private void recordFailure() {
+        if (circuitBreaker != null) {
+            circuitBreaker.recordFailure();
+        }
+    }
+
+    private static HttpExecuteInterceptor chain(HttpExecuteInterceptor first, HttpExecuteInterceptor second) {
+        if (first == null) {
+            return second;
+        }
+
+        return request -> {
+            first.intercept(request);
+            second.intercept(request);
+        };
+    }
+
+    private static HttpResponseInterceptor chain(HttpResponseInterceptor first, HttpResponseInterceptor second) {
+        if (first == null) {
+            return second;
+        }
+
+        return response -> {
+            first.interceptResponse(response);
+            second.interceptResponse(response);
+        };
+    }
+}
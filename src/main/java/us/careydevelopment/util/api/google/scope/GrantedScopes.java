@@ -0,0 +1,101 @@
+package us.careydevelopment.util.api.google.scope;
+
+import us.careydevelopment.util.api.google.cache.BoundedCache;
+
+/**
+ * Remembers which scopes each user has granted.
+ *
+ * StoredCredential doesn't keep the scopes, so they're learned from Google's token responses.
+ * That happens when a code is exchanged and whenever a token is refreshed. After a restart,
+ * a user's grant is unknown until their first refresh.
+ *
+ * Every entry points at an interned ScopeSet, so users with the same grant share one set.
+ *
+ * Grants are kept in a BoundedCache, so the least recently used users are forgotten once
+ * the cache is full, and a grant that hasn't been seen for the time-to-live expires. A
+ * forgotten grant is learned again on the user's next refresh.
+ */
+public class GrantedScopes {
+
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+    public static final long DEFAULT_TTL_MILLIS = 24 * 60 * 60 * 1000;
+
+    private final BoundedCache<String, ScopeSet> grants;
+
+    public GrantedScopes() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @param maxSize maximum number of users; 0 means grants aren't remembered
+     * @param ttlMillis how long a grant is remembered after it was last recorded; 0 or less means no expiry
+     */
+    public GrantedScopes(int maxSize, long ttlMillis) {
+        this.grants = new BoundedCache<>(maxSize, ttlMillis);
+    }
+
+    /**
+     * Records scopes the user has granted. Scopes granted earlier are kept, since
+     * incremental authorization only ever adds to a grant.
+     *
+     * @param userId
+     * @param scopes
+     */
+    public void record(String userId, ScopeSet scopes) {
+        if (userId == null || scopes == null || scopes.isEmpty()) {
+            return;
+        }
+
+        synchronized (grants) {
+            final ScopeSet existing = grants.getIfPresent(userId);
+            grants.put(userId, (existing != null) ? existing.union(scopes) : scopes);
+        }
+    }
+
+    /**
+     * Replaces whatever was recorded for the user. Use it when a token response lists
+     * the complete grant.
+     *
+     * @param userId
+     * @param scopes
+     */
+    public void replace(String userId, ScopeSet scopes) {
+        if (userId == null || scopes == null || scopes.isEmpty()) {
+            return;
+        }
+
+        synchronized (grants) {
+            grants.put(userId, scopes);
+        }
+    }
+
+    /**
+     * @param userId
+     * @return the scopes the user has granted, or null if they aren't known
+     */
+    public ScopeSet get(String userId) {
+        return grants.getIfPresent(userId);
+    }
+
+    /**
+     * @param userId
+     * @param scopes
+     * @return true if the user is known to have granted all the scopes
+     */
+    public boolean covers(String userId, ScopeSet scopes) {
+        final ScopeSet granted = grants.getIfPresent(userId);
+        return granted != null && granted.containsAll(scopes);
+    }
+
+    public void remove(String userId) {
+        grants.invalidate(userId);
+    }
+
+    public void clear() {
+        grants.invalidateAll();
+    }
+
+    public int size() {
+        return grants.size();
+    }
+}
@@ -0,0 +1,30 @@
+package us.careydevelopment.util.api.google.scope;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.auth.oauth2.CredentialRefreshListener;
+import com.google.api.client.auth.oauth2.TokenErrorResponse;
+import com.google.api.client.auth.oauth2.TokenResponse;
+
+/**
+ * Records the scopes listed in every refresh response, so the user's grant is known
+ * again after a restart.
+ */
+public class ScopeRecordingRefreshListener implements CredentialRefreshListener {
+
+    private final String userId;
+    private final GrantedScopes grantedScopes;
+
+    public ScopeRecordingRefreshListener(String userId, GrantedScopes grantedScopes) {
+        this.userId = userId;
+        this.grantedScopes = grantedScopes;
+    }
+
+    @Override
+    public void onTokenResponse(Credential credential, TokenResponse tokenResponse) {
+        grantedScopes.replace(userId, ScopeSet.parse(tokenResponse.getScope()));
+    }
+
+    @Override
+    public void onTokenErrorResponse(Credential credential, TokenErrorResponse tokenErrorResponse) {
+    }
+}
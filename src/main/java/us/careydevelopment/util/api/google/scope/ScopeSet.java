@@ -0,0 +1,198 @@
+package us.careydevelopment.util.api.google.scope;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * An immutable, normalized set of OAuth scopes.
+ *
+ * Scopes are trimmed, de-duplicated and sorted, so two lists with the same scopes in a
+ * different order or with repeats give the same ScopeSet. Every ScopeSet is interned, so
+ * equal sets are usually the same object and comparing them is cheap.
+ *
+ * Interning is weak. A set that nothing else refers to anymore can be garbage collected,
+ * so odd scope strings from token responses can't pile up over time.
+ */
+public final class ScopeSet {
+
+    /**
+     * The values are weak too. A strong value would keep its own key reachable.
+     */
+    private static final Map<ScopeSet, WeakReference<ScopeSet>> INTERNED = new WeakHashMap<>();
+
+    public static final ScopeSet EMPTY = intern(new ScopeSet(new String[0]));
+
+    private final String[] scopes;
+    private final List<String> list;
+    private final int hash;
+
+    private ScopeSet(String[] scopes) {
+        this.scopes = scopes;
+        this.list = Collections.unmodifiableList(Arrays.asList(scopes));
+        this.hash = Arrays.hashCode(scopes);
+    }
+
+    /**
+     * @param scopes can be null
+     * @return the interned ScopeSet with the same scopes
+     */
+    public static ScopeSet of(Collection<String> scopes) {
+        if (scopes == null || scopes.isEmpty()) {
+            return EMPTY;
+        }
+
+        final List<String> normalized = new ArrayList<>(scopes.size());
+        for (String scope : scopes) {
+            if (scope != null && !scope.isBlank()) {
+                normalized.add(scope.trim());
+            }
+        }
+
+        return of(normalized.toArray(new String[0]));
+    }
+
+    /**
+     * Parses the space-delimited scope string that Google returns in a token response.
+     *
+     * @param scopes can be null
+     * @return the interned ScopeSet with the same scopes
+     */
+    public static ScopeSet parse(String scopes) {
+        if (scopes == null || scopes.isBlank()) {
+            return EMPTY;
+        }
+
+        return of(scopes.trim().split("\\s+"));
+    }
+
+    private static ScopeSet of(String[] scopes) {
+        Arrays.sort(scopes);
+
+        int size = 0;
+        for (int i = 0; i < scopes.length; i++) {
+            if (i == 0 || !scopes[i].equals(scopes[size - 1])) {
+                scopes[size++] = scopes[i];
+            }
+        }
+
+        return intern(new ScopeSet((size == scopes.length) ? scopes : Arrays.copyOf(scopes, size)));
+    }
+
+    private static ScopeSet intern(ScopeSet scopeSet) {
+        synchronized (INTERNED) {
+            final WeakReference<ScopeSet> reference = INTERNED.get(scopeSet);
+            final ScopeSet existing = (reference != null) ? reference.get() : null;
+
+            if (existing != null) {
+                return existing;
+            }
+
+            INTERNED.put(scopeSet, new WeakReference<>(scopeSet));
+            return scopeSet;
+        }
+    }
+
+    /**
+     * @param other
+     * @return true if every scope in the other set is also in this one
+     */
+    public boolean containsAll(ScopeSet other) {
+        if (this == other || other.scopes.length == 0) {
+            return true;
+        }
+
+        if (other.scopes.length > scopes.length) {
+            return false;
+        }
+
+        int i = 0;
+        for (String scope : other.scopes) {
+            while (i < scopes.length && scopes[i].compareTo(scope) < 0) {
+                i++;
+            }
+
+            if (i == scopes.length || !scopes[i].equals(scope)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param other
+     * @return the scopes in either set
+     */
+    public ScopeSet union(ScopeSet other) {
+        if (containsAll(other)) {
+            return this;
+        }
+
+        if (other.containsAll(this)) {
+            return other;
+        }
+
+        final String[] merged = Arrays.copyOf(scopes, scopes.length + other.scopes.length);
+        System.arraycopy(other.scopes, 0, merged, scopes.length, other.scopes.length);
+
+        return of(merged);
+    }
+
+    /**
+     * @param other
+     * @return the scopes in this set that aren't in the other one
+     */
+    public ScopeSet minus(ScopeSet other) {
+        final List<String> remaining = new ArrayList<>(scopes.length);
+        for (String scope : scopes) {
+            if (Arrays.binarySearch(other.scopes, scope) < 0) {
+                remaining.add(scope);
+            }
+        }
+
+        return (remaining.size() == scopes.length) ? this : of(remaining);
+    }
+
+    public boolean isEmpty() {
+        return scopes.length == 0;
+    }
+
+    public int size() {
+        return scopes.length;
+    }
+
+    /**
+     * @return the scopes in sorted order
+     */
+    public List<String> asList() {
+        return list;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ScopeSet)) return false;
+
+        final ScopeSet other = (ScopeSet) o;
+        return hash == other.hash && Arrays.equals(scopes, other.scopes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * @return the scopes separated by spaces, the way OAuth writes them
+     */
+    @Override
+    public String toString() {
+        return String.join(" ", scopes);
+    }
+}
@@ -0,0 +1,90 @@
+package us.careydevelopment.util.api.google.url;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeRequestUrl;
+import com.google.api.client.util.escape.CharEscapers;
+
+import java.util.Collection;
+
+/**
+ * The precomputed part of an authorization code URL.
+ *
+ * Everything in the URL except the state depends only on the client ID, scopes, redirect URI
+ * and access type. So that part gets built once and reused. Each request only appends
+ * the encoded state.
+ */
+public class AuthorizationUrlTemplate {
+
+    private static final String STATE_PARAM = "state=";
+    private static final String INCLUDE_GRANTED_SCOPES_PARAM = "include_granted_scopes";
+
+    private final String baseUrl;
+    private final char stateSeparator;
+
+    public AuthorizationUrlTemplate(String baseUrl) {
+        this.baseUrl = baseUrl;
+        this.stateSeparator = (baseUrl.indexOf('?') < 0) ? '?' : '&';
+    }
+
+    /**
+     * Builds the template the same way GoogleAuthorizationCodeFlow builds its URLs, but without
+     * a flow, a transport or a data store.
+     *
+     * @param clientId
+     * @param redirectUrl
+     * @param scopes
+     * @param accessType
+     * @return AuthorizationUrlTemplate
+     */
+    public static AuthorizationUrlTemplate of(String clientId, String redirectUrl, Collection<String> scopes,
+                                              String accessType) {
+        return of(clientId, redirectUrl, scopes, accessType, false);
+    }
+
+    /**
+     * Builds the template, optionally asking for incremental authorization.
+     *
+     * With include_granted_scopes, Google only asks the user to consent to scopes they
+     * haven't granted yet. The token that comes back covers both the new and the old scopes.
+     *
+     * @param clientId
+     * @param redirectUrl
+     * @param scopes
+     * @param accessType
+     * @param includeGrantedScopes
+     * @return AuthorizationUrlTemplate
+     */
+    public static AuthorizationUrlTemplate of(String clientId, String redirectUrl, Collection<String> scopes,
+                                              String accessType, boolean includeGrantedScopes) {
+        final GoogleAuthorizationCodeRequestUrl url = new GoogleAuthorizationCodeRequestUrl(clientId, redirectUrl, scopes)
+                .setAccessType(accessType);
+
+        if (includeGrantedScopes) {
+            url.set(INCLUDE_GRANTED_SCOPES_PARAM, "true");
+        }
+
+        return new AuthorizationUrlTemplate(url.build());
+    }
+
+    /**
+     * @param state optional state; null leaves it out
+     * @return the full authorization code URL
+     */
+    public String withState(String state) {
+        if (state == null) {
+            return baseUrl;
+        }
+
+        final String encodedState = CharEscapers.escapeUriQuery(state);
+
+        return new StringBuilder(baseUrl.length() + STATE_PARAM.length() + encodedState.length() + 1)
+                .append(baseUrl)
+                .append(stateSeparator)
+                .append(STATE_PARAM)
+                .append(encodedState)
+                .toString();
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+}
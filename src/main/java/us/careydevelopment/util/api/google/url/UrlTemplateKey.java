@@ -0,0 +1,53 @@
+package us.careydevelopment.util.api.google.url;
+
+import us.careydevelopment.util.api.google.scope.ScopeSet;
+
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * Identifies a cached AuthorizationUrlTemplate by redirect URL and set of scopes.
+ */
+public class UrlTemplateKey {
+
+    private final String redirectUrl;
+    private final ScopeSet scopes;
+    private final int hash;
+
+    public UrlTemplateKey(String redirectUrl, Collection<String> scopes) {
+        this(redirectUrl, ScopeSet.of(scopes));
+    }
+
+    public UrlTemplateKey(String redirectUrl, ScopeSet scopes) {
+        this.redirectUrl = redirectUrl;
+        this.scopes = scopes;
+        this.hash = Objects.hash(redirectUrl, scopes);
+    }
+
+    public String getRedirectUrl() {
+        return redirectUrl;
+    }
+
+    public ScopeSet getScopes() {
+        return scopes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof UrlTemplateKey)) return false;
+
+        final UrlTemplateKey other = (UrlTemplateKey) o;
+        return Objects.equals(redirectUrl, other.redirectUrl) && scopes.equals(other.scopes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return redirectUrl + " " + scopes;
+    }
+}
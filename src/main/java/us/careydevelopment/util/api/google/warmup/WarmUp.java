@@ -0,0 +1,324 @@
+package us.careydevelopment.util.api.google.warmup;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleOAuthConstants;
+import com.google.api.client.googleapis.auth.oauth2.GoogleTokenResponse;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.json.JsonFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import us.careydevelopment.util.api.google.BulkCredentialUtil;
+import us.careydevelopment.util.api.google.CredentialUtil;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.datastore.CachingCredentialDataStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gets a GoogleApiConfig ready for traffic in the background, so the first requests
+ * after a deploy aren't the slow ones.
+ *
+ * It runs these steps in order:
+ *
+ * 1. Opens a connection to the token endpoint, so the TLS handshake is done and the
+ *    connection is pooled.
+ * 2. Parses and writes a token response, so the JSON factory's reflection caches are warm.
+ * 3. Loads the credentials of the hot user IDs in chunks. If there's a credential cache,
+ *    each chunk is read with one batch query first, which fills the cache and refreshes
+ *    tokens that have expired. Then each user's credential is loaded the way a request
+ *    would load it, a few at a time on the async executor. That builds and caches the
+ *    user's flow and hands the credential to the refresher.
+ *
+ * A failed step is logged and counted, but it doesn't stop the warm-up. Readiness probes
+ * can poll isDone() or wait with await().
+ */
+public class WarmUp {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WarmUp.class);
+
+    private static final String SAMPLE_TOKEN_RESPONSE = "{\"access_token\":\"ya29.warmup\",\"expires_in\":3599,"
+            + "\"refresh_token\":\"1//warmup\",\"scope\":\"openid\",\"token_type\":\"Bearer\"}";
+
+    public enum Status {
+        PENDING, RUNNING, DONE, CANCELLED
+    }
+
+    private final GoogleApiConfig config;
+    private final List<String> userIds;
+    private final String connectUrl;
+    private final int totalSteps;
+
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    private final AtomicInteger completedSteps = new AtomicInteger();
+    private final AtomicInteger preloadedCount = new AtomicInteger();
+    private final AtomicInteger failureCount = new AtomicInteger();
+    private volatile Status status = Status.PENDING;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+
+    /**
+     * @param config
+     * @param userIds users whose credentials get loaded
+     * @param connectUrl where to open the first connection; null skips that step
+     */
+    public WarmUp(GoogleApiConfig config, List<String> userIds, String connectUrl) {
+        this.config = config;
+        this.userIds = Collections.unmodifiableList(new ArrayList<>(userIds));
+        this.connectUrl = connectUrl;
+        this.totalSteps = 2 + this.userIds.size();
+    }
+
+    /**
+     * @param config
+     * @param userIds
+     * @return a warm-up that connects to Google's token endpoint
+     */
+    public static WarmUp of(GoogleApiConfig config, List<String> userIds) {
+        return new WarmUp(config, userIds, GoogleOAuthConstants.TOKEN_SERVER_URL);
+    }
+
+    /**
+     * @return a warm-up that's already done, for configs that didn't ask for one
+     */
+    public static WarmUp none() {
+        final WarmUp warmUp = new WarmUp(null, Collections.emptyList(), null);
+        warmUp.status = Status.DONE;
+        warmUp.completedSteps.set(warmUp.totalSteps);
+        warmUp.future.complete(null);
+
+        return warmUp;
+    }
+
+    /**
+     * Runs the warm-up on the executor. Calling it again does nothing.
+     *
+     * @param executor
+     * @return this warm-up
+     */
+    public synchronized WarmUp start(Executor executor) {
+        if (status != Status.PENDING) {
+            return this;
+        }
+
+        status = Status.RUNNING;
+        startedAt = System.nanoTime();
+        executor.execute(this::run);
+
+        return this;
+    }
+
+    /**
+     * Stops the warm-up between steps. Anything already loaded stays loaded.
+     */
+    public void cancel() {
+        if (status == Status.PENDING || status == Status.RUNNING) {
+            status = Status.CANCELLED;
+            future.cancel(false);
+        }
+    }
+
+    private void run() {
+        try {
+            if (proceed()) {
+                connect();
+            }
+
+            if (proceed()) {
+                warmJson();
+            }
+
+            preload();
+
+            if (proceed()) {
+                status = Status.DONE;
+                finishedAt = System.nanoTime();
+                LOG.info("Warm-up of GoogleApiConfig {} done in {} ms - {} credentials loaded, {} failures",
+                        config.getName(), getElapsedMillis(), preloadedCount.get(), failureCount.get());
+                future.complete(null);
+            }
+        } catch (RuntimeException | Error e) {
+            LOG.error("Problem warming up GoogleApiConfig!", e);
+            status = Status.DONE;
+            finishedAt = System.nanoTime();
+            future.completeExceptionally(e);
+        }
+    }
+
+    private boolean proceed() {
+        return status == Status.RUNNING;
+    }
+
+    private void connect() {
+        if (connectUrl != null) {
+            try {
+                final HttpResponse response = config.getTransport()
+                        .createRequestFactory()
+                        .buildGetRequest(new GenericUrl(connectUrl))
+                        .setThrowExceptionOnExecuteError(false)
+                        .execute();
+                response.disconnect();
+            } catch (Exception e) {
+                failureCount.incrementAndGet();
+                LOG.warn("Problem connecting to {} during warm-up", connectUrl, e);
+            }
+        }
+
+        completedSteps.incrementAndGet();
+    }
+
+    private void warmJson() {
+        try {
+            final JsonFactory jsonFactory = config.getJsonFactory();
+            final GoogleTokenResponse response = jsonFactory.fromString(SAMPLE_TOKEN_RESPONSE, GoogleTokenResponse.class);
+            jsonFactory.toString(response);
+        } catch (Exception e) {
+            failureCount.incrementAndGet();
+            LOG.warn("Problem warming up the JSON factory", e);
+        }
+
+        completedSteps.incrementAndGet();
+    }
+
+    private void preload() {
+        final int chunkSize = config.getBulkChunkSize();
+        final boolean batchRead = config.getCredentialDataStore() instanceof CachingCredentialDataStore;
+
+        for (int from = 0; from < userIds.size() && proceed(); from += chunkSize) {
+            List<String> chunk = userIds.subList(from, Math.min(from + chunkSize, userIds.size()));
+            final int size = chunk.size();
+
+            if (batchRead) {
+                try {
+                    chunk = new ArrayList<>(BulkCredentialUtil.getCredentials(config, chunk).keySet());
+                } catch (Exception e) {
+                    failureCount.incrementAndGet();
+                    LOG.warn("Problem loading {} credentials during warm-up", size, e);
+                }
+            }
+
+            loadThroughCache(chunk);
+            completedSteps.addAndGet(size);
+        }
+    }
+
+    /**
+     * Loads each user's credential through CredentialUtil, which is what builds and caches
+     * the flow. Only so many loads run at once. When they're all busy, the next user is
+     * loaded on this thread.
+     */
+    private void loadThroughCache(List<String> ids) {
+        final Semaphore permits = new Semaphore(config.getBulkRefreshConcurrency());
+        final List<CompletableFuture<Void>> loads = new ArrayList<>();
+
+        for (String id : ids) {
+            if (!proceed()) {
+                break;
+            }
+
+            if (permits.tryAcquire()) {
+                loads.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        load(id);
+                    } finally {
+                        permits.release();
+                    }
+                }, config.getAsyncExecutor()));
+            } else {
+                load(id);
+            }
+        }
+
+        CompletableFuture.allOf(loads.toArray(new CompletableFuture[0])).join();
+    }
+
+    private void load(String id) {
+        try {
+            if (CredentialUtil.getCredential(config, id) != null) {
+                preloadedCount.incrementAndGet();
+            }
+        } catch (Exception e) {
+            failureCount.incrementAndGet();
+            LOG.warn("Problem loading credential for user {} during warm-up", id, e);
+        }
+    }
+
+    /**
+     * Waits for the warm-up to finish.
+     *
+     * @param timeout
+     * @param unit
+     * @return true if it finished in time
+     * @throws InterruptedException
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            future.get(timeout, unit);
+        } catch (TimeoutException te) {
+            return false;
+        } catch (Exception e) {
+            return future.isDone();
+        }
+
+        return true;
+    }
+
+    /**
+     * @return completes when the warm-up is done
+     */
+    public CompletableFuture<Void> getFuture() {
+        return future;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isDone() {
+        return status == Status.DONE || status == Status.CANCELLED;
+    }
+
+    /**
+     * @return share of the work done, from 0 to 1
+     */
+    public double getProgress() {
+        return (double) completedSteps.get() / totalSteps;
+    }
+
+    /**
+     * @return number of hot users whose credential was found and loaded
+     */
+    public int getPreloadedCount() {
+        return preloadedCount.get();
+    }
+
+    public int getUserCount() {
+        return userIds.size();
+    }
+
+    /**
+     * @return number of steps, chunks or users that failed
+     */
+    public int getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * @return how long the warm-up took, or has taken so far
+     */
+    public long getElapsedMillis() {
+        if (startedAt == 0) {
+            return 0;
+        }
+
+        final long end = (finishedAt != 0) ? finishedAt : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(end - startedAt);
+    }
+}
@@ -0,0 +1,97 @@
+package us.careydevelopment.util.api.google;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.auth.oauth2.StoredCredential;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.services.gmail.GmailScopes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.exception.GoogleApiException;
+import us.careydevelopment.util.api.google.harness.InMemoryCredentialStore;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncCredentialUtilTest {
+
+    private static final String ID = "42";
+
+    @AfterEach
+    public void tearDown() {
+        GoogleApiConfig.shutdown();
+    }
+
+    @Test
+    public void testCredentialIsLoadedOnExecutor() throws Exception {
+        InMemoryCredentialStore store = new InMemoryCredentialStore().seed(List.of(ID));
+        GoogleApiConfig config = newConfig(store);
+
+        Credential credential = AsyncCredentialUtil.getCredential(config, ID).get(5, TimeUnit.SECONDS);
+
+        Assertions.assertNotNull(credential);
+        Assertions.assertEquals(store.getCredentials().get(ID).getAccessToken(), credential.getAccessToken());
+        Assertions.assertEquals(1, store.getRetrieveCount());
+    }
+
+    @Test
+    public void testFailureCompletesWithGoogleApiException() throws Exception {
+        InMemoryCredentialStore store = new InMemoryCredentialStore() {
+            @Override
+            public StoredCredential retrieve(String id) {
+                throw new IllegalStateException("store is down");
+            }
+        };
+
+        CompletableFuture<Credential> future = AsyncCredentialUtil.getCredential(newConfig(store), ID);
+
+        Throwable handled = future.handle((credential, t) -> t).get(5, TimeUnit.SECONDS);
+        Assertions.assertTrue(handled instanceof GoogleApiException);
+
+        ExecutionException ee = Assertions.assertThrows(ExecutionException.class, future::get);
+        Assertions.assertSame(handled, ee.getCause());
+
+        CompletionException ce = Assertions.assertThrows(CompletionException.class, future::join);
+        Assertions.assertSame(handled, ce.getCause());
+    }
+
+    @Test
+    public void testRejectedTaskCompletesWithGoogleApiException() {
+        InMemoryCredentialStore store = new InMemoryCredentialStore().seed(List.of(ID));
+        GoogleApiConfig config = GoogleApiConfig.Builder
+                .instance()
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setTransport(new MockHttpTransport())
+                .setPersister(store)
+                .setRetriever(store)
+                .setScopes(List.of(GmailScopes.GMAIL_READONLY))
+                .setAsyncExecutor(task -> {
+                    throw new RejectedExecutionException("full");
+                })
+                .build();
+
+        CompletableFuture<Credential> future = AsyncCredentialUtil.getCredential(config, ID);
+
+        Assertions.assertTrue(future.isCompletedExceptionally());
+        CompletionException ce = Assertions.assertThrows(CompletionException.class, future::join);
+        Assertions.assertTrue(ce.getCause() instanceof GoogleApiException);
+    }
+
+    private GoogleApiConfig newConfig(InMemoryCredentialStore store) {
+        return GoogleApiConfig.Builder
+                .instance()
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setTransport(new MockHttpTransport())
+                .setPersister(store)
+                .setRetriever(store)
+                .setScopes(List.of(GmailScopes.GMAIL_READONLY))
+                .build();
+    }
+}
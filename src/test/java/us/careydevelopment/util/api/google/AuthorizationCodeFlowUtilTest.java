@@ -0,0 +1,98 @@
+package us.careydevelopment.util.api.google;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.gmail.GmailScopes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import us.careydevelopment.util.api.google.cache.FlowCacheKey;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.harness.InMemoryCredentialStore;
+import us.careydevelopment.util.api.google.harness.TokenServerHarness;
+
+import java.util.List;
+
+public class AuthorizationCodeFlowUtilTest {
+
+    private static final String ID = "0";
+    private static final String REDIRECT_URL = "https://example.com/oauth/callback";
+
+    private final InMemoryCredentialStore store = new InMemoryCredentialStore();
+    private final TokenServerHarness tokenServer = new TokenServerHarness() {
+        @Override
+        protected LowLevelHttpResponse newTokenResponse() {
+            return new MockLowLevelHttpResponse()
+                    .setContentType(Json.MEDIA_TYPE)
+                    .setContent("{\"access_token\":\"" + REFRESHED_ACCESS_TOKEN + "\",\"expires_in\":3600,"
+                            + "\"scope\":\"" + GmailScopes.GMAIL_SEND + " " + GmailScopes.GMAIL_READONLY + "\"}");
+        }
+    };
+
+    private GoogleApiConfig config;
+
+    @BeforeEach
+    public void setUp() {
+        GoogleApiConfig.shutdown();
+        store.seed(List.of(ID));
+
+        config = GoogleApiConfig.Builder
+                .instance()
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setTransport(tokenServer.getTransport())
+                .setPersister(store)
+                .setRetriever(store)
+                .setScopes(List.of(GmailScopes.GMAIL_READONLY))
+                .build();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        GoogleApiConfig.shutdown();
+    }
+
+    @Test
+    public void testGrantedSubsetSharesFlow() throws Exception {
+        Assertions.assertFalse(AuthorizationCodeUrlUtil.needsAuthorization(ID, List.of(GmailScopes.GMAIL_SEND)));
+        Assertions.assertTrue(AuthorizationCodeUrlUtil.needsAuthorization(ID, List.of(GmailScopes.GMAIL_MODIFY)));
+        Assertions.assertEquals(1, tokenServer.getRequestCount());
+
+        GoogleAuthorizationCodeFlow flow = AuthorizationCodeFlowUtil.getAuthorizationCodeFlow(ID);
+
+        Assertions.assertSame(flow, AuthorizationCodeFlowUtil.getAuthorizationCodeFlow(ID, List.of(GmailScopes.GMAIL_SEND)));
+        Assertions.assertSame(flow, AuthorizationCodeFlowUtil.getAuthorizationCodeFlow(ID,
+                List.of(GmailScopes.GMAIL_READONLY, GmailScopes.GMAIL_SEND, GmailScopes.GMAIL_READONLY)));
+        Assertions.assertNotSame(flow, AuthorizationCodeFlowUtil.getAuthorizationCodeFlow(ID, List.of(GmailScopes.GMAIL_MODIFY)));
+    }
+
+    @Test
+    public void testUrlAsksForIncrementalAuthorization() {
+        String url = AuthorizationCodeUrlUtil.getAuthorizationCodeUrl(config, ID, REDIRECT_URL, null,
+                List.of(GmailScopes.GMAIL_MODIFY));
+
+        Assertions.assertTrue(url.contains("include_granted_scopes=true"));
+        Assertions.assertFalse(url.contains("gmail.readonly"));
+    }
+
+    @Test
+    public void testFlowCachedDuringInvalidationStaysReachable() throws Exception {
+        FlowCacheKey key = new FlowCacheKey(ID, List.of(GmailScopes.GMAIL_READONLY));
+        GoogleAuthorizationCodeFlow flow = AuthorizationCodeFlowUtil.newUncachedAuthorizationCodeFlow(config, ID);
+
+        config.getFlowCache().get(key, k -> {
+            config.invalidate(ID);
+            return flow;
+        });
+
+        Assertions.assertEquals(1, config.getFlowCacheIndex().size());
+
+        config.invalidate(ID);
+
+        Assertions.assertEquals(0, config.getFlowCache().size());
+        Assertions.assertEquals(0, config.getFlowCacheIndex().size());
+    }
+}
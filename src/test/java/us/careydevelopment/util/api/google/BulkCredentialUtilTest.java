@@ -0,0 +1,115 @@
+package us.careydevelopment.util.api.google;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.auth.oauth2.StoredCredential;
+import com.google.api.services.gmail.GmailScopes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.datastore.BatchStoredCredentialRetriever;
+import us.careydevelopment.util.api.google.harness.StoredCredentialHarness;
+import us.careydevelopment.util.api.google.harness.StoredCredentialPersisterHarness;
+import us.careydevelopment.util.api.google.harness.TokenServerHarness;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class BulkCredentialUtilTest {
+
+    private final AtomicInteger batchCalls = new AtomicInteger();
+    private final TokenServerHarness tokenServer = new TokenServerHarness();
+
+    @BeforeEach
+    public void setUp() {
+        GoogleApiConfig.shutdown();
+
+        GoogleApiConfig.Builder
+                .instance()
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setTransport(tokenServer.getTransport())
+                .setPersister(StoredCredentialPersisterHarness.getGoodPersister())
+                .setRetriever(new EvenIdRetriever())
+                .setScopes(List.of(GmailScopes.MAIL_GOOGLE_COM))
+                .setBulkChunkSize(4)
+                .build();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        GoogleApiConfig.shutdown();
+    }
+
+    @Test
+    public void testGetCredentials() {
+        List<String> ids = IntStream.range(0, 10).mapToObj(String::valueOf).collect(Collectors.toList());
+
+        Map<String, Credential> credentials = BulkCredentialUtil.getCredentials(ids);
+
+        Assertions.assertEquals(List.of("0", "2", "4", "6", "8"), List.copyOf(credentials.keySet()));
+        Assertions.assertEquals(3, batchCalls.get());
+        Assertions.assertEquals(5, tokenServer.getRequestCount());
+        credentials.values().forEach(credential ->
+                Assertions.assertEquals(TokenServerHarness.REFRESHED_ACCESS_TOKEN, credential.getAccessToken()));
+    }
+
+    @Test
+    public void testStreamIsLazy() {
+        List<String> ids = IntStream.range(0, 10).mapToObj(String::valueOf).collect(Collectors.toList());
+
+        Assertions.assertEquals("0", BulkCredentialUtil.streamCredentials(ids).findFirst().get().getKey());
+        Assertions.assertEquals(1, batchCalls.get());
+    }
+
+    @Test
+    public void testBulkLoadSkipsFlowCacheAndRefresher() {
+        GoogleApiConfig.shutdown();
+
+        GoogleApiConfig config = GoogleApiConfig.Builder
+                .instance()
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setTransport(tokenServer.getTransport())
+                .setPersister(StoredCredentialPersisterHarness.getGoodPersister())
+                .setRetriever(new EvenIdRetriever())
+                .setScopes(List.of(GmailScopes.MAIL_GOOGLE_COM))
+                .setBackgroundRefreshEnabled(true)
+                .build();
+
+        List<String> ids = IntStream.range(0, 10).mapToObj(String::valueOf).collect(Collectors.toList());
+
+        Assertions.assertEquals(5, BulkCredentialUtil.getCredentials(config, ids).size());
+        Assertions.assertEquals(0, config.getFlowCache().size());
+        Assertions.assertEquals(0, config.getCredentialRefresher().getTrackedCount());
+    }
+
+    /**
+     * Only even IDs have credentials, and every token has already expired.
+     */
+    private class EvenIdRetriever implements BatchStoredCredentialRetriever {
+
+        @Override
+        public Map<String, StoredCredential> retrieveAll(Collection<String> ids) {
+            batchCalls.incrementAndGet();
+
+            Map<String, StoredCredential> stored = new HashMap<>();
+            ids.stream().filter(id -> Integer.parseInt(id) % 2 == 0).forEach(id -> stored.put(id, retrieve(id)));
+
+            return stored;
+        }
+
+        @Override
+        public StoredCredential retrieve(String id) {
+            StoredCredential credential = StoredCredentialHarness.getGoodStoredCredential();
+            credential.setExpirationTimeMilliseconds(System.currentTimeMillis() - 1000);
+            return credential;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package us.careydevelopment.util.api.google;
+
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.gmail.GmailScopes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import us.careydevelopment.api.google.datastore.util.StoredCredentialPersister;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.datastore.CachingCredentialDataStore;
+import us.careydevelopment.util.api.google.exception.GoogleApiException;
+import us.careydevelopment.util.api.google.harness.InMemoryCredentialStore;
+import us.careydevelopment.util.api.google.harness.TokenServerHarness;
+import us.careydevelopment.util.api.google.metrics.InMemoryMetricsRecorder;
+import us.careydevelopment.util.api.google.metrics.OAuthOperation;
+import us.careydevelopment.util.api.google.metrics.OperationSnapshot;
+import us.careydevelopment.util.api.google.resilience.TokenCallPolicy;
+import us.careydevelopment.util.api.google.scope.ScopeSet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CredentialRevocationUtilTest {
+
+    private static final String ID = "77";
+
+    private final InMemoryCredentialStore store = new InMemoryCredentialStore();
+
+    @AfterEach
+    public void tearDown() {
+        GoogleApiConfig.shutdown();
+    }
+
+    @Test
+    public void testRevokeDeletesAndInvalidates() {
+        StatusServer server = new StatusServer(200);
+        GoogleApiConfig config = newConfig(server);
+        List<String> invalidated = new ArrayList<>();
+        config.addInvalidationListener(invalidated::add);
+
+        Assertions.assertNotNull(CredentialUtil.getCredential(config, ID));
+        config.getGrantedScopes().replace(ID, ScopeSet.of(List.of(GmailScopes.GMAIL_READONLY)));
+        Assertions.assertEquals(1, config.getFlowCache().size());
+
+        Assertions.assertTrue(CredentialRevocationUtil.revokeCredential(config, ID));
+
+        Assertions.assertEquals(1, server.getRequestCount());
+        Assertions.assertFalse(store.getCredentials().containsKey(ID));
+        Assertions.assertNull(((CachingCredentialDataStore) config.getCredentialDataStore()).getIfCached(ID));
+        Assertions.assertEquals(0, config.getFlowCache().size());
+        Assertions.assertEquals(0, config.getFlowCacheIndex().size());
+        Assertions.assertNull(config.getGrantedScopes().get(ID));
+        Assertions.assertEquals(List.of(ID), invalidated);
+        Assertions.assertNull(CredentialUtil.getCredential(config, ID));
+    }
+
+    @Test
+    public void testAlreadyInvalidTokenIsStillDeleted() {
+        GoogleApiConfig config = newConfig(new StatusServer(400));
+
+        Assertions.assertFalse(CredentialRevocationUtil.revokeCredential(config, ID));
+        Assertions.assertFalse(store.getCredentials().containsKey(ID));
+    }
+
+    @Test
+    public void testFailedRevocationKeepsCredential() {
+        GoogleApiConfig config = newConfig(new StatusServer(503));
+
+        Assertions.assertThrows(GoogleApiException.class, () -> CredentialRevocationUtil.revokeCredential(config, ID));
+        Assertions.assertTrue(store.getCredentials().containsKey(ID));
+    }
+
+    @Test
+    public void testPersisterThatCantDeleteKeepsCredential() {
+        GoogleApiConfig config = newConfig(new StatusServer(200), (id, storedCredential) -> true);
+        List<String> invalidated = new ArrayList<>();
+        config.addInvalidationListener(invalidated::add);
+
+        Assertions.assertFalse(CredentialRevocationUtil.deleteCredential(config, ID));
+        Assertions.assertTrue(store.getCredentials().containsKey(ID));
+        Assertions.assertEquals(List.of(ID), invalidated);
+    }
+
+    @Test
+    public void testFailedDeleteStopsMetricsSample() {
+        InMemoryCredentialStore failingStore = new InMemoryCredentialStore() {
+            @Override
+            public void delete(String id) {
+                throw new IllegalStateException("Database is down");
+            }
+        };
+        InMemoryMetricsRecorder metrics = new InMemoryMetricsRecorder();
+        failingStore.seed(List.of(ID));
+
+        GoogleApiConfig config = GoogleApiConfig.Builder
+                .instance()
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setTransport(new StatusServer(200).getTransport())
+                .setPersister(failingStore)
+                .setRetriever(failingStore)
+                .setScopes(List.of(GmailScopes.GMAIL_READONLY))
+                .setMetricsRecorder(metrics)
+                .build();
+
+        Assertions.assertThrows(RuntimeException.class, () -> CredentialRevocationUtil.revokeCredential(config, ID));
+
+        OperationSnapshot snapshot = metrics.getSnapshot(OAuthOperation.REVOKE);
+        Assertions.assertEquals(1, snapshot.getCount());
+        Assertions.assertEquals(1, snapshot.getErrorCount());
+        Assertions.assertEquals(0, snapshot.getInFlight());
+    }
+
+    private GoogleApiConfig newConfig(TokenServerHarness server) {
+        return newConfig(server, store);
+    }
+
+    private GoogleApiConfig newConfig(TokenServerHarness server, StoredCredentialPersister persister) {
+        GoogleApiConfig.shutdown();
+        store.seed(List.of(ID));
+
+        return GoogleApiConfig.Builder
+                .instance()
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setTransport(server.getTransport())
+                .setPersister(persister)
+                .setRetriever(store)
+                .setScopes(List.of(GmailScopes.GMAIL_READONLY))
+                .setCredentialCacheMaxSize(100)
+                .setTokenCallPolicy(TokenCallPolicy.Builder.instance().setMaxRetries(0).build())
+                .build();
+    }
+
+    private static class StatusServer extends TokenServerHarness {
+        private final int status;
+
+        private StatusServer(int status) {
+            this.status = status;
+        }
+
+        @Override
+        protected LowLevelHttpResponse newTokenResponse() {
+            return new MockLowLevelHttpResponse().setStatusCode(status);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package us.careydevelopment.util.api.google;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.services.gmail.Gmail;
+import com.google.api.services.gmail.GmailScopes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import us.careydevelopment.api.google.datastore.util.StoredCredentialRetriever;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.harness.InMemoryCredentialStore;
+import us.careydevelopment.util.api.google.harness.TokenServerHarness;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class GmailClientUtilTest {
+
+    private static final String ID = "42";
+
+    private final InMemoryCredentialStore store = new InMemoryCredentialStore().seed(List.of(ID));
+    private final TokenServerHarness server = new TokenServerHarness();
+
+    @AfterEach
+    public void tearDown() {
+        GoogleApiConfig.shutdown();
+    }
+
+    @Test
+    public void testClientIsBuiltOnceAndReused() {
+        GoogleApiConfig config = newConfig();
+
+        Gmail gmail = GmailClientUtil.getGmail(config, ID);
+
+        Assertions.assertNotNull(gmail);
+        Assertions.assertSame(config.getTransport(), gmail.getRequestFactory().getTransport());
+        Assertions.assertEquals("mail-reader", gmail.getApplicationName());
+        Assertions.assertSame(gmail, GmailClientUtil.getGmail(config, ID));
+        Assertions.assertEquals(1, store.getRetrieveCount());
+    }
+
+    @Test
+    public void testUnknownUserGetsNoClient() {
+        Assertions.assertNull(GmailClientUtil.getGmail(newConfig(), "nobody"));
+    }
+
+    @Test
+    public void testDeadCredentialIsRebuilt() {
+        GoogleApiConfig config = newConfig();
+        Gmail gmail = GmailClientUtil.getGmail(config, ID);
+
+        Credential credential = (Credential) gmail.getRequestFactory().getInitializer();
+        credential.setRefreshToken(null);
+        credential.setExpiresInSeconds(-1L);
+
+        Assertions.assertNotSame(gmail, GmailClientUtil.getGmail(config, ID));
+    }
+
+    @Test
+    public void testInvalidationDropsClient() {
+        GoogleApiConfig config = newConfig();
+        Gmail gmail = GmailClientUtil.getGmail(config, ID);
+
+        config.invalidate(ID);
+
+        Assertions.assertEquals(0, config.getGmailClientCache().size());
+        Assertions.assertNotSame(gmail, GmailClientUtil.getGmail(config, ID));
+    }
+
+    @Test
+    public void testClientBuiltDuringInvalidationIsNotCached() {
+        AtomicReference<GoogleApiConfig> holder = new AtomicReference<>();
+        StoredCredentialRetriever invalidating = id -> {
+            holder.get().invalidate(id);
+            return store.retrieve(id);
+        };
+        GoogleApiConfig config = newConfig(invalidating);
+        holder.set(config);
+
+        Assertions.assertNotNull(GmailClientUtil.getGmail(config, ID));
+        Assertions.assertEquals(0, config.getGmailClientCache().size());
+    }
+
+    private GoogleApiConfig newConfig() {
+        return newConfig(store);
+    }
+
+    private GoogleApiConfig newConfig(StoredCredentialRetriever retriever) {
+        GoogleApiConfig.shutdown();
+
+        return GoogleApiConfig.Builder
+                .instance()
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setApplicationName("mail-reader")
+                .setTransport(server.getTransport())
+                .setPersister(store)
+                .setRetriever(retriever)
+                .setScopes(List.of(GmailScopes.GMAIL_READONLY))
+                .build();
+    }
+}
@@ -0,0 +1,155 @@
+package us.careydevelopment.util.api.google.audit;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.gmail.GmailScopes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.harness.InMemoryCredentialStore;
+import us.careydevelopment.util.api.google.harness.TokenServerHarness;
+import us.careydevelopment.util.api.google.scope.ScopeSet;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class CredentialAuditorTest {
+
+    private static final int USERS = 50;
+
+    private final InMemoryCredentialStore store = new InMemoryCredentialStore();
+    private final TokenServerHarness revokingTokenServer = new TokenServerHarness() {
+        @Override
+        protected LowLevelHttpResponse newTokenResponse() {
+            return new MockLowLevelHttpResponse()
+                    .setStatusCode(400)
+                    .setContentType(Json.MEDIA_TYPE)
+                    .setContent("{\"error\":\"invalid_grant\",\"error_description\":\"Token has been expired or revoked.\"}");
+        }
+    };
+
+    private GoogleApiConfig config;
+
+    @BeforeEach
+    public void setUp() {
+        GoogleApiConfig.shutdown();
+        store.seed(IntStream.range(0, USERS).mapToObj(String::valueOf).collect(Collectors.toList()));
+
+        StoredCredential noRefreshToken = new StoredCredential()
+                .setAccessToken("ya29.old")
+                .setExpirationTimeMilliseconds(System.currentTimeMillis() - 1000);
+        store.getCredentials().put("1", noRefreshToken);
+
+        config = GoogleApiConfig.Builder
+                .instance()
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setTransport(revokingTokenServer.getTransport())
+                .setPersister(store)
+                .setRetriever(store)
+                .setScopes(List.of(GmailScopes.GMAIL_READONLY, GmailScopes.GMAIL_SEND))
+                .build();
+
+        config.getGrantedScopes().replace("2", ScopeSet.of(List.of(GmailScopes.GMAIL_READONLY)));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        GoogleApiConfig.shutdown();
+    }
+
+    @Test
+    public void testReportOverWholeStore() {
+        CredentialAuditReport report = CredentialAuditor.Builder
+                .instance()
+                .setConfig(config)
+                .setChunkSize(7)
+                .setParallelism(3)
+                .setSampleSize(5)
+                .build()
+                .report();
+
+        Assertions.assertEquals(USERS, report.getTotal());
+        Assertions.assertEquals(1, report.getProblemCount());
+        Assertions.assertEquals(List.of("1"), report.getSample(CredentialHealth.EXPIRED_NO_REFRESH_TOKEN));
+        Assertions.assertEquals(List.of(), report.getSample(CredentialHealth.SCOPE_DEFICIENT));
+        Assertions.assertEquals(0, revokingTokenServer.getRequestCount());
+    }
+
+    @Test
+    public void testStreamKeepsOrderAndProbesRefreshTokens() {
+        List<CredentialAuditResult> results = CredentialAuditor.Builder
+                .instance()
+                .setConfig(config)
+                .setProbeRefreshTokens(true)
+                .setChunkSize(2)
+                .build()
+                .stream(Stream.of("0", "1", "missing", "3"))
+                .collect(Collectors.toList());
+
+        Assertions.assertEquals(List.of("0", "1", "missing", "3"),
+                results.stream().map(CredentialAuditResult::getUserId).collect(Collectors.toList()));
+        Assertions.assertEquals(List.of(CredentialHealth.REVOKED, CredentialHealth.EXPIRED_NO_REFRESH_TOKEN,
+                        CredentialHealth.MISSING, CredentialHealth.REVOKED),
+                results.stream().map(CredentialAuditResult::getHealth).collect(Collectors.toList()));
+        Assertions.assertEquals(2, revokingTokenServer.getRequestCount());
+    }
+
+    @Test
+    public void testProbeChecksScopesFromTokenResponse() {
+        GoogleApiConfig.shutdown();
+
+        MockHttpTransport scopeReportingServer = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() throws IOException {
+                        String scope = getContentAsString().contains("deficient")
+                                ? GmailScopes.GMAIL_READONLY
+                                : GmailScopes.GMAIL_READONLY + " " + GmailScopes.GMAIL_SEND;
+
+                        return new MockLowLevelHttpResponse()
+                                .setContentType(Json.MEDIA_TYPE)
+                                .setContent("{\"access_token\":\"ya29.probed\",\"expires_in\":3600,"
+                                        + "\"token_type\":\"Bearer\",\"scope\":\"" + scope + "\"}");
+                    }
+                };
+            }
+        };
+
+        store.getCredentials().get("3").setRefreshToken("1//deficient");
+
+        config = GoogleApiConfig.Builder
+                .instance()
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setTransport(scopeReportingServer)
+                .setPersister(store)
+                .setRetriever(store)
+                .setScopes(List.of(GmailScopes.GMAIL_READONLY, GmailScopes.GMAIL_SEND))
+                .build();
+
+        List<CredentialAuditResult> results = CredentialAuditor.Builder
+                .instance()
+                .setConfig(config)
+                .setProbeRefreshTokens(true)
+                .build()
+                .stream(Stream.of("0", "3"))
+                .collect(Collectors.toList());
+
+        Assertions.assertEquals(CredentialHealth.HEALTHY, results.get(0).getHealth());
+        Assertions.assertEquals(CredentialHealth.SCOPE_DEFICIENT, results.get(1).getHealth());
+        Assertions.assertEquals(0, config.getGrantedScopes().size());
+    }
+}
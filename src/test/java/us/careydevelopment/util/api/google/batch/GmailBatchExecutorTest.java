@@ -0,0 +1,100 @@
+package us.careydevelopment.util.api.google.batch;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.services.gmail.Gmail;
+import com.google.api.services.gmail.GmailScopes;
+import com.google.api.services.gmail.model.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.harness.GmailBatchServerHarness;
+import us.careydevelopment.util.api.google.harness.InMemoryCredentialStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class GmailBatchExecutorTest {
+
+    private final GmailBatchServerHarness server = new GmailBatchServerHarness();
+
+    @AfterEach
+    public void tearDown() {
+        GoogleApiConfig.shutdown();
+    }
+
+    @Test
+    public void testRequestsAreChunkedAndOrdered() throws IOException {
+        GmailBatchExecutor executor = newExecutor();
+        Gmail gmail = server.newGmail();
+        List<Gmail.Users.Messages.Get> requests = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            requests.add(gmail.users().messages().get("me", "m" + i));
+        }
+
+        List<GmailBatchResult<Message>> results = executor.stream(gmail, requests.stream()).collect(Collectors.toList());
+
+        Assertions.assertEquals(120, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            Assertions.assertEquals(i, results.get(i).getIndex());
+            Assertions.assertEquals("m" + i, results.get(i).getValue().getId());
+        }
+
+        List<Integer> batchSizes = new ArrayList<>(server.getBatchSizes());
+        batchSizes.sort(null);
+        Assertions.assertEquals(List.of(20, 50, 50), batchSizes);
+    }
+
+    @Test
+    public void testFailuresGoToCallback() throws IOException {
+        GmailBatchExecutor executor = newExecutor();
+        Gmail gmail = server.newGmail();
+        List<Gmail.Users.Messages.Get> requests = new ArrayList<>();
+        for (String id : List.of("m0", "missing1", "m2")) {
+            requests.add(gmail.users().messages().get("me", id));
+        }
+
+        List<Long> succeeded = new ArrayList<>();
+        List<Long> failed = new ArrayList<>();
+
+        executor.execute(gmail, requests, new GmailBatchCallback<>() {
+            @Override
+            public void onSuccess(long index, Message value) {
+                succeeded.add(index);
+            }
+
+            @Override
+            public void onFailure(long index, GoogleJsonError error) {
+                Assertions.assertEquals(404, error.getCode());
+                failed.add(index);
+            }
+        });
+
+        Assertions.assertEquals(List.of(0L, 2L), succeeded);
+        Assertions.assertEquals(List.of(1L), failed);
+        Assertions.assertEquals(List.of(3), server.getBatchSizes());
+    }
+
+    private GmailBatchExecutor newExecutor() {
+        InMemoryCredentialStore store = new InMemoryCredentialStore();
+
+        GoogleApiConfig config = GoogleApiConfig.Builder
+                .instance()
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setTransport(new MockHttpTransport())
+                .setPersister(store)
+                .setRetriever(store)
+                .setScopes(List.of(GmailScopes.GMAIL_READONLY))
+                .build();
+
+        return GmailBatchExecutor.Builder
+                .instance()
+                .setConfig(config)
+                .setConcurrency(2)
+                .build();
+    }
+}
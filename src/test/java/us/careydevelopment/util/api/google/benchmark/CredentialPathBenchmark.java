@@ -0,0 +1,128 @@
+package us.careydevelopment.util.api.google.benchmark;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
+import com.google.api.services.gmail.GmailScopes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import us.careydevelopment.util.api.google.AuthorizationCodeFlowUtil;
+import us.careydevelopment.util.api.google.AuthorizationCodeUrlUtil;
+import us.careydevelopment.util.api.google.CredentialUtil;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.harness.InMemoryCredentialStore;
+import us.careydevelopment.util.api.google.harness.TokenServerHarness;
+import us.careydevelopment.util.api.google.model.GoogleAuthResponse;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the throughput of the calls clients make most often, on a single thread.
+ *
+ * Credentials live in an InMemoryCredentialStore and the token endpoint is a mock transport,
+ * so the numbers only reflect the cost of this library and Google's client code.
+ *
+ * Run it with the GC profiler (the benchmark profile does that) to see the allocation rate.
+ * CredentialPathMultiThreadBenchmark runs the same benchmarks with several threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class CredentialPathBenchmark {
+
+    private static final String REDIRECT_URL = "https://example.com/oauth2/callback";
+
+    @Param({"1000"})
+    public int userCount;
+
+    @Param({"0", "10000"})
+    public int credentialCacheMaxSize;
+
+    private String[] userIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        GoogleApiConfig.shutdown();
+
+        final List<String> ids = IntStream.range(0, userCount).mapToObj(i -> "user-" + i).collect(Collectors.toList());
+        final InMemoryCredentialStore store = new InMemoryCredentialStore().seed(ids);
+
+        GoogleApiConfig.Builder
+                .instance()
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setTransport(new TokenServerHarness().getTransport())
+                .setPersister(store)
+                .setRetriever(store)
+                .setScopes(List.of(GmailScopes.MAIL_GOOGLE_COM))
+                .setCredentialCacheMaxSize(credentialCacheMaxSize)
+                .build();
+
+        userIds = ids.toArray(new String[0]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        GoogleApiConfig.shutdown();
+    }
+
+    /**
+     * Each thread walks through the users on its own, so threads don't contend on a counter.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        private String nextUser(String[] userIds) {
+            final String userId = userIds[next];
+            next = (next + 1 == userIds.length) ? 0 : next + 1;
+            return userId;
+        }
+    }
+
+    @Benchmark
+    public GoogleAuthorizationCodeFlow getAuthorizationCodeFlow(Cursor cursor) throws Exception {
+        return AuthorizationCodeFlowUtil.getAuthorizationCodeFlow(cursor.nextUser(userIds));
+    }
+
+    @Benchmark
+    public Credential getCredential(Cursor cursor) {
+        return CredentialUtil.getCredential(cursor.nextUser(userIds));
+    }
+
+    /**
+     * Exchanges a code at the mock token endpoint and persists the result.
+     */
+    @Benchmark
+    public Credential getCredentialFromCode(Cursor cursor) {
+        final GoogleAuthResponse auth = new GoogleAuthResponse();
+        auth.setCode("4/0AX4XfWh");
+        auth.setRedirectUrl(REDIRECT_URL);
+
+        return CredentialUtil.getCredentialFromCode(auth, cursor.nextUser(userIds));
+    }
+
+    @Benchmark
+    public String getAuthorizationCodeUrl(Cursor cursor) {
+        final String userId = cursor.nextUser(userIds);
+        return AuthorizationCodeUrlUtil.getAuthorizationCodeUrl(userId, REDIRECT_URL, userId);
+    }
+}
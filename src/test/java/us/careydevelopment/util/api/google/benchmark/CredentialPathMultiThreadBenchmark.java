@@ -0,0 +1,11 @@
+package us.careydevelopment.util.api.google.benchmark;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Runs the CredentialPathBenchmark benchmarks with four threads sharing one GoogleApiConfig,
+ * which shows up contention in the caches and data store.
+ */
+@Threads(4)
+public class CredentialPathMultiThreadBenchmark extends CredentialPathBenchmark {
+}
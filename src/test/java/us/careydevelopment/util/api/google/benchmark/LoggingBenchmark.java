@@ -0,0 +1,79 @@
+package us.careydevelopment.util.api.google.benchmark;
+
+import com.google.api.client.auth.oauth2.TokenResponse;
+import com.google.api.client.json.gson.GsonFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import us.careydevelopment.util.api.google.log.Redaction;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the debug logging CredentialUtil used to do on every code exchange against the
+ * guarded, redacted logging it does now, with DEBUG turned off as it would be in production.
+ *
+ * Run it with the GC profiler to see the allocation per call. The old logging builds the
+ * concatenated message and the pretty-printed token response even though nothing is written.
+ * The guarded logging allocates nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoggingBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoggingBenchmark.class);
+
+    private String code;
+    private String id;
+    private TokenResponse response;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        code = "4/0AX4XfWh8kR2pQ9zLmN3vB7cY1dE5fG6hJ8kL0mN2pQ4rS6tU8vW";
+        id = "77";
+        response = new TokenResponse()
+                .setAccessToken("ya29.a0AfH6SMBx3pX7qk9ZpQYw1v0b8Jt5m2rLzK4sHnE6uTdGcVfR1aWy0oIeP3jNlM7bQ2xU9hS8kD4fG6jL")
+                .setRefreshToken("1//0gLk3pX7qk9ZpQYw1v0b8Jt5m2rLzK4sHnE6uTdGcVfR1aWy0oIeP3jNlM7bQ2xU9hS8kD4")
+                .setExpiresInSeconds(3599L)
+                .setTokenType("Bearer")
+                .setScope("https://www.googleapis.com/auth/gmail.readonly");
+        response.setFactory(GsonFactory.getDefaultInstance());
+
+        if (LOG.isDebugEnabled()) {
+            throw new IllegalStateException("Run this benchmark with DEBUG turned off for " + LOG.getName());
+        }
+    }
+
+    @Benchmark
+    public void concatenated() throws IOException {
+        LOG.debug("code is " + code);
+        LOG.debug(response.toPrettyString());
+    }
+
+    @Benchmark
+    public void guarded() {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Exchanging code {} for user {}", Redaction.redact(code), id);
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Got access token {} for user {} expiring in {} seconds", Redaction.redact(response.getAccessToken()),
+                    id, response.getExpiresInSeconds());
+        }
+    }
+}
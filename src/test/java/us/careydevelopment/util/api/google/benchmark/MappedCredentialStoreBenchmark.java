@@ -0,0 +1,82 @@
+package us.careydevelopment.util.api.google.benchmark;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import us.careydevelopment.util.api.google.codec.StoredCredentialCodec;
+import us.careydevelopment.util.api.google.datastore.MappedCredentialStore;
+import us.careydevelopment.util.api.google.harness.StoredCredentialHarness;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures lookups and writes against a MappedCredentialStore holding 10,000 users.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappedCredentialStoreBenchmark {
+
+    private static final int USER_COUNT = 10_000;
+
+    @Param({"false", "true"})
+    public boolean syncWrites;
+
+    private Path directory;
+    private MappedCredentialStore store;
+    private StoredCredential credential;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("credential-store");
+        store = MappedCredentialStore.open(directory, new StoredCredentialCodec(), syncWrites, 60_000);
+
+        credential = StoredCredentialHarness.getGoodStoredCredential();
+        credential.setExpirationTimeMilliseconds(System.currentTimeMillis() + 3_600_000);
+
+        for (int i = 0; i < USER_COUNT; i++) {
+            store.persist("user-" + i, credential);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public StoredCredential retrieve() throws IOException {
+        next = (next + 1) % USER_COUNT;
+        return store.retrieve("user-" + next);
+    }
+
+    @Benchmark
+    public boolean persist() throws IOException {
+        next = (next + 1) % USER_COUNT;
+        return store.persist("user-" + next, credential);
+    }
+}
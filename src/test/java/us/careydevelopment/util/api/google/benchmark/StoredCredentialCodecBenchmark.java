@@ -0,0 +1,103 @@
+package us.careydevelopment.util.api.google.benchmark;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import us.careydevelopment.util.api.google.codec.CredentialKeyRing;
+import us.careydevelopment.util.api.google.codec.StoredCredentialCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares Java serialization of a StoredCredential against StoredCredentialCodec,
+ * with and without encryption.
+ *
+ * The blob sizes are logged at setup. With realistic token lengths the plain codec blob is
+ * a small fraction of the Java-serialized one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoredCredentialCodecBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StoredCredentialCodecBenchmark.class);
+
+    private final StoredCredentialCodec plainCodec = new StoredCredentialCodec();
+    private final StoredCredentialCodec encryptingCodec =
+            new StoredCredentialCodec(CredentialKeyRing.of(1, CredentialKeyRing.newKey()));
+
+    private StoredCredential credential;
+    private byte[] javaBlob;
+    private byte[] plainBlob;
+    private byte[] encryptedBlob;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        credential = new StoredCredential();
+        credential.setAccessToken("ya29.a0AfH6SMBx3pX7qk9ZpQYw1v0b8Jt5m2rLzK4sHnE6uTdGcVfR1aWy0oIeP3jNlM7bQ2xU9hS8kD4fG6jL");
+        credential.setRefreshToken("1//0gLk3pX7qk9ZpQYw1v0b8Jt5m2rLzK4sHnE6uTdGcVfR1aWy0oIeP3jNlM7bQ2xU9hS8kD4");
+        credential.setExpirationTimeMilliseconds(System.currentTimeMillis() + 3_600_000);
+
+        javaBlob = javaSerialization();
+        plainBlob = plainCodec.encode(credential);
+        encryptedBlob = encryptingCodec.encode(credential);
+
+        LOG.info("Blob sizes: java={} plain={} encrypted={}", javaBlob.length, plainBlob.length, encryptedBlob.length);
+    }
+
+    @Benchmark
+    public byte[] javaSerialization() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(credential);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object javaDeserialization() throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(javaBlob))) {
+            return in.readObject();
+        }
+    }
+
+    @Benchmark
+    public byte[] codecEncode() throws IOException {
+        return plainCodec.encode(credential);
+    }
+
+    @Benchmark
+    public StoredCredential codecDecode() throws IOException {
+        return plainCodec.decode(plainBlob);
+    }
+
+    @Benchmark
+    public byte[] encryptedEncode() throws IOException {
+        return encryptingCodec.encode(credential);
+    }
+
+    @Benchmark
+    public StoredCredential encryptedDecode() throws IOException {
+        return encryptingCodec.decode(encryptedBlob);
+    }
+}
@@ -0,0 +1,95 @@
+package us.careydevelopment.util.api.google.benchmark;
+
+import com.google.api.client.auth.oauth2.DataStoreCredentialRefreshListener;
+import com.google.api.client.auth.oauth2.StoredCredential;
+import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
+import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.store.DataStore;
+import com.google.api.services.gmail.GmailScopes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import us.careydevelopment.api.google.datastore.GoogleDataStoreFactory;
+import us.careydevelopment.util.api.google.AuthorizationCodeFlowUtil;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.harness.StoredCredentialPersisterHarness;
+import us.careydevelopment.util.api.google.harness.StoredCredentialRetrieverHarness;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building a flow with a fresh trusted transport and JSON factory per call
+ * against building it with the transport and JSON factory shared by GoogleApiConfig.
+ *
+ * The flow cache is off so both benchmarks build a flow on every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransportBenchmark {
+
+    private static final String USER_ID = StoredCredentialRetrieverHarness.ID;
+    private static final List<String> SCOPES = List.of(GmailScopes.MAIL_GOOGLE_COM);
+
+    private GoogleApiConfig config;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        GoogleApiConfig.shutdown();
+
+        config = GoogleApiConfig.Builder
+                .instance()
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setPersister(StoredCredentialPersisterHarness.getGoodPersister())
+                .setRetriever(StoredCredentialRetrieverHarness.getGoodRetriever())
+                .setScopes(SCOPES)
+                .setFlowCacheMaxSize(0)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        GoogleApiConfig.shutdown();
+    }
+
+    /**
+     * Mirrors the way flows were built before the transport was shared.
+     */
+    @Benchmark
+    public GoogleAuthorizationCodeFlow newTransportPerCall() throws Exception {
+        final DataStore<StoredCredential> dataStore = GoogleDataStoreFactory
+                .getInstance()
+                .getDataStore(GoogleDataStoreFactory.CREDENTIAL_STORE_ID);
+
+        return new GoogleAuthorizationCodeFlow.Builder(
+                GoogleNetHttpTransport.newTrustedTransport(),
+                new GsonFactory(),
+                config.getClientId(),
+                config.getClientSecret(),
+                SCOPES)
+                .setCredentialDataStore(dataStore)
+                .setAccessType("offline")
+                .addRefreshListener(new DataStoreCredentialRefreshListener(USER_ID, dataStore))
+                .build();
+    }
+
+    @Benchmark
+    public GoogleAuthorizationCodeFlow sharedTransport() throws Exception {
+        return AuthorizationCodeFlowUtil.getAuthorizationCodeFlow(config, USER_ID, SCOPES);
+    }
+}
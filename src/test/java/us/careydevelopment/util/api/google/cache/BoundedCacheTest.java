@@ -0,0 +1,88 @@
+package us.careydevelopment.util.api.google.cache;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BoundedCacheTest {
+
+    @Test
+    public void testHitAndMiss() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, 0);
+
+        Assertions.assertEquals("a1", cache.get("a", k -> k + "1"));
+        Assertions.assertEquals("a1", cache.get("a", k -> k + "2"));
+
+        Assertions.assertEquals(1, cache.getHitCount());
+        Assertions.assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        BoundedCache<String, String> cache = new BoundedCache<>(2, 0);
+
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.getIfPresent("a");
+        cache.put("c", "3");
+
+        Assertions.assertEquals("1", cache.getIfPresent("a"));
+        Assertions.assertNull(cache.getIfPresent("b"));
+        Assertions.assertEquals("3", cache.getIfPresent("c"));
+        Assertions.assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testTimeToLive() {
+        AtomicLong now = new AtomicLong();
+        BoundedCache<String, String> cache = new BoundedCache<>(10, 1000, now::get);
+
+        cache.put("a", "1");
+        now.addAndGet(999_000_000L);
+        Assertions.assertEquals("1", cache.getIfPresent("a"));
+
+        now.addAndGet(1_000_000L);
+        Assertions.assertNull(cache.getIfPresent("a"));
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testDisabledCache() {
+        BoundedCache<String, String> cache = new BoundedCache<>(0, 0);
+
+        cache.put("a", "1");
+        Assertions.assertEquals("a2", cache.get("a", k -> k + "2"));
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLoadRacingInvalidateIsNotCached() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, 0);
+
+        long stamp = cache.stamp("a");
+        cache.invalidate("a");
+        Assertions.assertFalse(cache.putIfUnchanged("a", "stale", stamp));
+        Assertions.assertNull(cache.getIfPresent("a"));
+
+        Assertions.assertEquals("stale", cache.get("a", k -> {
+            cache.invalidate(k);
+            return "stale";
+        }));
+        Assertions.assertNull(cache.getIfPresent("a"));
+
+        Assertions.assertTrue(cache.putIfUnchanged("a", "1", cache.stamp("a")));
+        Assertions.assertEquals("1", cache.getIfPresent("a"));
+    }
+
+    @Test
+    public void testFlowCacheKeyIgnoresScopeOrder() {
+        FlowCacheKey first = new FlowCacheKey("77", List.of("a", "b"));
+        FlowCacheKey second = new FlowCacheKey("77", List.of("b", "a"));
+
+        Assertions.assertEquals(first, second);
+        Assertions.assertEquals(first.hashCode(), second.hashCode());
+        Assertions.assertNotEquals(first, new FlowCacheKey("78", List.of("a", "b")));
+    }
+}
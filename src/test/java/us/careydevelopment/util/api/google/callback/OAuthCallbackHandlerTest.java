@@ -0,0 +1,163 @@
+package us.careydevelopment.util.api.google.callback;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.services.gmail.GmailScopes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.harness.InMemoryCredentialStore;
+import us.careydevelopment.util.api.google.harness.TokenServerHarness;
+import us.careydevelopment.util.api.google.resilience.TokenCallPolicy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+public class OAuthCallbackHandlerTest {
+
+    private static final byte[] KEY = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+    private static final String REDIRECT_URL = "https://example.com/oauth/callback";
+    private static final String ID = "12";
+
+    private final InMemoryCredentialStore store = new InMemoryCredentialStore();
+
+    @AfterEach
+    public void tearDown() {
+        GoogleApiConfig.shutdown();
+    }
+
+    @Test
+    public void testStateRoundTrip() {
+        AtomicLong now = new AtomicLong(1_000_000);
+        StateTokenSigner signer = new StateTokenSigner(KEY, 60_000, now::get);
+
+        String token = signer.issue(ID, "/inbox");
+        Assertions.assertNotEquals(token, signer.issue(ID, "/inbox"));
+
+        OAuthState state = signer.verify(token);
+        Assertions.assertEquals(ID, state.getUserId());
+        Assertions.assertEquals("/inbox", state.getAppState());
+
+        String tampered = (token.charAt(0) == 'A' ? 'B' : 'A') + token.substring(1);
+        Assertions.assertThrows(InvalidStateException.class, () -> signer.verify(tampered));
+        Assertions.assertThrows(InvalidStateException.class, () -> new StateTokenSigner(
+                "another key that is long enough!".getBytes(StandardCharsets.UTF_8), 60_000, now::get).verify(token));
+
+        now.addAndGet(60_001);
+        Assertions.assertThrows(InvalidStateException.class, () -> signer.verify(token));
+    }
+
+    @Test
+    public void testCallbackUsesUserFromState() {
+        TokenServerHarness server = new TokenServerHarness();
+        OAuthCallbackHandler handler = newHandler(server);
+
+        String url = handler.getAuthorizationUrl(ID, REDIRECT_URL, "/inbox");
+        String state = (String) new GenericUrl(url).getFirst("state");
+
+        OAuthCallbackResult result = handler.handleCallback("4/code", state, REDIRECT_URL, ID);
+
+        Assertions.assertEquals(ID, result.getUserId());
+        Assertions.assertEquals("/inbox", result.getAppState());
+        Assertions.assertFalse(result.isDuplicate());
+        Assertions.assertEquals(TokenServerHarness.REFRESHED_ACCESS_TOKEN, result.getCredential().getAccessToken());
+        Assertions.assertTrue(store.getCredentials().containsKey(ID));
+
+        OAuthCallbackResult retry = handler.handleCallback("4/code", state, REDIRECT_URL, ID);
+
+        Assertions.assertTrue(retry.isDuplicate());
+        Assertions.assertSame(result.getCredential(), retry.getCredential());
+        Assertions.assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void testBadStateIsRejectedBeforeExchange() {
+        TokenServerHarness server = new TokenServerHarness();
+        OAuthCallbackHandler handler = newHandler(server);
+
+        Assertions.assertThrows(InvalidStateException.class, () -> handler.handleCallback("4/code", "forged", REDIRECT_URL, ID));
+        Assertions.assertThrows(InvalidStateException.class, () -> handler.handleCallback("4/code", null, REDIRECT_URL, ID));
+        Assertions.assertEquals(0, server.getRequestCount());
+    }
+
+    @Test
+    public void testStateForAnotherUserIsRejectedBeforeExchange() {
+        TokenServerHarness server = new TokenServerHarness();
+        OAuthCallbackHandler handler = newHandler(server);
+        String attackerState = handler.getSigner().issue("99", null);
+
+        Assertions.assertThrows(InvalidStateException.class,
+                () -> handler.handleCallback("4/attacker-code", attackerState, REDIRECT_URL, ID));
+        Assertions.assertThrows(InvalidStateException.class,
+                () -> handler.handleCallback("4/attacker-code", attackerState, REDIRECT_URL, null));
+        Assertions.assertEquals(0, server.getRequestCount());
+        Assertions.assertFalse(store.getCredentials().containsKey("99"));
+
+        Assertions.assertEquals("99", handler.verifyState(attackerState, "99").getUserId());
+    }
+
+    @Test
+    public void testConcurrentCallbacksShareOneExchange() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        TokenServerHarness server = new TokenServerHarness() {
+            @Override
+            protected LowLevelHttpResponse newTokenResponse() {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+
+                return super.newTokenResponse();
+            }
+        };
+        OAuthCallbackHandler handler = newHandler(server);
+        String state = handler.getSigner().issue(ID, null);
+
+        CompletableFuture<OAuthCallbackResult> first = CompletableFuture.supplyAsync(
+                () -> handler.handleCallback("4/code", state, REDIRECT_URL, ID));
+        waitFor(() -> server.getRequestCount() == 1);
+
+        CompletableFuture<OAuthCallbackResult> second = CompletableFuture.supplyAsync(
+                () -> handler.handleCallback("4/code", state, REDIRECT_URL, ID));
+        Thread.sleep(50);
+        release.countDown();
+
+        Assertions.assertSame(first.get(5, TimeUnit.SECONDS).getCredential(), second.get(5, TimeUnit.SECONDS).getCredential());
+        Assertions.assertEquals(1, server.getRequestCount());
+        Assertions.assertEquals(1, handler.getExchangedCount());
+        Assertions.assertEquals(1, handler.getDuplicateCount());
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private OAuthCallbackHandler newHandler(TokenServerHarness server) {
+        GoogleApiConfig config = GoogleApiConfig.Builder
+                .instance()
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setTransport(server.getTransport())
+                .setPersister(store)
+                .setRetriever(store)
+                .setScopes(List.of(GmailScopes.GMAIL_READONLY))
+                .setTokenCallPolicy(TokenCallPolicy.Builder.instance().setMaxRetries(0).build())
+                .build();
+
+        return OAuthCallbackHandler.Builder
+                .instance()
+                .setConfig(config)
+                .setSigningKey(KEY)
+                .build();
+    }
+}
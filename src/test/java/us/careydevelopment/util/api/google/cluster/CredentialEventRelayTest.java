@@ -0,0 +1,86 @@
+package us.careydevelopment.util.api.google.cluster;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.services.gmail.GmailScopes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import us.careydevelopment.util.api.google.CredentialUtil;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.harness.InMemoryCredentialStore;
+import us.careydevelopment.util.api.google.harness.TokenServerHarness;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CredentialEventRelayTest {
+
+    private static final String ID = "7";
+
+    private final InMemoryCredentialStore store = new InMemoryCredentialStore().seed(List.of(ID));
+    private final TokenServerHarness server = new TokenServerHarness();
+    private final LocalCredentialEventBus bus = new LocalCredentialEventBus();
+
+    @AfterEach
+    public void tearDown() {
+        GoogleApiConfig.shutdownAll();
+    }
+
+    @Test
+    public void testPeerRefreshIsReused() throws IOException {
+        GoogleApiConfig nodeA = newNode("node-a");
+        GoogleApiConfig nodeB = newNode("node-b");
+
+        Credential credentialA = CredentialUtil.getCredential(nodeA, ID);
+        Credential credentialB = CredentialUtil.getCredential(nodeB, ID);
+
+        Assertions.assertTrue(credentialA.refreshToken());
+        Assertions.assertEquals(1, server.getRequestCount());
+        Assertions.assertEquals(1, nodeB.getCredentialEventRelay().getAppliedCount());
+
+        Assertions.assertTrue(credentialB.refreshToken());
+        Assertions.assertEquals(1, server.getRequestCount());
+        Assertions.assertEquals(TokenServerHarness.REFRESHED_ACCESS_TOKEN, credentialB.getAccessToken());
+        Assertions.assertEquals(1, nodeB.getCredentialEventRelay().getPeerTokenCount());
+
+        // B's refresh came from the store, so it isn't published back to A
+        Assertions.assertEquals(0, nodeB.getCredentialEventRelay().getPublishedCount());
+        Assertions.assertEquals(0, nodeA.getCredentialEventRelay().getAppliedCount());
+    }
+
+    @Test
+    public void testEvictionReachesPeers() {
+        GoogleApiConfig nodeA = newNode("node-a");
+        GoogleApiConfig nodeB = newNode("node-b");
+        List<String> evictedOnA = new ArrayList<>();
+        List<String> evictedOnB = new ArrayList<>();
+        nodeA.addInvalidationListener(evictedOnA::add);
+        nodeB.addInvalidationListener(evictedOnB::add);
+
+        nodeA.invalidate(ID);
+
+        Assertions.assertEquals(List.of(ID), evictedOnA);
+        Assertions.assertEquals(List.of(ID), evictedOnB);
+        Assertions.assertEquals(0, nodeA.getCredentialEventRelay().getAppliedCount());
+
+        GoogleApiConfig.shutdownAll();
+        Assertions.assertEquals(0, bus.getListenerCount());
+    }
+
+    private GoogleApiConfig newNode(String name) {
+        return GoogleApiConfig.Builder
+                .instance()
+                .setName(name)
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setTransport(server.getTransport())
+                .setPersister(store)
+                .setRetriever(store)
+                .setScopes(List.of(GmailScopes.GMAIL_READONLY))
+                .setCredentialCacheMaxSize(100)
+                .setCredentialEventBus(bus)
+                .setNodeId(name)
+                .build();
+    }
+}
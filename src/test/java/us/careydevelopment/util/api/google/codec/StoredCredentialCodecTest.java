@@ -0,0 +1,169 @@
+package us.careydevelopment.util.api.google.codec;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import us.careydevelopment.util.api.google.harness.StoredCredentialHarness;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class StoredCredentialCodecTest {
+
+    @Test
+    public void testPlainRoundTrip() throws IOException {
+        StoredCredentialCodec codec = new StoredCredentialCodec();
+        StoredCredential credential = newCredential();
+
+        byte[] blob = codec.encode(credential);
+
+        Assertions.assertEquals(StoredCredentialCodec.VERSION_PLAIN, blob[0]);
+        assertSameCredential(credential, codec.decode(blob));
+        Assertions.assertTrue(blob.length < javaSerialize(credential).length / 4);
+    }
+
+    @Test
+    public void testNullFields() throws IOException {
+        StoredCredentialCodec codec = new StoredCredentialCodec();
+        StoredCredential decoded = codec.decode(codec.encode(new StoredCredential()));
+
+        Assertions.assertNull(decoded.getAccessToken());
+        Assertions.assertNull(decoded.getRefreshToken());
+        Assertions.assertNull(decoded.getExpirationTimeMilliseconds());
+    }
+
+    @Test
+    public void testEncryptedRoundTrip() throws IOException {
+        StoredCredentialCodec codec = new StoredCredentialCodec(CredentialKeyRing.of(1, CredentialKeyRing.newKey()));
+        StoredCredential credential = newCredential();
+
+        byte[] blob = codec.encode(credential);
+
+        Assertions.assertEquals(StoredCredentialCodec.VERSION_ENCRYPTED, blob[0]);
+        Assertions.assertFalse(new String(blob, java.nio.charset.StandardCharsets.ISO_8859_1).contains(credential.getAccessToken()));
+        assertSameCredential(credential, codec.decode(blob));
+
+        blob[blob.length - 1] ^= 1;
+        Assertions.assertThrows(IOException.class, () -> codec.decode(blob));
+    }
+
+    @Test
+    public void testKeyRotation() throws IOException {
+        CredentialKeyRing oldRing = CredentialKeyRing.of(1, CredentialKeyRing.newKey());
+        CredentialKeyRing newRing = oldRing.withPrimaryKey(2, CredentialKeyRing.newKey());
+        StoredCredentialCodec oldCodec = new StoredCredentialCodec(oldRing);
+        StoredCredentialCodec newCodec = new StoredCredentialCodec(newRing);
+
+        byte[] oldBlob = oldCodec.encode(newCredential());
+
+        Assertions.assertTrue(newCodec.needsReencoding(oldBlob));
+        assertSameCredential(newCredential(), newCodec.decode(oldBlob));
+        Assertions.assertFalse(newCodec.needsReencoding(newCodec.encode(newCredential())));
+        Assertions.assertThrows(IOException.class, () -> oldCodec.decode(newCodec.encode(newCredential())));
+    }
+
+    @Test
+    public void testJavaSerializationMigration() throws IOException {
+        StoredCredentialCodec codec = new StoredCredentialCodec();
+        byte[] serialized = javaSerialize(newCredential());
+
+        Assertions.assertThrows(IOException.class, () -> codec.decode(serialized));
+
+        Map<String, byte[]> rows = new HashMap<>();
+        rows.put("77", serialized);
+        EncodedCredentialRetriever retriever =
+                new EncodedCredentialRetriever(rows::get, codec.allowingJavaSerialization(),
+                        (id, expected, blob) -> replaceIfUnchanged(rows, id, expected, blob));
+
+        assertSameCredential(newCredential(), retriever.retrieve("77"));
+        Assertions.assertEquals(StoredCredentialCodec.VERSION_PLAIN, rows.get("77")[0]);
+        Assertions.assertNull(retriever.retrieve("78"));
+    }
+
+    @Test
+    public void testEncryptedBlobIsBoundToUser() throws IOException {
+        StoredCredentialCodec codec = new StoredCredentialCodec(CredentialKeyRing.of(1, CredentialKeyRing.newKey()));
+        byte[] blob = codec.encode("77", newCredential());
+
+        assertSameCredential(newCredential(), codec.decode("77", blob));
+        Assertions.assertThrows(IOException.class, () -> codec.decode("78", blob));
+        Assertions.assertThrows(IOException.class, () -> codec.decode(blob));
+    }
+
+    @Test
+    public void testCopiedRowIsRejected() throws IOException {
+        StoredCredentialCodec codec = new StoredCredentialCodec(CredentialKeyRing.of(1, CredentialKeyRing.newKey()));
+        Map<String, byte[]> rows = new HashMap<>();
+
+        new EncodedCredentialPersister((id, blob) -> rows.put(id, blob) == null, codec).persist("77", newCredential());
+        rows.put("78", rows.get("77"));
+
+        Assertions.assertThrows(IOException.class, () -> new EncodedCredentialRetriever(rows::get, codec).retrieve("78"));
+    }
+
+    @Test
+    public void testPersisterAdapter() throws IOException {
+        StoredCredentialCodec codec = new StoredCredentialCodec(CredentialKeyRing.of(1, CredentialKeyRing.newKey()));
+        Map<String, byte[]> rows = new HashMap<>();
+
+        new EncodedCredentialPersister((id, blob) -> rows.put(id, blob) == null, codec).persist("77", newCredential());
+
+        assertSameCredential(newCredential(), new EncodedCredentialRetriever(rows::get, codec).retrieve("77"));
+    }
+
+    @Test
+    public void testMigrationDoesNotOverwriteNewerCredential() throws IOException {
+        StoredCredentialCodec codec = new StoredCredentialCodec();
+        Map<String, byte[]> rows = new HashMap<>();
+        rows.put("77", javaSerialize(newCredential()));
+
+        StoredCredential newer = newCredential();
+        newer.setAccessToken("ya29.newer");
+        byte[] newerBlob = codec.encode("77", newer);
+
+        BlobReader racingReader = id -> {
+            byte[] read = rows.get(id);
+            rows.put(id, newerBlob);
+            return read;
+        };
+        EncodedCredentialRetriever retriever = new EncodedCredentialRetriever(racingReader, codec.allowingJavaSerialization(),
+                (id, expected, blob) -> replaceIfUnchanged(rows, id, expected, blob));
+
+        assertSameCredential(newCredential(), retriever.retrieve("77"));
+        Assertions.assertSame(newerBlob, rows.get("77"));
+    }
+
+    private static boolean replaceIfUnchanged(Map<String, byte[]> rows, String id, byte[] expected, byte[] blob) {
+        if (!Arrays.equals(rows.get(id), expected)) {
+            return false;
+        }
+
+        rows.put(id, blob);
+        return true;
+    }
+
+    static StoredCredential newCredential() {
+        StoredCredential credential = StoredCredentialHarness.getGoodStoredCredential();
+        credential.setExpirationTimeMilliseconds(1_700_000_000_000L);
+        return credential;
+    }
+
+    static byte[] javaSerialize(StoredCredential credential) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(credential);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static void assertSameCredential(StoredCredential expected, StoredCredential actual) {
+        Assertions.assertEquals(expected.getAccessToken(), actual.getAccessToken());
+        Assertions.assertEquals(expected.getRefreshToken(), actual.getRefreshToken());
+        Assertions.assertEquals(expected.getExpirationTimeMilliseconds(), actual.getExpirationTimeMilliseconds());
+    }
+}
@@ -0,0 +1,48 @@
+package us.careydevelopment.util.api.google.config;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncExecutorFactoryTest {
+
+    @Test
+    public void testFixedPoolWhenVirtualThreadsAreOff() throws Exception {
+        ExecutorService executor = AsyncExecutorFactory.newExecutor(false, 3);
+
+        try {
+            Assertions.assertTrue(executor instanceof ThreadPoolExecutor);
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            Assertions.assertEquals(3, pool.getCorePoolSize());
+            Assertions.assertEquals(3, pool.getMaximumPoolSize());
+            Assertions.assertTrue(pool.allowsCoreThreadTimeOut());
+
+            Future<Thread> thread = executor.submit(Thread::currentThread);
+            Assertions.assertTrue(thread.get(5, TimeUnit.SECONDS).isDaemon());
+            Assertions.assertTrue(thread.get().getName().startsWith("google-api-async-"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFallsBackToFixedPoolWithoutVirtualThreads() throws Exception {
+        ExecutorService executor = AsyncExecutorFactory.newExecutor(true, 2);
+
+        try {
+            Assertions.assertEquals(!AsyncExecutorFactory.isVirtualThreadSupported(), executor instanceof ThreadPoolExecutor);
+            Assertions.assertEquals("done", executor.submit(() -> "done").get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testVirtualThreadSupportMatchesRuntime() {
+        Assertions.assertEquals(Runtime.version().feature() >= 21, AsyncExecutorFactory.isVirtualThreadSupported());
+    }
+}
@@ -10,6 +10,11 @@ import us.careydevelopment.util.api.google.harness.StoredCredentialPersisterHarn
 import us.careydevelopment.util.api.google.harness.StoredCredentialRetrieverHarness;
 
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class GoogleApiConfigTest {
 
@@ -53,4 +58,67 @@ public class GoogleApiConfigTest {
         Assertions.assertEquals(CLIENT_SECRET, config.getClientSecret());
         Assertions.assertEquals(SCOPES, config.getScopes());
     }
+
+    @Test
+    public void testNamedConfigs() {
+        GoogleApiConfig.shutdownAll();
+
+        GoogleApiConfig first = newBuilder().setName("first").setClientId("111").build();
+        GoogleApiConfig second = newBuilder().setName("second").setClientId("222").build();
+
+        try {
+            Assertions.assertSame(first, GoogleApiConfig.getInstance("first"));
+            Assertions.assertSame(second, GoogleApiConfig.getInstance("second"));
+            Assertions.assertEquals("222", GoogleApiConfig.getInstance("second").getClientId());
+            Assertions.assertNotSame(first.getTransport(), second.getTransport());
+            Assertions.assertNotSame(first.getCredentialDataStore(), second.getCredentialDataStore());
+            Assertions.assertEquals(Set.of("first", "second"), GoogleApiConfig.getInstanceNames());
+            Assertions.assertThrows(GoogleApiConfigException.class, () -> GoogleApiConfig.getInstance());
+        } finally {
+            GoogleApiConfig.shutdownAll();
+        }
+
+        Assertions.assertThrows(GoogleApiConfigException.class, () -> GoogleApiConfig.getInstance("first"));
+    }
+
+    @Test
+    public void testConcurrentBuild() {
+        GoogleApiConfig.shutdown();
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<GoogleApiConfig>> builds = IntStream.range(0, 8)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> {
+                    awaitQuietly(start);
+                    return newBuilder().build();
+                }))
+                .collect(Collectors.toList());
+
+        start.countDown();
+
+        try {
+            Set<GoogleApiConfig> configs = builds.stream().map(CompletableFuture::join).collect(Collectors.toSet());
+            Assertions.assertEquals(1, configs.size());
+            Assertions.assertSame(GoogleApiConfig.getInstance(), configs.iterator().next());
+        } finally {
+            GoogleApiConfig.shutdown();
+        }
+    }
+
+    private GoogleApiConfig.Builder newBuilder() {
+        return GoogleApiConfig.Builder
+                .instance()
+                .setClientId(CLIENT_ID)
+                .setClientSecret(CLIENT_SECRET)
+                .setPersister(StoredCredentialPersisterHarness.getGoodPersister())
+                .setRetriever(StoredCredentialRetrieverHarness.getGoodRetriever())
+                .setScopes(SCOPES);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
@@ -0,0 +1,166 @@
+package us.careydevelopment.util.api.google.datastore;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import com.google.api.client.util.store.AbstractDataStore;
+import com.google.api.client.util.store.DataStore;
+import com.google.api.client.util.store.MemoryDataStoreFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import us.careydevelopment.util.api.google.cache.BoundedCache;
+import us.careydevelopment.util.api.google.harness.StoredCredentialHarness;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CachingCredentialDataStoreTest {
+
+    private static final String ID = "77";
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+
+    private DataStore<StoredCredential> delegate;
+    private CachingCredentialDataStore dataStore;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        delegate = StoredCredential.getDefaultDataStore(new MemoryDataStoreFactory());
+        dataStore = new CachingCredentialDataStore(delegate, new BoundedCache<>(10, 0), now::get, 60_000);
+    }
+
+    @Test
+    public void testValidTokenServedFromMemory() throws IOException {
+        delegate.set(ID, credentialExpiringAt(now.get() + 3_600_000));
+
+        StoredCredential first = dataStore.get(ID);
+        delegate.delete(ID);
+        StoredCredential second = dataStore.get(ID);
+
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(1, dataStore.getCache().getHitCount());
+    }
+
+    @Test
+    public void testExpiringTokenGoesToDelegate() throws IOException {
+        delegate.set(ID, credentialExpiringAt(now.get() + 30_000));
+
+        dataStore.get(ID);
+        delegate.delete(ID);
+
+        Assertions.assertNull(dataStore.get(ID));
+        Assertions.assertEquals(0, dataStore.getCache().getHitCount());
+    }
+
+    @Test
+    public void testWriteThrough() throws IOException {
+        StoredCredential credential = credentialExpiringAt(now.get() + 3_600_000);
+        dataStore.set(ID, credential);
+
+        Assertions.assertNotNull(delegate.get(ID));
+        Assertions.assertSame(credential, dataStore.get(ID));
+        Assertions.assertEquals(1, dataStore.getCache().getHitCount());
+    }
+
+    @Test
+    public void testDeleteInvalidates() throws IOException {
+        dataStore.set(ID, credentialExpiringAt(now.get() + 3_600_000));
+        dataStore.delete(ID);
+
+        Assertions.assertNull(dataStore.get(ID));
+        Assertions.assertNull(delegate.get(ID));
+    }
+
+    @Test
+    public void testDeleteRacingLoadIsNotCached() throws Exception {
+        delegate.set(ID, credentialExpiringAt(now.get() + 3_600_000));
+        SlowDataStore slow = new SlowDataStore(delegate);
+        CachingCredentialDataStore racing = new CachingCredentialDataStore(slow, new BoundedCache<>(10, 0), now::get, 60_000);
+
+        CompletableFuture<StoredCredential> load = CompletableFuture.supplyAsync(() -> {
+            try {
+                return racing.get(ID);
+            } catch (IOException ie) {
+                throw new UncheckedIOException(ie);
+            }
+        });
+        Assertions.assertTrue(slow.reading.await(5, TimeUnit.SECONDS));
+
+        racing.delete(ID);
+        slow.release.countDown();
+
+        Assertions.assertNotNull(load.get(5, TimeUnit.SECONDS));
+        Assertions.assertNull(racing.getIfCached(ID));
+        Assertions.assertNull(racing.get(ID));
+    }
+
+    private StoredCredential credentialExpiringAt(long expiration) {
+        StoredCredential credential = StoredCredentialHarness.getGoodStoredCredential();
+        credential.setExpirationTimeMilliseconds(expiration);
+        return credential;
+    }
+
+    /**
+     * Holds up the first read after it has read the value, until it's released.
+     */
+    private static class SlowDataStore extends AbstractDataStore<StoredCredential> {
+        private final DataStore<StoredCredential> delegate;
+        private final CountDownLatch reading = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private SlowDataStore(DataStore<StoredCredential> delegate) {
+            super(delegate.getDataStoreFactory(), delegate.getId());
+            this.delegate = delegate;
+        }
+
+        @Override
+        public StoredCredential get(String key) throws IOException {
+            final StoredCredential stored = delegate.get(key);
+
+            if (reading.getCount() > 0) {
+                reading.countDown();
+
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            return stored;
+        }
+
+        @Override
+        public DataStore<StoredCredential> set(String key, StoredCredential value) throws IOException {
+            delegate.set(key, value);
+            return this;
+        }
+
+        @Override
+        public DataStore<StoredCredential> delete(String key) throws IOException {
+            delegate.delete(key);
+            return this;
+        }
+
+        @Override
+        public DataStore<StoredCredential> clear() throws IOException {
+            delegate.clear();
+            return this;
+        }
+
+        @Override
+        public Set<String> keySet() throws IOException {
+            return delegate.keySet();
+        }
+
+        @Override
+        public Collection<StoredCredential> values() throws IOException {
+            return delegate.values();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package us.careydevelopment.util.api.google.datastore;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.auth.oauth2.StoredCredential;
+import com.google.api.services.gmail.GmailScopes;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import us.careydevelopment.util.api.google.CredentialUtil;
+import us.careydevelopment.util.api.google.codec.StoredCredentialCodec;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.harness.StoredCredentialHarness;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class MappedCredentialStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testPersistAndRetrieve() throws IOException {
+        try (MappedCredentialStore store = open()) {
+            store.persist("77", newCredential("a"));
+            store.persist("78", newCredential("b"));
+            store.persist("77", newCredential("c"));
+
+            Assertions.assertEquals("c", store.retrieve("77").getAccessToken());
+            Assertions.assertEquals(StoredCredentialHarness.REFRESH_TOKEN, store.retrieve("77").getRefreshToken());
+            Assertions.assertNull(store.retrieve("79"));
+            Map<String, StoredCredential> found = store.retrieveAll(List.of("78", "79"));
+            Assertions.assertEquals(1, found.size());
+            Assertions.assertEquals("b", found.get("78").getAccessToken());
+
+            store.delete("78");
+            Assertions.assertNull(store.retrieve("78"));
+            Assertions.assertEquals(1, store.size());
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        try (MappedCredentialStore store = open()) {
+            store.persist("77", newCredential("a"));
+            store.persist("78", newCredential("b"));
+            store.delete("78");
+        }
+
+        try (MappedCredentialStore store = open()) {
+            Assertions.assertEquals("a", store.retrieve("77").getAccessToken());
+            Assertions.assertNull(store.retrieve("78"));
+        }
+    }
+
+    @Test
+    public void testTornWriteIsDiscarded() throws IOException {
+        int end;
+
+        try (MappedCredentialStore store = open()) {
+            store.persist("77", newCredential("a"));
+            end = store.getLogBytes();
+            store.persist("77", newCredential("b"));
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve(MappedCredentialStore.LOG_FILE_NAME).toFile(), "rw")) {
+            file.seek(end + 12);
+            file.write(0x5A);
+        }
+
+        try (MappedCredentialStore store = open()) {
+            Assertions.assertEquals("a", store.retrieve("77").getAccessToken());
+            Assertions.assertEquals(end, store.getLogBytes());
+
+            store.persist("78", newCredential("c"));
+        }
+
+        try (MappedCredentialStore store = open()) {
+            Assertions.assertEquals("a", store.retrieve("77").getAccessToken());
+            Assertions.assertEquals("c", store.retrieve("78").getAccessToken());
+        }
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        try (MappedCredentialStore store = open()) {
+            for (int i = 0; i < 1000; i++) {
+                store.persist("77", newCredential("a" + i));
+            }
+
+            store.persist("78", newCredential("b"));
+            int before = store.getLogBytes();
+
+            store.compact();
+
+            Assertions.assertTrue(store.getLogBytes() < before / 100);
+            Assertions.assertEquals(0, store.getGarbageBytes());
+            Assertions.assertEquals("a999", store.retrieve("77").getAccessToken());
+
+            store.persist("79", newCredential("c"));
+        }
+
+        Assertions.assertFalse(Files.exists(directory.resolve(MappedCredentialStore.LOG_FILE_NAME + ".compact")));
+
+        try (MappedCredentialStore store = open()) {
+            Assertions.assertEquals("a999", store.retrieve("77").getAccessToken());
+            Assertions.assertEquals("b", store.retrieve("78").getAccessToken());
+            Assertions.assertEquals("c", store.retrieve("79").getAccessToken());
+        }
+    }
+
+    @Test
+    public void testOnlyOneOpenStore() throws IOException {
+        try (MappedCredentialStore store = open()) {
+            Assertions.assertThrows(IOException.class, this::open);
+        }
+    }
+
+    @Test
+    public void testGoogleApiConfigIntegration() throws IOException {
+        GoogleApiConfig.shutdown();
+
+        GoogleApiConfig config = GoogleApiConfig.Builder
+                .instance()
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setScopes(List.of(GmailScopes.MAIL_GOOGLE_COM))
+                .setLocalCredentialStoreDirectory(directory)
+                .build();
+
+        try {
+            config.getLocalCredentialStore().persist("77", newCredential("a"));
+
+            Credential credential = CredentialUtil.getCredential("77");
+            Assertions.assertEquals("a", credential.getAccessToken());
+        } finally {
+            GoogleApiConfig.shutdown();
+        }
+
+        try (MappedCredentialStore store = open()) {
+            Assertions.assertEquals("a", store.retrieve("77").getAccessToken());
+        }
+    }
+
+    @Test
+    public void testReadsDuringGrowth() throws Exception {
+        String token = "a".repeat(4096);
+        AtomicInteger written = new AtomicInteger(-1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean done = new AtomicBoolean();
+
+        try (MappedCredentialStore store = open()) {
+            List<Thread> readers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                Thread reader = new Thread(() -> {
+                    while (!done.get() && failure.get() == null) {
+                        int latest = written.get();
+                        List<String> ids = new ArrayList<>();
+                        for (int id = Math.max(0, latest - 8); id <= latest + 8; id++) {
+                            ids.add(String.valueOf(id));
+                        }
+
+                        try {
+                            store.retrieveAll(ids).values().forEach(credential ->
+                                    Assertions.assertEquals(token, credential.getAccessToken()));
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        }
+                    }
+                });
+                reader.start();
+                readers.add(reader);
+            }
+
+            for (int i = 0; i < 4000 && failure.get() == null; i++) {
+                store.persist(String.valueOf(i), newCredential(token));
+                written.set(i);
+            }
+
+            done.set(true);
+            for (Thread reader : readers) {
+                reader.join(5000);
+            }
+
+            Assertions.assertNull(failure.get());
+            Assertions.assertTrue(store.getLogBytes() > 8 * 1024 * 1024);
+        }
+    }
+
+    private MappedCredentialStore open() throws IOException {
+        return MappedCredentialStore.open(directory, new StoredCredentialCodec(), false, 0);
+    }
+
+    private static StoredCredential newCredential(String accessToken) {
+        StoredCredential credential = StoredCredentialHarness.getGoodStoredCredential();
+        credential.setAccessToken(accessToken);
+        credential.setExpirationTimeMilliseconds(System.currentTimeMillis() + 3_600_000);
+        return credential;
+    }
+}
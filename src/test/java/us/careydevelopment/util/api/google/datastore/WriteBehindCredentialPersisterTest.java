@@ -0,0 +1,247 @@
+package us.careydevelopment.util.api.google.datastore;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import us.careydevelopment.api.google.datastore.util.StoredCredentialRetriever;
+import us.careydevelopment.util.api.google.harness.InMemoryCredentialStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class WriteBehindCredentialPersisterTest {
+
+    @Test
+    public void testCoalescesPerUser() throws IOException {
+        InMemoryCredentialStore store = new InMemoryCredentialStore();
+        WriteBehindCredentialPersister persister = new WriteBehindCredentialPersister(store, 100, 60_000, 100, 0);
+
+        try {
+            persister.persist("77", newCredential("a"));
+            persister.persist("77", newCredential("b"));
+            persister.persist("78", newCredential("c"));
+
+            Assertions.assertEquals(0, store.getPersistCount());
+            Assertions.assertEquals(2, persister.getPendingCount());
+
+            persister.flush();
+
+            Assertions.assertEquals(2, store.getPersistCount());
+            Assertions.assertEquals("b", store.getCredentials().get("77").getAccessToken());
+            Assertions.assertEquals(0, persister.getPendingCount());
+        } finally {
+            persister.shutdown();
+        }
+    }
+
+    @Test
+    public void testFullBatchTriggersFlush() throws Exception {
+        BatchStore store = new BatchStore();
+        WriteBehindCredentialPersister persister = new WriteBehindCredentialPersister(store, 2, 60_000, 100, 0);
+
+        try {
+            persister.persist("77", newCredential("a"));
+            persister.persist("78", newCredential("b"));
+
+            Assertions.assertTrue(store.flushed.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(List.of(2), store.batchSizes);
+        } finally {
+            persister.shutdown();
+        }
+    }
+
+    @Test
+    public void testBackpressureSavesRightAway() throws IOException {
+        InMemoryCredentialStore store = new InMemoryCredentialStore();
+        WriteBehindCredentialPersister persister = new WriteBehindCredentialPersister(store, 100, 60_000, 1, 0);
+
+        try {
+            persister.persist("77", newCredential("a"));
+            persister.persist("78", newCredential("b"));
+
+            Assertions.assertEquals(1, persister.getPendingCount());
+            Assertions.assertEquals(1, store.getPersistCount());
+            Assertions.assertEquals("b", store.getCredentials().get("78").getAccessToken());
+        } finally {
+            persister.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadThroughAndShutdownFlush() throws IOException {
+        InMemoryCredentialStore store = new InMemoryCredentialStore();
+        WriteBehindCredentialPersister persister = new WriteBehindCredentialPersister(store, 100, 60_000, 100, 0);
+        StoredCredentialRetriever retriever = persister.readThrough(store);
+
+        persister.persist("77", newCredential("a"));
+
+        Assertions.assertNull(store.retrieve("77"));
+        Assertions.assertEquals("a", retriever.retrieve("77").getAccessToken());
+
+        persister.shutdown();
+
+        Assertions.assertEquals("a", store.retrieve("77").getAccessToken());
+        Assertions.assertTrue(persister.persist("78", newCredential("b")));
+        Assertions.assertEquals("b", store.retrieve("78").getAccessToken());
+    }
+
+    @Test
+    public void testFailedFlushIsRequeued() {
+        FailingStore store = new FailingStore();
+        WriteBehindCredentialPersister persister = new WriteBehindCredentialPersister(store, 100, 60_000, 100, 0);
+
+        try {
+            persister.persist("77", newCredential("a"));
+
+            Assertions.assertThrows(IOException.class, persister::flush);
+            Assertions.assertEquals("a", persister.getPending("77").getAccessToken());
+        } catch (IOException ie) {
+            Assertions.fail(ie);
+        } finally {
+            store.failing = false;
+            persister.shutdown();
+        }
+
+        Assertions.assertEquals(0, persister.getPendingCount());
+    }
+
+    @Test
+    public void testDirectSaveIsNotOverwrittenByFlush() throws Exception {
+        SlowStore store = new SlowStore();
+        WriteBehindCredentialPersister persister = new WriteBehindCredentialPersister(store, 100, 60_000, 1, 0);
+
+        try {
+            persister.persist("77", newCredential("a"));
+
+            Thread flusher = new Thread(() -> Assertions.assertDoesNotThrow(persister::flush));
+            flusher.start();
+            Assertions.assertTrue(store.writing.await(5, TimeUnit.SECONDS));
+
+            Thread writer = new Thread(() -> Assertions.assertDoesNotThrow(() -> persister.persist("77", newCredential("b"))));
+            writer.start();
+
+            while (writer.getState() != Thread.State.BLOCKED) {
+                Assertions.assertTrue(writer.isAlive());
+                Thread.sleep(1);
+            }
+
+            store.release.countDown();
+            flusher.join(5000);
+            writer.join(5000);
+
+            Assertions.assertEquals("b", store.getCredentials().get("77").getAccessToken());
+        } finally {
+            store.release.countDown();
+            persister.shutdown();
+        }
+    }
+
+    @Test
+    public void testPersistRacingShutdownIsNeverLost() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            InMemoryCredentialStore store = new InMemoryCredentialStore();
+            WriteBehindCredentialPersister persister = new WriteBehindCredentialPersister(store, 1, 60_000, 1_000, 0);
+            AtomicBoolean stop = new AtomicBoolean();
+            Set<String> saved = ConcurrentHashMap.newKeySet();
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            List<Thread> writers = new ArrayList<>();
+
+            for (int w = 0; w < 4; w++) {
+                final int writer = w;
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; !stop.get(); i++) {
+                        String id = writer + "-" + i;
+                        try {
+                            if (persister.persist(id, newCredential("t"))) {
+                                saved.add(id);
+                            }
+                        } catch (Throwable t) {
+                            failures.add(t);
+                            return;
+                        }
+                    }
+                });
+                thread.start();
+                writers.add(thread);
+            }
+
+            Thread.sleep(2);
+            persister.shutdown();
+            stop.set(true);
+
+            for (Thread thread : writers) {
+                thread.join(5000);
+            }
+
+            Assertions.assertEquals(List.of(), failures);
+            Assertions.assertEquals(0, persister.getPendingCount());
+            Assertions.assertEquals(saved, store.getCredentials().keySet());
+        }
+    }
+
+    private static StoredCredential newCredential(String accessToken) {
+        StoredCredential credential = new StoredCredential();
+        credential.setAccessToken(accessToken);
+        return credential;
+    }
+
+    private static class BatchStore implements BatchStoredCredentialPersister {
+        private final List<Integer> batchSizes = new ArrayList<>();
+        private final CountDownLatch flushed = new CountDownLatch(1);
+
+        @Override
+        public void persistAll(Map<String, StoredCredential> credentials) {
+            batchSizes.add(credentials.size());
+            flushed.countDown();
+        }
+
+        @Override
+        public boolean persist(String id, StoredCredential storedCredential) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class FailingStore extends InMemoryCredentialStore {
+        private volatile boolean failing = true;
+
+        @Override
+        public boolean persist(String id, StoredCredential storedCredential) {
+            if (failing) {
+                throw new IllegalStateException("Database is down");
+            }
+
+            return super.persist(id, storedCredential);
+        }
+    }
+
+    /**
+     * Holds up the first save until it's released.
+     */
+    private static class SlowStore extends InMemoryCredentialStore {
+        private final CountDownLatch writing = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public boolean persist(String id, StoredCredential storedCredential) {
+            if (writing.getCount() > 0) {
+                writing.countDown();
+
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            return super.persist(id, storedCredential);
+        }
+    }
+}
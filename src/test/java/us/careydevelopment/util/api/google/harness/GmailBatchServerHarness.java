@@ -0,0 +1,84 @@
+package us.careydevelopment.util.api.google.harness;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.gmail.Gmail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Answers Gmail batch requests. Every message comes back with its own ID, except IDs that
+ * start with "missing", which get a 404.
+ */
+public class GmailBatchServerHarness {
+
+    private static final Pattern MESSAGE_GET = Pattern.compile("GET \\S*/users/me/messages/([^\\s?]+)");
+    private static final String BOUNDARY = "batch_harness";
+
+    private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+    private final MockHttpTransport transport;
+
+    public GmailBatchServerHarness() {
+        this.transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() throws IOException {
+                        return respond(getContentAsString());
+                    }
+                };
+            }
+        };
+    }
+
+    private LowLevelHttpResponse respond(String body) {
+        final List<String> ids = new ArrayList<>();
+        final Matcher matcher = MESSAGE_GET.matcher(body);
+        while (matcher.find()) {
+            ids.add(matcher.group(1));
+        }
+
+        batchSizes.add(ids.size());
+
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < ids.size(); i++) {
+            final String id = ids.get(i);
+            final boolean missing = id.startsWith("missing");
+
+            content.append("--").append(BOUNDARY).append("\r\n")
+                    .append("Content-Type: application/http\r\n")
+                    .append("Content-ID: <response-").append(i + 1).append(">\r\n\r\n")
+                    .append(missing ? "HTTP/1.1 404 Not Found" : "HTTP/1.1 200 OK").append("\r\n")
+                    .append("Content-Type: application/json; charset=UTF-8\r\n\r\n")
+                    .append(missing
+                            ? "{\"error\":{\"code\":404,\"message\":\"Not Found\"}}"
+                            : "{\"id\":\"" + id + "\"}")
+                    .append("\r\n");
+        }
+        content.append("--").append(BOUNDARY).append("--\r\n");
+
+        return new MockLowLevelHttpResponse()
+                .setContentType("multipart/mixed; boundary=" + BOUNDARY)
+                .setContent(content.toString());
+    }
+
+    public Gmail newGmail() {
+        return new Gmail.Builder(transport, GsonFactory.getDefaultInstance(), null)
+                .setApplicationName("batch-harness")
+                .build();
+    }
+
+    public List<Integer> getBatchSizes() {
+        return batchSizes;
+    }
+}
@@ -0,0 +1,69 @@
+package us.careydevelopment.util.api.google.harness;
+
+import com.google.api.client.auth.oauth2.StoredCredential;
+import us.careydevelopment.util.api.google.datastore.DeletableStoredCredentialPersister;
+import us.careydevelopment.util.api.google.datastore.ScannableStoredCredentialRetriever;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * A retriever and persister backed by a ConcurrentHashMap, so tests and benchmarks
+ * don't need a database.
+ */
+public class InMemoryCredentialStore implements ScannableStoredCredentialRetriever, DeletableStoredCredentialPersister {
+
+    private final Map<String, StoredCredential> credentials = new ConcurrentHashMap<>();
+    private final AtomicInteger retrieveCount = new AtomicInteger();
+    private final AtomicInteger persistCount = new AtomicInteger();
+
+    /**
+     * Stores a credential for each of the IDs whose access token expires in an hour.
+     */
+    public InMemoryCredentialStore seed(Iterable<String> ids) {
+        for (String id : ids) {
+            StoredCredential credential = StoredCredentialHarness.getGoodStoredCredential();
+            credential.setExpirationTimeMilliseconds(System.currentTimeMillis() + 60 * 60 * 1000);
+            credentials.put(id, credential);
+        }
+
+        return this;
+    }
+
+    @Override
+    public StoredCredential retrieve(String id) {
+        retrieveCount.incrementAndGet();
+        return credentials.get(id);
+    }
+
+    @Override
+    public boolean persist(String id, StoredCredential storedCredential) {
+        persistCount.incrementAndGet();
+        credentials.put(id, storedCredential);
+        return true;
+    }
+
+    @Override
+    public void delete(String id) {
+        credentials.remove(id);
+    }
+
+    @Override
+    public Stream<String> streamIds() {
+        return credentials.keySet().stream();
+    }
+
+    public Map<String, StoredCredential> getCredentials() {
+        return credentials;
+    }
+
+    public int getRetrieveCount() {
+        return retrieveCount.get();
+    }
+
+    public int getPersistCount() {
+        return persistCount.get();
+    }
+}
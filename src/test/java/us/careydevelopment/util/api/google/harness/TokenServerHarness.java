@@ -0,0 +1,67 @@
+package us.careydevelopment.util.api.google.harness;
+
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.ClientParametersAuthentication;
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TokenServerHarness {
+
+    public static final String TOKEN_SERVER_URL = "https://oauth2.googleapis.com/token";
+    public static final String REFRESHED_ACCESS_TOKEN = "ya29.refreshed";
+
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final MockHttpTransport transport;
+
+    public TokenServerHarness() {
+        this.transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() throws IOException {
+                        requestCount.incrementAndGet();
+                        return newTokenResponse();
+                    }
+                };
+            }
+        };
+    }
+
+    protected LowLevelHttpResponse newTokenResponse() {
+        return new MockLowLevelHttpResponse()
+                .setContentType(Json.MEDIA_TYPE)
+                .setContent("{\"access_token\":\"" + REFRESHED_ACCESS_TOKEN + "\",\"expires_in\":3600,\"token_type\":\"Bearer\"}");
+    }
+
+    public MockHttpTransport getTransport() {
+        return transport;
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    public Credential newCredential() {
+        Credential credential = new Credential.Builder(BearerToken.authorizationHeaderAccessMethod())
+                .setTransport(transport)
+                .setJsonFactory(GsonFactory.getDefaultInstance())
+                .setTokenServerEncodedUrl(TOKEN_SERVER_URL)
+                .setClientAuthentication(new ClientParametersAuthentication("309a9", "0e84e"))
+                .build();
+
+        credential.setAccessToken(StoredCredentialHarness.ACCESS_TOKEN);
+        credential.setRefreshToken(StoredCredentialHarness.REFRESH_TOKEN);
+
+        return credential;
+    }
+}
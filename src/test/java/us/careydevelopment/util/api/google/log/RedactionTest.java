@@ -0,0 +1,14 @@
+package us.careydevelopment.util.api.google.log;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RedactionTest {
+
+    @Test
+    public void testRedact() {
+        Assertions.assertEquals("ya29****", Redaction.redact("ya29.a0AfH6SMBx3pX7qk9ZpQYw1v0b8Jt5m2rL"));
+        Assertions.assertEquals("****", Redaction.redact("4/0Aab"));
+        Assertions.assertNull(Redaction.redact(null));
+    }
+}
@@ -0,0 +1,47 @@
+package us.careydevelopment.util.api.google.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class InMemoryMetricsRecorderTest {
+
+    @Test
+    public void testOperationTimings() {
+        InMemoryMetricsRecorder recorder = new InMemoryMetricsRecorder();
+
+        MetricsRecorder.Sample first = recorder.start(OAuthOperation.REFRESH);
+        MetricsRecorder.Sample second = recorder.start(OAuthOperation.REFRESH);
+        Assertions.assertEquals(2, recorder.getSnapshot(OAuthOperation.REFRESH).getInFlight());
+
+        first.stop(true);
+        second.stop(false);
+
+        OperationSnapshot snapshot = recorder.getSnapshot(OAuthOperation.REFRESH);
+        Assertions.assertEquals(2, snapshot.getCount());
+        Assertions.assertEquals(1, snapshot.getErrorCount());
+        Assertions.assertEquals(0, snapshot.getInFlight());
+        Assertions.assertTrue(snapshot.getPercentileNanos(0.99) <= snapshot.getMaxNanos());
+        Assertions.assertEquals(0, recorder.getSnapshot(OAuthOperation.PERSIST).getCount());
+    }
+
+    @Test
+    public void testEvents() {
+        InMemoryMetricsRecorder recorder = new InMemoryMetricsRecorder();
+
+        recorder.record(OAuthEvent.FLOW_CACHE_HIT);
+        recorder.record(OAuthEvent.FLOW_CACHE_HIT);
+        recorder.record(OAuthEvent.FLOW_CACHE_MISS);
+
+        Assertions.assertEquals(2, recorder.getCount(OAuthEvent.FLOW_CACHE_HIT));
+        Assertions.assertEquals(1, recorder.getCount(OAuthEvent.FLOW_CACHE_MISS));
+        Assertions.assertEquals(0, recorder.getCount(OAuthEvent.REFRESH_SHARED));
+    }
+
+    @Test
+    public void testBuckets() {
+        Assertions.assertEquals(0, OperationSnapshot.bucketFor(999));
+        Assertions.assertEquals(1, OperationSnapshot.bucketFor(1_000));
+        Assertions.assertEquals(11, OperationSnapshot.bucketFor(1_500_000));
+        Assertions.assertEquals(OperationSnapshot.BUCKETS - 1, OperationSnapshot.bucketFor(Long.MAX_VALUE));
+    }
+}
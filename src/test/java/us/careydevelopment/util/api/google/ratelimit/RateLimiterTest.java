@@ -0,0 +1,106 @@
+package us.careydevelopment.util.api.google.ratelimit;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.services.gmail.GmailScopes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.harness.InMemoryCredentialStore;
+import us.careydevelopment.util.api.google.harness.TokenServerHarness;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RateLimiterTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @AfterEach
+    public void tearDown() {
+        GoogleApiConfig.shutdown();
+    }
+
+    @Test
+    public void testBucketAllowsBurstThenRefills() {
+        TokenBucket bucket = new TokenBucket(10, 2, now::get);
+
+        Assertions.assertTrue(bucket.tryAcquire());
+        Assertions.assertTrue(bucket.tryAcquire());
+        Assertions.assertFalse(bucket.tryAcquire());
+        Assertions.assertEquals(100_000_000L, bucket.reserve(200_000_000L));
+
+        now.addAndGet(200_000_000L);
+        Assertions.assertTrue(bucket.tryAcquire());
+        Assertions.assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void testFailFastPerUserAndClient() throws IOException {
+        RateLimitPolicy policy = RateLimitPolicy.Builder
+                .instance()
+                .setUserPermitsPerSecond(1)
+                .setUserBurst(1)
+                .setClientPermitsPerSecond(1)
+                .setClientBurst(2)
+                .build();
+        RateLimiter limiter = new RateLimiter(policy, now::get, millis -> Assertions.fail("shouldn't wait"));
+
+        limiter.acquire("a");
+        Assertions.assertThrows(RateLimitExceededException.class, () -> limiter.acquire("a"));
+
+        limiter.acquire("b");
+        Assertions.assertThrows(RateLimitExceededException.class, () -> limiter.acquire("c"));
+        Assertions.assertEquals(2, limiter.getRejectedCount());
+
+        // The rejected call for "c" gave its user permit back
+        now.addAndGet(1_000_000_000L);
+        limiter.acquire("c");
+    }
+
+    @Test
+    public void testCallerWaitsForPermit() throws IOException {
+        List<Long> sleeps = new ArrayList<>();
+        RateLimitPolicy policy = RateLimitPolicy.Builder
+                .instance()
+                .setClientPermitsPerSecond(4)
+                .setClientBurst(1)
+                .setMaxWaitMillis(1_000)
+                .build();
+        RateLimiter limiter = new RateLimiter(policy, now::get, sleeps::add);
+
+        limiter.acquire(null);
+        limiter.acquire(null);
+        limiter.acquire(null);
+
+        Assertions.assertEquals(List.of(250L, 500L), sleeps);
+        Assertions.assertEquals(2, limiter.getWaitedCount());
+    }
+
+    @Test
+    public void testTokenCallsAreLimited() throws IOException {
+        InMemoryCredentialStore store = new InMemoryCredentialStore();
+        TokenServerHarness server = new TokenServerHarness();
+
+        GoogleApiConfig config = GoogleApiConfig.Builder
+                .instance()
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setTransport(server.getTransport())
+                .setPersister(store)
+                .setRetriever(store)
+                .setScopes(List.of(GmailScopes.GMAIL_READONLY))
+                .setRateLimitPolicy(RateLimitPolicy.Builder.instance().setClientPermitsPerSecond(0.01).setClientBurst(1).build())
+                .build();
+
+        HttpRequestFactory factory = config.getTransport().createRequestFactory(config.getTokenRequestInitializer());
+        GenericUrl url = new GenericUrl(TokenServerHarness.TOKEN_SERVER_URL);
+
+        factory.buildGetRequest(url).execute();
+        Assertions.assertThrows(RateLimitExceededException.class, () -> factory.buildGetRequest(url).execute());
+        Assertions.assertEquals(1, server.getRequestCount());
+    }
+}
@@ -0,0 +1,137 @@
+package us.careydevelopment.util.api.google.refresh;
+
+import com.google.api.client.auth.oauth2.Credential;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import us.careydevelopment.util.api.google.harness.TokenServerHarness;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class CredentialRefresherTest {
+
+    private static final String ID = "77";
+
+    private final CredentialRefresher refresher = new CredentialRefresher(1000, 0, 1);
+
+    @AfterEach
+    public void tearDown() {
+        refresher.shutdown();
+    }
+
+    @Test
+    public void testRefreshesBeforeExpiry() throws InterruptedException {
+        TokenServerHarness tokenServer = new TokenServerHarness();
+        Credential credential = tokenServer.newCredential();
+        credential.setExpirationTimeMilliseconds(System.currentTimeMillis() + 1100);
+
+        refresher.track(ID, credential);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!TokenServerHarness.REFRESHED_ACCESS_TOKEN.equals(credential.getAccessToken()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        Assertions.assertEquals(1, tokenServer.getRequestCount());
+        Assertions.assertEquals(TokenServerHarness.REFRESHED_ACCESS_TOKEN, credential.getAccessToken());
+        Assertions.assertTrue(refresher.isTracked(ID));
+    }
+
+    @Test
+    public void testStopsTrackingIdleCredential() throws InterruptedException {
+        CredentialRefresher idleRefresher = new CredentialRefresher(1000, 0, 1, 1, 10);
+        TokenServerHarness tokenServer = new TokenServerHarness();
+        Credential credential = tokenServer.newCredential();
+        credential.setExpirationTimeMilliseconds(System.currentTimeMillis() + 1100);
+
+        try {
+            idleRefresher.track(ID, credential);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (idleRefresher.isTracked(ID) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+
+            Assertions.assertEquals(1, tokenServer.getRequestCount());
+            Assertions.assertFalse(idleRefresher.isTracked(ID));
+        } finally {
+            idleRefresher.shutdown();
+        }
+    }
+
+    @Test
+    public void testTrackedCountIsCapped() {
+        CredentialRefresher smallRefresher = new CredentialRefresher(1000, 0, 1, 3, 1);
+
+        try {
+            for (String id : new String[] { "1", "2" }) {
+                Credential credential = new TokenServerHarness().newCredential();
+                credential.setExpirationTimeMilliseconds(System.currentTimeMillis() + 60_000);
+                smallRefresher.track(id, credential);
+            }
+
+            Assertions.assertTrue(smallRefresher.isTracked("1"));
+            Assertions.assertFalse(smallRefresher.isTracked("2"));
+        } finally {
+            smallRefresher.shutdown();
+        }
+    }
+
+    @Test
+    public void testIgnoresCredentialWithoutRefreshToken() {
+        Credential credential = new TokenServerHarness().newCredential();
+        credential.setRefreshToken(null);
+        credential.setExpirationTimeMilliseconds(System.currentTimeMillis() + 60_000);
+
+        refresher.track(ID, credential);
+
+        Assertions.assertFalse(refresher.isTracked(ID));
+    }
+
+    @Test
+    public void testUntrack() {
+        Credential credential = new TokenServerHarness().newCredential();
+        credential.setExpirationTimeMilliseconds(System.currentTimeMillis() + 60_000);
+
+        refresher.track(ID, credential);
+        refresher.untrack(ID);
+
+        Assertions.assertEquals(0, refresher.getTrackedCount());
+    }
+
+    @Test
+    public void testTrackRacingShutdownDoesNotThrow() throws InterruptedException {
+        TokenServerHarness tokenServer = new TokenServerHarness();
+
+        for (int round = 0; round < 50; round++) {
+            CredentialRefresher racing = new CredentialRefresher(1000, 0, 1);
+            AtomicBoolean stop = new AtomicBoolean();
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+
+            Thread tracker = new Thread(() -> {
+                for (int i = 0; !stop.get(); i++) {
+                    Credential credential = tokenServer.newCredential();
+                    credential.setExpirationTimeMilliseconds(System.currentTimeMillis() + 60_000);
+
+                    try {
+                        racing.track(String.valueOf(i), credential);
+                    } catch (Throwable t) {
+                        failures.add(t);
+                        return;
+                    }
+                }
+            });
+            tracker.start();
+
+            Thread.sleep(2);
+            racing.shutdown();
+            stop.set(true);
+            tracker.join(5000);
+
+            Assertions.assertEquals(List.of(), failures);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package us.careydevelopment.util.api.google.refresh;
+
+import com.google.api.client.auth.oauth2.TokenResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import us.careydevelopment.util.api.google.metrics.NoOpMetricsRecorder;
+import us.careydevelopment.util.api.google.resilience.Hedger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RefreshCoordinatorTest {
+
+    private static final String ID = "77";
+    private static final int THREADS = 8;
+
+    @Test
+    public void testConcurrentRefreshesShareOneCall() throws Exception {
+        RefreshCoordinator coordinator = new RefreshCoordinator();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        TokenResponse response = new TokenResponse().setAccessToken("ya29.new");
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<TokenResponse>> results = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(() -> coordinator.refresh(ID, () -> {
+                    calls.incrementAndGet();
+                    awaitQuietly(release);
+                    return response;
+                })));
+            }
+
+            while (coordinator.getExecutedCount() + coordinator.getSharedCount() < THREADS) {
+                Thread.sleep(5);
+            }
+
+            release.countDown();
+
+            for (Future<TokenResponse> result : results) {
+                Assertions.assertSame(response, result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assertions.assertEquals(1, calls.get());
+        Assertions.assertEquals(THREADS - 1, coordinator.getSharedCount());
+        Assertions.assertFalse(coordinator.isRefreshing(ID));
+    }
+
+    @Test
+    public void testFailureIsRethrownAndCleared() throws IOException {
+        RefreshCoordinator coordinator = new RefreshCoordinator();
+
+        Assertions.assertThrows(IOException.class, () -> coordinator.refresh(ID, () -> {
+            throw new IOException("token endpoint down");
+        }));
+
+        Assertions.assertFalse(coordinator.isRefreshing(ID));
+        Assertions.assertNotNull(coordinator.refresh(ID, TokenResponse::new));
+    }
+
+    @Test
+    public void testSlowRefreshIsHedged() throws Exception {
+        CountDownLatch stuck = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        Hedger hedger = new Hedger(20, 5000);
+
+        try {
+            RefreshCoordinator coordinator = new RefreshCoordinator(NoOpMetricsRecorder.INSTANCE, hedger);
+
+            TokenResponse response = coordinator.refresh(ID, () -> {
+                if (calls.incrementAndGet() == 1) {
+                    awaitQuietly(stuck);
+                    return new TokenResponse().setAccessToken("ya29.slow");
+                }
+
+                return new TokenResponse().setAccessToken("ya29.hedged");
+            });
+
+            Assertions.assertEquals("ya29.hedged", response.getAccessToken());
+            Assertions.assertEquals(1, hedger.getHedgedCount());
+        } finally {
+            stuck.countDown();
+            hedger.shutdown();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package us.careydevelopment.util.api.google.resilience;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CircuitBreakerTest {
+
+    private static final long OPEN_MILLIS = 1000;
+
+    private final AtomicLong now = new AtomicLong();
+    private final CircuitBreaker breaker = new CircuitBreaker(3, OPEN_MILLIS, now::get);
+
+    @Test
+    public void testOpensAfterFailuresInARow() {
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.recordFailure();
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assertions.assertFalse(breaker.tryAcquire());
+        Assertions.assertEquals(1, breaker.getRejectedCount());
+    }
+
+    @Test
+    public void testTrialCallClosesBreaker() {
+        open();
+        now.addAndGet(OPEN_MILLIS * 1_000_000L);
+
+        Assertions.assertTrue(breaker.tryAcquire());
+        Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assertions.assertFalse(breaker.tryAcquire());
+
+        breaker.recordSuccess();
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        Assertions.assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testFailedTrialCallReopensBreaker() {
+        open();
+        now.addAndGet(OPEN_MILLIS * 1_000_000L);
+
+        Assertions.assertTrue(breaker.tryAcquire());
+        breaker.recordFailure();
+
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assertions.assertEquals(2, breaker.getOpenedCount());
+        Assertions.assertFalse(breaker.tryAcquire());
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package us.careydevelopment.util.api.google.resilience;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HedgerTest {
+
+    private final CountDownLatch stuck = new CountDownLatch(1);
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @AfterEach
+    public void tearDown() {
+        stuck.countDown();
+    }
+
+    @Test
+    public void testFastCallIsNotHedged() throws IOException {
+        Hedger hedger = new Hedger(1000, 5000);
+
+        try {
+            Assertions.assertEquals("fast", hedger.call(() -> "fast"));
+            Assertions.assertEquals(0, hedger.getHedgedCount());
+        } finally {
+            hedger.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailsOnlyWhenBothAttemptsFail() {
+        Hedger hedger = new Hedger(20, 5000);
+
+        try {
+            IOException e = Assertions.assertThrows(IOException.class, () -> hedger.call(() -> {
+                if (calls.incrementAndGet() == 1) {
+                    awaitQuietly(stuck, 200);
+                }
+
+                throw new IOException("attempt " + calls.get());
+            }));
+
+            Assertions.assertTrue(e.getMessage().startsWith("attempt"));
+            Assertions.assertEquals(2, calls.get());
+            Assertions.assertEquals(1, hedger.getHedgedCount());
+        } finally {
+            hedger.shutdown();
+        }
+    }
+
+    @Test
+    public void testHedgingFromSaturatedPoolDoesNotDeadlock() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(1);
+        Hedger hedger = new Hedger(20, 5000);
+
+        try {
+            Future<String> result = pool.submit(() -> hedger.call(() -> {
+                if (calls.incrementAndGet() == 1) {
+                    awaitQuietly(stuck, 5000);
+                    return "slow";
+                }
+
+                return "hedged";
+            }));
+
+            Assertions.assertEquals("hedged", result.get(2, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+            hedger.shutdown();
+        }
+    }
+
+    @Test
+    public void testWaitIsBounded() {
+        Hedger hedger = new Hedger(20, 100);
+
+        try {
+            long start = System.nanoTime();
+            IOException e = Assertions.assertThrows(IOException.class, () -> hedger.call(() -> {
+                awaitQuietly(stuck, 5000);
+                return "late";
+            }));
+
+            Assertions.assertTrue(e.getMessage().startsWith("Timed out"));
+            Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+        } finally {
+            hedger.shutdown();
+        }
+    }
+
+    @Test
+    public void testRunsOnCallerWhenNoThreadIsFree() throws Exception {
+        Hedger hedger = new Hedger(20, 5000, 1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+
+        try {
+            CountDownLatch busy = new CountDownLatch(1);
+            pool.submit(() -> hedger.call(() -> {
+                busy.countDown();
+                awaitQuietly(stuck, 5000);
+                return "busy";
+            }));
+            Assertions.assertTrue(busy.await(5, TimeUnit.SECONDS));
+
+            Thread caller = Thread.currentThread();
+            Assertions.assertEquals("caller", hedger.call(() -> {
+                Assertions.assertSame(caller, Thread.currentThread());
+                return "caller";
+            }));
+        } finally {
+            stuck.countDown();
+            pool.shutdownNow();
+            hedger.shutdown();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch, long millis) {
+        try {
+            latch.await(millis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
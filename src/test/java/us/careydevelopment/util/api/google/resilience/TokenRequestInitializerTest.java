@@ -0,0 +1,97 @@
+package us.careydevelopment.util.api.google.resilience;
+
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.ClientParametersAuthentication;
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.auth.oauth2.TokenResponseException;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import us.careydevelopment.util.api.google.harness.StoredCredentialHarness;
+import us.careydevelopment.util.api.google.harness.TokenServerHarness;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+public class TokenRequestInitializerTest {
+
+    private final TokenCallPolicy policy = TokenCallPolicy.Builder
+            .instance()
+            .setMaxRetries(3)
+            .setInitialBackoffMillis(1)
+            .setMaxBackoffMillis(2)
+            .setFailureThreshold(2)
+            .build();
+
+    @Test
+    public void testServerErrorsAreRetried() throws Exception {
+        FailingTokenServer server = new FailingTokenServer(503, 503);
+        CircuitBreaker breaker = new CircuitBreaker(5, 60_000);
+
+        Assertions.assertTrue(newCredential(server, breaker).refreshToken());
+        Assertions.assertEquals(3, server.getRequestCount());
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testClientErrorsAreNotRetried() {
+        FailingTokenServer server = new FailingTokenServer(400);
+        CircuitBreaker breaker = new CircuitBreaker(1, 60_000);
+
+        Assertions.assertThrows(TokenResponseException.class, () -> newCredential(server, breaker).refreshToken());
+        Assertions.assertEquals(1, server.getRequestCount());
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testOpenBreakerSkipsTokenEndpoint() {
+        FailingTokenServer server = new FailingTokenServer(500, 500, 500, 500);
+        CircuitBreaker breaker = new CircuitBreaker(policy.getFailureThreshold(), 60_000);
+
+        Assertions.assertThrows(CircuitBreakerOpenException.class, () -> newCredential(server, breaker).refreshToken());
+        Assertions.assertEquals(2, server.getRequestCount());
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Assertions.assertThrows(CircuitBreakerOpenException.class, () -> newCredential(server, breaker).refreshToken());
+        Assertions.assertEquals(2, server.getRequestCount());
+    }
+
+    private Credential newCredential(TokenServerHarness server, CircuitBreaker breaker) {
+        Credential credential = new Credential.Builder(BearerToken.authorizationHeaderAccessMethod())
+                .setTransport(server.getTransport())
+                .setJsonFactory(GsonFactory.getDefaultInstance())
+                .setTokenServerEncodedUrl(TokenServerHarness.TOKEN_SERVER_URL)
+                .setClientAuthentication(new ClientParametersAuthentication("309a9", "0e84e"))
+                .setRequestInitializer(new TokenRequestInitializer(policy, breaker, millis -> { }))
+                .build();
+
+        credential.setRefreshToken(StoredCredentialHarness.REFRESH_TOKEN);
+
+        return credential;
+    }
+
+    /**
+     * Answers with the given error statuses first, then with a token.
+     */
+    private static class FailingTokenServer extends TokenServerHarness {
+        private final Deque<Integer> statuses;
+
+        private FailingTokenServer(Integer... statuses) {
+            this.statuses = new ArrayDeque<>(Arrays.asList(statuses));
+        }
+
+        @Override
+        protected synchronized LowLevelHttpResponse newTokenResponse() {
+            final Integer status = statuses.poll();
+
+            if (status == null) {
+                return super.newTokenResponse();
+            }
+
+            return new MockLowLevelHttpResponse().setStatusCode(status).setContent("{\"error\":\"unavailable\"}");
+        }
+    }
+}
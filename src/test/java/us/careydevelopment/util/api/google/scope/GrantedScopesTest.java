@@ -0,0 +1,39 @@
+package us.careydevelopment.util.api.google.scope;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class GrantedScopesTest {
+
+    @Test
+    public void testRecordAddsToGrant() {
+        GrantedScopes granted = new GrantedScopes();
+
+        granted.record("77", ScopeSet.of(List.of("a")));
+        granted.record("77", ScopeSet.of(List.of("b")));
+        Assertions.assertSame(ScopeSet.of(List.of("a", "b")), granted.get("77"));
+        Assertions.assertTrue(granted.covers("77", ScopeSet.of(List.of("b"))));
+
+        granted.replace("77", ScopeSet.of(List.of("c")));
+        Assertions.assertSame(ScopeSet.of(List.of("c")), granted.get("77"));
+        Assertions.assertFalse(granted.covers("78", ScopeSet.EMPTY));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedUserIsForgotten() {
+        GrantedScopes granted = new GrantedScopes(2, 0);
+        ScopeSet scopes = ScopeSet.of(List.of("a"));
+
+        granted.record("77", scopes);
+        granted.record("78", scopes);
+        granted.get("77");
+        granted.record("79", scopes);
+
+        Assertions.assertEquals(2, granted.size());
+        Assertions.assertNull(granted.get("78"));
+        Assertions.assertSame(scopes, granted.get("77"));
+        Assertions.assertSame(scopes, granted.get("79"));
+    }
+}
@@ -0,0 +1,34 @@
+package us.careydevelopment.util.api.google.scope;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class ScopeSetTest {
+
+    @Test
+    public void testNormalizedAndInterned() {
+        ScopeSet first = ScopeSet.of(List.of("b", " a", "b"));
+        ScopeSet second = ScopeSet.parse("a  b");
+
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(List.of("a", "b"), first.asList());
+        Assertions.assertEquals("a b", first.toString());
+        Assertions.assertSame(ScopeSet.EMPTY, ScopeSet.of(Arrays.asList(" ", null)));
+    }
+
+    @Test
+    public void testSetOperations() {
+        ScopeSet granted = ScopeSet.of(List.of("a", "b", "d"));
+
+        Assertions.assertTrue(granted.containsAll(ScopeSet.of(List.of("d", "a"))));
+        Assertions.assertTrue(granted.containsAll(ScopeSet.EMPTY));
+        Assertions.assertFalse(granted.containsAll(ScopeSet.of(List.of("a", "c"))));
+
+        Assertions.assertSame(ScopeSet.of(List.of("a", "b", "c", "d")), granted.union(ScopeSet.of(List.of("c"))));
+        Assertions.assertSame(granted, granted.union(ScopeSet.of(List.of("b"))));
+        Assertions.assertSame(ScopeSet.of(List.of("c")), ScopeSet.of(List.of("a", "c")).minus(granted));
+    }
+}
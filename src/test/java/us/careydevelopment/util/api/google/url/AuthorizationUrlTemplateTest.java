@@ -0,0 +1,44 @@
+package us.careydevelopment.util.api.google.url;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.services.gmail.GmailScopes;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class AuthorizationUrlTemplateTest {
+
+    private static final String CLIENT_ID = "309a9";
+    private static final String REDIRECT_URL = "https://example.com/oauth/callback";
+    private static final List<String> SCOPES = List.of(GmailScopes.GMAIL_READONLY, GmailScopes.GMAIL_SEND);
+
+    private final AuthorizationUrlTemplate template = AuthorizationUrlTemplate.of(CLIENT_ID, REDIRECT_URL, SCOPES, "offline");
+
+    @Test
+    public void testMatchesFlowUrl() {
+        String state = "user 77/return?to=inbox&x=\u00e9";
+
+        Assertions.assertEquals(new GenericUrl(flowUrl(state)), new GenericUrl(template.withState(state)));
+    }
+
+    @Test
+    public void testNullState() {
+        Assertions.assertEquals(new GenericUrl(flowUrl(null)), new GenericUrl(template.withState(null)));
+        Assertions.assertSame(template.getBaseUrl(), template.withState(null));
+    }
+
+    private String flowUrl(String state) {
+        return new GoogleAuthorizationCodeFlow.Builder(new MockHttpTransport(), GsonFactory.getDefaultInstance(),
+                CLIENT_ID, "0e84e", SCOPES)
+                .setAccessType("offline")
+                .build()
+                .newAuthorizationUrl()
+                .setRedirectUri(REDIRECT_URL)
+                .setState(state)
+                .build();
+    }
+}
@@ -0,0 +1,83 @@
+package us.careydevelopment.util.api.google.warmup;
+
+import com.google.api.services.gmail.GmailScopes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import us.careydevelopment.util.api.google.CredentialUtil;
+import us.careydevelopment.util.api.google.config.GoogleApiConfig;
+import us.careydevelopment.util.api.google.harness.InMemoryCredentialStore;
+import us.careydevelopment.util.api.google.harness.TokenServerHarness;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class WarmUpTest {
+
+    private final InMemoryCredentialStore store = new InMemoryCredentialStore();
+    private final TokenServerHarness tokenServer = new TokenServerHarness();
+
+    @AfterEach
+    public void tearDown() {
+        GoogleApiConfig.shutdown();
+    }
+
+    @Test
+    public void testWarmUpPreloadsHotUsers() throws Exception {
+        GoogleApiConfig.shutdown();
+        store.seed(ids(10));
+
+        GoogleApiConfig config = GoogleApiConfig.Builder
+                .instance()
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setTransport(tokenServer.getTransport())
+                .setPersister(store)
+                .setRetriever(store)
+                .setScopes(List.of(GmailScopes.GMAIL_READONLY))
+                .setCredentialCacheMaxSize(100)
+                .setBulkChunkSize(4)
+                .setWarmUpEnabled(true)
+                .setWarmUpUserIds(ids(12))
+                .build();
+
+        WarmUp warmUp = config.getWarmUp();
+
+        Assertions.assertTrue(warmUp.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(WarmUp.Status.DONE, warmUp.getStatus());
+        Assertions.assertEquals(1.0, warmUp.getProgress());
+        Assertions.assertEquals(10, warmUp.getPreloadedCount());
+        Assertions.assertEquals(0, warmUp.getFailureCount());
+        Assertions.assertEquals(1, tokenServer.getRequestCount());
+        Assertions.assertEquals(10, config.getFlowCache().size());
+
+        int retrieved = store.getRetrieveCount();
+        Assertions.assertNotNull(CredentialUtil.getCredential(config, "3"));
+        Assertions.assertEquals(retrieved, store.getRetrieveCount());
+        Assertions.assertEquals(10, config.getFlowCache().size());
+    }
+
+    @Test
+    public void testWarmUpIsOffByDefault() {
+        GoogleApiConfig.shutdown();
+
+        GoogleApiConfig config = GoogleApiConfig.Builder
+                .instance()
+                .setClientId("309a9")
+                .setClientSecret("0e84e")
+                .setTransport(tokenServer.getTransport())
+                .setPersister(store)
+                .setRetriever(store)
+                .setScopes(List.of(GmailScopes.GMAIL_READONLY))
+                .build();
+
+        Assertions.assertTrue(config.getWarmUp().isDone());
+        Assertions.assertEquals(0, tokenServer.getRequestCount());
+    }
+
+    private static List<String> ids(int count) {
+        return IntStream.range(0, count).mapToObj(String::valueOf).collect(Collectors.toList());
+    }
+}